@@ -0,0 +1,321 @@
+package com.bbn.bue.common.evaluation;
+
+import com.bbn.bue.common.Inspector;
+import com.bbn.bue.common.annotations.MoveToBUECommon;
+import com.bbn.bue.common.collections.BootstrapIterator;
+import com.bbn.bue.common.math.PercentileComputer;
+import com.bbn.bue.common.parameters.Parameters;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import com.google.common.primitives.Doubles;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Like {@link BootstrapInspector}, but rather than always drawing a fixed number of bootstrap
+ * samples, it stops once the estimates it cares about have settled down.
+ *
+ * Every {@link StoppingCriteria#checkInterval()} samples, the values of some statistics computed
+ * from each sample so far (for example, F1 per breakdown key) are used to compute the {@link
+ * StoppingCriteria#percentilesToCheck()}. Once at least {@link StoppingCriteria#minSamples()}
+ * samples have been drawn and no percentile has changed by more than {@link
+ * StoppingCriteria#tolerance()} since the previous check, sampling stops. No more than {@link
+ * StoppingCriteria#maxSamples()} samples are ever drawn. The number of samples actually used is
+ * logged and may optionally be written to a file.
+ *
+ * Samples are drawn exactly as {@link BootstrapInspector} draws them, so with {@link
+ * StoppingCriteria#fixedNumberOfSamples(int)} the two produce identical output.
+ */
+@MoveToBUECommon
+public final class AdaptiveBootstrapInspector<ObsT, SummaryT> implements Inspector<ObsT> {
+
+  private static final Logger log = LoggerFactory.getLogger(AdaptiveBootstrapInspector.class);
+
+  private final BootstrapInspector.ObservationSummarizer<ObsT, SummaryT> observationSummarizer;
+  private final ImmutableList<BootstrapInspector.SummaryAggregator<SummaryT>> summaryAggregators;
+  private final Function<? super Collection<SummaryT>, ? extends Map<String, Double>>
+      sampleStatistics;
+  private final StoppingCriteria stoppingCriteria;
+  private final Random rng;
+  private final Optional<File> samplesUsedFile;
+  private final List<SummaryT> observationSummaries = Lists.newArrayList();
+
+  private AdaptiveBootstrapInspector(
+      final BootstrapInspector.ObservationSummarizer<ObsT, SummaryT> observationSummarizer,
+      final Iterable<? extends BootstrapInspector.SummaryAggregator<SummaryT>> summaryAggregators,
+      final Function<? super Collection<SummaryT>, ? extends Map<String, Double>> sampleStatistics,
+      final StoppingCriteria stoppingCriteria, final Random rng,
+      final Optional<File> samplesUsedFile) {
+    this.observationSummarizer = checkNotNull(observationSummarizer);
+    this.summaryAggregators = ImmutableList.copyOf(summaryAggregators);
+    this.sampleStatistics = checkNotNull(sampleStatistics);
+    this.stoppingCriteria = checkNotNull(stoppingCriteria);
+    this.rng = checkNotNull(rng);
+    this.samplesUsedFile = checkNotNull(samplesUsedFile);
+  }
+
+  /**
+   * Creates an inspector which bootstraps using the summarizer and aggregators of {@code
+   * strategy}. {@code sampleStatistics} maps each bootstrap sample to the named statistics whose
+   * convergence determines when to stop. If {@code samplesUsedFile} is present, the number of
+   * samples drawn is written there.
+   */
+  public static <ObsT, SummaryT> AdaptiveBootstrapInspector<ObsT, SummaryT> forStrategy(
+      final BootstrapInspector.BootstrapStrategy<ObsT, SummaryT> strategy,
+      final Function<? super Collection<SummaryT>, ? extends Map<String, Double>> sampleStatistics,
+      final StoppingCriteria stoppingCriteria, final Random rng,
+      final Optional<File> samplesUsedFile) {
+    return new AdaptiveBootstrapInspector<ObsT, SummaryT>(strategy.createObservationSummarizer(),
+        strategy.createSummaryAggregators(), sampleStatistics, stoppingCriteria, rng,
+        samplesUsedFile);
+  }
+
+  @Override
+  public void inspect(final ObsT observation) {
+    observationSummaries.add(observationSummarizer.summarizeObservation(observation));
+  }
+
+  @Override
+  public void finish() throws IOException {
+    final Iterator<Collection<SummaryT>> samples =
+        BootstrapIterator.forData(observationSummaries, rng);
+    final Map<String, List<Double>> statisticValues = Maps.newHashMap();
+    Optional<ImmutableMap<String, List<Optional<Double>>>> percentilesAtLastCheck =
+        Optional.absent();
+
+    int numSamples = 0;
+    while (numSamples < stoppingCriteria.maxSamples() && samples.hasNext()) {
+      final Collection<SummaryT> sample = samples.next();
+      ++numSamples;
+      for (final BootstrapInspector.SummaryAggregator<SummaryT> aggregator : summaryAggregators) {
+        aggregator.observeSample(sample);
+      }
+
+      if (stoppingCriteria.isAdaptive()) {
+        for (final Map.Entry<String, Double> statistic : sampleStatistics.apply(sample)
+            .entrySet()) {
+          List<Double> values = statisticValues.get(statistic.getKey());
+          if (values == null) {
+            values = Lists.newArrayList();
+            statisticValues.put(statistic.getKey(), values);
+          }
+          values.add(statistic.getValue());
+        }
+
+        if (numSamples % stoppingCriteria.checkInterval() == 0) {
+          final ImmutableMap<String, List<Optional<Double>>> percentiles =
+              percentilesOf(statisticValues);
+          if (numSamples >= stoppingCriteria.minSamples() && percentilesAtLastCheck.isPresent()
+              && maxChange(percentilesAtLastCheck.get(), percentiles)
+              <= stoppingCriteria.tolerance()) {
+            break;
+          }
+          percentilesAtLastCheck = Optional.of(percentiles);
+        }
+      }
+    }
+
+    log.info("Used {} bootstrap samples", numSamples);
+    if (samplesUsedFile.isPresent()) {
+      Files.asCharSink(samplesUsedFile.get(), Charsets.UTF_8).write(numSamples + "\n");
+    }
+    for (final BootstrapInspector.SummaryAggregator<SummaryT> aggregator : summaryAggregators) {
+      aggregator.finish();
+    }
+  }
+
+  private ImmutableMap<String, List<Optional<Double>>> percentilesOf(
+      final Map<String, List<Double>> statisticValues) {
+    final PercentileComputer nistComputer = PercentileComputer.nistPercentileComputer();
+    final ImmutableMap.Builder<String, List<Optional<Double>>> ret = ImmutableMap.builder();
+    for (final Map.Entry<String, List<Double>> entry : statisticValues.entrySet()) {
+      ret.put(entry.getKey(),
+          nistComputer.calculatePercentilesAdoptingData(Doubles.toArray(entry.getValue()))
+              .percentiles(stoppingCriteria.percentilesToCheck()));
+    }
+    return ret.build();
+  }
+
+  /**
+   * The largest change in any percentile of any statistic. A statistic or percentile which is
+   * missing or {@code NaN} at only one of the two checks counts as an infinite change.
+   */
+  private static double maxChange(final Map<String, List<Optional<Double>>> previous,
+      final Map<String, List<Optional<Double>>> current) {
+    if (!previous.keySet().equals(current.keySet())) {
+      return Double.POSITIVE_INFINITY;
+    }
+    double ret = 0.0;
+    for (final Map.Entry<String, List<Optional<Double>>> entry : current.entrySet()) {
+      final List<Optional<Double>> previousPercentiles = previous.get(entry.getKey());
+      for (int i = 0; i < previousPercentiles.size(); ++i) {
+        final double previousValue = previousPercentiles.get(i).or(Double.NaN);
+        final double currentValue = entry.getValue().get(i).or(Double.NaN);
+        if (Double.isNaN(previousValue) != Double.isNaN(currentValue)) {
+          return Double.POSITIVE_INFINITY;
+        } else if (!Double.isNaN(currentValue)) {
+          ret = Math.max(ret, Math.abs(currentValue - previousValue));
+        }
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * Computes the F1 of each breakdown key over a bootstrap sample of the summaries produced by
+   * {@link BinaryFScoreBootstrapStrategy}. Suitable for use as the {@code sampleStatistics} of
+   * an {@link AdaptiveBootstrapInspector}.
+   */
+  public static Function<Collection<Map<String, SummaryConfusionMatrix>>, Map<String, Double>>
+  brokenDownF1s() {
+    return BrokenDownF1sFunction.INSTANCE;
+  }
+
+  private enum BrokenDownF1sFunction
+      implements Function<Collection<Map<String, SummaryConfusionMatrix>>, Map<String, Double>> {
+    INSTANCE;
+
+    @Override
+    public Map<String, Double> apply(final Collection<Map<String, SummaryConfusionMatrix>> sample) {
+      final Map<String, List<FMeasureCounts>> countsByKey = Maps.newHashMap();
+      for (final Map<String, SummaryConfusionMatrix> summary : sample) {
+        for (final Map.Entry<String, SummaryConfusionMatrix> entry : summary.entrySet()) {
+          List<FMeasureCounts> counts = countsByKey.get(entry.getKey());
+          if (counts == null) {
+            counts = Lists.newArrayList();
+            countsByKey.put(entry.getKey(), counts);
+          }
+          counts.add(SummaryConfusionMatrices.FMeasureVsAllOthers(entry.getValue(),
+              EvaluationConstants.PRESENT));
+        }
+      }
+
+      final ImmutableMap.Builder<String, Double> ret = ImmutableMap.builder();
+      for (final Map.Entry<String, List<FMeasureCounts>> entry : countsByKey.entrySet()) {
+        ret.put(entry.getKey(), FMeasureCounts.combineToMicroFMeasure(entry.getValue()).F1());
+      }
+      return ret.build();
+    }
+  }
+
+  /**
+   * When an {@link AdaptiveBootstrapInspector} should stop drawing samples.
+   */
+  public static final class StoppingCriteria {
+
+    private static final ImmutableList<Double> DEFAULT_PERCENTILES_TO_CHECK =
+        ImmutableList.of(0.025, 0.25, 0.5, 0.75, 0.975);
+    private static final int DEFAULT_NUM_SAMPLES = 1000;
+    private static final int DEFAULT_MIN_SAMPLES = 200;
+    private static final int DEFAULT_MAX_SAMPLES = 5000;
+    private static final int DEFAULT_CHECK_INTERVAL = 100;
+
+    private final int minSamples;
+    private final int maxSamples;
+    private final int checkInterval;
+    private final double tolerance;
+    private final ImmutableList<Double> percentilesToCheck;
+
+    private StoppingCriteria(final int minSamples, final int maxSamples, final int checkInterval,
+        final double tolerance, final Iterable<Double> percentilesToCheck) {
+      checkArgument(minSamples > 0, "Minimum number of bootstrap samples must be positive");
+      checkArgument(maxSamples >= minSamples,
+          "Maximum number of bootstrap samples may not be less than the minimum");
+      checkArgument(checkInterval > 0, "Bootstrap convergence check interval must be positive");
+      checkArgument(tolerance >= 0.0, "Bootstrap convergence tolerance may not be negative");
+      this.minSamples = minSamples;
+      this.maxSamples = maxSamples;
+      this.checkInterval = checkInterval;
+      this.tolerance = tolerance;
+      this.percentilesToCheck = ImmutableList.copyOf(percentilesToCheck);
+      for (final double percentile : this.percentilesToCheck) {
+        checkArgument(percentile >= 0.0 && percentile <= 1.0, "Invalid percentile %s",
+            percentile);
+      }
+    }
+
+    /**
+     * Always draw exactly {@code numSamples} samples, as {@link BootstrapInspector} does.
+     */
+    public static StoppingCriteria fixedNumberOfSamples(final int numSamples) {
+      return new StoppingCriteria(numSamples, numSamples, numSamples, 0.0,
+          DEFAULT_PERCENTILES_TO_CHECK);
+    }
+
+    /**
+     * Draw between {@code minSamples} and {@code maxSamples} samples, stopping at the first
+     * multiple of {@code checkInterval} at which none of the {@code percentilesToCheck} of any
+     * statistic has changed by more than {@code tolerance} since the previous multiple.
+     */
+    public static StoppingCriteria adaptive(final int minSamples, final int maxSamples,
+        final int checkInterval, final double tolerance,
+        final Iterable<Double> percentilesToCheck) {
+      return new StoppingCriteria(minSamples, maxSamples, checkInterval, tolerance,
+          percentilesToCheck);
+    }
+
+    /**
+     * If {@code bootstrapConvergenceTolerance} is specified, sampling is {@link #adaptive(int,
+     * int, int, double, Iterable)}, using {@code bootstrapMinSamples} (default 200), {@code
+     * bootstrapMaxSamples} (default 5000), and {@code bootstrapCheckInterval} (default 100), and
+     * checking the 2.5th, 25th, 50th, 75th and 97.5th percentiles. Otherwise a fixed 1000 samples
+     * are drawn.
+     */
+    public static StoppingCriteria fromParameters(final Parameters params) {
+      if (params.isPresent("bootstrapConvergenceTolerance")) {
+        return adaptive(
+            params.getOptionalPositiveInteger("bootstrapMinSamples").or(DEFAULT_MIN_SAMPLES),
+            params.getOptionalPositiveInteger("bootstrapMaxSamples").or(DEFAULT_MAX_SAMPLES),
+            params.getOptionalPositiveInteger("bootstrapCheckInterval")
+                .or(DEFAULT_CHECK_INTERVAL),
+            params.getNonNegativeDouble("bootstrapConvergenceTolerance"),
+            DEFAULT_PERCENTILES_TO_CHECK);
+      } else {
+        return fixedNumberOfSamples(DEFAULT_NUM_SAMPLES);
+      }
+    }
+
+    public int minSamples() {
+      return minSamples;
+    }
+
+    public int maxSamples() {
+      return maxSamples;
+    }
+
+    public int checkInterval() {
+      return checkInterval;
+    }
+
+    public double tolerance() {
+      return tolerance;
+    }
+
+    public ImmutableList<Double> percentilesToCheck() {
+      return percentilesToCheck;
+    }
+
+    boolean isAdaptive() {
+      return minSamples < maxSamples;
+    }
+  }
+}
@@ -0,0 +1,124 @@
+package com.bbn.bue.common.math;
+
+import com.bbn.bue.common.annotations.MoveToBUECommon;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Estimates percentiles of a stream of values from a known, bounded range using memory which does
+ * not grow with the number of values observed.  The range is divided into evenly spaced bins and
+ * we keep only a count for each. {@code NaN}s are counted separately.
+ *
+ * Percentiles are computed exactly as {@link PercentileComputer#nistPercentileComputer()} would
+ * compute them if every value were first rounded to the center of its bin, so the error is at
+ * most half a bin width. Sketches over the same range may be {@link #merge(BinnedPercentileSketch)}d.
+ *
+ * This class is not thread-safe.
+ */
+@MoveToBUECommon
+public final class BinnedPercentileSketch {
+
+  private final double min;
+  private final double binWidth;
+  // bin i is centered on min + i * binWidth
+  private final long[] counts;
+  private long numNaNs = 0;
+  private long numValues = 0;
+
+  private BinnedPercentileSketch(final double min, final double max, final int numBins) {
+    checkArgument(max > min, "Sketch range must be non-empty");
+    checkArgument(numBins >= 2, "Sketch must have at least two bins");
+    this.min = min;
+    this.binWidth = (max - min) / (numBins - 1);
+    this.counts = new long[numBins];
+  }
+
+  /**
+   * Creates a sketch of values in [{@code min}, {@code max}]. The first and last of the {@code
+   * numBins} bins are centered on {@code min} and {@code max}, respectively.
+   */
+  public static BinnedPercentileSketch forRange(final double min, final double max,
+      final int numBins) {
+    return new BinnedPercentileSketch(min, max, numBins);
+  }
+
+  public void add(final double value) {
+    if (Double.isNaN(value)) {
+      ++numNaNs;
+    } else {
+      final long bin = Math.round((value - min) / binWidth);
+      checkArgument(bin >= 0 && bin < counts.length, "Value %s is outside the sketch's range",
+          value);
+      ++counts[(int) bin];
+    }
+    ++numValues;
+  }
+
+  /**
+   * Adds all the values observed by {@code other}, which must have the same range and number of
+   * bins, to this sketch.
+   */
+  public void merge(final BinnedPercentileSketch other) {
+    checkArgument(min == other.min && binWidth == other.binWidth
+        && counts.length == other.counts.length, "Can only merge sketches with the same bins");
+    for (int i = 0; i < counts.length; ++i) {
+      counts[i] += other.counts[i];
+    }
+    numNaNs += other.numNaNs;
+    numValues += other.numValues;
+  }
+
+  public long numObservedValues() {
+    return numValues;
+  }
+
+  /**
+   * Gets the specified percentile, which must be in [0.0, 1.0). Returns absent if no values have
+   * been observed.
+   */
+  public Optional<Double> percentile(final double percentile) {
+    checkArgument(percentile >= 0.0 && percentile < 1.0, "Percentiles must be in [0.0, 1.0)");
+    if (numValues == 0) {
+      return Optional.absent();
+    }
+    // the NIST method, as in PercentileComputer
+    final double rank = percentile * (numValues + 1);
+    final long k = (long) rank;
+    final double d = rank - k;
+    if (k == 0) {
+      return Optional.of(orderStatistic(0));
+    } else if (k == numValues) {
+      return Optional.of(orderStatistic(numValues - 1));
+    } else {
+      final double below = orderStatistic(k - 1);
+      final double above = orderStatistic(k);
+      return Optional.of(below + d * (above - below));
+    }
+  }
+
+  public List<Optional<Double>> percentiles(final Iterable<Double> percentiles) {
+    final ImmutableList.Builder<Optional<Double>> ret = ImmutableList.builder();
+    for (final double percentile : percentiles) {
+      ret.add(percentile(percentile));
+    }
+    return ret.build();
+  }
+
+  // returns the value which would be at index idx if all values were sorted. As with
+  // Arrays.sort, NaNs sort after everything else
+  private double orderStatistic(final long idx) {
+    long seen = 0;
+    for (int i = 0; i < counts.length; ++i) {
+      seen += counts[i];
+      if (idx < seen) {
+        return min + i * binWidth;
+      }
+    }
+    return Double.NaN;
+  }
+}
@@ -0,0 +1,109 @@
+package com.bbn.bue.common.evaluation;
+
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestAdaptiveBootstrapInspector {
+
+  @Test
+  public void fixedNumberOfSamplesDrawsThemAll() throws IOException {
+    final CountingStrategy strategy = new CountingStrategy();
+    final AdaptiveBootstrapInspector<Double, Double> inspector =
+        AdaptiveBootstrapInspector.forStrategy(strategy, MEAN,
+            AdaptiveBootstrapInspector.StoppingCriteria.fixedNumberOfSamples(250), new Random(0),
+            Optional.<File>absent());
+    for (int i = 0; i < 20; ++i) {
+      inspector.inspect((double) i);
+    }
+    inspector.finish();
+    assertEquals(250, strategy.numSamplesObserved);
+    assertEquals(1, strategy.numFinishes);
+  }
+
+  @Test
+  public void stopsOnceConverged() throws IOException {
+    // every sample of a constant has the same mean, so we should stop at the first check
+    // after the minimum
+    final CountingStrategy strategy = new CountingStrategy();
+    final AdaptiveBootstrapInspector<Double, Double> inspector =
+        AdaptiveBootstrapInspector.forStrategy(strategy, MEAN,
+            AdaptiveBootstrapInspector.StoppingCriteria.adaptive(150, 5000, 100, 0.001,
+                ImmutableList.of(0.25, 0.75)), new Random(0), Optional.<File>absent());
+    for (int i = 0; i < 20; ++i) {
+      inspector.inspect(1.0);
+    }
+    inspector.finish();
+    assertEquals(200, strategy.numSamplesObserved);
+  }
+
+  @Test
+  public void neverExceedsMaximum() throws IOException {
+    final CountingStrategy strategy = new CountingStrategy();
+    final AdaptiveBootstrapInspector<Double, Double> inspector =
+        AdaptiveBootstrapInspector.forStrategy(strategy, MEAN,
+            AdaptiveBootstrapInspector.StoppingCriteria.adaptive(10, 500, 50, 0.0,
+                ImmutableList.of(0.025, 0.975)), new Random(0), Optional.<File>absent());
+    for (int i = 0; i < 20; ++i) {
+      inspector.inspect((double) i);
+    }
+    inspector.finish();
+    assertEquals(500, strategy.numSamplesObserved);
+  }
+
+  private static final Function<Collection<Double>, Map<String, Double>> MEAN =
+      new Function<Collection<Double>, Map<String, Double>>() {
+        @Override
+        public Map<String, Double> apply(final Collection<Double> sample) {
+          double sum = 0.0;
+          for (final double x : sample) {
+            sum += x;
+          }
+          return ImmutableMap.of("mean", sum / sample.size());
+        }
+      };
+
+  private static final class CountingStrategy
+      implements BootstrapInspector.BootstrapStrategy<Double, Double> {
+
+    private int numSamplesObserved = 0;
+    private int numFinishes = 0;
+
+    @Override
+    public BootstrapInspector.ObservationSummarizer<Double, Double> createObservationSummarizer() {
+      return new BootstrapInspector.ObservationSummarizer<Double, Double>() {
+        @Override
+        public Double summarizeObservation(final Double observation) {
+          return observation;
+        }
+      };
+    }
+
+    @Override
+    public Collection<BootstrapInspector.SummaryAggregator<Double>> createSummaryAggregators() {
+      return ImmutableList.<BootstrapInspector.SummaryAggregator<Double>>of(
+          new BootstrapInspector.SummaryAggregator<Double>() {
+            @Override
+            public void observeSample(final Collection<Double> sample) {
+              ++numSamplesObserved;
+            }
+
+            @Override
+            public void finish() {
+              ++numFinishes;
+            }
+          });
+    }
+  }
+}
@@ -0,0 +1,64 @@
+package com.bbn.bue.common.math;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class TestBinnedPercentileSketch {
+
+  private static final ImmutableList<Double> PERCENTILES =
+      ImmutableList.of(0.0, 0.01, 0.05, 0.25, 0.5, 0.75, 0.95, 0.99);
+
+  @Test
+  public void matchesNistPercentilesOfBinnedValues() {
+    final Random rng = new Random(0);
+    final BinnedPercentileSketch first = BinnedPercentileSketch.forRange(0.0, 1.0, 101);
+    final BinnedPercentileSketch second = BinnedPercentileSketch.forRange(0.0, 1.0, 101);
+    final double[] values = new double[1001];
+    for (int i = 0; i < values.length; ++i) {
+      // values on bin centers, so the sketch should be exact
+      values[i] = rng.nextInt(101) / 100.0;
+      if (i % 2 == 0) {
+        first.add(values[i]);
+      } else {
+        second.add(values[i]);
+      }
+    }
+    first.merge(second);
+    assertEquals(values.length, first.numObservedValues());
+
+    final PercentileComputer.Percentiles reference =
+        PercentileComputer.nistPercentileComputer().calculatePercentilesCopyingData(values);
+    for (final double percentile : PERCENTILES) {
+      assertEquals(reference.percentile(percentile).get(), first.percentile(percentile).get(),
+          1e-9);
+    }
+  }
+
+  @Test
+  public void errorIsBoundedByHalfABin() {
+    final Random rng = new Random(1);
+    final BinnedPercentileSketch sketch = BinnedPercentileSketch.forRange(0.0, 100.0, 1001);
+    final double[] values = new double[500];
+    for (int i = 0; i < values.length; ++i) {
+      values[i] = 100.0 * rng.nextDouble();
+      sketch.add(values[i]);
+    }
+    final PercentileComputer.Percentiles reference =
+        PercentileComputer.nistPercentileComputer().calculatePercentilesCopyingData(values);
+    for (final double percentile : PERCENTILES) {
+      assertEquals(reference.percentile(percentile).get(), sketch.percentile(percentile).get(),
+          0.05);
+    }
+  }
+
+  @Test
+  public void emptySketchHasNoPercentiles() {
+    assertFalse(BinnedPercentileSketch.forRange(0.0, 1.0, 11).percentile(0.5).isPresent());
+  }
+}
@@ -0,0 +1,74 @@
+package com.bbn.kbp.events;
+
+import com.bbn.bue.common.files.FileUtils;
+import com.bbn.bue.common.parameters.Parameters;
+import com.bbn.bue.common.symbols.Symbol;
+import com.bbn.nlp.corenlp.CoreNLPParseNode;
+import com.bbn.nlp.corenlp.CoreNLPXMLLoader;
+import com.bbn.nlp.corpora.ere.ERELoader;
+import com.bbn.nlp.parsing.HeadFinders;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Parses the ERE and (optionally) CoreNLP XML for a corpus once and writes an {@link
+ * EREGoldBundle} which {@link ScoreKBPAgainstERE} can use via its {@code goldBundle} parameter
+ * instead of re-parsing the XML on every run.
+ *
+ * Parameters: <ul> <li>{@code docIDsToScore}: the documents to include in the bundle</li>
+ * <li>{@code goldDocIDToFileMap}: maps document IDs to ERE files</li> <li>{@code
+ * coreNLPDocIDMap}: optional; maps document IDs to CoreNLP XML files. Required if the bundle will
+ * be used with {@code relaxUsingCoreNLP}</li> <li>{@code goldBundle}: the bundle file to write</li>
+ * </ul>
+ */
+public final class CompileEREGoldBundle {
+
+  private static final Logger log = LoggerFactory.getLogger(CompileEREGoldBundle.class);
+
+  private CompileEREGoldBundle() {
+    throw new UnsupportedOperationException();
+  }
+
+  public static void main(String[] argv) {
+    // we wrap the main method in this way to
+    // ensure a non-zero return value on failure
+    try {
+      trueMain(argv);
+    } catch (Exception e) {
+      e.printStackTrace();
+      System.exit(1);
+    }
+  }
+
+  private static void trueMain(String[] argv) throws IOException {
+    final Parameters params = Parameters.loadSerifStyle(new File(argv[0]));
+    log.info(params.dump());
+    final ImmutableSet<Symbol> docIDs = ImmutableSet.copyOf(
+        FileUtils.loadSymbolList(params.getExistingFile("docIDsToScore")));
+    final ImmutableMap<Symbol, File> goldDocIDToFileMap = FileUtils.loadSymbolToFileMap(
+        Files.asCharSource(params.getExistingFile("goldDocIDToFileMap"), Charsets.UTF_8));
+    final ImmutableMap<Symbol, File> coreNLPDocIDMap;
+    if (params.isPresent("coreNLPDocIDMap")) {
+      coreNLPDocIDMap = FileUtils.loadSymbolToFileMap(
+          Files.asCharSource(params.getExistingFile("coreNLPDocIDMap"), Charsets.UTF_8));
+    } else {
+      coreNLPDocIDMap = ImmutableMap.of();
+    }
+    final File bundleFile = params.getCreatableFile("goldBundle");
+
+    final EREGoldSource xmlSource = XMLEREGoldSource.create(goldDocIDToFileMap, coreNLPDocIDMap,
+        ERELoader.create(),
+        CoreNLPXMLLoader.builder(HeadFinders.<CoreNLPParseNode>getEnglishPTBHeadFinder()).build());
+    log.info("Compiling gold bundle for {} documents to {}", docIDs.size(), bundleFile);
+    EREGoldBundle.write(docIDs, xmlSource, bundleFile);
+  }
+}
@@ -0,0 +1,57 @@
+package com.bbn.kbp.events;
+
+import com.bbn.kbp.events2014.CharOffsetSpan;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Finds and remembers the CoreNLP terminal heads of spans within a single document.  The head of
+ * a span depends only on its offsets, so each distinct span is resolved against the document's
+ * {@link CoreNLPHeadTable} only once no matter how many responses or alignment rules ask for it.
+ *
+ * This class is not thread-safe and is intended to be used for one document on one thread.
+ */
+final class CoreNLPHeadCache {
+
+  private final CoreNLPHeadTable headTable;
+  private final Map<CharOffsetSpan, Optional<CharOffsetSpan>> heads = Maps.newHashMap();
+  private int hits = 0;
+  private int misses = 0;
+
+  private CoreNLPHeadCache(final CoreNLPHeadTable headTable) {
+    this.headTable = checkNotNull(headTable);
+  }
+
+  static CoreNLPHeadCache forHeadTable(final CoreNLPHeadTable headTable) {
+    return new CoreNLPHeadCache(headTable);
+  }
+
+  /**
+   * Returns the span of the CoreNLP terminal head of {@code span}, or {@code span} itself if it
+   * has none.
+   */
+  CharOffsetSpan headOf(final CharOffsetSpan span) {
+    Optional<CharOffsetSpan> head = heads.get(span);
+    if (head == null) {
+      ++misses;
+      head = headTable.headOf(span);
+      heads.put(span, head);
+    } else {
+      ++hits;
+    }
+    return head.or(span);
+  }
+
+  int hits() {
+    return hits;
+  }
+
+  int misses() {
+    return misses;
+  }
+}
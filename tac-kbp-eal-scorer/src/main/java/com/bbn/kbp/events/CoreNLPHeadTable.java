@@ -0,0 +1,223 @@
+package com.bbn.kbp.events;
+
+import com.bbn.bue.common.strings.offsets.CharOffset;
+import com.bbn.bue.common.strings.offsets.OffsetRange;
+import com.bbn.kbp.events2014.CharOffsetSpan;
+import com.bbn.nlp.corenlp.CoreNLPDocument;
+import com.bbn.nlp.corenlp.CoreNLPParseNode;
+import com.bbn.nlp.corenlp.CoreNLPSentence;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Everything about a {@link CoreNLPDocument} needed to find the CoreNLP head of a span, flattened
+ * into primitive arrays.
+ *
+ * For each sentence we record its offsets and, if it was parsed, the span of every parse node
+ * together with the span and text of that node's terminal head. Nodes are stored in reverse
+ * preorder, so {@link #headOf(CharOffsetSpan)} gives exactly the same answer as looking the span
+ * up with {@link CoreNLPDocument#firstSentenceContaining(OffsetRange)}, {@link
+ * CoreNLPSentence#nodeForOffsets(OffsetRange)} and {@link CoreNLPParseNode#terminalHead()}. Unlike
+ * a {@link CoreNLPDocument}, a head table is cheap to write to and read from {@link
+ * EREGoldBundle}s.
+ */
+final class CoreNLPHeadTable {
+
+  private static final int NO_HEAD = -1;
+  private static final int NO_PARSE = -1;
+
+  private final int[] sentenceStarts;
+  private final int[] sentenceEnds;
+  // the nodes of sentence i are at indices [sentenceFirstNodes[i], sentenceFirstNodes[i+1]),
+  // unless the sentence was unparsed, in which case sentenceFirstNodes[i] is NO_PARSE
+  private final int[] sentenceFirstNodes;
+  private final int[] nodeStarts;
+  private final int[] nodeEnds;
+  private final int[] headStarts;
+  private final int[] headEnds;
+  private final String[] headTexts;
+  private final boolean sentencesSortedAndDisjoint;
+
+  private CoreNLPHeadTable(final int[] sentenceStarts, final int[] sentenceEnds,
+      final int[] sentenceFirstNodes, final int[] nodeStarts, final int[] nodeEnds,
+      final int[] headStarts, final int[] headEnds, final String[] headTexts) {
+    checkArgument(sentenceStarts.length == sentenceEnds.length
+        && sentenceFirstNodes.length == sentenceStarts.length + 1);
+    checkArgument(nodeStarts.length == nodeEnds.length && nodeStarts.length == headStarts.length
+        && nodeStarts.length == headEnds.length && nodeStarts.length == headTexts.length);
+    this.sentenceStarts = sentenceStarts;
+    this.sentenceEnds = sentenceEnds;
+    this.sentenceFirstNodes = sentenceFirstNodes;
+    this.nodeStarts = nodeStarts;
+    this.nodeEnds = nodeEnds;
+    this.headStarts = headStarts;
+    this.headEnds = headEnds;
+    this.headTexts = headTexts;
+
+    boolean sortedAndDisjoint = true;
+    for (int i = 1; i < sentenceStarts.length; ++i) {
+      if (sentenceStarts[i] <= sentenceEnds[i - 1]) {
+        sortedAndDisjoint = false;
+        break;
+      }
+    }
+    this.sentencesSortedAndDisjoint = sortedAndDisjoint;
+  }
+
+  static CoreNLPHeadTable fromCoreNLPDocument(final CoreNLPDocument coreNLPDoc) {
+    final ImmutableList<CoreNLPSentence> sentences = coreNLPDoc.sentences();
+    final int[] sentenceStarts = new int[sentences.size()];
+    final int[] sentenceEnds = new int[sentences.size()];
+    final int[] sentenceFirstNodes = new int[sentences.size() + 1];
+    final ImmutableList.Builder<CoreNLPParseNode> allNodesB = ImmutableList.builder();
+    int numNodes = 0;
+    for (int i = 0; i < sentences.size(); ++i) {
+      final CoreNLPSentence sentence = sentences.get(i);
+      sentenceStarts[i] = sentence.offsets().startInclusive().asInt();
+      sentenceEnds[i] = sentence.offsets().endInclusive().asInt();
+      if (sentence.parse().isPresent()) {
+        sentenceFirstNodes[i] = numNodes;
+        // CoreNLPSentence.nodeForOffsets searches nodes in reverse preorder
+        final ImmutableList<CoreNLPParseNode> nodes = ImmutableList.copyOf(
+            sentence.parse().get().root().preorderDFSTraversal()).reverse();
+        allNodesB.addAll(nodes);
+        numNodes += nodes.size();
+      } else {
+        sentenceFirstNodes[i] = NO_PARSE;
+      }
+    }
+    sentenceFirstNodes[sentences.size()] = numNodes;
+
+    final ImmutableList<CoreNLPParseNode> allNodes = allNodesB.build();
+    final int[] nodeStarts = new int[numNodes];
+    final int[] nodeEnds = new int[numNodes];
+    final int[] headStarts = new int[numNodes];
+    final int[] headEnds = new int[numNodes];
+    final String[] headTexts = new String[numNodes];
+    for (int i = 0; i < numNodes; ++i) {
+      final CoreNLPParseNode node = allNodes.get(i);
+      nodeStarts[i] = node.span().startInclusive().asInt();
+      nodeEnds[i] = node.span().endInclusive().asInt();
+      final Optional<CoreNLPParseNode> terminalHead = node.terminalHead();
+      if (terminalHead.isPresent()) {
+        headStarts[i] = terminalHead.get().span().startInclusive().asInt();
+        headEnds[i] = terminalHead.get().span().endInclusive().asInt();
+        headTexts[i] = terminalHead.get().token().get().content();
+      } else {
+        headStarts[i] = NO_HEAD;
+        headEnds[i] = NO_HEAD;
+        headTexts[i] = "";
+      }
+    }
+    return new CoreNLPHeadTable(sentenceStarts, sentenceEnds, sentenceFirstNodes, nodeStarts,
+        nodeEnds, headStarts, headEnds, headTexts);
+  }
+
+  /**
+   * Returns the span of the CoreNLP terminal head of the deepest parse node containing {@code
+   * span} in the first sentence containing it, if any.
+   */
+  Optional<CharOffsetSpan> headOf(final CharOffsetSpan span) {
+    final int start = span.startInclusive();
+    final int end = span.endInclusive();
+    final int sentence = firstSentenceContaining(start, end);
+    if (sentence < 0) {
+      return Optional.absent();
+    }
+    checkState(sentenceFirstNodes[sentence] != NO_PARSE,
+        "Cannot find head of %s because its sentence has no parse", span);
+    final int firstNode = sentenceFirstNodes[sentence];
+    final int lastNode = nextSentenceFirstNode(sentence);
+    for (int node = firstNode; node < lastNode; ++node) {
+      if (nodeStarts[node] <= start && nodeEnds[node] >= end) {
+        if (headStarts[node] == NO_HEAD) {
+          return Optional.absent();
+        }
+        return Optional.of(CharOffsetSpan.fromOffsetsAndDebugString(headStarts[node],
+            headEnds[node], headTexts[node]));
+      }
+    }
+    return Optional.absent();
+  }
+
+  private int firstSentenceContaining(final int start, final int end) {
+    if (sentencesSortedAndDisjoint) {
+      // the last sentence starting at or before the span is the only one which could contain it
+      int idx = Arrays.binarySearch(sentenceStarts, start);
+      if (idx < 0) {
+        idx = -idx - 2;
+      }
+      return (idx >= 0 && sentenceEnds[idx] >= end) ? idx : -1;
+    } else {
+      for (int i = 0; i < sentenceStarts.length; ++i) {
+        if (sentenceStarts[i] <= start && sentenceEnds[i] >= end) {
+          return i;
+        }
+      }
+      return -1;
+    }
+  }
+
+  private int nextSentenceFirstNode(final int sentence) {
+    for (int i = sentence + 1; i < sentenceFirstNodes.length; ++i) {
+      if (sentenceFirstNodes[i] != NO_PARSE) {
+        return sentenceFirstNodes[i];
+      }
+    }
+    throw new IllegalStateException("Node table is missing its end marker");
+  }
+
+  void writeTo(final DataOutput out) throws IOException {
+    out.writeInt(sentenceStarts.length);
+    for (int i = 0; i < sentenceStarts.length; ++i) {
+      out.writeInt(sentenceStarts[i]);
+      out.writeInt(sentenceEnds[i]);
+      out.writeInt(sentenceFirstNodes[i]);
+    }
+    out.writeInt(nodeStarts.length);
+    for (int i = 0; i < nodeStarts.length; ++i) {
+      out.writeInt(nodeStarts[i]);
+      out.writeInt(nodeEnds[i]);
+      out.writeInt(headStarts[i]);
+      out.writeInt(headEnds[i]);
+      EREGoldBundle.writeString(out, headTexts[i]);
+    }
+  }
+
+  static CoreNLPHeadTable readFrom(final ByteBuffer in) {
+    final int numSentences = in.getInt();
+    final int[] sentenceStarts = new int[numSentences];
+    final int[] sentenceEnds = new int[numSentences];
+    final int[] sentenceFirstNodes = new int[numSentences + 1];
+    for (int i = 0; i < numSentences; ++i) {
+      sentenceStarts[i] = in.getInt();
+      sentenceEnds[i] = in.getInt();
+      sentenceFirstNodes[i] = in.getInt();
+    }
+    final int numNodes = in.getInt();
+    sentenceFirstNodes[numSentences] = numNodes;
+    final int[] nodeStarts = new int[numNodes];
+    final int[] nodeEnds = new int[numNodes];
+    final int[] headStarts = new int[numNodes];
+    final int[] headEnds = new int[numNodes];
+    final String[] headTexts = new String[numNodes];
+    for (int i = 0; i < numNodes; ++i) {
+      nodeStarts[i] = in.getInt();
+      nodeEnds[i] = in.getInt();
+      headStarts[i] = in.getInt();
+      headEnds[i] = in.getInt();
+      headTexts[i] = EREGoldBundle.readString(in);
+    }
+    return new CoreNLPHeadTable(sentenceStarts, sentenceEnds, sentenceFirstNodes, nodeStarts,
+        nodeEnds, headStarts, headEnds, headTexts);
+  }
+}
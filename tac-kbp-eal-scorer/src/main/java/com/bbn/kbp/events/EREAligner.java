@@ -2,15 +2,11 @@ package com.bbn.kbp.events;
 
 import com.bbn.bue.common.TextGroupPackageImmutable;
 import com.bbn.bue.common.strings.offsets.CharOffset;
-import com.bbn.bue.common.strings.offsets.OffsetRange;
 import com.bbn.bue.common.symbols.Symbol;
 import com.bbn.kbp.TACException;
 import com.bbn.kbp.events.ontology.EREToKBPEventOntologyMapper;
 import com.bbn.kbp.events2014.CharOffsetSpan;
 import com.bbn.kbp.events2014.Response;
-import com.bbn.nlp.corenlp.CoreNLPDocument;
-import com.bbn.nlp.corenlp.CoreNLPParseNode;
-import com.bbn.nlp.corenlp.CoreNLPSentence;
 import com.bbn.nlp.corpora.ere.EREArgument;
 import com.bbn.nlp.corpora.ere.EREDocument;
 import com.bbn.nlp.corpora.ere.EREEntityArgument;
@@ -21,6 +17,8 @@ import com.bbn.nlp.corpora.ere.ERESpan;
 
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
+import com.google.common.collect.ContiguousSet;
+import com.google.common.collect.DiscreteDomain;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
@@ -30,6 +28,8 @@ import org.immutables.value.Value;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.List;
+
 import javax.annotation.Nullable;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -40,6 +40,11 @@ import static com.google.common.base.Preconditions.checkState;
  * may be relaxed in two ways: <ul> <li>By fuzzier offset matching (e.g. allowing containment or
  * overlap)</li> <li>By finding the head of the KBP {@link Response} and aligning with the ERE head
  * (if any)</li> </ul>
+ *
+ * An aligner may optionally be backed by an {@link EREArgumentIndex}, in which case each alignment
+ * rule only examines those ERE arguments the index says it could possibly match rather than every
+ * argument in the document.  This gives the same results as the unindexed aligner but is much
+ * faster on documents with many ERE arguments.
  */
 final class EREAligner {
 
@@ -47,26 +52,63 @@ final class EREAligner {
 
   private final boolean relaxUsingCORENLP;
   private final EREDocument ereDoc;
-  private final Optional<CoreNLPDocument> coreNLPDoc;
+  private final Optional<CoreNLPHeadCache> coreNLPHeadCache;
   private final ImmutableList<ResponseToEREEArgAlignmentRule> responseMatchingStrategy;
+  private final Optional<EREArgumentIndex> argumentIndex;
 
   private EREAligner(final boolean relaxUsingCORENLP,
-      final EREDocument ereDoc, final Optional<CoreNLPDocument> coreNLPDocument,
-      ImmutableList<ResponseToEREEArgAlignmentRule> responseMatchingStrategy) {
+      final EREDocument ereDoc, final Optional<CoreNLPHeadCache> coreNLPHeadCache,
+      final EREToKBPEventOntologyMapper mapping,
+      final Optional<EREArgumentIndex> argumentIndex) {
     this.relaxUsingCORENLP = relaxUsingCORENLP;
     this.ereDoc = ereDoc;
-    this.coreNLPDoc = coreNLPDocument;
-    checkState(!relaxUsingCORENLP || coreNLPDoc.isPresent(),
-        "Either we have our CoreNLPDocument or we are not relaxing using it");
-    this.responseMatchingStrategy = responseMatchingStrategy;
+    this.coreNLPHeadCache = checkNotNull(coreNLPHeadCache);
+    checkState(!relaxUsingCORENLP || coreNLPHeadCache.isPresent(),
+        "Either we have our CoreNLP heads or we are not relaxing using them");
+    this.responseMatchingStrategy =
+        createResponseMatchingStrategy(relaxUsingCORENLP, coreNLPHeadCache, mapping);
+    this.argumentIndex = checkNotNull(argumentIndex);
   }
 
   static EREAligner create(final boolean relaxUsingCORENLP,
-      final EREDocument ereDoc, final Optional<CoreNLPDocument> coreNLPDocument,
+      final EREDocument ereDoc, final Optional<CoreNLPHeadTable> coreNLPHeads,
+      final EREToKBPEventOntologyMapper mapping) {
+    return new EREAligner(relaxUsingCORENLP, ereDoc,
+        headCacheFor(relaxUsingCORENLP, coreNLPHeads), mapping,
+        Optional.<EREArgumentIndex>absent());
+  }
+
+  /**
+   * Like {@link #create(boolean, EREDocument, Optional, EREToKBPEventOntologyMapper)}, but the
+   * returned aligner indexes the ERE arguments of {@code ereDoc} by span so that alignment rules
+   * probe the index instead of scanning the whole document.
+   */
+  static EREAligner createIndexed(final boolean relaxUsingCORENLP,
+      final EREDocument ereDoc, final Optional<CoreNLPHeadTable> coreNLPHeads,
       final EREToKBPEventOntologyMapper mapping) {
     return new EREAligner(relaxUsingCORENLP, ereDoc,
-        coreNLPDocument,
-        createResponseMatchingStrategy(relaxUsingCORENLP, coreNLPDocument, mapping));
+        headCacheFor(relaxUsingCORENLP, coreNLPHeads), mapping,
+        Optional.of(EREArgumentIndex.forDocument(ereDoc)));
+  }
+
+  private static Optional<CoreNLPHeadCache> headCacheFor(final boolean relaxUsingCORENLP,
+      final Optional<CoreNLPHeadTable> coreNLPHeads) {
+    if (relaxUsingCORENLP) {
+      if (coreNLPHeads.isPresent()) {
+        return Optional.of(CoreNLPHeadCache.forHeadTable(coreNLPHeads.get()));
+      } else {
+        throw new TACException("Attempting to relax using CoreNLP when no doc is present!");
+      }
+    }
+    return Optional.absent();
+  }
+
+  /**
+   * The cache of CoreNLP heads used by this aligner, if it relaxes alignment using CoreNLP. This is
+   * exposed so callers can report cache statistics.
+   */
+  Optional<CoreNLPHeadCache> coreNLPHeadCache() {
+    return coreNLPHeadCache;
   }
 
   private static final ImmutableList<Function<Response, CharOffsetSpan>> responseSpanFunctions =
@@ -76,19 +118,17 @@ final class EREAligner {
   // build the list of alignment rules which will be applied in order until one matches
   private static ImmutableList<ResponseToEREEArgAlignmentRule> createResponseMatchingStrategy(
       final boolean relaxUsingCORENLP,
-      Optional<CoreNLPDocument> coreNLPDoc, EREToKBPEventOntologyMapper mapping) {
+      Optional<CoreNLPHeadCache> coreNLPHeadCache, EREToKBPEventOntologyMapper mapping) {
     final ImmutableList.Builder<ResponseToEREEArgAlignmentRule> ret = ImmutableList.builder();
 
     // first we try all our alignment rules on the CAS; if none succeed, we fall back to the BF
     for (final Function<Response, CharOffsetSpan> responseExtractor : responseSpanFunctions) {
       final Function<Response, CharOffsetSpan> responseHeadExtractor;
-      // if a CoreNLP analysis is provided we will use it to find the heads of response spans
+      // if a CoreNLP analysis is provided we will use it to find the heads of response spans.
+      // The head cache is shared by the CAS and base filler rules since they often share spans.
       if (relaxUsingCORENLP) {
-        if(coreNLPDoc.isPresent()) {
-          responseHeadExtractor = CoreNLPHeadExtractor.of(coreNLPDoc.get(), responseExtractor);
-        } else  {
-          throw new TACException("Attempting to relax using CoreNLP when no doc is present!");
-        }
+        responseHeadExtractor =
+            CoreNLPHeadExtractor.of(coreNLPHeadCache.get(), responseExtractor);
       } else {
         responseHeadExtractor = responseExtractor;
       }
@@ -143,11 +183,22 @@ final class EREAligner {
   private Optional<ScoringCorefID> findEREObjectMatchingRule(final Response r,
       final ResponseToEREEArgAlignmentRule checker) {
     final ImmutableSet.Builder<ScoringCorefID> retB = ImmutableSet.builder();
-    for (final EREEvent e : ereDoc.getEvents()) {
-      for (final EREEventMention em : e.getEventMentions()) {
-        for (final EREArgument ea : em.getArguments()) {
-          if (checker.aligns(r, ea)) {
-            retB.add(ScoringUtils.extractScoringEntity(ea, ereDoc));
+    if (argumentIndex.isPresent()) {
+      // candidates come back in document order, so we find matches in the same order as a scan
+      final EREArgumentIndex index = argumentIndex.get();
+      for (final int candidate : checker.candidates(r, index)) {
+        final EREArgument ea = index.argument(candidate);
+        if (checker.aligns(r, ea)) {
+          retB.add(ScoringUtils.extractScoringEntity(ea, ereDoc));
+        }
+      }
+    } else {
+      for (final EREEvent e : ereDoc.getEvents()) {
+        for (final EREEventMention em : e.getEventMentions()) {
+          for (final EREArgument ea : em.getArguments()) {
+            if (checker.aligns(r, ea)) {
+              retB.add(ScoringUtils.extractScoringEntity(ea, ereDoc));
+            }
           }
         }
       }
@@ -160,26 +211,6 @@ final class EREAligner {
     return Optional.fromNullable(Iterables.getFirst(ret, null));
   }
 
-  private Optional<Range<CharOffset>> getCoreNLPHead(final OffsetRange<CharOffset> offsets) {
-    if (!coreNLPDoc.isPresent()) {
-      return Optional.absent();
-    }
-    final Optional<CoreNLPSentence> sent =
-        coreNLPDoc.get().firstSentenceContaining(offsets);
-    if (sent.isPresent()) {
-      final Optional<CoreNLPParseNode> node =
-          sent.get().nodeForOffsets(offsets);
-      if (node.isPresent()) {
-        final Optional<CoreNLPParseNode> terminalHead = node.get().terminalHead();
-        if (terminalHead.isPresent()) {
-          final Range<CharOffset> coreNLPHeadRange = terminalHead.get().span().asRange();
-          return Optional.of(coreNLPHeadRange);
-        }
-      }
-    }
-    return Optional.absent();
-  }
-
   private static final Function<EREArgument, CharOffsetSpan> ereExtentExtractor =
       new Function<EREArgument, CharOffsetSpan>() {
         @Nullable
@@ -251,36 +282,26 @@ final class EREAligner {
   static abstract class _CoreNLPHeadExtractor implements Function<Response, CharOffsetSpan> {
 
     @Value.Parameter
-    public abstract CoreNLPDocument coreNLPDoc();
+    public abstract CoreNLPHeadCache headCache();
 
     @Value.Parameter
     public abstract Function<Response, CharOffsetSpan> rangeFinder();
 
     public CharOffsetSpan apply(final Response response) {
-      final CharOffsetSpan off = checkNotNull(rangeFinder().apply(response));
-      final Optional<CoreNLPSentence> sent =
-          coreNLPDoc().firstSentenceContaining(off.asCharOffsetRange());
-      if (sent.isPresent()) {
-        final Optional<CoreNLPParseNode> node =
-            sent.get().nodeForOffsets(off.asCharOffsetRange());
-        if (node.isPresent()) {
-          final Optional<CoreNLPParseNode> terminalHead = node.get().terminalHead();
-          if (terminalHead.isPresent()) {
-            final Range<CharOffset> coreNLPHeadRange = terminalHead.get().span().asRange();
-            return CharOffsetSpan
-                .fromOffsetsAndDebugString(coreNLPHeadRange.lowerEndpoint().asInt(),
-                    coreNLPHeadRange.upperEndpoint().asInt(),
-                    terminalHead.get().token().get().content());
-          }
-        }
-      }
-      return off;
+      return headCache().headOf(checkNotNull(rangeFinder().apply(response)));
     }
   }
 
   interface ResponseToEREEArgAlignmentRule {
 
     boolean aligns(Response r, EREArgument ea);
+
+    /**
+     * The positions in {@code index} of all ERE arguments which this rule could possibly align
+     * {@code r} to, in ascending order.  This must include every argument for which {@link
+     * #aligns(Response, EREArgument)} is true but may include others.
+     */
+    List<Integer> candidates(Response r, EREArgumentIndex index);
   }
 
   private static abstract class SpanChecker implements ResponseToEREEArgAlignmentRule {
@@ -307,6 +328,11 @@ final class EREAligner {
     public boolean aligns(final Response r, final EREArgument ea) {
       return responseSpanExtractor.apply(r).equals(ereArgSpanExtractor.apply(ea));
     }
+
+    @Override
+    public List<Integer> candidates(final Response r, final EREArgumentIndex index) {
+      return index.argumentsWithSpan(ereArgSpanExtractor, responseSpanExtractor.apply(r));
+    }
   }
 
   private static final class ContainmentSpanChecker implements
@@ -348,6 +374,12 @@ final class EREAligner {
       }
       return false;
     }
+
+    @Override
+    public List<Integer> candidates(final Response r, final EREArgumentIndex index) {
+      // aligns requires the ERE extent to enclose the response
+      return index.argumentsEnclosing(ereArgSpanExtractor, responseSpanExtractor.apply(r));
+    }
   }
 
   @TextGroupPackageImmutable
@@ -364,6 +396,11 @@ final class EREAligner {
     public final boolean aligns(final Response r, final EREArgument ea) {
       return first().aligns(r, ea) && second().aligns(r, ea);
     }
+
+    @Override
+    public final List<Integer> candidates(final Response r, final EREArgumentIndex index) {
+      return first().candidates(r, index);
+    }
   }
 
   @TextGroupPackageImmutable
@@ -378,5 +415,11 @@ final class EREAligner {
       final Optional<Symbol> role = ontologyMapper().eventRole(Symbol.from(ea.getRole()));
       return role.isPresent() && role.get().equals(r.role());
     }
+
+    @Override
+    public final List<Integer> candidates(final Response r, final EREArgumentIndex index) {
+      return ContiguousSet.create(Range.closedOpen(0, index.numArguments()),
+          DiscreteDomain.integers()).asList();
+    }
   }
 }
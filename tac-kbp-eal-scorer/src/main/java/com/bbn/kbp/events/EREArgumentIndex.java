@@ -0,0 +1,177 @@
+package com.bbn.kbp.events;
+
+import com.bbn.kbp.events2014.CharOffsetSpan;
+import com.bbn.nlp.corpora.ere.EREArgument;
+import com.bbn.nlp.corpora.ere.EREDocument;
+import com.bbn.nlp.corpora.ere.EREEvent;
+import com.bbn.nlp.corpora.ere.EREEventMention;
+
+import com.carrotsearch.hppc.IntArrayList;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Ints;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Per-document indices over the {@link EREArgument}s of an {@link EREDocument}, used by {@link
+ * EREAligner} to avoid rescanning every argument of the document for every alignment rule.
+ *
+ * Arguments are numbered by their position in the document's event/event mention/argument
+ * traversal order. All lookups return argument positions in ascending order, so a caller
+ * filtering the candidates sees them in exactly the order a full scan would.
+ *
+ * Indices are built lazily for each span extraction function the first time it is probed.  This
+ * class is not thread-safe; it is intended to be confined to the thread aligning a single
+ * document.
+ */
+final class EREArgumentIndex {
+
+  private final ImmutableList<EREArgument> arguments;
+  private final Map<Function<EREArgument, CharOffsetSpan>, ImmutableListMultimap<CharOffsetSpan, Integer>>
+      exactSpanIndices = Maps.newHashMap();
+  private final Map<Function<EREArgument, CharOffsetSpan>, EnclosingSpanIndex>
+      enclosingSpanIndices = Maps.newHashMap();
+
+  private EREArgumentIndex(final Iterable<EREArgument> arguments) {
+    this.arguments = ImmutableList.copyOf(arguments);
+  }
+
+  static EREArgumentIndex forDocument(final EREDocument ereDoc) {
+    final ImmutableList.Builder<EREArgument> arguments = ImmutableList.builder();
+    for (final EREEvent e : ereDoc.getEvents()) {
+      for (final EREEventMention em : e.getEventMentions()) {
+        arguments.addAll(em.getArguments());
+      }
+    }
+    return new EREArgumentIndex(arguments.build());
+  }
+
+  int numArguments() {
+    return arguments.size();
+  }
+
+  EREArgument argument(final int position) {
+    return arguments.get(position);
+  }
+
+  /**
+   * The positions of all arguments whose span, as determined by {@code spanExtractor}, is exactly
+   * {@code span}.
+   */
+  ImmutableList<Integer> argumentsWithSpan(
+      final Function<EREArgument, CharOffsetSpan> spanExtractor, final CharOffsetSpan span) {
+    ImmutableListMultimap<CharOffsetSpan, Integer> index = exactSpanIndices.get(spanExtractor);
+    if (index == null) {
+      final ImmutableListMultimap.Builder<CharOffsetSpan, Integer> indexB =
+          ImmutableListMultimap.builder();
+      for (int i = 0; i < arguments.size(); ++i) {
+        indexB.put(checkNotNull(spanExtractor.apply(arguments.get(i))), i);
+      }
+      index = indexB.build();
+      exactSpanIndices.put(spanExtractor, index);
+    }
+    return index.get(span);
+  }
+
+  /**
+   * The positions of all arguments whose span, as determined by {@code spanExtractor}, contains
+   * {@code span}.
+   */
+  ImmutableList<Integer> argumentsEnclosing(
+      final Function<EREArgument, CharOffsetSpan> spanExtractor, final CharOffsetSpan span) {
+    EnclosingSpanIndex index = enclosingSpanIndices.get(spanExtractor);
+    if (index == null) {
+      final CharOffsetSpan[] spans = new CharOffsetSpan[arguments.size()];
+      for (int i = 0; i < arguments.size(); ++i) {
+        spans[i] = checkNotNull(spanExtractor.apply(arguments.get(i)));
+      }
+      index = new EnclosingSpanIndex(spans);
+      enclosingSpanIndices.put(spanExtractor, index);
+    }
+    return index.enclosing(span.startInclusive(), span.endInclusive());
+  }
+
+  /**
+   * A static interval tree over character offset spans, laid out implicitly over the spans sorted
+   * by start offset. Each node of the implicit tree records the maximum end offset found in its
+   * subtree, which lets enclosing-span queries prune subtrees which cannot contain a match.
+   */
+  private static final class EnclosingSpanIndex {
+
+    private final int[] starts;
+    private final int[] ends;
+    private final int[] positions;
+    private final int[] maxEnds;
+    // reused across probes so that a lookup costs only what the tree search visits
+    private final IntArrayList found = new IntArrayList();
+
+    private EnclosingSpanIndex(final CharOffsetSpan[] spans) {
+      final Integer[] order = new Integer[spans.length];
+      for (int i = 0; i < spans.length; ++i) {
+        order[i] = i;
+      }
+      Arrays.sort(order, new Comparator<Integer>() {
+        @Override
+        public int compare(final Integer left, final Integer right) {
+          return Ints.compare(spans[left].startInclusive(), spans[right].startInclusive());
+        }
+      });
+
+      starts = new int[spans.length];
+      ends = new int[spans.length];
+      positions = new int[spans.length];
+      maxEnds = new int[spans.length];
+      for (int i = 0; i < order.length; ++i) {
+        positions[i] = order[i];
+        starts[i] = spans[order[i]].startInclusive();
+        ends[i] = spans[order[i]].endInclusive();
+      }
+      computeMaxEnds(0, spans.length);
+    }
+
+    private int computeMaxEnds(final int from, final int to) {
+      if (from >= to) {
+        return -1;
+      }
+      final int mid = (from + to) >>> 1;
+      maxEnds[mid] = Math.max(ends[mid],
+          Math.max(computeMaxEnds(from, mid), computeMaxEnds(mid + 1, to)));
+      return maxEnds[mid];
+    }
+
+    ImmutableList<Integer> enclosing(final int start, final int end) {
+      found.clear();
+      collectEnclosing(0, positions.length, start, end);
+      final int[] sorted = found.toArray();
+      Arrays.sort(sorted);
+      return ImmutableList.copyOf(Ints.asList(sorted));
+    }
+
+    private void collectEnclosing(final int from, final int to, final int start, final int end) {
+      if (from >= to) {
+        return;
+      }
+      final int mid = (from + to) >>> 1;
+      if (maxEnds[mid] < end) {
+        // nothing in this subtree extends far enough to the right
+        return;
+      }
+      collectEnclosing(from, mid, start, end);
+      if (starts[mid] <= start) {
+        if (ends[mid] >= end) {
+          found.add(positions[mid]);
+        }
+        collectEnclosing(mid + 1, to, start, end);
+      }
+      // otherwise everything to the right starts too late to enclose the query
+    }
+  }
+}
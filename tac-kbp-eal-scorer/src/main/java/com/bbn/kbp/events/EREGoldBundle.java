@@ -0,0 +1,367 @@
+package com.bbn.kbp.events;
+
+import com.bbn.bue.common.symbols.Symbol;
+import com.bbn.nlp.corpora.ere.EREArgument;
+import com.bbn.nlp.corpora.ere.EREDocument;
+import com.bbn.nlp.corpora.ere.EREEntity;
+import com.bbn.nlp.corpora.ere.EREEntityArgument;
+import com.bbn.nlp.corpora.ere.EREEntityMention;
+import com.bbn.nlp.corpora.ere.EREEvent;
+import com.bbn.nlp.corpora.ere.EREEventMention;
+import com.bbn.nlp.corpora.ere.EREFiller;
+import com.bbn.nlp.corpora.ere.EREFillerArgument;
+import com.bbn.nlp.corpora.ere.ERESpan;
+import com.bbn.nlp.corpora.ere.LinkRealis;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.CountingOutputStream;
+import com.google.common.io.Files;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A precompiled, memory-mapped bundle of the gold standard for {@link ScoreKBPAgainstERE}.
+ *
+ * Parsing ERE and CoreNLP XML dominates the running time of scoring against ERE, but the gold
+ * standard is the same for every system scored.  A bundle stores, for each document, a compact
+ * binary encoding of exactly the parts of the {@link EREDocument} used in scoring (entities and
+ * their mentions, fillers, and events with their arguments; relations are dropped) and, if
+ * available, the document's {@link CoreNLPHeadTable}.  Bundles are created with {@link
+ * CompileEREGoldBundle}.
+ *
+ * The file layout is a header, the per-document blocks, an index from document IDs to block
+ * offsets, and finally the offset of the index.  Reads are safe from multiple threads.
+ */
+final class EREGoldBundle implements EREGoldSource {
+
+  private static final Logger log = LoggerFactory.getLogger(EREGoldBundle.class);
+
+  private static final int MAGIC = 0x4B424745;
+  private static final int VERSION = 1;
+  private static final long ABSENT = -1L;
+
+  private static final byte ENTITY_ARGUMENT = 0;
+  private static final byte FILLER_ARGUMENT = 1;
+  private static final byte NO_REALIS = -1;
+
+  private final ByteBuffer data;
+  private final ImmutableMap<Symbol, Long> ereOffsets;
+  private final ImmutableMap<Symbol, Long> coreNLPHeadOffsets;
+
+  private EREGoldBundle(final ByteBuffer data, final Map<Symbol, Long> ereOffsets,
+      final Map<Symbol, Long> coreNLPHeadOffsets) {
+    this.data = checkNotNull(data);
+    this.ereOffsets = ImmutableMap.copyOf(ereOffsets);
+    this.coreNLPHeadOffsets = ImmutableMap.copyOf(coreNLPHeadOffsets);
+  }
+
+  public static EREGoldBundle open(final File bundleFile) throws IOException {
+    final ByteBuffer data;
+    final RandomAccessFile raf = new RandomAccessFile(bundleFile, "r");
+    try {
+      final FileChannel channel = raf.getChannel();
+      checkArgument(channel.size() <= Integer.MAX_VALUE,
+          "Gold bundle %s is too large to memory-map", bundleFile);
+      // the mapping remains valid after the channel is closed
+      data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } finally {
+      raf.close();
+    }
+
+    checkArgument(data.getInt(0) == MAGIC, "%s is not an ERE gold bundle", bundleFile);
+    checkArgument(data.getInt(4) == VERSION, "Gold bundle %s has unsupported version %s",
+        bundleFile, data.getInt(4));
+
+    final ByteBuffer index = data.duplicate();
+    index.position((int) data.getLong(data.limit() - 8));
+    final int numDocs = index.getInt();
+    final ImmutableMap.Builder<Symbol, Long> ereOffsets = ImmutableMap.builder();
+    final ImmutableMap.Builder<Symbol, Long> coreNLPHeadOffsets = ImmutableMap.builder();
+    for (int i = 0; i < numDocs; ++i) {
+      final Symbol docID = Symbol.from(readString(index));
+      ereOffsets.put(docID, index.getLong());
+      final long headsOffset = index.getLong();
+      if (headsOffset != ABSENT) {
+        coreNLPHeadOffsets.put(docID, headsOffset);
+      }
+    }
+    log.info("Opened gold bundle {} for {} documents", bundleFile, numDocs);
+    return new EREGoldBundle(data, ereOffsets.build(), coreNLPHeadOffsets.build());
+  }
+
+  public ImmutableSet<Symbol> docIDs() {
+    return ereOffsets.keySet();
+  }
+
+  @Override
+  public EREDocument ereDocument(final Symbol docID) {
+    final Long offset = ereOffsets.get(docID);
+    if (offset == null) {
+      throw new RuntimeException("Gold bundle lacks document " + docID);
+    }
+    return readEREDocument(bufferAt(offset));
+  }
+
+  @Override
+  public Optional<CoreNLPHeadTable> coreNLPHeads(final Symbol docID) {
+    final Long offset = coreNLPHeadOffsets.get(docID);
+    if (offset == null) {
+      return Optional.absent();
+    }
+    return Optional.of(CoreNLPHeadTable.readFrom(bufferAt(offset)));
+  }
+
+  private ByteBuffer bufferAt(final long offset) {
+    // each read gets its own view of the mapping, so concurrent reads don't interfere
+    final ByteBuffer ret = data.duplicate();
+    ret.position((int) offset);
+    return ret;
+  }
+
+  /**
+   * Writes a bundle for the given documents, fetching the gold standard from {@code source}.
+   */
+  public static void write(final Iterable<Symbol> docIDs, final EREGoldSource source,
+      final File bundleFile) throws IOException {
+    final CountingOutputStream counter = new CountingOutputStream(
+        new BufferedOutputStream(Files.asByteSink(bundleFile).openStream()));
+    final DataOutputStream out = new DataOutputStream(counter);
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+
+      final List<Symbol> writtenDocIDs = Lists.newArrayList();
+      final Map<Symbol, Long> ereOffsets = Maps.newHashMap();
+      final Map<Symbol, Long> headOffsets = Maps.newHashMap();
+      // the counter sees every byte written since DataOutputStream does no buffering of its own
+      for (final Symbol docID : docIDs) {
+        ereOffsets.put(docID, counter.getCount());
+        writeEREDocument(source.ereDocument(docID), out);
+        final Optional<CoreNLPHeadTable> heads = source.coreNLPHeads(docID);
+        headOffsets.put(docID, heads.isPresent() ? counter.getCount() : ABSENT);
+        if (heads.isPresent()) {
+          heads.get().writeTo(out);
+        }
+        writtenDocIDs.add(docID);
+      }
+
+      final long indexOffset = counter.getCount();
+      out.writeInt(writtenDocIDs.size());
+      for (final Symbol docID : writtenDocIDs) {
+        writeString(out, docID.asString());
+        out.writeLong(ereOffsets.get(docID));
+        out.writeLong(headOffsets.get(docID));
+      }
+      out.writeLong(indexOffset);
+    } finally {
+      out.close();
+    }
+  }
+
+  private static void writeEREDocument(final EREDocument doc, final DataOutput out)
+      throws IOException {
+    writeString(out, doc.getDocId());
+    writeString(out, doc.getSourceType());
+
+    // arguments refer to mentions and fillers by their position in these tables. We include
+    // argument mentions and fillers which are not listed in the document for fidelity.
+    final Map<EREEntityMention, Integer> mentionIndices = Maps.newLinkedHashMap();
+    final Map<EREFiller, Integer> fillerIndices = Maps.newLinkedHashMap();
+    for (final EREEntity entity : doc.getEntities()) {
+      for (final EREEntityMention mention : entity.getMentions()) {
+        indexOf(mentionIndices, mention);
+      }
+    }
+    for (final EREFiller filler : doc.getFillers()) {
+      indexOf(fillerIndices, filler);
+    }
+    final int numDocumentFillers = fillerIndices.size();
+    for (final EREEvent event : doc.getEvents()) {
+      for (final EREEventMention eventMention : event.getEventMentions()) {
+        for (final EREArgument arg : eventMention.getArguments()) {
+          if (arg instanceof EREEntityArgument) {
+            indexOf(mentionIndices, ((EREEntityArgument) arg).entityMention());
+          } else if (arg instanceof EREFillerArgument) {
+            indexOf(fillerIndices, ((EREFillerArgument) arg).filler());
+          } else {
+            throw new RuntimeException("Unknown EREArgument type: " + arg.getClass());
+          }
+        }
+      }
+    }
+
+    out.writeInt(mentionIndices.size());
+    for (final EREEntityMention mention : mentionIndices.keySet()) {
+      writeString(out, mention.getID());
+      writeString(out, mention.getType());
+      writeSpan(out, mention.getExtent());
+      out.writeBoolean(mention.getHead().isPresent());
+      if (mention.getHead().isPresent()) {
+        writeSpan(out, mention.getHead().get());
+      }
+    }
+
+    out.writeInt(doc.getEntities().size());
+    for (final EREEntity entity : doc.getEntities()) {
+      writeString(out, entity.getID());
+      writeString(out, entity.getType());
+      writeString(out, entity.getSpecificity());
+      out.writeInt(entity.getMentions().size());
+      for (final EREEntityMention mention : entity.getMentions()) {
+        out.writeInt(mentionIndices.get(mention));
+      }
+    }
+
+    out.writeInt(fillerIndices.size());
+    out.writeInt(numDocumentFillers);
+    for (final EREFiller filler : fillerIndices.keySet()) {
+      writeString(out, filler.getID());
+      writeString(out, filler.getType());
+      writeSpan(out, filler.getExtent());
+    }
+
+    out.writeInt(doc.getEvents().size());
+    for (final EREEvent event : doc.getEvents()) {
+      writeString(out, event.getID());
+      out.writeInt(event.getEventMentions().size());
+      for (final EREEventMention eventMention : event.getEventMentions()) {
+        writeString(out, eventMention.getID());
+        writeString(out, eventMention.getType());
+        writeString(out, eventMention.getSubtype());
+        writeString(out, eventMention.getRealis());
+        writeSpan(out, eventMention.getTrigger());
+        out.writeInt(eventMention.getArguments().size());
+        for (final EREArgument arg : eventMention.getArguments()) {
+          if (arg instanceof EREEntityArgument) {
+            out.writeByte(ENTITY_ARGUMENT);
+            out.writeInt(mentionIndices.get(((EREEntityArgument) arg).entityMention()));
+          } else {
+            out.writeByte(FILLER_ARGUMENT);
+            out.writeInt(fillerIndices.get(((EREFillerArgument) arg).filler()));
+          }
+          writeString(out, arg.getRole());
+          out.writeByte(arg.getRealis().isPresent() ? arg.getRealis().get().ordinal() : NO_REALIS);
+        }
+      }
+    }
+  }
+
+  private static EREDocument readEREDocument(final ByteBuffer in) {
+    final EREDocument.Builder ret = EREDocument.builder(readString(in), readString(in));
+
+    final EREEntityMention[] mentions = new EREEntityMention[in.getInt()];
+    for (int i = 0; i < mentions.length; ++i) {
+      final String id = readString(in);
+      final String type = readString(in);
+      final ERESpan extent = readSpan(in);
+      final Optional<ERESpan> head =
+          in.get() != 0 ? Optional.of(readSpan(in)) : Optional.<ERESpan>absent();
+      mentions[i] = EREEntityMention.from(id, type, extent, head);
+    }
+
+    final int numEntities = in.getInt();
+    for (int i = 0; i < numEntities; ++i) {
+      final EREEntity.Builder entity =
+          EREEntity.builder(readString(in), readString(in), readString(in));
+      final int numMentions = in.getInt();
+      for (int j = 0; j < numMentions; ++j) {
+        entity.withMention(mentions[in.getInt()]);
+      }
+      ret.withEntity(entity.build());
+    }
+
+    final EREFiller[] fillers = new EREFiller[in.getInt()];
+    final int numDocumentFillers = in.getInt();
+    for (int i = 0; i < fillers.length; ++i) {
+      fillers[i] = EREFiller.from(readString(in), readString(in), readSpan(in));
+      if (i < numDocumentFillers) {
+        ret.withFiller(fillers[i]);
+      }
+    }
+
+    final int numEvents = in.getInt();
+    for (int i = 0; i < numEvents; ++i) {
+      final EREEvent.Builder event = EREEvent.builder(readString(in));
+      final int numEventMentions = in.getInt();
+      for (int j = 0; j < numEventMentions; ++j) {
+        final EREEventMention.Builder eventMention = EREEventMention.builder(readString(in),
+            readString(in), readString(in), readString(in), readSpan(in));
+        final int numArgs = in.getInt();
+        for (int k = 0; k < numArgs; ++k) {
+          final byte argType = in.get();
+          final int ref = in.getInt();
+          final String role = readString(in);
+          final byte realis = in.get();
+          if (argType == ENTITY_ARGUMENT) {
+            eventMention.withArgument(realis == NO_REALIS
+                                      ? EREEntityArgument.from(role, mentions[ref])
+                                      : EREEntityArgument.from(role, LinkRealis.values()[realis],
+                                          mentions[ref]));
+          } else {
+            eventMention.withArgument(realis == NO_REALIS
+                                      ? EREFillerArgument.from(role, fillers[ref])
+                                      : EREFillerArgument.from(role, LinkRealis.values()[realis],
+                                          fillers[ref]));
+          }
+        }
+        event.withEventMention(eventMention.build());
+      }
+      ret.withEvent(event.build());
+    }
+    return ret.build();
+  }
+
+  private static <T> int indexOf(final Map<T, Integer> indices, final T item) {
+    Integer ret = indices.get(item);
+    if (ret == null) {
+      ret = indices.size();
+      indices.put(item, ret);
+    }
+    return ret;
+  }
+
+  private static void writeSpan(final DataOutput out, final ERESpan span) throws IOException {
+    out.writeInt(span.getStart());
+    out.writeInt(span.getEnd());
+    writeString(out, span.getText());
+  }
+
+  private static ERESpan readSpan(final ByteBuffer in) {
+    final int start = in.getInt();
+    final int end = in.getInt();
+    return ERESpan.from(start, end, readString(in));
+  }
+
+  // we don't use DataOutput.writeUTF because it is limited to 64K bytes
+  static void writeString(final DataOutput out, final String s) throws IOException {
+    final byte[] bytes = s.getBytes(Charsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  static String readString(final ByteBuffer in) {
+    final byte[] bytes = new byte[in.getInt()];
+    in.get(bytes);
+    return new String(bytes, Charsets.UTF_8);
+  }
+}
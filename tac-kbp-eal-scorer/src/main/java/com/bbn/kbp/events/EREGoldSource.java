@@ -0,0 +1,22 @@
+package com.bbn.kbp.events;
+
+import com.bbn.bue.common.symbols.Symbol;
+import com.bbn.nlp.corpora.ere.EREDocument;
+
+import com.google.common.base.Optional;
+
+import java.io.IOException;
+
+/**
+ * Provides the gold-standard ERE annotation and, if available, the CoreNLP heads needed to score a
+ * document with {@link ScoreKBPAgainstERE}.
+ *
+ * Implementations must be safe to call from multiple threads at once, since {@link
+ * ScoreKBPAgainstERE} loads documents in parallel.
+ */
+interface EREGoldSource {
+
+  EREDocument ereDocument(Symbol docID) throws IOException;
+
+  Optional<CoreNLPHeadTable> coreNLPHeads(Symbol docID) throws IOException;
+}
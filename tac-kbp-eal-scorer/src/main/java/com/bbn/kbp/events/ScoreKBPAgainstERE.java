@@ -5,10 +5,10 @@ import com.bbn.bue.common.HasDocID;
 import com.bbn.bue.common.Inspector;
 import com.bbn.bue.common.IntIDSequence;
 import com.bbn.bue.common.TextGroupPackageImmutable;
+import com.bbn.bue.common.evaluation.AdaptiveBootstrapInspector;
 import com.bbn.bue.common.evaluation.AggregateBinaryFScoresInspector;
 import com.bbn.bue.common.evaluation.BinaryErrorLogger;
 import com.bbn.bue.common.evaluation.BinaryFScoreBootstrapStrategy;
-import com.bbn.bue.common.evaluation.BootstrapInspector;
 import com.bbn.bue.common.evaluation.EquivalenceBasedProvenancedAligner;
 import com.bbn.bue.common.evaluation.EvalPair;
 import com.bbn.bue.common.evaluation.InspectionNode;
@@ -29,7 +29,6 @@ import com.bbn.kbp.events2014.SystemOutputLayout;
 import com.bbn.kbp.events2014.io.SystemOutputStore;
 import com.bbn.kbp.linking.ExplicitFMeasureInfo;
 import com.bbn.kbp.linking.LinkF1;
-import com.bbn.nlp.corenlp.CoreNLPDocument;
 import com.bbn.nlp.corenlp.CoreNLPParseNode;
 import com.bbn.nlp.corenlp.CoreNLPXMLLoader;
 import com.bbn.nlp.corpora.ere.EREArgument;
@@ -48,13 +47,16 @@ import com.google.common.base.Optional;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
 import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Multiset;
+import com.google.common.collect.Queues;
 import com.google.common.collect.Sets;
 import com.google.common.io.Files;
 import com.google.common.reflect.TypeToken;
+import com.google.common.util.concurrent.Futures;
 
 import org.immutables.func.Functional;
 import org.immutables.value.Value;
@@ -64,8 +66,14 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.annotation.Nullable;
 
@@ -119,25 +127,39 @@ public final class ScoreKBPAgainstERE {
     log.info(params.dump());
     final ImmutableSet<Symbol> docIDsToScore = ImmutableSet.copyOf(
         FileUtils.loadSymbolList(params.getExistingFile("docIDsToScore")));
-    final ImmutableMap<Symbol, File> goldDocIDToFileMap = FileUtils.loadSymbolToFileMap(
-        Files.asCharSource(params.getExistingFile("goldDocIDToFileMap"), Charsets.UTF_8));
     final File outputDir = params.getCreatableDirectory("ereScoringOutput");
     final SystemOutputLayout outputLayout = SystemOutputLayout.ParamParser.fromParamVal(
         params.getString("outputLayout"));
     final SystemOutputStore outputStore =
         outputLayout.open(params.getExistingDirectory("systemOutput"));
 
-    final CoreNLPXMLLoader coreNLPXMLLoader =
-        CoreNLPXMLLoader.builder(HeadFinders.<CoreNLPParseNode>getEnglishPTBHeadFinder()).build();
     final boolean relaxUsingCORENLP = params.getBoolean("relaxUsingCoreNLP");
-    final ImmutableMap<Symbol, File> coreNLPProcessedRawDocs;
     if (relaxUsingCORENLP) {
       log.info("Relaxing scoring using CoreNLP");
-      coreNLPProcessedRawDocs = FileUtils.loadSymbolToFileMap(
-          Files.asCharSource(params.getExistingFile("coreNLPDocIDMap"), Charsets.UTF_8));
+    }
+    // the gold standard may come from a bundle precompiled by CompileEREGoldBundle
+    // rather than being parsed from XML every run
+    final EREGoldSource goldSource;
+    if (params.isPresent("goldBundle")) {
+      goldSource = EREGoldBundle.open(params.getExistingFile("goldBundle"));
     } else {
-      coreNLPProcessedRawDocs = ImmutableMap.of();
+      final ImmutableMap<Symbol, File> goldDocIDToFileMap = FileUtils.loadSymbolToFileMap(
+          Files.asCharSource(params.getExistingFile("goldDocIDToFileMap"), Charsets.UTF_8));
+      final ImmutableMap<Symbol, File> coreNLPProcessedRawDocs;
+      if (relaxUsingCORENLP) {
+        coreNLPProcessedRawDocs = FileUtils.loadSymbolToFileMap(
+            Files.asCharSource(params.getExistingFile("coreNLPDocIDMap"), Charsets.UTF_8));
+      } else {
+        coreNLPProcessedRawDocs = ImmutableMap.of();
+      }
+      goldSource = XMLEREGoldSource.create(goldDocIDToFileMap, coreNLPProcessedRawDocs,
+          ERELoader.create(),
+          CoreNLPXMLLoader.builder(HeadFinders.<CoreNLPParseNode>getEnglishPTBHeadFinder())
+              .build());
     }
+    // indexed alignment gives identical results but avoids rescanning the ERE document
+    // for every alignment rule
+    final boolean useIndexedAlignment = params.getOptionalBoolean("useIndexedAlignment").or(false);
 
     log.info("Scoring over {} documents", docIDsToScore.size());
 
@@ -158,34 +180,42 @@ public final class ScoreKBPAgainstERE {
     // at the end to record some statistics about alignment failures,
     // so we need to keep references to them
     final ResponsesAndLinkingFromKBPExtractor responsesAndLinkingFromKBPExtractor =
-        new ResponsesAndLinkingFromKBPExtractor(coreNLPProcessedRawDocs,
-            coreNLPXMLLoader, relaxUsingCORENLP);
+        new ResponsesAndLinkingFromKBPExtractor(goldSource, relaxUsingCORENLP,
+            useIndexedAlignment);
     final ResponsesAndLinkingFromEREExtractor responsesAndLinkingFromEREExtractor =
         new ResponsesAndLinkingFromEREExtractor(EREToKBPEventOntologyMapper.create2016Mapping());
 
+    // by default we draw a fixed number of bootstrap samples, but we can instead stop
+    // once the confidence intervals have converged
+    final AdaptiveBootstrapInspector.StoppingCriteria bootstrapStoppingCriteria =
+        AdaptiveBootstrapInspector.StoppingCriteria.fromParameters(params);
+
     // this sets it up so that everything fed to input will be scored in various ways
     setupScoring(input, responsesAndLinkingFromKBPExtractor, responsesAndLinkingFromEREExtractor,
-        outputDir);
-
-    final ERELoader loader = ERELoader.create();
-
-    for (final Symbol docID : docIDsToScore) {
-      final File ereFileName = goldDocIDToFileMap.get(docID);
-      if (ereFileName == null) {
-        throw new RuntimeException("Missing key file for " + docID);
-      }
-      final EREDocument ereDoc = loader.loadFrom(ereFileName);
-      if (!ereDoc.getDocId().equals(docID.asString())) {
-        log.warn("Fetched document ID {} does not equal stored {}", ereDoc.getDocId(), docID);
+        bootstrapStoppingCriteria, outputDir);
+
+    // documents are loaded and aligned on a pool of worker threads but are fed to the scoring
+    // network in the order given in docIDsToScore, so the output is the same as for a serial run.
+    // To bound memory use, at most 2 * numThreads loaded documents are waiting at any time.
+    final int numThreads = params.getOptionalPositiveInteger("numThreads").or(1);
+    final int maxDocsInFlight = 2 * numThreads;
+    final ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      final Queue<Future<EREDocAndResponses>> docsInFlight = Queues.newArrayDeque();
+      final Iterator<Symbol> docIDsToLoad = docIDsToScore.iterator();
+      while (docIDsToLoad.hasNext() || !docsInFlight.isEmpty()) {
+        while (docIDsToLoad.hasNext() && docsInFlight.size() < maxDocsInFlight) {
+          docsInFlight.add(executor.submit(
+              loadAndAlign(docIDsToLoad.next(), goldSource, outputStore,
+                  responsesAndLinkingFromKBPExtractor)));
+        }
+        final EREDocAndResponses docAndResponses =
+            Futures.getChecked(docsInFlight.remove(), IOException.class);
+        // feed this ERE doc/ KBP output pair to the scoring network
+        input.inspect(EvalPair.of(docAndResponses.ereDoc(), docAndResponses));
       }
-      final Iterable<Response>
-          responses = filter(outputStore.read(docID).arguments().responses(), bannedRolesFilter);
-      final ResponseLinking linking =
-          ((DocumentSystemOutput2015) outputStore.read(docID)).linking();
-      linking.copyWithFilteredResponses(in(ImmutableSet.copyOf(responses)));
-      // feed this ERE doc/ KBP output pair to the scoring network
-      input.inspect(EvalPair.of(ereDoc, new EREDocAndResponses(ereDoc, responses, linking)));
-
+    } finally {
+      executor.shutdownNow();
     }
 
     // trigger the scoring network to write its summary files
@@ -195,6 +225,28 @@ public final class ScoreKBPAgainstERE {
     responsesAndLinkingFromEREExtractor.finish();
   }
 
+  // loads the gold standard and system output for a document and aligns them. This is run on
+  // worker threads, so it must not touch anything which is not thread-safe.
+  private static Callable<EREDocAndResponses> loadAndAlign(final Symbol docID,
+      final EREGoldSource goldSource, final SystemOutputStore outputStore,
+      final ResponsesAndLinkingFromKBPExtractor responsesAndLinkingFromKBPExtractor) {
+    return new Callable<EREDocAndResponses>() {
+      @Override
+      public EREDocAndResponses call() throws IOException {
+        final EREDocument ereDoc = goldSource.ereDocument(docID);
+        if (!ereDoc.getDocId().equals(docID.asString())) {
+          log.warn("Fetched document ID {} does not equal stored {}", ereDoc.getDocId(), docID);
+        }
+        final DocumentSystemOutput2015 systemOutput =
+            (DocumentSystemOutput2015) outputStore.read(docID);
+        final ImmutableList<Response> responses = ImmutableList.copyOf(
+            filter(systemOutput.arguments().responses(), bannedRolesFilter));
+        return responsesAndLinkingFromKBPExtractor.align(ereDoc, responses,
+            systemOutput.linking());
+      }
+    };
+  }
+
   private static final ImmutableSet<Symbol> BANNED_ROLES =
       SymbolUtils.setFrom("Time", "Crime", "Position",
           "Fine", "Sentence");
@@ -223,6 +275,7 @@ public final class ScoreKBPAgainstERE {
       final InspectionNode<EvalPair<EREDocument, EREDocAndResponses>> input,
       final ResponsesAndLinkingFromKBPExtractor responsesAndLinkingFromKBPExtractor,
       final ResponsesAndLinkingFromEREExtractor responsesAndLinkingFromEREExtractor,
+      final AdaptiveBootstrapInspector.StoppingCriteria bootstrapStoppingCriteria,
       final File outputDir) {
     final InspectorTreeNode<EvalPair<ResponsesAndLinking, ResponsesAndLinking>>
         inputAsResponsesAndLinking =
@@ -237,14 +290,16 @@ public final class ScoreKBPAgainstERE {
         transformed(filteredFor2016, RestrictLifeInjureToLifeDieEvents.INSTANCE);
 
     // set up for event argument scoring in 2015 style
-    eventArgumentScoringSetup(filteredForLifeDie, outputDir);
+    eventArgumentScoringSetup(filteredForLifeDie, bootstrapStoppingCriteria, outputDir);
     // set up for linking scoring in 2015 style
     linkingScoringSetup(filteredForLifeDie, outputDir);
   }
 
   private static void eventArgumentScoringSetup(
       final InspectorTreeNode<EvalPair<ResponsesAndLinking, ResponsesAndLinking>>
-          inputAsResponsesAndLinking, final File outputDir) {
+          inputAsResponsesAndLinking,
+      final AdaptiveBootstrapInspector.StoppingCriteria bootstrapStoppingCriteria,
+      final File outputDir) {
     final InspectorTreeNode<EvalPair<ImmutableSet<DocLevelEventArg>, ImmutableSet<DocLevelEventArg>>>
         inputAsSetsOfScoringTuples =
         transformBoth(inputAsResponsesAndLinking, ResponsesAndLinkingFunctions.args());
@@ -266,8 +321,10 @@ public final class ScoreKBPAgainstERE {
     final BinaryFScoreBootstrapStrategy perEventBootstrapStrategy =
         BinaryFScoreBootstrapStrategy.createBrokenDownBy("EventType",
             HasEventType.ExtractFunction.INSTANCE, outputDir);
-    final BootstrapInspector breakdownScoresByEventTypeWithBootstrapping =
-        BootstrapInspector.forStrategy(perEventBootstrapStrategy, 1000, new Random(0));
+    final AdaptiveBootstrapInspector breakdownScoresByEventTypeWithBootstrapping =
+        AdaptiveBootstrapInspector.forStrategy(perEventBootstrapStrategy,
+            AdaptiveBootstrapInspector.brokenDownF1s(), bootstrapStoppingCriteria, new Random(0),
+            Optional.of(new File(outputDir, "bootstrapSamplesUsed.txt")));
     inspect(alignmentNode).with(breakdownScoresByEventTypeWithBootstrapping);
   }
 
@@ -560,43 +617,68 @@ public final class ScoreKBPAgainstERE {
     private IntIDSequence alignmentFailureIDs = IntIDSequence.startingFrom(0);
     private Multiset<String> mentionAlignmentFailures = HashMultiset.create();
     private Multiset<String> numResponses = HashMultiset.create();
-    private final ImmutableMap<Symbol, File> ereMapping;
-    private final CoreNLPXMLLoader coreNLPXMLLoader;
+    // statistics for the per-document caches of CoreNLP heads of response spans
+    private long coreNLPHeadCacheHits = 0;
+    private long coreNLPHeadCacheMisses = 0;
+    private final EREGoldSource goldSource;
     private final boolean relaxUsingCORENLP;
+    private final boolean useIndexedAlignment;
 
-    public ResponsesAndLinkingFromKBPExtractor(final Map<Symbol, File> ereMapping,
-        final CoreNLPXMLLoader coreNLPXMLLoader, final boolean relaxUsingCORENLP) {
-      this.ereMapping = ImmutableMap.copyOf(ereMapping);
-      this.coreNLPXMLLoader = coreNLPXMLLoader;
+    public ResponsesAndLinkingFromKBPExtractor(final EREGoldSource goldSource,
+        final boolean relaxUsingCORENLP, final boolean useIndexedAlignment) {
+      this.goldSource = checkNotNull(goldSource);
       this.relaxUsingCORENLP = relaxUsingCORENLP;
+      this.useIndexedAlignment = useIndexedAlignment;
     }
 
-    public ResponsesAndLinking apply(final EREDocAndResponses input) {
-      final ImmutableSet.Builder<DocLevelEventArg> ret = ImmutableSet.builder();
-      final Iterable<Response> responses = input.responses();
-      final EREDocument doc = input.ereDoc();
+    /**
+     * Aligns each of {@code responses} to the ERE document, if possible. Unlike {@link
+     * #apply(EREDocAndResponses)}, this is safe to call from multiple threads at once.
+     */
+    EREDocAndResponses align(final EREDocument doc, final ImmutableList<Response> responses,
+        final ResponseLinking linking) throws IOException {
       final Symbol ereID = Symbol.from(doc.getDocId());
-      final Optional<CoreNLPDocument> coreNLPDoc;
+      final Optional<CoreNLPHeadTable> coreNLPHeads =
+          relaxUsingCORENLP ? goldSource.coreNLPHeads(ereID)
+                            : Optional.<CoreNLPHeadTable>absent();
       final EREAligner ereAligner;
+      if (useIndexedAlignment) {
+        ereAligner = EREAligner.createIndexed(relaxUsingCORENLP, doc, coreNLPHeads,
+            EREToKBPEventOntologyMapper.create2016Mapping());
+      } else {
+        ereAligner = EREAligner.create(relaxUsingCORENLP, doc, coreNLPHeads,
+            EREToKBPEventOntologyMapper.create2016Mapping());
+      }
 
-      try {
-        coreNLPDoc = Optional.fromNullable(ereMapping.get(ereID)).isPresent() ? Optional
-            .of(coreNLPXMLLoader.loadFrom(ereMapping.get(ereID)))
-                                                                              : Optional.<CoreNLPDocument>absent();
-        ereAligner = EREAligner
-            .create(relaxUsingCORENLP, doc, coreNLPDoc,
-                EREToKBPEventOntologyMapper.create2016Mapping());
-      } catch (IOException e) {
-        throw new RuntimeException(e);
+      final ImmutableMap.Builder<Response, Optional<ScoringCorefID>> alignments =
+          ImmutableMap.builder();
+      for (final Response response : responses) {
+        alignments.put(response, ereAligner.argumentForResponse(response));
       }
+      final int cacheHits;
+      final int cacheMisses;
+      if (ereAligner.coreNLPHeadCache().isPresent()) {
+        cacheHits = ereAligner.coreNLPHeadCache().get().hits();
+        cacheMisses = ereAligner.coreNLPHeadCache().get().misses();
+      } else {
+        cacheHits = 0;
+        cacheMisses = 0;
+      }
+      return new EREDocAndResponses(doc, alignments.build(), linking, cacheHits, cacheMisses);
+    }
+
+    public ResponsesAndLinking apply(final EREDocAndResponses input) {
+      final EREDocument doc = input.ereDoc();
       final ImmutableMap.Builder<Response, DocLevelEventArg> responseToDocLevelArg =
           ImmutableMap.builder();
 
-      for (final Response response : responses) {
+      for (final Map.Entry<Response, Optional<ScoringCorefID>> alignment
+          : input.responseAlignments().entrySet()) {
+        final Response response = alignment.getKey();
         numResponses.add(errKey(response));
         final Symbol realis = Symbol.from(response.realis().name());
 
-        final Optional<ScoringCorefID> alignedCorefIDOpt = ereAligner.argumentForResponse(response);
+        final Optional<ScoringCorefID> alignedCorefIDOpt = alignment.getValue();
         // this increments the alignment failure ID regardless of success or failure, but
         // we don't care
         final ScoringCorefID alignedCorefID = alignedCorefIDOpt.or(
@@ -606,7 +688,6 @@ public final class ScoreKBPAgainstERE {
         final DocLevelEventArg res = DocLevelEventArg.builder().docID(Symbol.from(doc.getDocId()))
             .eventType(response.type()).eventArgumentType(response.role())
             .corefID(alignedCorefID.globalID()).realis(realis).build();
-        ret.add(res);
         responseToDocLevelArg.put(response, res);
 
         // record alignment failures
@@ -614,8 +695,9 @@ public final class ScoreKBPAgainstERE {
           mentionAlignmentFailures.add(errKey(response));
         }
       }
-      return fromResponses(ImmutableSet.copyOf(input.responses()),
-          responseToDocLevelArg.build(), input.linking());
+      coreNLPHeadCacheHits += input.coreNLPHeadCacheHits();
+      coreNLPHeadCacheMisses += input.coreNLPHeadCacheMisses();
+      return fromResponses(input.responses(), responseToDocLevelArg.build(), input.linking());
     }
 
     ResponsesAndLinking fromResponses(final ImmutableSet<Response> originalResponses,
@@ -653,6 +735,10 @@ public final class ScoreKBPAgainstERE {
               +numResponses.count(errKey), errKey, mentionAlignmentFailures.count(errKey));
         }
       }
+      if (relaxUsingCORENLP) {
+        log.info("CoreNLP head cache: {} hits, {} misses", coreNLPHeadCacheHits,
+            coreNLPHeadCacheMisses);
+      }
     }
   }
 }
@@ -690,28 +776,53 @@ abstract class _ResponsesAndLinking {
   }
 }
 
+/**
+ * An ERE document together with a system's responses for it, each paired with the ERE entity it
+ * aligned to, if any.
+ */
 final class EREDocAndResponses {
 
   private final EREDocument ereDoc;
-  private final Iterable<Response> responses;
+  private final ImmutableMap<Response, Optional<ScoringCorefID>> responseAlignments;
   private final ResponseLinking linking;
+  private final int coreNLPHeadCacheHits;
+  private final int coreNLPHeadCacheMisses;
 
-  public EREDocAndResponses(final EREDocument ereDoc, final Iterable<Response> responses,
-      final ResponseLinking linking) {
+  public EREDocAndResponses(final EREDocument ereDoc,
+      final ImmutableMap<Response, Optional<ScoringCorefID>> responseAlignments,
+      final ResponseLinking linking, final int coreNLPHeadCacheHits,
+      final int coreNLPHeadCacheMisses) {
     this.ereDoc = checkNotNull(ereDoc);
-    this.responses = checkNotNull(responses);
+    this.responseAlignments = checkNotNull(responseAlignments);
     this.linking = checkNotNull(linking);
+    this.coreNLPHeadCacheHits = coreNLPHeadCacheHits;
+    this.coreNLPHeadCacheMisses = coreNLPHeadCacheMisses;
   }
 
   public EREDocument ereDoc() {
     return ereDoc;
   }
 
-  public Iterable<Response> responses() {
-    return responses;
+  public ImmutableSet<Response> responses() {
+    return responseAlignments.keySet();
+  }
+
+  /**
+   * The ERE entity each response aligned to, in the order the responses were read.
+   */
+  public ImmutableMap<Response, Optional<ScoringCorefID>> responseAlignments() {
+    return responseAlignments;
   }
 
   public ResponseLinking linking() {
     return linking;
   }
+
+  public int coreNLPHeadCacheHits() {
+    return coreNLPHeadCacheHits;
+  }
+
+  public int coreNLPHeadCacheMisses() {
+    return coreNLPHeadCacheMisses;
+  }
 }
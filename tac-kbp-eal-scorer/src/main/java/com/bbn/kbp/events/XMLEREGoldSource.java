@@ -0,0 +1,65 @@
+package com.bbn.kbp.events;
+
+import com.bbn.bue.common.symbols.Symbol;
+import com.bbn.nlp.corenlp.CoreNLPXMLLoader;
+import com.bbn.nlp.corpora.ere.EREDocument;
+import com.bbn.nlp.corpora.ere.ERELoader;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An {@link EREGoldSource} which parses ERE and CoreNLP XML files each time a document is
+ * requested.
+ */
+final class XMLEREGoldSource implements EREGoldSource {
+
+  private final ImmutableMap<Symbol, File> goldDocIDToFileMap;
+  private final ImmutableMap<Symbol, File> coreNLPDocIDToFileMap;
+  private final ERELoader ereLoader;
+  private final CoreNLPXMLLoader coreNLPXMLLoader;
+
+  private XMLEREGoldSource(final Map<Symbol, File> goldDocIDToFileMap,
+      final Map<Symbol, File> coreNLPDocIDToFileMap, final ERELoader ereLoader,
+      final CoreNLPXMLLoader coreNLPXMLLoader) {
+    this.goldDocIDToFileMap = ImmutableMap.copyOf(goldDocIDToFileMap);
+    this.coreNLPDocIDToFileMap = ImmutableMap.copyOf(coreNLPDocIDToFileMap);
+    this.ereLoader = checkNotNull(ereLoader);
+    this.coreNLPXMLLoader = checkNotNull(coreNLPXMLLoader);
+  }
+
+  /**
+   * Documents missing from {@code coreNLPDocIDToFileMap} are treated as having no CoreNLP
+   * analysis.
+   */
+  static XMLEREGoldSource create(final Map<Symbol, File> goldDocIDToFileMap,
+      final Map<Symbol, File> coreNLPDocIDToFileMap, final ERELoader ereLoader,
+      final CoreNLPXMLLoader coreNLPXMLLoader) {
+    return new XMLEREGoldSource(goldDocIDToFileMap, coreNLPDocIDToFileMap, ereLoader,
+        coreNLPXMLLoader);
+  }
+
+  @Override
+  public EREDocument ereDocument(final Symbol docID) throws IOException {
+    final File ereFileName = goldDocIDToFileMap.get(docID);
+    if (ereFileName == null) {
+      throw new RuntimeException("Missing key file for " + docID);
+    }
+    return ereLoader.loadFrom(ereFileName);
+  }
+
+  @Override
+  public Optional<CoreNLPHeadTable> coreNLPHeads(final Symbol docID) throws IOException {
+    final File coreNLPFile = coreNLPDocIDToFileMap.get(docID);
+    if (coreNLPFile == null) {
+      return Optional.absent();
+    }
+    return Optional.of(CoreNLPHeadTable.fromCoreNLPDocument(coreNLPXMLLoader.loadFrom(coreNLPFile)));
+  }
+}
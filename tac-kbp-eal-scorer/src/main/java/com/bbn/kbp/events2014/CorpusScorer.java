@@ -1,9 +1,9 @@
 package com.bbn.kbp.events2014;
 
 import com.bbn.bue.common.TextGroupPublicImmutable;
+import com.bbn.bue.common.evaluation.AdaptiveBootstrapInspector;
 import com.bbn.bue.common.evaluation.AggregateBinaryFScoresInspector;
 import com.bbn.bue.common.evaluation.BinaryFScoreBootstrapStrategy;
-import com.bbn.bue.common.evaluation.BootstrapInspector;
 import com.bbn.bue.common.evaluation.EquivalenceBasedProvenancedAligner;
 import com.bbn.bue.common.evaluation.EvalPair;
 import com.bbn.bue.common.evaluation.InspectionNode;
@@ -21,14 +21,20 @@ import com.bbn.kbp.events2014.io.SystemOutputStore2016;
 import com.google.common.base.Charsets;
 import com.google.common.base.Function;
 import com.google.common.base.Functions;
+import com.google.common.base.Optional;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Range;
 import com.google.common.collect.RangeSet;
 import com.google.common.collect.TreeRangeSet;
 import com.google.common.io.Files;
+import com.google.common.math.IntMath;
 import com.google.common.reflect.TypeToken;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 import org.immutables.func.Functional;
 import org.immutables.value.Value;
@@ -37,9 +43,17 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static com.bbn.bue.common.evaluation.InspectorTreeDSL.inspect;
 import static com.bbn.kbp.events2014.ResponseFunctions.predicateJustifications;
@@ -80,39 +94,122 @@ public final class CorpusScorer {
     final ImmutableMap<String, SystemOutputStore2016> systemOutputsByName =
         loadSystemOutputs(params);
 
+    // by default we draw a fixed number of bootstrap samples, but we can instead stop
+    // once the confidence intervals have converged
+    final AdaptiveBootstrapInspector.StoppingCriteria bootstrapStoppingCriteria =
+        AdaptiveBootstrapInspector.StoppingCriteria.fromParameters(params);
+
+    final int numConcurrentSystems =
+        params.getOptionalPositiveInteger(NUM_CONCURRENT_SYSTEMS_PARAM).or(1);
+    final int numThreads = params.getOptionalPositiveInteger(NUM_THREADS_PARAM).or(1);
+
     log.info("Scoring output will be written to {}", outputDir);
 
-    for (final SystemOutputStore2016 systemOutputStore : systemOutputsByName.values()) {
-      score(queries, queryAssessments, systemOutputStore,
-          new File(outputDir, systemOutputStore.systemID().asString()));
-      systemOutputStore.close();
+    // the gold standard is the same for every system, so it is only extracted once
+    final ImmutableMap<CorpusQuery2016, Set<QueryDocMatch>> correctMatchesByQuery =
+        extractCorrectMatches(queries, queryAssessments);
+    // one executor and linking cache for all systems, so that the memory they take is bounded
+    // across them
+    final QueryResponsesFromSystemOutputExtractor matchesFromSystemOutputExtractor =
+        QueryResponsesFromSystemOutputExtractor.of(queryAssessments,
+            IndexedCorpusQueryExecutor.createDefaultFor2016(),
+            SystemOutputLinkingCache.create(MAX_CACHED_LINKING_RESPONSES));
+
+    // systems and queries have separate pools so that systems waiting on their queries can never
+    // occupy every thread which could run them
+    final ExecutorService systemExecutor = Executors.newFixedThreadPool(numConcurrentSystems);
+    final ExecutorService queryExecutor = Executors.newFixedThreadPool(numThreads);
+    try {
+      final ImmutableMap.Builder<String, Future<?>> systemsScoredB = ImmutableMap.builder();
+      for (final Map.Entry<String, SystemOutputStore2016> systemOutput
+          : systemOutputsByName.entrySet()) {
+        final SystemOutputStore2016 systemOutputStore = systemOutput.getValue();
+        systemsScoredB.put(systemOutput.getKey(),
+            systemExecutor.submit(new Callable<Void>() {
+              @Override
+              public Void call() throws IOException {
+                try {
+                  score(queries, correctMatchesByQuery, matchesFromSystemOutputExtractor,
+                      systemOutputStore, bootstrapStoppingCriteria, numThreads, queryExecutor,
+                      new File(outputDir, systemOutputStore.systemID().asString()));
+                } finally {
+                  systemOutputStore.close();
+                }
+                return null;
+              }
+            }));
+      }
+      for (final Map.Entry<String, Future<?>> systemScored : systemsScoredB.build().entrySet()) {
+        try {
+          Uninterruptibles.getUninterruptibly(systemScored.getValue());
+        } catch (ExecutionException e) {
+          throw new RuntimeException("Exception while scoring " + systemScored.getKey(),
+              e.getCause());
+        }
+      }
+    } finally {
+      systemExecutor.shutdownNow();
+      queryExecutor.shutdownNow();
     }
   }
 
-  private static final CorpusQueryExecutor2016 queryExecutor =
-      DefaultCorpusQueryExecutor.createDefaultFor2016();
+  private static ImmutableMap<CorpusQuery2016, Set<QueryDocMatch>> extractCorrectMatches(
+      final CorpusQuerySet2016 queries, final CorpusQueryAssessments queryAssessments) {
+    final CorrectMatchesFromAssessmentsExtractor matchesFromAssessmentsExtractor =
+        new CorrectMatchesFromAssessmentsExtractor();
+    final ImmutableMap.Builder<CorpusQuery2016, Set<QueryDocMatch>> ret = ImmutableMap.builder();
+    for (final CorpusQuery2016 query : queries) {
+      ret.put(query, matchesFromAssessmentsExtractor.extractCorrectMatches(query, queryAssessments));
+    }
+    return ret.build();
+  }
 
   private static void score(final CorpusQuerySet2016 queries,
-      final CorpusQueryAssessments queryAssessments,
+      final ImmutableMap<CorpusQuery2016, Set<QueryDocMatch>> correctMatchesByQuery,
+      final QueryResponsesFromSystemOutputExtractor matchesFromSystemOutputExtractor,
       final SystemOutputStore2016 systemOutputStore,
+      final AdaptiveBootstrapInspector.StoppingCriteria bootstrapStoppingCriteria,
+      final int numThreads, final ExecutorService queryExecutor,
       File outputDir) throws IOException {
     final TypeToken<Set<QueryDocMatch>> setOfQueryMatches = new TypeToken<Set<QueryDocMatch>>() {
     };
     final InspectionNode<EvalPair<Set<QueryDocMatch>, Set<QueryDocMatch>>> input =
         InspectorTreeDSL.pairedInput(setOfQueryMatches, setOfQueryMatches);
-    setUpScoring(input, outputDir);
-
-    final CorrectMatchesFromAssessmentsExtractor matchesFromAssessmentsExtractor =
-        new CorrectMatchesFromAssessmentsExtractor();
-    final QueryResponsesFromSystemOutputExtractor matchesFromSystemOutputExtractor =
-        QueryResponsesFromSystemOutputExtractor.of(queryAssessments, queryExecutor);
+    setUpScoring(input, bootstrapStoppingCriteria, outputDir);
+
+    // the queries are matched in one contiguous chunk per thread, but the chunks are fed to the
+    // scoring network in query order so that the results do not depend on scheduling
+    final int chunkSize =
+        Math.max(1, IntMath.divide(queries.queries().size(), numThreads, RoundingMode.CEILING));
+    final List<Future<ImmutableMap<CorpusQuery2016, Set<QueryDocMatch>>>> chunksMatched =
+        new ArrayList<>();
+    for (final List<CorpusQuery2016> chunk : Lists.partition(queries.queries().asList(),
+        chunkSize)) {
+      chunksMatched.add(queryExecutor.submit(
+          new Callable<ImmutableMap<CorpusQuery2016, Set<QueryDocMatch>>>() {
+            @Override
+            public ImmutableMap<CorpusQuery2016, Set<QueryDocMatch>> call() throws IOException {
+              final ImmutableSetMultimap<CorpusQuery2016, DocEventFrameReference>
+                  matchedEventFrames = matchesFromSystemOutputExtractor.queryExecutor()
+                  .queryEventFramesBatch(systemOutputStore, chunk);
+              final ImmutableMap.Builder<CorpusQuery2016, Set<QueryDocMatch>> ret =
+                  ImmutableMap.builder();
+              for (final CorpusQuery2016 query : chunk) {
+                ret.put(query, matchesFromSystemOutputExtractor
+                    .extractMatches(query, matchedEventFrames.get(query), systemOutputStore));
+              }
+              return ret.build();
+            }
+          }));
+    }
 
-    for (final CorpusQuery2016 query : queries) {
-      final Set<QueryDocMatch> correctMatches = matchesFromAssessmentsExtractor
-          .extractCorrectMatches(query, queryAssessments);
-      final Set<QueryDocMatch> systemMatches =
-          matchesFromSystemOutputExtractor.extractMatches(query, systemOutputStore);
-      input.inspect(EvalPair.of(correctMatches, systemMatches));
+    for (final Future<ImmutableMap<CorpusQuery2016, Set<QueryDocMatch>>> chunkMatched
+        : chunksMatched) {
+      for (final Map.Entry<CorpusQuery2016, Set<QueryDocMatch>> systemMatches
+          : Futures.getChecked(chunkMatched, IOException.class).entrySet()) {
+        input.inspect(EvalPair.of(correctMatchesByQuery.get(systemMatches.getKey()),
+            systemMatches.getValue()));
+      }
     }
 
     // trigger scoring network to do final aggregated output
@@ -126,6 +223,7 @@ public final class CorpusScorer {
 
   private static void setUpScoring(
       final InspectionNode<EvalPair<Set<QueryDocMatch>, Set<QueryDocMatch>>> input,
+      final AdaptiveBootstrapInspector.StoppingCriteria bootstrapStoppingCriteria,
       final File outputDir) {
     final InspectorTreeNode<ProvenancedAlignment<QueryDocMatch, QueryDocMatch, QueryDocMatch, QueryDocMatch>>
         alignment = InspectorTreeDSL.transformed(input, EXACT_MATCH_ALIGNER);
@@ -134,11 +232,16 @@ public final class CorpusScorer {
         .with(AggregateBinaryFScoresInspector.createOutputtingTo("aggregate", outputDir));
 
     inspect(alignment)
-        .with(BootstrapInspector.forStrategy(
+        .with(AdaptiveBootstrapInspector.forStrategy(
             BinaryFScoreBootstrapStrategy.create("Aggregate", outputDir),
-            1000, new Random(0)));
+            AdaptiveBootstrapInspector.brokenDownF1s(), bootstrapStoppingCriteria, new Random(0),
+            Optional.of(new File(outputDir, "bootstrapSamplesUsed.txt"))));
   }
 
+  private static final String NUM_CONCURRENT_SYSTEMS_PARAM = "com.bbn.tac.eal.numConcurrentSystems";
+  private static final String NUM_THREADS_PARAM = "com.bbn.tac.eal.numThreads";
+  // linkings of matched documents kept for all systems together, in number of responses
+  private static final long MAX_CACHED_LINKING_RESPONSES = 200000;
   private static final String MULTIPLE_SYSTEMS_PARAM = "com.bbn.tac.eal.systemOutputsDir";
   private static final String SINGLE_SYSTEMS_PARAM = "com.bbn.tac.eal.systemOutputDir";
 
@@ -197,18 +300,14 @@ final class CorrectMatchesFromAssessmentsExtractor {
       final CorpusQueryAssessments input) {
     checkNotNull(input);
     final ImmutableSet.Builder<QueryDocMatch> ret = ImmutableSet.builder();
-    for (final Map.Entry<QueryResponse2016, QueryAssessment2016> e
-        : input.assessments().entrySet()) {
-      final QueryResponse2016 queryResponse = e.getKey();
-      final QueryAssessment2016 assessment = e.getValue();
-
-      if (query.id().equalTo(queryResponse.queryID())) {
-        checkArgument(!assessment.equals(QueryAssessment2016.UNASSASSED),
-            "Response %s for query ID {} is not assessed", queryResponse,
-            queryResponse.queryID());
-        if (assessment.equals(QueryAssessment2016.CORRECT)) {
-          ret.add(QueryDocMatch.of(queryResponse.queryID(), queryResponse.docID(), assessment));
-        }
+    for (final QueryResponse2016 queryResponse : input.assessedResponsesByQueryID()
+        .get(query.id())) {
+      final QueryAssessment2016 assessment = input.assessments().get(queryResponse);
+      checkArgument(!assessment.equals(QueryAssessment2016.UNASSASSED),
+          "Response %s for query ID {} is not assessed", queryResponse,
+          queryResponse.queryID());
+      if (assessment.equals(QueryAssessment2016.CORRECT)) {
+        ret.add(QueryDocMatch.of(queryResponse.queryID(), queryResponse.docID(), assessment));
       }
     }
     return ret.build();
@@ -225,13 +324,35 @@ abstract class _QueryResponsesFromSystemOutputExtractor {
   @Value.Parameter
   public abstract CorpusQueryExecutor2016 queryExecutor();
 
+  /**
+   * Where the linkings of matched documents are read from, so that each is read once however many
+   * queries match it.
+   */
+  @Value.Parameter
+  public abstract SystemOutputLinkingCache linkings();
+
   public final Set<QueryDocMatch> extractMatches(final CorpusQuery2016 query,
       final SystemOutputStore2016 input) {
     checkNotNull(input);
+    try {
+      return extractMatches(query, queryExecutor().queryEventFrames(input, query), input);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Like {@link #extractMatches(CorpusQuery2016, SystemOutputStore2016)}, but for event frames
+   * which the query executor has already found to match {@code query}.
+   */
+  public final Set<QueryDocMatch> extractMatches(final CorpusQuery2016 query,
+      final Iterable<DocEventFrameReference> matches, final SystemOutputStore2016 input) {
+    checkNotNull(input);
     final ImmutableSet.Builder<QueryDocMatch> ret = ImmutableSet.builder();
     try {
-      for (final DocEventFrameReference match : queryExecutor().queryEventFrames(input, query)) {
-        final ResponseLinking linkingForMatchedDocument = input.read(match.docID()).linking();
+      for (final DocEventFrameReference match : matches) {
+        final ResponseLinking linkingForMatchedDocument =
+            linkings().linkingOf(input, match.docID());
         if (linkingForMatchedDocument.responseSetIds().isPresent()) {
           final QueryResponse2016 queryResponse =
               QueryResponse2016.of(query.id(), match.docID(),
@@ -0,0 +1,96 @@
+package com.bbn.kbp.events2014.scorer;
+
+import com.bbn.bue.common.math.BinnedPercentileSketch;
+import com.bbn.bue.common.math.PercentileComputer;
+
+import com.carrotsearch.hppc.DoubleArrayList;
+import com.google.common.base.Optional;
+
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * The values of one score over all bootstrap samples. Either every value is kept or, to keep
+ * memory use from growing with the number of samples, only a {@link BinnedPercentileSketch} of
+ * them. The sketch has {@value #SKETCH_BINS} bins, so percentiles are accurate to within a
+ * twenty-thousandth of the score's range, or 0.005 points for scores reported on a 0-100 scale.
+ * That is within the two decimal places scores are printed with. A sketch takes about as much
+ * memory as ten thousand kept values.
+ *
+ * This class is not thread-safe.
+ */
+public final class SampledScores {
+
+  private static final int SKETCH_BINS = 10001;
+
+  private final Optional<DoubleArrayList> values;
+  private final Optional<BinnedPercentileSketch> sketch;
+
+  private SampledScores(final Optional<DoubleArrayList> values,
+      final Optional<BinnedPercentileSketch> sketch) {
+    checkArgument(values.isPresent() != sketch.isPresent());
+    this.values = values;
+    this.sketch = sketch;
+  }
+
+  /**
+   * Creates an empty collection of scores which all lie in [{@code min}, {@code max}].
+   */
+  public static SampledScores forRange(final double min, final double max,
+      final boolean sketchPercentiles) {
+    if (sketchPercentiles) {
+      return new SampledScores(Optional.<DoubleArrayList>absent(),
+          Optional.of(BinnedPercentileSketch.forRange(min, max, SKETCH_BINS)));
+    } else {
+      return new SampledScores(Optional.of(new DoubleArrayList()),
+          Optional.<BinnedPercentileSketch>absent());
+    }
+  }
+
+  public void add(final double score) {
+    if (values.isPresent()) {
+      values.get().add(score);
+    } else {
+      sketch.get().add(score);
+    }
+  }
+
+  /**
+   * Adds the scores observed by {@code other}, which must have been created in the same mode.
+   */
+  public void addAll(final SampledScores other) {
+    checkArgument(values.isPresent() == other.values.isPresent(),
+        "Cannot combine exact and sketched scores");
+    if (values.isPresent()) {
+      values.get().addAll(other.values.get());
+    } else {
+      sketch.get().merge(other.sketch.get());
+    }
+  }
+
+  /**
+   * All the observed scores, if we are keeping them
+   */
+  public Optional<DoubleArrayList> values() {
+    return values;
+  }
+
+  public Optional<Double> percentile(final double percentile) {
+    if (values.isPresent()) {
+      return PercentileComputer.nistPercentileComputer()
+          .calculatePercentilesAdoptingData(values.get().toArray()).percentile(percentile);
+    } else {
+      return sketch.get().percentile(percentile);
+    }
+  }
+
+  public List<Optional<Double>> percentiles(final List<Double> percentiles) {
+    if (values.isPresent()) {
+      return PercentileComputer.nistPercentileComputer()
+          .calculatePercentilesAdoptingData(values.get().toArray()).percentiles(percentiles);
+    } else {
+      return sketch.get().percentiles(percentiles);
+    }
+  }
+}
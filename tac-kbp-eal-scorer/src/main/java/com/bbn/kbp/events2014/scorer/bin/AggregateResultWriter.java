@@ -1,11 +1,11 @@
 package com.bbn.kbp.events2014.scorer.bin;
 
 import com.bbn.bue.common.io.GZIPByteSink;
-import com.bbn.bue.common.math.PercentileComputer;
 import com.bbn.bue.common.serialization.jackson.JacksonSerializer;
 import com.bbn.kbp.events2014.scorer.ImmutableAggregate2015ArgScoringResult;
 import com.bbn.kbp.events2014.scorer.ImmutableAggregate2015LinkScoringResult;
 import com.bbn.kbp.events2014.scorer.ImmutableAggregate2015ScoringResult;
+import com.bbn.kbp.events2014.scorer.SampledScores;
 import com.bbn.kbp.linking.EALScorer2015Style;
 
 import com.google.common.base.Charsets;
@@ -13,7 +13,6 @@ import com.google.common.base.Function;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.io.Files;
-import com.google.common.primitives.Doubles;
 
 import java.io.File;
 import java.io.IOException;
@@ -145,11 +144,19 @@ final class AggregateResultWriter implements KBP2015Scorer.SimpleResultWriter {
         .falseNegatives(argFN).build();
   }
 
-  public KBP2015Scorer.BootstrappedResultWriterSource asBootstrappedResultWriterSource() {
+  /**
+   * If {@code sketchPercentiles} is true, percentiles are estimated from {@link SampledScores}
+   * sketches so memory use does not grow with the number of samples. The scores of every sample
+   * are written to {@code aggregate.bootstrapped.json} only if {@code writeRawSamples} is true.
+   */
+  public KBP2015Scorer.BootstrappedResultWriterSource asBootstrappedResultWriterSource(
+      final boolean sketchPercentiles, final boolean writeRawSamples) {
+    checkArgument(!(sketchPercentiles && writeRawSamples),
+        "Raw bootstrap samples cannot be written when percentiles are sketched");
     return new KBP2015Scorer.BootstrappedResultWriterSource() {
       @Override
       public KBP2015Scorer.BootstrappedResultWriter getResultWriter() {
-        return new BootstrappedAggregateResultWriter();
+        return new BootstrappedAggregateResultWriter(sketchPercentiles, writeRawSamples);
       }
     };
   }
@@ -157,50 +164,66 @@ final class AggregateResultWriter implements KBP2015Scorer.SimpleResultWriter {
   public final class BootstrappedAggregateResultWriter implements
       KBP2015Scorer.BootstrappedResultWriter {
 
-    private List<ImmutableAggregate2015ScoringResult> results = Lists.newArrayList();
+    private final boolean writeRawSamples;
+    private final List<ImmutableAggregate2015ScoringResult> results = Lists.newArrayList();
+    private final SampledScores ealScores;
+    private final SampledScores f1Scores;
+
+    private BootstrappedAggregateResultWriter(final boolean sketchPercentiles,
+        final boolean writeRawSamples) {
+      this.writeRawSamples = writeRawSamples;
+      this.ealScores = SampledScores.forRange(0.0, 100.0, sketchPercentiles);
+      this.f1Scores = SampledScores.forRange(0.0, 100.0, sketchPercentiles);
+    }
 
     @Override
     public void observeSample(final Iterable<EALScorer2015Style.Result> perDocResults) {
-      results.add(computeAggregateScore(ImmutableList.copyOf(perDocResults)));
+      final ImmutableAggregate2015ScoringResult result =
+          computeAggregateScore(ImmutableList.copyOf(perDocResults));
+      ealScores.add(result.linking().overall());
+      final double p = result.argument().precision();
+      final double r = result.argument().recall();
+      f1Scores.add((2*p*r)/(p+r));
+      if (writeRawSamples) {
+        results.add(result);
+      }
+    }
+
+    @Override
+    public void appendSamplesFrom(final KBP2015Scorer.BootstrappedResultWriter other) {
+      checkArgument(other instanceof BootstrappedAggregateResultWriter,
+          "Can only append samples from another aggregate result writer");
+      final BootstrappedAggregateResultWriter otherAggregate =
+          (BootstrappedAggregateResultWriter) other;
+      ealScores.addAll(otherAggregate.ealScores);
+      f1Scores.addAll(otherAggregate.f1Scores);
+      results.addAll(otherAggregate.results);
     }
 
     @Override
     public void writeResult(final File baseOutputDir) throws IOException {
       writePercentiles(baseOutputDir);
 
-      final JacksonSerializer jacksonSerializer = JacksonSerializer.json().prettyOutput().build();
-      jacksonSerializer.serializeTo(results,
-          GZIPByteSink.gzipCompress(
-              Files.asByteSink(new File(baseOutputDir, "aggregate.bootstrapped.json"))));
+      if (writeRawSamples) {
+        final JacksonSerializer jacksonSerializer =
+            JacksonSerializer.json().prettyOutput().build();
+        jacksonSerializer.serializeTo(results,
+            GZIPByteSink.gzipCompress(
+                Files.asByteSink(new File(baseOutputDir, "aggregate.bootstrapped.json"))));
+      }
     }
 
     private void writePercentiles(final File baseOutputDir) throws IOException {
-      final ImmutableList.Builder<Double> ealScoresBuilder = ImmutableList.builder();
-      final ImmutableList.Builder<Double> f1ScoresBuilder = ImmutableList.builder();
-
-      for(final ImmutableAggregate2015ScoringResult result : results) {
-        ealScoresBuilder.add(result.linking().overall());
-        final double p = result.argument().precision();
-        final double r = result.argument().recall();
-        f1ScoresBuilder.add((2*p*r)/(p+r));
-      }
-
-      final PercentileComputer percentileComputer = PercentileComputer.nistPercentileComputer();
-      final PercentileComputer.Percentiles ealPercentiles = percentileComputer.calculatePercentilesAdoptingData(
-          Doubles.toArray(ealScoresBuilder.build()));
-      final PercentileComputer.Percentiles f1Percentiles = percentileComputer.calculatePercentilesAdoptingData(
-          Doubles.toArray(f1ScoresBuilder.build()));
-
       Files.asCharSink(new File(baseOutputDir, "aggregate.bootstrapped.txt"), Charsets.UTF_8).write(
           String
-              .format("%45s:%8.2f\n", "Aggregate argument F1 25th-percentile", f1Percentiles.percentile(0.25).or(Double.NaN))
+              .format("%45s:%8.2f\n", "Aggregate argument F1 25th-percentile", f1Scores.percentile(0.25).or(Double.NaN))
               +
-              String.format("%45s:%8.2f\n\n", "Aggregate argument F1 75th-percentile", f1Percentiles.percentile(0.75).or(Double.NaN))
+              String.format("%45s:%8.2f\n\n", "Aggregate argument F1 75th-percentile", f1Scores.percentile(0.75).or(Double.NaN))
               +
-              String.format("%45s:%8.2f\n", "Aggregate linking score 25th-percentile", ealPercentiles.percentile(0.25).or(Double.NaN))
+              String.format("%45s:%8.2f\n", "Aggregate linking score 25th-percentile", ealScores.percentile(0.25).or(Double.NaN))
               +
               String.format("%45s:%8.2f\n", "Aggregate linking score 75th-percentile",
-                  ealPercentiles.percentile(0.75).or(Double.NaN)));
+                  ealScores.percentile(0.75).or(Double.NaN)));
     }
   }
 }
@@ -5,12 +5,15 @@ import com.bbn.bue.common.serialization.jackson.JacksonSerializer;
 import com.bbn.bue.common.symbols.Symbol;
 import com.bbn.kbp.events2014.TypeRoleFillerRealisFunctions;
 import com.bbn.kbp.events2014.scorer.ImmutableAggregate2015ArgScoringResult;
+import com.bbn.kbp.events2014.scorer.SampledScores;
 import com.bbn.kbp.linking.EALScorer2015Style;
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Function;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Multiset;
 import com.google.common.collect.Multisets;
 import com.google.common.io.Files;
@@ -20,6 +23,7 @@ import java.io.IOException;
 import java.util.Collection;
 import java.util.Map;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Predicates.compose;
 import static com.google.common.base.Predicates.equalTo;
 
@@ -29,9 +33,25 @@ import static com.google.common.base.Predicates.equalTo;
 public final class BootstrappedPerEventResultWriter
     implements KBP2015Scorer.BootstrappedResultWriter {
 
+  private static final int PRECISION = 0;
+  private static final int RECALL = 1;
+  private static final int OVERALL = 2;
+
+  private final boolean sketchPercentiles;
+  private final boolean writeRawSamples;
   private final ImmutableMultimap.Builder<String, ImmutableAggregate2015ArgScoringResult>
       eventTypeToArgScores =
       ImmutableMultimap.builder();
+  // event type -> sampled argument precision, recall, and score, in that order
+  private final Map<String, SampledScores[]> eventTypeToSampledScores = Maps.newHashMap();
+
+  private BootstrappedPerEventResultWriter(final boolean sketchPercentiles,
+      final boolean writeRawSamples) {
+    checkArgument(!(sketchPercentiles && writeRawSamples),
+        "Raw bootstrap samples cannot be written when percentiles are sketched");
+    this.sketchPercentiles = sketchPercentiles;
+    this.writeRawSamples = writeRawSamples;
+  }
 
   @Override
   public void observeSample(final Iterable<EALScorer2015Style.Result> perDocResults) {
@@ -56,13 +76,59 @@ public final class BootstrappedPerEventResultWriter
           FluentIterable.from(perDocResults).transform(ByEventTypeResultWriter.GET_ARG_SCORES_ONLY)
               .transform(filterFunction)
               .toList();
-      eventTypeToArgScores.put(typeEntry.getElement().asString(),
-          AggregateResultWriter.computeArgScoresFromArgResults(relevantArgumentScores));
+      final ImmutableAggregate2015ArgScoringResult argScores =
+          AggregateResultWriter.computeArgScoresFromArgResults(relevantArgumentScores);
+      final SampledScores[] sampledScores = sampledScoresFor(type.asString());
+      sampledScores[PRECISION].add(argScores.precision());
+      sampledScores[RECALL].add(argScores.recall());
+      sampledScores[OVERALL].add(argScores.overall());
+      if (writeRawSamples) {
+        eventTypeToArgScores.put(type.asString(), argScores);
+      }
     }
   }
 
+  private SampledScores[] sampledScoresFor(final String eventType) {
+    SampledScores[] ret = eventTypeToSampledScores.get(eventType);
+    if (ret == null) {
+      ret = new SampledScores[]{SampledScores.forRange(0.0, 100.0, sketchPercentiles),
+          SampledScores.forRange(0.0, 100.0, sketchPercentiles), SampledScores.forRange(0.0, 100.0, sketchPercentiles)};
+      eventTypeToSampledScores.put(eventType, ret);
+    }
+    return ret;
+  }
+
+  @Override
+  public void appendSamplesFrom(final KBP2015Scorer.BootstrappedResultWriter other) {
+    checkArgument(other instanceof BootstrappedPerEventResultWriter,
+        "Can only append samples from another per-event result writer");
+    final BootstrappedPerEventResultWriter otherPerEvent = (BootstrappedPerEventResultWriter) other;
+    for (final Map.Entry<String, SampledScores[]> entry
+        : otherPerEvent.eventTypeToSampledScores.entrySet()) {
+      final SampledScores[] sampledScores = sampledScoresFor(entry.getKey());
+      for (int i = 0; i < sampledScores.length; ++i) {
+        sampledScores[i].addAll(entry.getValue()[i]);
+      }
+    }
+    eventTypeToArgScores.putAll(otherPerEvent.eventTypeToArgScores.build());
+  }
+
   @Override
   public void writeResult(final File baseOutputDir) throws IOException {
+    for (final Map.Entry<String, SampledScores[]> entry : eventTypeToSampledScores.entrySet()) {
+      final File eventTypeDir = new File(baseOutputDir, entry.getKey());
+      eventTypeDir.mkdirs();
+      final StringBuilder sb = new StringBuilder();
+      appendPercentiles("Aggregate argument precision", entry.getValue()[PRECISION], sb);
+      appendPercentiles("Aggregate argument recall", entry.getValue()[RECALL], sb);
+      appendPercentiles("Aggregate argument score", entry.getValue()[OVERALL], sb);
+      Files.asCharSink(new File(eventTypeDir, "aggregateScore.bootstrapped.txt"), Charsets.UTF_8)
+          .write(sb.toString());
+    }
+
+    if (!writeRawSamples) {
+      return;
+    }
     for (final Map.Entry<String, Collection<ImmutableAggregate2015ArgScoringResult>> entry : eventTypeToArgScores
         .build().asMap().entrySet()) {
       final File jsonFile =
@@ -73,11 +139,28 @@ public final class BootstrappedPerEventResultWriter
     }
   }
 
-  public static KBP2015Scorer.BootstrappedResultWriterSource source() {
+  private static void appendPercentiles(final String name, final SampledScores scores,
+      final StringBuilder sb) {
+    sb.append(String.format("%45s:%8.2f\n", name + " 25th-percentile",
+        scores.percentile(0.25).or(Double.NaN)));
+    sb.append(String.format("%45s:%8.2f\n\n", name + " 75th-percentile",
+        scores.percentile(0.75).or(Double.NaN)));
+  }
+
+  /**
+   * If {@code sketchPercentiles} is true, percentiles are estimated from {@link SampledScores}
+   * sketches so memory use does not grow with the number of samples. The scores of every sample
+   * are written to each event type's {@code aggregateScore.json} only if {@code writeRawSamples}
+   * is true.
+   */
+  public static KBP2015Scorer.BootstrappedResultWriterSource source(
+      final boolean sketchPercentiles, final boolean writeRawSamples) {
+    checkArgument(!(sketchPercentiles && writeRawSamples),
+        "Raw bootstrap samples cannot be written when percentiles are sketched");
     return new KBP2015Scorer.BootstrappedResultWriterSource() {
       @Override
       public KBP2015Scorer.BootstrappedResultWriter getResultWriter() {
-        return new BootstrappedPerEventResultWriter();
+        return new BootstrappedPerEventResultWriter(sketchPercentiles, writeRawSamples);
       }
     };
   }
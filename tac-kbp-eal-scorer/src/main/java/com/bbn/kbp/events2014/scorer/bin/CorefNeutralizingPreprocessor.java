@@ -23,6 +23,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.bbn.kbp.events2014.AssessedResponseFunctions.response;
 import static com.google.common.base.Preconditions.checkArgument;
@@ -36,10 +37,11 @@ public final class CorefNeutralizingPreprocessor implements ScoringDataTransform
 
   private static final Logger log = LoggerFactory.getLogger(CorefNeutralizingPreprocessor.class);
 
-  private int passedThrough = 0;
-  private int swappedCASForSameBF = 0;
-  private int swappedCASDifferentBF = 0;
-  private int deleted = 0;
+  // atomic because documents may be transformed on several threads at once
+  private final AtomicInteger passedThrough = new AtomicInteger();
+  private final AtomicInteger swappedCASForSameBF = new AtomicInteger();
+  private final AtomicInteger swappedCASDifferentBF = new AtomicInteger();
+  private final AtomicInteger deleted = new AtomicInteger();
 
   private CorefNeutralizingPreprocessor() {
   }
@@ -84,24 +86,24 @@ public final class CorefNeutralizingPreprocessor implements ScoringDataTransform
           // of the answer key
           responseReplacements.put(response,
               Iterables.getFirst(correctPoolResponsesSharingSameTypeRoleBF, null).response());
-          ++swappedCASForSameBF;
+          swappedCASForSameBF.incrementAndGet();
         } else {
           final Collection<AssessedResponse> correctPoolResponsesSharingSameTypeRole =
               answerKeyByTypeRole.get(TypeRole.apply(response));
           if (!correctPoolResponsesSharingSameTypeRole.isEmpty()) {
             responseReplacements.put(response,
                 Iterables.getFirst(correctPoolResponsesSharingSameTypeRole, null).response());
-            ++swappedCASDifferentBF;
+            swappedCASDifferentBF.incrementAndGet();
           } else {
             // do nothing, drop the response if we can't find anything to map it to
             toDelete.add(response);
-            ++deleted;
+            deleted.incrementAndGet();
           }
         }
       } else {
         // this is not a coref error - either it is right or it is wrong for a another
         // reason, so we just copy it over
-        ++passedThrough;
+        passedThrough.incrementAndGet();
       }
     }
 
@@ -122,8 +124,8 @@ public final class CorefNeutralizingPreprocessor implements ScoringDataTransform
 
   public void logStats() {
     log.info("Coref neutralizer pass {} through, swapped CAS while keeping BF for {},"
-            + "swapped CAS and BF for {}, and deleted {}", passedThrough, swappedCASForSameBF,
-        swappedCASDifferentBF, deleted);
+            + "swapped CAS and BF for {}, and deleted {}", passedThrough.get(),
+        swappedCASForSameBF.get(), swappedCASDifferentBF.get(), deleted.get());
   }
 
 
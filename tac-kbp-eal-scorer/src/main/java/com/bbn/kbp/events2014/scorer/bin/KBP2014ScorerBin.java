@@ -150,7 +150,9 @@ public final class KBP2014ScorerBin {
       final int bootstrapSeed = params.getInteger("bootstrapSeed");
       final int numBootstrapSamples = params.getPositiveInteger("numBootstrapSamples");
       ret.add(EAScoringObserver
-          .createBootstrapOutputter(bootstrapSeed, numBootstrapSamples));
+          .createBootstrapOutputter(bootstrapSeed, numBootstrapSamples,
+              params.getOptionalBoolean("bootstrapPercentileSketch").or(false),
+              params.getOptionalBoolean("writeRawBootstrapSamples").or(false)));
     }
     return ret.build();
   }
@@ -1,6 +1,5 @@
 package com.bbn.kbp.events2014.scorer.bin;
 
-import com.bbn.bue.common.collections.BootstrapIterator;
 import com.bbn.bue.common.files.FileUtils;
 import com.bbn.bue.common.parameters.Parameters;
 import com.bbn.bue.common.symbols.Symbol;
@@ -18,21 +17,27 @@ import com.bbn.kbp.events2014.linking.SameEventTypeLinker;
 import com.bbn.kbp.linking.EALScorer2015Style;
 
 import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Collection;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -43,7 +48,8 @@ public final class KBP2015Scorer {
   private KBP2015Scorer(final EALScorer2015Style documentScorer,
       Map<String, SimpleResultWriter> resultWriters,
       Map<String, BootstrappedResultWriterSource> bootstrappedResultWriters,
-      Optional<Integer> bootstrapSeed, Optional<Integer> bootstrapSamples) {
+      Optional<Integer> bootstrapSeed, Optional<Integer> bootstrapSamples, int numThreads) {
+    checkArgument(numThreads > 0, "Must have a positive number of scoring threads");
     this.documentScorer = checkNotNull(documentScorer);
     this.resultWriters = ImmutableMap.copyOf(resultWriters);
     this.bootstrappedResultWriterSources = ImmutableMap.copyOf(bootstrappedResultWriters);
@@ -55,6 +61,7 @@ public final class KBP2015Scorer {
     if (bootstrapSamples.isPresent()) {
       checkArgument(bootstrapSamples.get() > 0, "Num bootstrap samples must be positive");
     }
+    this.numThreads = numThreads;
   }
 
   public static KBP2015Scorer fromParameters(Parameters params) {
@@ -79,8 +86,14 @@ public final class KBP2015Scorer {
 
     final ImmutableMap.Builder<String, BootstrappedResultWriterSource> bootstrapWriters =
         ImmutableMap.builder();
-    bootstrapWriters.put("aggregate", aggregateWriter.asBootstrappedResultWriterSource());
-    bootstrapWriters.put("byEventTypes", BootstrappedPerEventResultWriter.source());
+    final boolean sketchPercentiles =
+        params.getOptionalBoolean("bootstrapPercentileSketch").or(false);
+    final boolean writeRawSamples =
+        params.getOptionalBoolean("writeRawBootstrapSamples").or(false);
+    bootstrapWriters.put("aggregate",
+        aggregateWriter.asBootstrappedResultWriterSource(sketchPercentiles, writeRawSamples));
+    bootstrapWriters.put("byEventTypes",
+        BootstrappedPerEventResultWriter.source(sketchPercentiles, writeRawSamples));
     bootstrapWriters.putAll(additionalBootstrapWriters);
 
     final Optional<Integer> bootstrapSeed = params.getOptionalInteger("bootstrapSeed");
@@ -91,7 +104,8 @@ public final class KBP2015Scorer {
 
     return new KBP2015Scorer(documentScorer, resultWriters.build(),
         bootstrapWriters.build(), bootstrapSeed,
-        params.getOptionalInteger("bootstrapSamples"));
+        params.getOptionalInteger("bootstrapSamples"),
+        params.getOptionalPositiveInteger("numThreads").or(1));
   }
 
   private static void usage() {
@@ -100,6 +114,9 @@ public final class KBP2015Scorer {
             "\tanswerKey: argument annotation store to score against\n" +
             "\treferenceLinking: linking store to score against\n" +
             "\tdocumentsToScore: (optional) file listing which documents to score.\n" +
+            "\tnumThreads: (optional) how many documents of each system to score at once. Defaults to 1.\n" +
+            "\tbootstrapPercentileSketch: (optional) estimate bootstrap percentiles in bounded memory. Defaults to false.\n" +
+            "\twriteRawBootstrapSamples: (optional) dump the scores of every bootstrap sample. Defaults to false.\n" +
             "\nIf running on a single output store:\n" +
             "\tscoringOutput: directory to write scoring observer logs to\n" +
             "\tsystemOutput: system output to score.\n" +
@@ -107,6 +124,7 @@ public final class KBP2015Scorer {
             "\tscoringOutputRoot: directory to write scoring observer logs to. A subdirectory will be created for each input store.\n"
             +
             "\tsystemOutputsDir: each subdirectory of this is expected to be a system's output to score\n" +
+            "\tnumConcurrentSystems: (optional) how many systems to score at once. Defaults to 1.\n" +
             "\n\nEach system's output directory should have two sub-directories. \"arguments\" " +
             " and \"linking\""
 
@@ -136,13 +154,13 @@ public final class KBP2015Scorer {
     }
     final Parameters params = Parameters.loadSerifStyle(new File(argv[0]));
     log.info(params.dump());
-    final KBP2015Scorer scorer = KBP2015Scorer.fromParameters(params, additionalResultWriters,
-        additionalBootstrapResultWriters);
-
     final AnnotationStore goldAnswerStore = AssessmentSpecFormats.openAnnotationStore(params
             .getExistingDirectory("answerKey"), AssessmentSpecFormats.Format.KBP2015);
     final Set<Symbol> docsToScore = loadDocumentsToScore(params);
     final LinkingStore referenceLinkingStore = getReferenceLinkingStore(goldAnswerStore, params);
+    // the gold standard is read once and shared by every system we score
+    final GoldStandard goldStandard =
+        GoldStandard.load(goldAnswerStore, referenceLinkingStore, docsToScore);
 
     checkArgument(
         params.isPresent(SYSTEM_OUTPUT_PARAM) != params.isPresent(SYSTEM_OUTPUTS_DIR_PARAM),
@@ -155,31 +173,55 @@ public final class KBP2015Scorer {
       final LinkingStore systemLinkingStore =
           getLinkingStore(params, systemOutputDir, argumentStore);
 
-      scorer.score(goldAnswerStore, referenceLinkingStore, argumentStore, systemLinkingStore,
-          docsToScore, scoringOutputDir);
+      final KBP2015Scorer scorer = KBP2015Scorer.fromParameters(params, additionalResultWriters,
+          additionalBootstrapResultWriters);
+      scorer.score(goldStandard, argumentStore, systemLinkingStore, docsToScore,
+          scoringOutputDir);
     } else {
       final File systemOutputsDir = params.getExistingDirectory("systemOutputsDir");
       final File scoringOutputRoot = params.getCreatableDirectory("scoringOutputRoot");
+      final int numConcurrentSystems =
+          params.getOptionalPositiveInteger("numConcurrentSystems").or(1);
 
-      log.info("Scoring all subdirectories of {}", systemOutputsDir);
+      log.info("Scoring all subdirectories of {} with up to {} systems at once", systemOutputsDir,
+          numConcurrentSystems);
 
-      for (File subDir : systemOutputsDir.listFiles()) {
-        try {
+      final ExecutorService executor = Executors.newFixedThreadPool(numConcurrentSystems);
+      try {
+        final ImmutableMap.Builder<File, Future<?>> systemsScoredB = ImmutableMap.builder();
+        for (final File subDir : systemOutputsDir.listFiles()) {
           if (subDir.isDirectory()) {
-            log.info("Scoring system {}", subDir);
-            final File outputDir = new File(scoringOutputRoot, subDir.getName());
-            outputDir.mkdirs();
-            final ArgumentStore argumentStore = getSystemOutputStore(params, subDir);
-            final LinkingStore systemLinkingStore =
-                getLinkingStore(params, subDir, argumentStore);
-
-            scorer.score(goldAnswerStore, referenceLinkingStore, argumentStore,
-                systemLinkingStore,
-                docsToScore, outputDir);
+            // each system gets its own scorer because preprocessors and bootstrapped result
+            // writers keep state
+            final KBP2015Scorer systemScorer = KBP2015Scorer.fromParameters(params,
+                additionalResultWriters, additionalBootstrapResultWriters);
+            systemsScoredB.put(subDir, executor.submit(new Callable<Void>() {
+              @Override
+              public Void call() throws IOException {
+                log.info("Scoring system {}", subDir);
+                final File outputDir = new File(scoringOutputRoot, subDir.getName());
+                outputDir.mkdirs();
+                final ArgumentStore argumentStore = getSystemOutputStore(params, subDir);
+                final LinkingStore systemLinkingStore =
+                    getLinkingStore(params, subDir, argumentStore);
+
+                systemScorer.score(goldStandard, argumentStore, systemLinkingStore, docsToScore,
+                    outputDir);
+                return null;
+              }
+            }));
           }
-        } catch (Exception e) {
-          throw new RuntimeException("Exception while processing " + subDir, e);
         }
+        for (final Map.Entry<File, Future<?>> systemScored : systemsScoredB.build().entrySet()) {
+          try {
+            Uninterruptibles.getUninterruptibly(systemScored.getValue());
+          } catch (ExecutionException e) {
+            throw new RuntimeException("Exception while processing " + systemScored.getKey(),
+                e.getCause());
+          }
+        }
+      } finally {
+        executor.shutdownNow();
       }
     }
   }
@@ -203,40 +245,42 @@ public final class KBP2015Scorer {
   private final boolean doBootstrapping;
   private final int bootstrapSeed;
   private final int numBootstrapSamples;
+  private final int numThreads;
 
-  private void score(final AnnotationStore goldAnswerStore,
-      final LinkingStore referenceLinkingStore, final ArgumentStore argumentStore,
+  private void score(final GoldStandard goldStandard, final ArgumentStore argumentStore,
       final LinkingStore systemLinkingStore, Set<Symbol> docsToScore, final File outputDir)
       throws IOException {
 
     final List<EALScorer2015Style.Result> perDocResults = Lists.newArrayList();
 
-    for (final Symbol docID : docsToScore) {
+    if (numThreads == 1) {
+      for (final Symbol docID : docsToScore) {
+        perDocResults.add(
+            scoreDocument(goldStandard, argumentStore, systemLinkingStore, docID));
+      }
+    } else {
+      // documents are scored independently, but we gather the results in the order of
+      // docsToScore so the output is the same as when scoring serially
+      final ExecutorService executor = Executors.newFixedThreadPool(numThreads);
       try {
-        final AnswerKey argumentKey = goldAnswerStore.read(docID);
-        final ArgumentOutput argumentOutput = argumentStore.readOrEmpty(docID);
-
-        final Optional<ResponseLinking> referenceLinking = referenceLinkingStore.read(argumentKey);
-        final Optional<ResponseLinking> systemLinking = systemLinkingStore.read(argumentOutput);
-
-        if (!referenceLinking.isPresent()) {
-          throw new RuntimeException("Reference linking missing for " + docID);
+        final List<Future<EALScorer2015Style.Result>> perDocFutures = Lists.newArrayList();
+        for (final Symbol docID : docsToScore) {
+          perDocFutures.add(executor.submit(new Callable<EALScorer2015Style.Result>() {
+            @Override
+            public EALScorer2015Style.Result call() {
+              return scoreDocument(goldStandard, argumentStore, systemLinkingStore, docID);
+            }
+          }));
         }
-
-        if (!systemLinking.isPresent()) {
-          throw new RuntimeException("System linking missing for " + docID);
+        for (final Future<EALScorer2015Style.Result> perDocFuture : perDocFutures) {
+          try {
+            perDocResults.add(Uninterruptibles.getUninterruptibly(perDocFuture));
+          } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+          }
         }
-
-        final ScoringData scoringData = ScoringData.builder()
-            .answerKey(argumentKey)
-            .argumentOutput(argumentOutput)
-            .referenceLinking(referenceLinking.get())
-            .systemLinking(systemLinking.get())
-            .build();
-
-        perDocResults.add(documentScorer.score(scoringData));
-      } catch (Exception e) {
-        throw new RuntimeException("Exception while processing " + docID, e);
+      } finally {
+        executor.shutdownNow();
       }
     }
 
@@ -244,6 +288,31 @@ public final class KBP2015Scorer {
     writeBootstrappedOutput(perDocResults, outputDir);
   }
 
+  // this may be called from multiple threads at once
+  private EALScorer2015Style.Result scoreDocument(final GoldStandard goldStandard,
+      final ArgumentStore argumentStore, final LinkingStore systemLinkingStore,
+      final Symbol docID) {
+    try {
+      final ArgumentOutput argumentOutput = argumentStore.readOrEmpty(docID);
+      final Optional<ResponseLinking> systemLinking = systemLinkingStore.read(argumentOutput);
+
+      if (!systemLinking.isPresent()) {
+        throw new RuntimeException("System linking missing for " + docID);
+      }
+
+      final ScoringData scoringData = ScoringData.builder()
+          .answerKey(goldStandard.answerKey(docID))
+          .argumentOutput(argumentOutput)
+          .referenceLinking(goldStandard.referenceLinking(docID))
+          .systemLinking(systemLinking.get())
+          .build();
+
+      return documentScorer.score(scoringData);
+    } catch (Exception e) {
+      throw new RuntimeException("Exception while processing " + docID, e);
+    }
+  }
+
   private void writeNormalOutput(final List<EALScorer2015Style.Result> perDocResults,
       final File baseOutputDir) throws IOException {
     for (final Map.Entry<String, SimpleResultWriter> additionalResultWriter : resultWriters
@@ -258,24 +327,51 @@ public final class KBP2015Scorer {
   private void writeBootstrappedOutput(final List<EALScorer2015Style.Result> perDocResults,
       final File baseOutputDir) throws IOException {
     if (doBootstrapping) {
-      // boostrapped result writers are stateful, so we need to get new ones each time
-      final ImmutableMap.Builder<String, BootstrappedResultWriter> builder = ImmutableMap.builder();
-      for (final Map.Entry<String, BootstrappedResultWriterSource> source : bootstrappedResultWriterSources
-          .entrySet()) {
-        builder.put(source.getKey(), source.getValue().getResultWriter());
+      final ImmutableList<EALScorer2015Style.Result> data = ImmutableList.copyOf(perDocResults);
+      // the samples are split into contiguous runs, each observed by its own fresh set of result
+      // writers, possibly in parallel. Because every sample is drawn with its own seed, appending
+      // the runs back together in order gives the same output regardless of the number of threads
+      final int numRuns = Math.min(numThreads, numBootstrapSamples);
+      final List<ImmutableMap<String, BootstrappedResultWriter>> writersForRuns;
+      if (numRuns == 1) {
+        writersForRuns = ImmutableList.of(observeSamples(data, 0, numBootstrapSamples));
+      } else {
+        writersForRuns = Lists.newArrayList();
+        final ExecutorService executor = Executors.newFixedThreadPool(numRuns);
+        try {
+          final List<Future<ImmutableMap<String, BootstrappedResultWriter>>> runFutures =
+              Lists.newArrayList();
+          for (int run = 0; run < numRuns; ++run) {
+            final int firstSample = (int) ((long) numBootstrapSamples * run / numRuns);
+            final int endSample = (int) ((long) numBootstrapSamples * (run + 1) / numRuns);
+            runFutures.add(executor.submit(
+                new Callable<ImmutableMap<String, BootstrappedResultWriter>>() {
+                  @Override
+                  public ImmutableMap<String, BootstrappedResultWriter> call() {
+                    return observeSamples(data, firstSample, endSample);
+                  }
+                }));
+          }
+          for (final Future<ImmutableMap<String, BootstrappedResultWriter>> runFuture
+              : runFutures) {
+            try {
+              writersForRuns.add(Uninterruptibles.getUninterruptibly(runFuture));
+            } catch (ExecutionException e) {
+              throw Throwables.propagate(e.getCause());
+            }
+          }
+        } finally {
+          executor.shutdownNow();
+        }
       }
-      final ImmutableMap<String, BootstrappedResultWriter> bootstrappedWriters = builder.build();
-
-      // this will produce an infinite sequence of bootstrapped samples of the corpus
-      final Iterator<Collection<EALScorer2015Style.Result>>
-          bootstrapIt = BootstrapIterator.forData(perDocResults, new Random(bootstrapSeed));
-      // a bootstrap iterator always has .next()
-      for (int i = 0; i < numBootstrapSamples; ++i) {
-        // be sure to use the same sample for all observers
-        final Collection<EALScorer2015Style.Result> sample = bootstrapIt.next();
-        for (final KBP2015Scorer.BootstrappedResultWriter bootstrappedResultWriter : bootstrappedWriters
-            .values()) {
-          bootstrappedResultWriter.observeSample(sample);
+
+      final ImmutableMap<String, BootstrappedResultWriter> bootstrappedWriters =
+          writersForRuns.get(0);
+      for (final ImmutableMap<String, BootstrappedResultWriter> laterRun
+          : writersForRuns.subList(1, writersForRuns.size())) {
+        for (final Map.Entry<String, BootstrappedResultWriter> writer : bootstrappedWriters
+            .entrySet()) {
+          writer.getValue().appendSamplesFrom(laterRun.get(writer.getKey()));
         }
       }
 
@@ -288,6 +384,102 @@ public final class KBP2015Scorer {
     }
   }
 
+  /**
+   * Observes bootstrap samples {@code firstSample} (inclusive) through {@code endSample}
+   * (exclusive) with a new set of bootstrapped result writers. This may be called from multiple
+   * threads at once.
+   */
+  private ImmutableMap<String, BootstrappedResultWriter> observeSamples(
+      final ImmutableList<EALScorer2015Style.Result> data, final int firstSample,
+      final int endSample) {
+    // boostrapped result writers are stateful, so we need to get new ones each time
+    final ImmutableMap.Builder<String, BootstrappedResultWriter> builder = ImmutableMap.builder();
+    for (final Map.Entry<String, BootstrappedResultWriterSource> source : bootstrappedResultWriterSources
+        .entrySet()) {
+      builder.put(source.getKey(), source.getValue().getResultWriter());
+    }
+    final ImmutableMap<String, BootstrappedResultWriter> bootstrappedWriters = builder.build();
+
+    for (int i = firstSample; i < endSample; ++i) {
+      // be sure to use the same sample for all observers
+      final ImmutableList<EALScorer2015Style.Result> sample =
+          drawBootstrapSample(data, new Random(sampleSeed(bootstrapSeed, i)));
+      for (final KBP2015Scorer.BootstrappedResultWriter bootstrappedResultWriter : bootstrappedWriters
+          .values()) {
+        bootstrappedResultWriter.observeSample(sample);
+      }
+    }
+    return bootstrappedWriters;
+  }
+
+  // draws with replacement as many items as there are in data
+  private static <T> ImmutableList<T> drawBootstrapSample(final ImmutableList<T> data,
+      final Random rng) {
+    final ImmutableList.Builder<T> ret = ImmutableList.builder();
+    for (int i = 0; i < data.size(); ++i) {
+      ret.add(data.get(rng.nextInt(data.size())));
+    }
+    return ret.build();
+  }
+
+  /**
+   * Derives the seed for drawing bootstrap sample {@code sampleIdx} from the user-specified seed.
+   * This is the SplitMix64 finalizer, which makes the seeds of neighboring samples unrelated.
+   */
+  private static long sampleSeed(final int bootstrapSeed, final int sampleIdx) {
+    long z = bootstrapSeed * 0x9E3779B97F4A7C15L + (sampleIdx + 1) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+  /**
+   * The answer keys and reference linkings for the documents being scored, held in memory so that
+   * any number of systems can be scored against them, concurrently if desired, without re-reading
+   * them.
+   */
+  private static final class GoldStandard {
+
+    private final ImmutableMap<Symbol, AnswerKey> answerKeys;
+    private final ImmutableMap<Symbol, ResponseLinking> referenceLinkings;
+
+    private GoldStandard(final Map<Symbol, AnswerKey> answerKeys,
+        final Map<Symbol, ResponseLinking> referenceLinkings) {
+      this.answerKeys = ImmutableMap.copyOf(answerKeys);
+      this.referenceLinkings = ImmutableMap.copyOf(referenceLinkings);
+    }
+
+    static GoldStandard load(final AnnotationStore goldAnswerStore,
+        final LinkingStore referenceLinkingStore, final Set<Symbol> docIDs) {
+      final ImmutableMap.Builder<Symbol, AnswerKey> answerKeys = ImmutableMap.builder();
+      final ImmutableMap.Builder<Symbol, ResponseLinking> referenceLinkings =
+          ImmutableMap.builder();
+      for (final Symbol docID : docIDs) {
+        try {
+          final AnswerKey argumentKey = goldAnswerStore.read(docID);
+          final Optional<ResponseLinking> referenceLinking =
+              referenceLinkingStore.read(argumentKey);
+          if (!referenceLinking.isPresent()) {
+            throw new RuntimeException("Reference linking missing for " + docID);
+          }
+          answerKeys.put(docID, argumentKey);
+          referenceLinkings.put(docID, referenceLinking.get());
+        } catch (Exception e) {
+          throw new RuntimeException("Exception while processing " + docID, e);
+        }
+      }
+      return new GoldStandard(answerKeys.build(), referenceLinkings.build());
+    }
+
+    AnswerKey answerKey(final Symbol docID) {
+      return answerKeys.get(docID);
+    }
+
+    ResponseLinking referenceLinking(final Symbol docID) {
+      return referenceLinkings.get(docID);
+    }
+  }
+
   interface SimpleResultWriter {
     void writeResult(final List<EALScorer2015Style.Result> perDocResults,
         final File baseOutputDir) throws IOException;
@@ -302,6 +494,12 @@ public final class KBP2015Scorer {
 
     void observeSample(final Iterable<EALScorer2015Style.Result> perDocResults);
 
+    /**
+     * Adds the samples observed by {@code other}, which must come from the same {@link
+     * BootstrappedResultWriterSource}, as if this writer had observed them after its own.
+     */
+    void appendSamplesFrom(BootstrappedResultWriter other);
+
     void writeResult(File baseOutputDir) throws IOException;
   }
 
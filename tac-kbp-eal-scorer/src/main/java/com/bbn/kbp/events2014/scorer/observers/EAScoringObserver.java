@@ -1,8 +1,6 @@
 package com.bbn.kbp.events2014.scorer.observers;
 
 import com.bbn.bue.common.OptionalUtils;
-import com.bbn.bue.common.annotations.MoveToBUECommon;
-import com.bbn.bue.common.collections.BootstrapIterator;
 import com.bbn.bue.common.collections.MapUtils;
 import com.bbn.bue.common.diff.FMeasureTableRenderer;
 import com.bbn.bue.common.evaluation.BrokenDownSummaryConfusionMatrix;
@@ -11,7 +9,7 @@ import com.bbn.bue.common.evaluation.ProvenancedConfusionMatrix;
 import com.bbn.bue.common.evaluation.SummaryConfusionMatrices;
 import com.bbn.bue.common.evaluation.SummaryConfusionMatrix;
 import com.bbn.bue.common.io.GZIPByteSink;
-import com.bbn.bue.common.math.PercentileComputer;
+import com.bbn.bue.common.math.BinnedPercentileSketch;
 import com.bbn.bue.common.scoring.Scored;
 import com.bbn.bue.common.scoring.Scoreds;
 import com.bbn.bue.common.serialization.jackson.JacksonSerializer;
@@ -22,6 +20,7 @@ import com.bbn.kbp.events2014.EventArgScoringAlignment;
 import com.bbn.kbp.events2014.TypeRoleFillerRealis;
 import com.bbn.kbp.events2014.scorer.BreakdownComputer;
 import com.bbn.kbp.events2014.scorer.BreakdownFunctions;
+import com.bbn.kbp.events2014.scorer.SampledScores;
 import com.bbn.kbp.events2014.scorer.observers.errorloggers.HTMLErrorRecorder;
 
 import com.carrotsearch.hppc.DoubleArrayList;
@@ -29,20 +28,19 @@ import com.carrotsearch.hppc.cursors.DoubleCursor;
 import com.google.common.base.Charsets;
 import com.google.common.base.Function;
 import com.google.common.base.Functions;
+import com.google.common.base.Optional;
 import com.google.common.base.Predicate;
 import com.google.common.base.Strings;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
-import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Multimap;
 import com.google.common.collect.Multimaps;
 import com.google.common.collect.Ordering;
+import com.google.common.collect.Sets;
 import com.google.common.io.ByteSink;
 import com.google.common.io.Files;
 
@@ -104,7 +102,19 @@ public final class EAScoringObserver extends KBPScoringObserver<TypeRoleFillerRe
   }
 
   public static Outputter createBootstrapOutputter(int seed, int numSamples) {
-    return new BootstrapOutputter(seed, numSamples);
+    return createBootstrapOutputter(seed, numSamples, false, false);
+  }
+
+  /**
+   * Creates an outputter which reports percentiles of scores over bootstrap samples of the corpus.
+   * If {@code sketchPercentiles} is true, percentiles are estimated with {@link
+   * BinnedPercentileSketch}es (to within 0.005 percentage points) so that memory use does not grow
+   * with {@code numSamples}. Otherwise all sampled scores are kept and, if {@code writeRawSamples} is true,
+   * written to {@code *.bootstrapped.raw} directories.
+   */
+  public static Outputter createBootstrapOutputter(int seed, int numSamples,
+      boolean sketchPercentiles, boolean writeRawSamples) {
+    return new BootstrapOutputter(seed, numSamples, sketchPercentiles, writeRawSamples);
   }
 
   public static Outputter createEquivalenceClassIDOutputter() {
@@ -395,45 +405,75 @@ public final class EAScoringObserver extends KBPScoringObserver<TypeRoleFillerRe
 
     private final int bootstrapSeed;
     private final int numBootstrapSamples;
+    private final boolean sketchPercentiles;
+    private final boolean writeRawSamples;
 
     public BootstrapOutputter(int bootstrapSeed, int numBootstrapSamples) {
+      this(bootstrapSeed, numBootstrapSamples, false, false);
+    }
+
+    public BootstrapOutputter(int bootstrapSeed, int numBootstrapSamples,
+        boolean sketchPercentiles, boolean writeRawSamples) {
       this.bootstrapSeed = bootstrapSeed;
       this.numBootstrapSamples = numBootstrapSamples;
+      this.sketchPercentiles = sketchPercentiles;
+      this.writeRawSamples = writeRawSamples;
       checkArgument(numBootstrapSamples > 0);
+      checkArgument(!(sketchPercentiles && writeRawSamples),
+          "Raw bootstrap samples cannot be written when percentiles are sketched");
     }
 
     public void writeOutput(Iterable<DocumentResult> documentResults, File outputDirectory)
         throws IOException {
-      // now we compute many "samples" of possible corpora based on our existing corpus. We score each of
-      // these samples and compute confidence intervals from them
+      final ImmutableList<DocumentResult> docs = ImmutableList.copyOf(documentResults);
+      if (docs.isEmpty()) {
+        return;
+      }
+
+      // we reduce each document to primitive counts for each breakdown up front so that scoring
+      // a sample is just adding up arrays of ints
+      final Set<String> breakdownModes = Sets.newTreeSet();
+      for (final DocumentResult doc : docs) {
+        breakdownModes.addAll(doc.breakdownMatrices.keySet());
+      }
+      final ImmutableList.Builder<SampledBreakdown> sampledBreakdownsB = ImmutableList.builder();
+      for (final String modeName : breakdownModes) {
+        for (final Map.Entry<String, Collection<Symbol>> FMeasureSymbol : F_MEASURES_TO_PRINT
+            .asMap().entrySet()) {
+          sampledBreakdownsB.add(SampledBreakdown.forDocuments(docs, modeName, FMeasureSymbol,
+              sketchPercentiles));
+        }
+      }
+      final ImmutableList<SampledBreakdown> sampledBreakdowns = sampledBreakdownsB.build();
+
+      // now we compute many "samples" of possible corpora based on our existing corpus. We score
+      // each of these samples and compute confidence intervals from them. Samples are drawn
+      // exactly as BootstrapIterator would draw them
       final Random rng = new Random(bootstrapSeed);
-      final Iterator<Collection<DocumentResult>> bootstrappedResults =
-          Iterators.limit(BootstrapIterator.forData(documentResults, rng), numBootstrapSamples);
-
-      final List<Map<String, BrokenDownSummaryConfusionMatrix<Symbol>>> resultsForSamples =
-          Lists.newArrayList();
-      while (bootstrappedResults.hasNext()) {
-        resultsForSamples.add(combineBreakdowns(
-            transform(bootstrappedResults.next(), DocumentResult.GetBreakdownMatricesFunction)
-                .iterator()));
+      final int[] sample = new int[docs.size()];
+      for (int sampleNum = 0; sampleNum < numBootstrapSamples; ++sampleNum) {
+        for (int i = 0; i < sample.length; ++i) {
+          sample[i] = rng.nextInt(docs.size());
+        }
+        for (final SampledBreakdown sampledBreakdown : sampledBreakdowns) {
+          sampledBreakdown.observeSample(sample);
+        }
       }
 
-      final ImmutableMultimap<String, BrokenDownSummaryConfusionMatrix<Symbol>>
-          resultsByBreakdownType =
-          combineMapsToMultimap(resultsForSamples);
-      writeSampledBreakdownsToFiles(resultsByBreakdownType, outputDirectory);
+      writeSampledBreakdownsToFiles(sampledBreakdowns, outputDirectory);
     }
 
-
-    private void writeSampledBreakdownsToFiles(
-        Multimap<String, BrokenDownSummaryConfusionMatrix<Symbol>> data,
+    private void writeSampledBreakdownsToFiles(List<SampledBreakdown> sampledBreakdowns,
         File outputDirectory) throws IOException {
-      for (final Map.Entry<String, Collection<BrokenDownSummaryConfusionMatrix<Symbol>>> printMode
-          : data.asMap().entrySet()) {
+      for (final Map.Entry<String, Collection<SampledBreakdown>> printMode
+          : Multimaps.index(sampledBreakdowns, SampledBreakdown.ModeNameFunction).asMap()
+          .entrySet()) {
         final String modeName = printMode.getKey();
         final File scoringBreakdownFilename = new File(outputDirectory, modeName + ".bootstrapped");
         final File rawDir = new File(outputDirectory, modeName + ".bootstrapped.raw");
-        rawDir.mkdir();
+        if (writeRawSamples) {
+          rawDir.mkdir();
+        }
         writeSamplesScoringBreakdown(modeName, printMode.getValue(),
             scoringBreakdownFilename, rawDir);
       }
@@ -443,47 +483,39 @@ public final class EAScoringObserver extends KBPScoringObserver<TypeRoleFillerRe
         ImmutableList.of(0.01, 0.05, 0.25, 0.5, 0.75, 0.95, 0.99);
 
     private void writeSamplesScoringBreakdown(String modeName,
-        Collection<BrokenDownSummaryConfusionMatrix<Symbol>> data,
+        Collection<SampledBreakdown> data,
         File outputFile, File rawDir) throws IOException {
       final StringBuilder sb = new StringBuilder();
 
       sb.append("BREAKDOWN BY ").append(modeName).append("\n");
 
-      for (final Map.Entry<String, Collection<Symbol>> FMeasureSymbol : F_MEASURES_TO_PRINT.asMap()
-          .entrySet()) {
-        final Multimap<String, FMeasureCounts> fMeasuresToPrint = toFMeasures(data, FMeasureSymbol);
+      for (final SampledBreakdown sampledBreakdown : data) {
+        final Map.Entry<String, Collection<Symbol>> FMeasureSymbol =
+            sampledBreakdown.FMeasureSymbol;
 
-        final ImmutableMap.Builder<String, PercentileComputer.Percentiles> precisionPercentiles =
+        final ImmutableMap.Builder<String, List<Optional<Double>>> precisionPercentiles =
             ImmutableMap.builder();
-        final ImmutableMap.Builder<String, PercentileComputer.Percentiles> recallPercentiles =
+        final ImmutableMap.Builder<String, List<Optional<Double>>> recallPercentiles =
             ImmutableMap.builder();
-        final ImmutableMap.Builder<String, PercentileComputer.Percentiles> fPercentiles =
+        final ImmutableMap.Builder<String, List<Optional<Double>>> fPercentiles =
             ImmutableMap.builder();
 
-        final PercentileComputer nistComputer = PercentileComputer.nistPercentileComputer();
-
-        for (final Map.Entry<String, Collection<FMeasureCounts>> entry : fMeasuresToPrint.asMap()
-            .entrySet()) {
-          final DoubleArrayList precisions = new DoubleArrayList(entry.getValue().size());
-          final DoubleArrayList recalls = new DoubleArrayList(entry.getValue().size());
-          final DoubleArrayList fs = new DoubleArrayList(entry.getValue().size());
-
-          for (final FMeasureCounts counts : entry.getValue()) {
-            precisions.add((double) counts.precision());
-            recalls.add((double) counts.recall());
-            fs.add((double) counts.F1());
+        for (final int key : sampledBreakdown.keysInOrderSeen) {
+          final String keyName = sampledBreakdown.keys.get(key).toString();
+          final SampledScores precisions = sampledBreakdown.precisions[key];
+          final SampledScores recalls = sampledBreakdown.recalls[key];
+          final SampledScores fs = sampledBreakdown.fs[key];
+
+          if (writeRawSamples) {
+            final String rawPrefix = keyName + "_" + FMeasureSymbol.getKey();
+            writeArray(precisions.values().get(),
+                new File(rawDir, rawPrefix + ".precisions.txt"));
+            writeArray(recalls.values().get(), new File(rawDir, rawPrefix + ".recalls.txt"));
+            writeArray(fs.values().get(), new File(rawDir, rawPrefix + ".fs.txt"));
           }
-
-          final String rawPrefix = entry.getKey() + "_" + FMeasureSymbol.getKey();
-          writeArray(precisions, new File(rawDir, rawPrefix + ".precisions.txt"));
-          writeArray(recalls, new File(rawDir, rawPrefix + ".recalls.txt"));
-          writeArray(fs, new File(rawDir, rawPrefix + ".fs.txt"));
-          precisionPercentiles.put(entry.getKey(),
-              nistComputer.calculatePercentilesAdoptingData(precisions.toArray()));
-          recallPercentiles.put(entry.getKey(),
-              nistComputer.calculatePercentilesAdoptingData(recalls.toArray()));
-          fPercentiles.put(entry.getKey(),
-              nistComputer.calculatePercentilesAdoptingData(fs.toArray()));
+          precisionPercentiles.put(keyName, precisions.percentiles(PERCENTILES_TO_PRINT));
+          recallPercentiles.put(keyName, recalls.percentiles(PERCENTILES_TO_PRINT));
+          fPercentiles.put(keyName, fs.percentiles(PERCENTILES_TO_PRINT));
         }
 
         dumpPercentilesForMetric("Precision", precisionPercentiles.build(), FMeasureSymbol, sb);
@@ -505,15 +537,15 @@ public final class EAScoringObserver extends KBPScoringObserver<TypeRoleFillerRe
     }
 
     private void dumpPercentilesForMetric(String metricName,
-        ImmutableMap<String, PercentileComputer.Percentiles> percentiles,
+        ImmutableMap<String, List<Optional<Double>>> percentiles,
         Map.Entry<String, Collection<Symbol>> FMeasureSymbol, StringBuilder output) {
       output.append(metricName).append(" vs ").append(FMeasureSymbol.getKey()).append("\n\n");
       output.append(renderLine("Name", PERCENTILES_TO_PRINT));
       output.append(Strings.repeat("*", 70)).append("\n");
-      for (final Map.Entry<String, PercentileComputer.Percentiles> percentileEntry : percentiles
+      for (final Map.Entry<String, List<Optional<Double>>> percentileEntry : percentiles
           .entrySet()) {
         output.append(renderLine(percentileEntry.getKey(),
-            Lists.transform(percentileEntry.getValue().percentiles(PERCENTILES_TO_PRINT),
+            Lists.transform(percentileEntry.getValue(),
                 OptionalUtils.deoptionalizeFunction(Double.NaN))));
       }
       output.append("\n\n\n");
@@ -530,38 +562,166 @@ public final class EAScoringObserver extends KBPScoringObserver<TypeRoleFillerRe
       return ret.toString();
     }
 
-    private ImmutableMultimap<String, FMeasureCounts> toFMeasures(
-        Collection<BrokenDownSummaryConfusionMatrix<Symbol>> data,
-        Map.Entry<String, Collection<Symbol>> FMeasureSymbol) {
-      final ImmutableMultimap.Builder<String, FMeasureCounts> ret = ImmutableMultimap.builder();
+  }
+
+  /**
+   * The true positive, false positive, and false negative counts of every document for each key
+   * of one breakdown, scored for one F-measure, flattened into arrays of ints. As bootstrap
+   * samples are observed, we record the precision, recall, and F1 of each key present in each
+   * sample.
+   *
+   * The order in which keys are first seen and the order in which scores are recorded match
+   * what we would get by combining the {@link BrokenDownSummaryConfusionMatrix}s of each sample
+   * with {@link #combineBreakdowns(Iterator)}, so the output is identical.
+   */
+  private static final class SampledBreakdown {
+
+    private static final Ordering<Symbol> KEY_ORDERING = Ordering.from(new SymbolUtils.ByString());
+
+    private final String modeName;
+    private final Map.Entry<String, Collection<Symbol>> FMeasureSymbol;
+    // sorted as BrokenDownSummaryConfusionMatrix.Builder would sort them
+    private final ImmutableList<Symbol> keys;
+    // the counts for document d are at indices [docStarts[d], docStarts[d+1])
+    private final int[] docStarts;
+    private final int[] docKeys;
+    private final int[] docTruePositives;
+    private final int[] docFalsePositives;
+    private final int[] docFalseNegatives;
+
+    // accumulators for the current sample, reset after each sample
+    private final int[] sampleCountsSeen;
+    private final int[] sampleTruePositives;
+    private final int[] sampleFalsePositives;
+    private final int[] sampleFalseNegatives;
+
+    private final boolean sketchPercentiles;
+    private final List<Integer> keysInOrderSeen = Lists.newArrayList();
+    private final SampledScores[] precisions;
+    private final SampledScores[] recalls;
+    private final SampledScores[] fs;
+
+    private SampledBreakdown(final String modeName,
+        final Map.Entry<String, Collection<Symbol>> FMeasureSymbol,
+        final ImmutableList<Symbol> keys, final int[] docStarts, final int[] docKeys,
+        final int[] docTruePositives, final int[] docFalsePositives,
+        final int[] docFalseNegatives, final boolean sketchPercentiles) {
+      this.modeName = checkNotNull(modeName);
+      this.FMeasureSymbol = checkNotNull(FMeasureSymbol);
+      this.keys = checkNotNull(keys);
+      this.docStarts = docStarts;
+      this.docKeys = docKeys;
+      this.docTruePositives = docTruePositives;
+      this.docFalsePositives = docFalsePositives;
+      this.docFalseNegatives = docFalseNegatives;
+      this.sampleCountsSeen = new int[keys.size()];
+      this.sampleTruePositives = new int[keys.size()];
+      this.sampleFalsePositives = new int[keys.size()];
+      this.sampleFalseNegatives = new int[keys.size()];
+      this.sketchPercentiles = sketchPercentiles;
+      this.precisions = new SampledScores[keys.size()];
+      this.recalls = new SampledScores[keys.size()];
+      this.fs = new SampledScores[keys.size()];
+    }
+
+    static SampledBreakdown forDocuments(final List<DocumentResult> docs, final String modeName,
+        final Map.Entry<String, Collection<Symbol>> FMeasureSymbol,
+        final boolean sketchPercentiles) {
+      final Set<Symbol> keySet = Sets.newHashSet();
+      int numCounts = 0;
+      for (final DocumentResult doc : docs) {
+        final BrokenDownSummaryConfusionMatrix<Symbol> breakdown =
+            doc.breakdownMatrices.get(modeName);
+        if (breakdown != null) {
+          keySet.addAll(breakdown.asMap().keySet());
+          numCounts += breakdown.asMap().size();
+        }
+      }
+      final ImmutableList<Symbol> keys = KEY_ORDERING.immutableSortedCopy(keySet);
+      final Map<Symbol, Integer> keyIndices = Maps.newHashMap();
+      for (int i = 0; i < keys.size(); ++i) {
+        keyIndices.put(keys.get(i), i);
+      }
 
-        /*
-         MapUtils.copyWithTransformedEntries(data.asMap(),
-                            Functions.toStringFunction(), FmeasureVs(FMeasureSymbol.getValue()));
-         */
       final Function<SummaryConfusionMatrix, FMeasureCounts> scoringFunction =
           FmeasureVs(ImmutableSet.copyOf(FMeasureSymbol.getValue()));
-      for (final BrokenDownSummaryConfusionMatrix<Symbol> dataPoint : data) {
-        for (final Map.Entry<Symbol, SummaryConfusionMatrix> entry : dataPoint.asMap().entrySet()) {
-          ret.put(entry.getKey().toString(), scoringFunction.apply(entry.getValue()));
+      final int[] docStarts = new int[docs.size() + 1];
+      final int[] docKeys = new int[numCounts];
+      final int[] docTruePositives = new int[numCounts];
+      final int[] docFalsePositives = new int[numCounts];
+      final int[] docFalseNegatives = new int[numCounts];
+      int count = 0;
+      for (int d = 0; d < docs.size(); ++d) {
+        docStarts[d] = count;
+        final BrokenDownSummaryConfusionMatrix<Symbol> breakdown =
+            docs.get(d).breakdownMatrices.get(modeName);
+        if (breakdown != null) {
+          for (final Map.Entry<Symbol, SummaryConfusionMatrix> entry : breakdown.asMap()
+              .entrySet()) {
+            final FMeasureCounts counts = scoringFunction.apply(entry.getValue());
+            docKeys[count] = keyIndices.get(entry.getKey());
+            docTruePositives[count] = asCount(counts.truePositives());
+            docFalsePositives[count] = asCount(counts.falsePositives());
+            docFalseNegatives[count] = asCount(counts.falseNegatives());
+            ++count;
+          }
         }
       }
-
-      return ret.build();
+      docStarts[docs.size()] = count;
+      return new SampledBreakdown(modeName, FMeasureSymbol, keys, docStarts, docKeys,
+          docTruePositives, docFalsePositives, docFalseNegatives, sketchPercentiles);
     }
 
-    @MoveToBUECommon
-    private static <K, V> ImmutableMultimap<K, V> combineMapsToMultimap(
-        Iterable<? extends Map<K, V>> maps) {
-      final ImmutableMultimap.Builder<K, V> ret = ImmutableMultimap.builder();
+    // confusion matrices built from provenances hold whole-number counts
+    private static int asCount(double count) {
+      checkArgument(count == Math.rint(count) && count >= 0 && count <= Integer.MAX_VALUE,
+          "Expected a whole-number count but got %s", count);
+      return (int) count;
+    }
 
-      for (final Map<K, V> map : maps) {
-        ret.putAll(Multimaps.forMap(map));
+    /**
+     * Records the scores of a bootstrap sample, given as the indices of the documents drawn.
+     */
+    void observeSample(final int[] sample) {
+      for (final int doc : sample) {
+        for (int i = docStarts[doc]; i < docStarts[doc + 1]; ++i) {
+          final int key = docKeys[i];
+          ++sampleCountsSeen[key];
+          sampleTruePositives[key] += docTruePositives[i];
+          sampleFalsePositives[key] += docFalsePositives[i];
+          sampleFalseNegatives[key] += docFalseNegatives[i];
+        }
       }
 
-      return ret.build();
+      for (int key = 0; key < keys.size(); ++key) {
+        if (sampleCountsSeen[key] > 0) {
+          if (precisions[key] == null) {
+            keysInOrderSeen.add(key);
+            precisions[key] = SampledScores.forRange(0.0, 1.0, sketchPercentiles);
+            recalls[key] = SampledScores.forRange(0.0, 1.0, sketchPercentiles);
+            fs[key] = SampledScores.forRange(0.0, 1.0, sketchPercentiles);
+          }
+          final FMeasureCounts counts = FMeasureCounts.from(sampleTruePositives[key],
+              sampleFalsePositives[key], sampleFalseNegatives[key]);
+          precisions[key].add(counts.precision());
+          recalls[key].add(counts.recall());
+          fs[key].add(counts.F1());
+
+          sampleCountsSeen[key] = 0;
+          sampleTruePositives[key] = 0;
+          sampleFalsePositives[key] = 0;
+          sampleFalseNegatives[key] = 0;
+        }
+      }
     }
 
+    static final Function<SampledBreakdown, String> ModeNameFunction =
+        new Function<SampledBreakdown, String>() {
+          @Override
+          public String apply(final SampledBreakdown input) {
+            return input.modeName;
+          }
+        };
   }
 
   /**
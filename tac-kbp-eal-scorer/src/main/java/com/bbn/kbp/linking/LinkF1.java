@@ -1,26 +1,21 @@
 package com.bbn.kbp.linking;
 
-import com.bbn.bue.common.annotations.MoveToBUECommon;
-import com.bbn.bue.common.collections.CollectionUtils;
 import com.bbn.bue.common.evaluation.FMeasureCounts;
 
-import com.google.common.base.Predicates;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
-import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Collection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
-import static com.google.common.base.Preconditions.checkArgument;
-import static com.google.common.base.Predicates.in;
-import static com.google.common.base.Predicates.not;
-import static com.google.common.collect.Iterables.filter;
-
 public class LinkF1 {
 
   private static final Logger log = LoggerFactory.getLogger(LinkF1.class);
@@ -38,98 +33,171 @@ public class LinkF1 {
     double linkPrecisionSum = 0.0;
     double linkRecallSum = 0.0;
 
-    final Multimap<T, ? extends Set<T>> predictedItemToGroup =
-        CollectionUtils.makeSetElementsToContainersMultimap(predicted);
-    final Multimap<T, ? extends Set<T>> goldItemToGroup =
-        CollectionUtils.makeSetElementsToContainersMultimap(gold);
-
-    final ImmutableSet<T> keyItems = ImmutableSet.copyOf(Iterables.<T>concat(gold));
-    final ImmutableSet<T> predictedItems = ImmutableSet.copyOf(Iterables.<T>concat(predicted));
-    checkArgument(keyItems.containsAll(predictedItems),
-        "Predicted linking has items the gold linking lacks: %s", Sets
-            .difference(predictedItems, keyItems));
-    if (keyItems.isEmpty()) {
-      if (predictedItemToGroup.isEmpty()) {
+    // items are numbered in the order they first appear in the gold linking. Their scores are
+    // summed in this order, which must not change or the sums could differ in the last bits
+    final Map<T, Integer> itemIDs = new HashMap<>();
+    for (final Set<T> goldSet : gold) {
+      for (final T item : goldSet) {
+        if (!itemIDs.containsKey(item)) {
+          itemIDs.put(item, itemIDs.size());
+        }
+      }
+    }
+    final int numKeyItems = itemIDs.size();
+    for (final T predictedItem : Iterables.<T>concat(predicted)) {
+      if (!itemIDs.containsKey(predictedItem)) {
+        throw new IllegalArgumentException(
+            "Predicted linking has items the gold linking lacks: " + Sets.difference(
+                ImmutableSet.copyOf(Iterables.<T>concat(predicted)), itemIDs.keySet()));
+      }
+    }
+
+    final EncodedLinking predictedLinking = EncodedLinking.encode(predicted, itemIDs);
+    final EncodedLinking goldLinking = EncodedLinking.encode(gold, itemIDs);
+    if (numKeyItems == 0) {
+      if (predictedLinking.numItems() == 0) {
         log.info("Key and predicted are empty; returning score of 1");
         return new ExplicitFMeasureInfo(1.0, 1.0, 1.0);
       } else {
         log.info("Key is empty but predicted is not; returning score of 0");
         return new ExplicitFMeasureInfo(0.0, 0.0, 0.0);
       }
-    } else if (predictedItems.isEmpty()) {
+    } else if (predictedLinking.numItems() == 0) {
       log.info("Predicted is empty but key is not; returning score of 0");
       return new ExplicitFMeasureInfo(0.0, 0.0, 0.0);
     }
 
-    for (final T keyItem : keyItems) {
-      // withouts are to ensure an element is not counted as its own neighbor
-      final Set<T> predictedNeighbors = ImmutableSet.copyOf(
-          without(Iterables.<T>concat(predictedItemToGroup.get(keyItem)),
-              keyItem));
-      final Set<T> goldNeighbors = ImmutableSet.copyOf(without(
-          Iterables.<T>concat(goldItemToGroup.get(keyItem)),
-          keyItem));
-
-      if (predictedItems.contains(keyItem)) {
-        final boolean predictedIsSingleton = predictedNeighbors.isEmpty();
-        final boolean goldIsSingleton = goldNeighbors.isEmpty();
-
-        if (!(predictedIsSingleton && goldIsSingleton)) {
-          int truePositiveLinks = Sets.intersection(predictedNeighbors, goldNeighbors).size();
-          int falsePositiveLinks = Sets.difference(predictedNeighbors, goldNeighbors).size();
-          int falseNegativeLinks = Sets.difference(goldNeighbors, predictedNeighbors).size();
-
-          final FMeasureCounts fMeasureCounts =
-              FMeasureCounts.from(truePositiveLinks, falsePositiveLinks, falseNegativeLinks);
+    // reused for every item
+    final long[] predictedNeighbors = new long[EncodedLinking.wordsFor(numKeyItems)];
+    final long[] goldNeighbors = new long[predictedNeighbors.length];
+    for (int item = 0; item < numKeyItems; ++item) {
+      // items present only in the gold linking score 0.0
+      if (predictedLinking.contains(item)) {
+        // an item is not counted as its own neighbor
+        predictedLinking.neighborsOf(item, predictedNeighbors);
+        goldLinking.neighborsOf(item, goldNeighbors);
+        int numPredictedNeighbors = 0;
+        int numGoldNeighbors = 0;
+        int truePositiveLinks = 0;
+        for (int word = 0; word < predictedNeighbors.length; ++word) {
+          numPredictedNeighbors += Long.bitCount(predictedNeighbors[word]);
+          numGoldNeighbors += Long.bitCount(goldNeighbors[word]);
+          truePositiveLinks += Long.bitCount(predictedNeighbors[word] & goldNeighbors[word]);
+        }
+
+        if (numPredictedNeighbors > 0 || numGoldNeighbors > 0) {
+          final FMeasureCounts fMeasureCounts = FMeasureCounts.from(truePositiveLinks,
+              numPredictedNeighbors - truePositiveLinks, numGoldNeighbors - truePositiveLinks);
           linkF1Sum += fMeasureCounts.F1();
           linkPrecisionSum += fMeasureCounts.precision();
           linkRecallSum += fMeasureCounts.recall();
-
-          if (predictedIsSingleton) {
-            log.info(
-                "For {}, gold neighbors are {} but predicted is singleton. Item f-measure is {}",
-                keyItem, goldNeighbors, fMeasureCounts.F1());
-          } else {
-            log.info(
-                "For {}, gold neighbors are {} and predicted neighbors are {}. Item f-measure is {}",
-                keyItem, goldNeighbors, predictedNeighbors, fMeasureCounts.F1());
-          }
         } else {
-          final boolean appearsInPredicted = predictedItems.contains(keyItem);
-          if (appearsInPredicted) {
-            // arguments which are correctly linked to nothing (singletons)
-            // count as having perfect links
-            linkF1Sum += 1.0;
-            linkPrecisionSum += 1.0;
-            linkRecallSum += 1.0;
-            log.info("{} is a singleton in both key and predicted. Score of 1.0", keyItem);
-          } else {
-            log.info("{} is a singleton in key but does not appear in predicted. Score of 0.0",
-                keyItem);
-          }
+          // arguments which are correctly linked to nothing (singletons)
+          // count as having perfect links
+          linkF1Sum += 1.0;
+          linkPrecisionSum += 1.0;
+          linkRecallSum += 1.0;
         }
-      } else {
-        log.info("{} is present only in the gold linking. Item F-measure is 0.0", keyItem);
       }
     }
     // note we divide linkPrecisionSum by the number of predicted items,
     // but the others by the number of gold items. This is because missing items
     // hurt recall but not precision
     final ExplicitFMeasureInfo explicitFMeasureInfo =
-        new ExplicitFMeasureInfo(linkPrecisionSum / predictedItems.size(),
-            linkRecallSum / keyItems.size(), linkF1Sum / keyItems.size());
+        new ExplicitFMeasureInfo(linkPrecisionSum / predictedLinking.numItems(),
+            linkRecallSum / numKeyItems, linkF1Sum / numKeyItems);
     log.info("Final document linking score: {}", explicitFMeasureInfo);
     return explicitFMeasureInfo;
   }
 
-  @MoveToBUECommon
-  private static <T, S extends T> Iterable<T> without(Iterable<T> input, S itemToExclude) {
-    return filter(input, not(Predicates.<T>equalTo(itemToExclude)));
-  }
+  /**
+   * A linking whose items have been numbered from 0. Each of its sets is a bitset over item
+   * numbers, and each item knows which sets contain it, so the neighbors of an item can be found
+   * without allocating.
+   */
+  private static final class EncodedLinking {
+
+    private final long[][] setBits;
+    // item number -> indices into setBits of the sets containing it
+    private final int[][] setsContainingItem;
+    private final int numItems;
+
+    private EncodedLinking(final long[][] setBits, final int[][] setsContainingItem,
+        final int numItems) {
+      this.setBits = setBits;
+      this.setsContainingItem = setsContainingItem;
+      this.numItems = numItems;
+    }
+
+    static int wordsFor(final int numItems) {
+      return (numItems + Long.SIZE - 1) / Long.SIZE;
+    }
 
-  @MoveToBUECommon
-  private static <T> Iterable<T> withoutAnyOf(Iterable<T> input,
-      Collection<? extends T> itemsToExclude) {
-    return filter(input, not(in(itemsToExclude)));
+    /**
+     * Every item of {@code linking} must be in {@code itemIDs}.
+     */
+    static <T> EncodedLinking encode(final Iterable<? extends Set<T>> linking,
+        final Map<T, Integer> itemIDs) {
+      final int words = wordsFor(itemIDs.size());
+      final List<long[]> setBits = new ArrayList<>();
+      final int[] numSetsContainingItem = new int[itemIDs.size()];
+      for (final Set<T> set : linking) {
+        final long[] bits = new long[words];
+        for (final T item : set) {
+          final int id = itemIDs.get(item);
+          bits[id / Long.SIZE] |= 1L << (id % Long.SIZE);
+          ++numSetsContainingItem[id];
+        }
+        setBits.add(bits);
+      }
+
+      int numItems = 0;
+      final int[][] setsContainingItem = new int[numSetsContainingItem.length][];
+      for (int item = 0; item < numSetsContainingItem.length; ++item) {
+        setsContainingItem[item] = new int[numSetsContainingItem[item]];
+        if (numSetsContainingItem[item] > 0) {
+          ++numItems;
+        }
+      }
+      final int[] numSetsFilled = new int[numSetsContainingItem.length];
+      for (int set = 0; set < setBits.size(); ++set) {
+        final long[] bits = setBits.get(set);
+        for (int word = 0; word < words; ++word) {
+          long remaining = bits[word];
+          while (remaining != 0) {
+            final int item = word * Long.SIZE + Long.numberOfTrailingZeros(remaining);
+            setsContainingItem[item][numSetsFilled[item]++] = set;
+            remaining &= remaining - 1;
+          }
+        }
+      }
+      return new EncodedLinking(setBits.toArray(new long[setBits.size()][]), setsContainingItem,
+          numItems);
+    }
+
+    /**
+     * The number of items in at least one set.
+     */
+    int numItems() {
+      return numItems;
+    }
+
+    boolean contains(final int item) {
+      return setsContainingItem[item].length > 0;
+    }
+
+    /**
+     * Sets {@code neighbors} to the items sharing a set with {@code item}, other than itself.
+     */
+    void neighborsOf(final int item, final long[] neighbors) {
+      Arrays.fill(neighbors, 0L);
+      for (final int set : setsContainingItem[item]) {
+        final long[] bits = setBits[set];
+        for (int word = 0; word < neighbors.length; ++word) {
+          neighbors[word] |= bits[word];
+        }
+      }
+      neighbors[item / Long.SIZE] &= ~(1L << (item % Long.SIZE));
+    }
   }
 }
@@ -0,0 +1,110 @@
+package com.bbn.kbp.events;
+
+import com.bbn.kbp.events2014.CharOffsetSpan;
+import com.bbn.nlp.corenlp.CoreNLPDocument;
+import com.bbn.nlp.corenlp.CoreNLPParseNode;
+import com.bbn.nlp.corenlp.CoreNLPSentence;
+import com.bbn.nlp.corenlp.CoreNLPXMLLoader;
+import com.bbn.nlp.parsing.HeadFinders;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Resources;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+
+public class CoreNLPHeadTableTest {
+
+  // the fixture's text is "The rebels attacked Mordor yesterday. Frodo fled to the Shire."
+  private static final int TEXT_LENGTH = 62;
+
+  @Test
+  public void testHeadsMatchCoreNLPDocument() throws IOException {
+    final CoreNLPDocument coreNLPDoc =
+        CoreNLPXMLLoader.builder(HeadFinders.<CoreNLPParseNode>getEnglishPTBHeadFinder()).build()
+            .loadFrom(Resources.asCharSource(
+                Resources.getResource(CoreNLPHeadTableTest.class, "/CoreNLPHeadTableTest.xml"),
+                Charsets.UTF_8));
+    final CoreNLPHeadTable headTable = CoreNLPHeadTable.fromCoreNLPDocument(coreNLPDoc);
+    final ByteArrayDataOutput out = ByteStreams.newDataOutput();
+    headTable.writeTo(out);
+    final CoreNLPHeadTable reloaded = CoreNLPHeadTable.readFrom(ByteBuffer.wrap(out.toByteArray()));
+
+    // every span of the text and just past it, including spans inside a token, spans of several
+    // constituents and spans crossing the sentence boundary
+    for (int start = 0; start <= TEXT_LENGTH + 1; ++start) {
+      for (int end = start; end <= TEXT_LENGTH + 1; ++end) {
+        final CharOffsetSpan span = CharOffsetSpan.fromOffsetsOnly(start, end);
+        final Optional<CharOffsetSpan> expected = headFromDocument(coreNLPDoc, span);
+        assertSameHead(span, expected, headTable.headOf(span));
+        assertSameHead(span, expected, reloaded.headOf(span));
+      }
+    }
+
+    // a few heads spelled out, so the test does not pass merely because both sides find nothing
+    assertEquals("rebels", headTable.headOf(span(coreNLPDoc, "The rebels")).get().string().get());
+    assertEquals("attacked",
+        headTable.headOf(span(coreNLPDoc, "attacked Mordor yesterday")).get().string().get());
+    assertEquals("fled", headTable.headOf(span(coreNLPDoc, "fled to the")).get().string().get());
+    assertEquals("Shire", headTable.headOf(span(coreNLPDoc, "the Shire")).get().string().get());
+  }
+
+  /**
+   * The head lookup {@link CoreNLPHeadTable} replaces.
+   */
+  private static Optional<CharOffsetSpan> headFromDocument(final CoreNLPDocument coreNLPDoc,
+      final CharOffsetSpan span) {
+    final Optional<CoreNLPSentence> sentence =
+        coreNLPDoc.firstSentenceContaining(span.asCharOffsetRange());
+    if (!sentence.isPresent()) {
+      return Optional.absent();
+    }
+    final Optional<CoreNLPParseNode> node =
+        sentence.get().nodeForOffsets(span.asCharOffsetRange());
+    if (!node.isPresent() || !node.get().terminalHead().isPresent()) {
+      return Optional.absent();
+    }
+    final CoreNLPParseNode head = node.get().terminalHead().get();
+    return Optional.of(CharOffsetSpan.fromOffsetsAndDebugString(
+        head.span().startInclusive().asInt(), head.span().endInclusive().asInt(),
+        head.token().get().content()));
+  }
+
+  private static void assertSameHead(final CharOffsetSpan span,
+      final Optional<CharOffsetSpan> expected, final Optional<CharOffsetSpan> actual) {
+    // CharOffsetSpan equality ignores the head's text, so compare it separately
+    assertEquals("head of " + span, expected, actual);
+    if (expected.isPresent()) {
+      assertEquals("head text of " + span, expected.get().string(), actual.get().string());
+    }
+  }
+
+  /**
+   * The span of the first tokens of {@code coreNLPDoc} spelling out {@code words}.
+   */
+  private static CharOffsetSpan span(final CoreNLPDocument coreNLPDoc, final String words) {
+    final String[] wordsToMatch = words.split(" ");
+    for (final CoreNLPSentence sentence : coreNLPDoc.sentences()) {
+      for (int i = 0; i + wordsToMatch.length <= sentence.tokens().size(); ++i) {
+        boolean matches = true;
+        for (int j = 0; j < wordsToMatch.length; ++j) {
+          matches &= sentence.tokens().get(i + j).content().equals(wordsToMatch[j]);
+        }
+        if (matches) {
+          return CharOffsetSpan.fromOffsetsOnly(
+              sentence.tokens().get(i).offsets().startInclusive().asInt(),
+              sentence.tokens().get(i + wordsToMatch.length - 1).offsets().endInclusive()
+                  .asInt());
+        }
+      }
+    }
+    throw new IllegalArgumentException("Fixture does not contain " + words);
+  }
+}
@@ -0,0 +1,205 @@
+package com.bbn.kbp.events;
+
+import com.bbn.bue.common.symbols.Symbol;
+import com.bbn.kbp.events.ontology.EREToKBPEventOntologyMapper;
+import com.bbn.kbp.events2014.CharOffsetSpan;
+import com.bbn.kbp.events2014.KBPRealis;
+import com.bbn.kbp.events2014.KBPString;
+import com.bbn.kbp.events2014.Response;
+import com.bbn.nlp.corpora.ere.EREArgument;
+import com.bbn.nlp.corpora.ere.EREDocument;
+import com.bbn.nlp.corpora.ere.EREEntity;
+import com.bbn.nlp.corpora.ere.EREEntityArgument;
+import com.bbn.nlp.corpora.ere.EREEntityMention;
+import com.bbn.nlp.corpora.ere.EREEvent;
+import com.bbn.nlp.corpora.ere.EREEventMention;
+import com.bbn.nlp.corpora.ere.EREFiller;
+import com.bbn.nlp.corpora.ere.EREFillerArgument;
+import com.bbn.nlp.corpora.ere.ERESpan;
+import com.bbn.nlp.corpora.ere.LinkRealis;
+
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EREAlignerTest {
+
+  private static final String DOC_ID = "doc1";
+  private static final int DOC_LENGTH = 400;
+  private static final ImmutableList<String> ROLES =
+      ImmutableList.of("attacker", "target", "place", "instrument", "time");
+
+  /**
+   * The indexed aligner must make exactly the same alignment decisions as the scanning aligner,
+   * including which of several matching ERE objects it returns.
+   */
+  @Test
+  public void indexedAlignerMatchesScanningAligner() throws IOException {
+    final Random rng = new Random(0);
+    final EREDocument ereDoc = randomEREDocument(rng);
+    final EREToKBPEventOntologyMapper mapping = EREToKBPEventOntologyMapper.create2016Mapping();
+
+    final EREAligner scanning = EREAligner.create(false, ereDoc,
+        Optional.<CoreNLPHeadTable>absent(), mapping);
+    final EREAligner indexed = EREAligner.createIndexed(false, ereDoc,
+        Optional.<CoreNLPHeadTable>absent(), mapping);
+
+    int numAligned = 0;
+    for (final Response response : randomResponses(rng, ereDoc, 2000)) {
+      final Optional<ScoringCorefID> expected = scanning.argumentForResponse(response);
+      assertEquals(response.toString(), expected, indexed.argumentForResponse(response));
+      if (expected.isPresent()) {
+        ++numAligned;
+      }
+    }
+    // make sure we actually exercised the alignment rules rather than comparing failures
+    assertTrue(numAligned > 100);
+  }
+
+  @Test
+  public void enclosingLookupFindsAllEnclosingArgumentsInDocumentOrder() {
+    final EREEntityMention outer = EREEntityMention.from("m1", "NAM",
+        ERESpan.from(10, 40, "outer"), Optional.<ERESpan>absent());
+    final EREEntityMention inner = EREEntityMention.from("m2", "NAM",
+        ERESpan.from(15, 20, "inner"), Optional.<ERESpan>absent());
+    final EREEntityMention overlapping = EREEntityMention.from("m3", "NAM",
+        ERESpan.from(18, 50, "overlapping"), Optional.<ERESpan>absent());
+    final EREEntityMention exact = EREEntityMention.from("m4", "NAM",
+        ERESpan.from(16, 19, "exact"), Optional.<ERESpan>absent());
+    final EREDocument ereDoc = EREDocument.builder(DOC_ID, "newswire")
+        .withEntity(EREEntity.builder("e1", "PER", "specific").withMention(outer)
+            .withMention(inner).withMention(overlapping).withMention(exact).build())
+        .withEvent(EREEvent.builder("h1")
+            .withEventMention(EREEventMention.builder("em1", "conflict", "attack", "actual",
+                ERESpan.from(0, 5, "attack"))
+                .withArgument(EREEntityArgument.from("attacker", LinkRealis.REALIS, overlapping))
+                .withArgument(EREEntityArgument.from("target", LinkRealis.REALIS, inner))
+                .withArgument(EREEntityArgument.from("place", LinkRealis.REALIS, exact))
+                .withArgument(EREEntityArgument.from("victim", LinkRealis.REALIS, outer))
+                .build()).build())
+        .build();
+
+    final EREArgumentIndex index = EREArgumentIndex.forDocument(ereDoc);
+    final List<Integer> enclosing = index.argumentsEnclosing(EXTENT,
+        CharOffsetSpan.fromOffsetsOnly(16, 19));
+    assertEquals(ImmutableList.of(1, 2, 3), enclosing);
+    assertEquals(ImmutableList.of(2),
+        index.argumentsWithSpan(EXTENT, CharOffsetSpan.fromOffsetsOnly(16, 19)));
+    assertEquals(ImmutableList.<Integer>of(),
+        index.argumentsEnclosing(EXTENT, CharOffsetSpan.fromOffsetsOnly(5, 12)));
+  }
+
+  private static final Function<EREArgument, CharOffsetSpan> EXTENT =
+      new Function<EREArgument, CharOffsetSpan>() {
+        @Override
+        public CharOffsetSpan apply(final EREArgument input) {
+          final ERESpan span = ((EREEntityArgument) input).entityMention().getExtent();
+          return CharOffsetSpan.fromOffsetsOnly(span.getStart(), span.getEnd());
+        }
+      };
+
+  static EREDocument randomEREDocument(final Random rng) {
+    final EREDocument.Builder doc = EREDocument.builder(DOC_ID, "discussion_forum");
+    final ImmutableList.Builder<EREEntityMention> mentionsB = ImmutableList.builder();
+    for (int entityIdx = 0; entityIdx < 30; ++entityIdx) {
+      final EREEntity.Builder entity = EREEntity.builder("e" + entityIdx, "PER", "specific");
+      for (int mentionIdx = 0; mentionIdx < 4; ++mentionIdx) {
+        final ERESpan extent = randomSpan(rng, 0, DOC_LENGTH, 30);
+        final Optional<ERESpan> head = rng.nextBoolean()
+                                       ? Optional.of(randomSpan(rng, extent.getStart(),
+            extent.getEnd() + 1, 5))
+                                       : Optional.<ERESpan>absent();
+        final EREEntityMention mention = EREEntityMention.from(
+            "e" + entityIdx + "-m" + mentionIdx, "NOM", extent, head);
+        entity.withMention(mention);
+        mentionsB.add(mention);
+      }
+      doc.withEntity(entity.build());
+    }
+    final ImmutableList<EREEntityMention> mentions = mentionsB.build();
+
+    final ImmutableList.Builder<EREFiller> fillersB = ImmutableList.builder();
+    for (int fillerIdx = 0; fillerIdx < 20; ++fillerIdx) {
+      final EREFiller filler =
+          EREFiller.from("f" + fillerIdx, "time", randomSpan(rng, 0, DOC_LENGTH, 10));
+      doc.withFiller(filler);
+      fillersB.add(filler);
+    }
+    final ImmutableList<EREFiller> fillers = fillersB.build();
+
+    for (int eventIdx = 0; eventIdx < 25; ++eventIdx) {
+      final EREEvent.Builder event = EREEvent.builder("h" + eventIdx);
+      for (int eventMentionIdx = 0; eventMentionIdx < 3; ++eventMentionIdx) {
+        final EREEventMention.Builder eventMention = EREEventMention.builder(
+            "h" + eventIdx + "-em" + eventMentionIdx, "conflict", "attack", "actual",
+            randomSpan(rng, 0, DOC_LENGTH, 5));
+        final int numArgs = 1 + rng.nextInt(4);
+        for (int argIdx = 0; argIdx < numArgs; ++argIdx) {
+          final String role = ROLES.get(rng.nextInt(ROLES.size()));
+          if (rng.nextInt(4) == 0) {
+            eventMention.withArgument(EREFillerArgument.from(role, LinkRealis.REALIS,
+                fillers.get(rng.nextInt(fillers.size()))));
+          } else {
+            eventMention.withArgument(EREEntityArgument.from(role, LinkRealis.REALIS,
+                mentions.get(rng.nextInt(mentions.size()))));
+          }
+        }
+        event.withEventMention(eventMention.build());
+      }
+      doc.withEvent(event.build());
+    }
+    return doc.build();
+  }
+
+  static ImmutableList<Response> randomResponses(final Random rng,
+      final EREDocument ereDoc, final int numResponses) {
+    // bias responses towards ERE spans so that the exact match rules fire
+    final ImmutableList.Builder<ERESpan> ereSpansB = ImmutableList.builder();
+    for (final EREEntity entity : ereDoc.getEntities()) {
+      for (final EREEntityMention mention : entity.getMentions()) {
+        ereSpansB.add(mention.getExtent());
+        if (mention.getHead().isPresent()) {
+          ereSpansB.add(mention.getHead().get());
+        }
+      }
+    }
+    for (final EREFiller filler : ereDoc.getFillers()) {
+      ereSpansB.add(filler.getExtent());
+    }
+    final ImmutableList<ERESpan> ereSpans = ereSpansB.build();
+
+    final ImmutableList.Builder<Response> ret = ImmutableList.builder();
+    for (int i = 0; i < numResponses; ++i) {
+      final ERESpan cas = rng.nextBoolean() ? ereSpans.get(rng.nextInt(ereSpans.size()))
+                                            : randomSpan(rng, 0, DOC_LENGTH, 15);
+      final ERESpan baseFiller = rng.nextBoolean() ? ereSpans.get(rng.nextInt(ereSpans.size()))
+                                                   : randomSpan(rng, cas.getStart(),
+                                                       cas.getEnd() + 1, 5);
+      final String role = ROLES.get(rng.nextInt(ROLES.size()));
+      ret.add(Response.of(Symbol.from(DOC_ID), Symbol.from("Conflict.Attack"),
+          Symbol.from(Character.toUpperCase(role.charAt(0)) + role.substring(1)),
+          KBPString.from(cas.getText(), cas.getStart(), cas.getEnd()),
+          CharOffsetSpan.fromOffsetsOnly(baseFiller.getStart(), baseFiller.getEnd()),
+          ImmutableSet.<CharOffsetSpan>of(),
+          ImmutableSet.of(CharOffsetSpan.fromOffsetsOnly(0, DOC_LENGTH)), KBPRealis.Actual));
+    }
+    return ret.build();
+  }
+
+  private static ERESpan randomSpan(final Random rng, final int minStart, final int maxEnd,
+      final int maxLength) {
+    final int start = minStart + rng.nextInt(Math.max(1, maxEnd - minStart));
+    final int end = Math.min(maxEnd - 1, start + rng.nextInt(maxLength));
+    return ERESpan.from(start, Math.max(start, end), "span" + start + "-" + end);
+  }
+}
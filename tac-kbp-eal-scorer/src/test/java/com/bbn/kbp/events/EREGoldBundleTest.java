@@ -0,0 +1,90 @@
+package com.bbn.kbp.events;
+
+import com.bbn.bue.common.files.FileUtils;
+import com.bbn.bue.common.symbols.Symbol;
+import com.bbn.kbp.events.ontology.EREToKBPEventOntologyMapper;
+import com.bbn.kbp.events2014.Response;
+import com.bbn.nlp.corpora.ere.EREArgument;
+import com.bbn.nlp.corpora.ere.EREDocument;
+import com.bbn.nlp.corpora.ere.EREEvent;
+import com.bbn.nlp.corpora.ere.EREEventMention;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class EREGoldBundleTest {
+
+  @Test
+  public void bundledDocumentsScoreLikeOriginals() throws IOException {
+    final EREDocument original = EREAlignerTest.randomEREDocument(new Random(0));
+    final Symbol docID = Symbol.from(original.getDocId());
+    final File tmpDir = Files.createTempDir();
+    FileUtils.recursivelyDeleteDirectoryOnExit(tmpDir);
+    final File bundleFile = new File(tmpDir, "gold.bundle");
+
+    EREGoldBundle.write(ImmutableSet.of(docID), new EREGoldSource() {
+      @Override
+      public EREDocument ereDocument(final Symbol docID) {
+        return original;
+      }
+
+      @Override
+      public Optional<CoreNLPHeadTable> coreNLPHeads(final Symbol docID) {
+        return Optional.absent();
+      }
+    }, bundleFile);
+
+    final EREGoldBundle bundle = EREGoldBundle.open(bundleFile);
+    assertEquals(ImmutableSet.of(docID), bundle.docIDs());
+    assertFalse(bundle.coreNLPHeads(docID).isPresent());
+    final EREDocument reloaded = bundle.ereDocument(docID);
+
+    assertEquals(original.getDocId(), reloaded.getDocId());
+    assertEquals(original.getEntities(), reloaded.getEntities());
+    assertEquals(original.getFillers(), reloaded.getFillers());
+    assertEquals(original.getEvents().size(), reloaded.getEvents().size());
+    for (int i = 0; i < original.getEvents().size(); ++i) {
+      final EREEvent originalEvent = original.getEvents().get(i);
+      final EREEvent reloadedEvent = reloaded.getEvents().get(i);
+      assertEquals(originalEvent.getID(), reloadedEvent.getID());
+      assertEquals(originalEvent.getEventMentions().size(),
+          reloadedEvent.getEventMentions().size());
+      for (int j = 0; j < originalEvent.getEventMentions().size(); ++j) {
+        final EREEventMention originalMention = originalEvent.getEventMentions().get(j);
+        final EREEventMention reloadedMention = reloadedEvent.getEventMentions().get(j);
+        assertEquals(originalMention.getType(), reloadedMention.getType());
+        assertEquals(originalMention.getSubtype(), reloadedMention.getSubtype());
+        assertEquals(originalMention.getRealis(), reloadedMention.getRealis());
+        assertEquals(originalMention.getArguments(), reloadedMention.getArguments());
+        for (int k = 0; k < originalMention.getArguments().size(); ++k) {
+          final EREArgument originalArg = originalMention.getArguments().get(k);
+          final EREArgument reloadedArg = reloadedMention.getArguments().get(k);
+          assertEquals(originalArg.getRealis(), reloadedArg.getRealis());
+          assertEquals(ScoringUtils.extractScoringEntity(originalArg, original),
+              ScoringUtils.extractScoringEntity(reloadedArg, reloaded));
+        }
+      }
+    }
+
+    // and the alignment results are unaffected
+    final EREToKBPEventOntologyMapper mapping = EREToKBPEventOntologyMapper.create2016Mapping();
+    final EREAligner originalAligner = EREAligner.create(false, original,
+        Optional.<CoreNLPHeadTable>absent(), mapping);
+    final EREAligner reloadedAligner = EREAligner.create(false, reloaded,
+        Optional.<CoreNLPHeadTable>absent(), mapping);
+    for (final Response response : EREAlignerTest.randomResponses(new Random(1), original, 500)) {
+      assertEquals(originalAligner.argumentForResponse(response),
+          reloadedAligner.argumentForResponse(response));
+    }
+  }
+}
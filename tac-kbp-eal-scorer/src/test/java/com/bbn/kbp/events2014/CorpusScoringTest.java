@@ -20,6 +20,7 @@ import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 
 import static junit.framework.TestCase.assertEquals;
 
@@ -83,7 +84,7 @@ public class CorpusScoringTest {
     final QueryResponse2016 timeWars = QueryResponse2016.of(query1, doc3ID,
         ImmutableSet.of(allDoc3));
 
-    final CorpusQueryAssessments assessments = CorpusQueryAssessments.builder()
+    final CorpusQueryAssessments.Builder assessmentsB = CorpusQueryAssessments.builder()
         .queryReponses(ImmutableSet.of(attackedInDoc1, attackedInDoc1WithBadPJ,
             invasionInDoc2, timeWars))
         .queryResponsesToSystemIDs(ImmutableMultimap.of(
@@ -95,13 +96,44 @@ public class CorpusScoringTest {
         .putAssessments(attackedInDoc1, QueryAssessment2016.CORRECT)
         .putAssessments(invasionInDoc2, QueryAssessment2016.CORRECT)
         .putAssessments(timeWars, QueryAssessment2016.ET_MATCH)
-        .putAssessments(attackedInDoc1WithBadPJ, QueryAssessment2016.WRONG)
-        .build();
+        .putAssessments(attackedInDoc1WithBadPJ, QueryAssessment2016.WRONG);
+    final CorpusQueryAssessments assessments = assessmentsB.build();
 
     final File assessmentsFile = new File(outputDir, "assessments.txt");
     SingleFileQueryStoreWriter.builder().build().saveTo(assessments,
         Files.asCharSink(assessmentsFile, Charsets.UTF_8));
 
+    // many more queries than scoring threads, so that concurrent scoring splits them into several
+    // chunks. Each uses one of query1's entry points and assesses the same responses differently
+    final CorpusQuerySet2016.Builder manyQueriesB = CorpusQuerySet2016.builder()
+        .addQueries(gondorInvasionQuery);
+    for (int i = 0; i < 8; ++i) {
+      final Symbol queryID = Symbol.from("manyQuery" + i);
+      manyQueriesB.addQueries(CorpusQuery2016.of(queryID,
+          ImmutableSet.of(gondorInvasionQuery.entryPoints().asList().get(i % 2))));
+      for (final QueryResponse2016 response : ImmutableSet.of(attackedInDoc1,
+          attackedInDoc1WithBadPJ, invasionInDoc2, timeWars)) {
+        final QueryResponse2016 forQuery = response.withQueryID(queryID);
+        assessmentsB.addQueryReponses(forQuery)
+            .putAllQueryResponsesToSystemIDs(forQuery,
+                assessments.queryResponsesToSystemIDs().get(response));
+      }
+      assessmentsB
+          .putAssessments(attackedInDoc1.withQueryID(queryID), QueryAssessment2016.CORRECT)
+          .putAssessments(attackedInDoc1WithBadPJ.withQueryID(queryID),
+              QueryAssessment2016.WRONG)
+          .putAssessments(invasionInDoc2.withQueryID(queryID),
+              i % 2 == 0 ? QueryAssessment2016.CORRECT : QueryAssessment2016.WRONG)
+          .putAssessments(timeWars.withQueryID(queryID),
+              i % 3 == 0 ? QueryAssessment2016.CORRECT : QueryAssessment2016.ET_MATCH);
+    }
+    final File manyQueriesFile = new File(outputDir, "manyQueries.txt");
+    DefaultCorpusQueryWriter.create().writeQueries(manyQueriesB.build(),
+        Files.asCharSink(manyQueriesFile, Charsets.UTF_8));
+    final File manyAssessmentsFile = new File(outputDir, "manyAssessments.txt");
+    SingleFileQueryStoreWriter.builder().build().saveTo(assessmentsB.build(),
+        Files.asCharSink(manyAssessmentsFile, Charsets.UTF_8));
+
     final Response mordorAttacked = Response.builder().docID(doc1ID).type(conflictAttack)
         .role(attacker).canonicalArgument(mordor).baseFiller(mordor.charOffsetSpan())
         .addPredicateJustifications(allDoc1Sent1).realis(KBPRealis.Actual)
@@ -208,15 +240,57 @@ public class CorpusScoringTest {
             .build());
     acmeOutputStore.close();
 
+    // the indexed executor must find exactly what the default one does, even when it is shared
+    // across stores and cannot keep their documents' indexes
+    final IndexedCorpusQueryExecutor evictingExecutor =
+        IndexedCorpusQueryExecutor.createDefaultFor2016(1);
+    for (final Symbol system : ImmutableSet.of(U_OF_BAR, U_OF_FOO, ACME_CORP)) {
+      final SystemOutputStore2016 store = KBPEA2016OutputLayout.get().open(
+          new File(systemOutputDir, system.asString()));
+      final ImmutableSet<DocEventFrameReference> expected =
+          DefaultCorpusQueryExecutor.createDefaultFor2016()
+              .queryEventFrames(store, gondorInvasionQuery);
+      assertEquals(expected, IndexedCorpusQueryExecutor.createDefaultFor2016()
+          .queryEventFrames(store, gondorInvasionQuery));
+      assertEquals(expected, evictingExecutor.queryEventFrames(store, gondorInvasionQuery));
+      assertEquals(expected, DefaultCorpusQueryExecutor.createDefaultFor2016()
+          .queryEventFramesBatch(store, querySet).get(gondorInvasionQuery));
+      store.close();
+    }
+
     final ImmutableMap.Builder<String, String> parameters = ImmutableMap.builder();
     final File scoringOutputDir = new File(outputDir, "scoringOutput");
     parameters.put("com.bbn.tac.eal.outputDir", scoringOutputDir.getAbsolutePath());
     parameters.put("com.bbn.tac.eal.queryFile", queriesFile.getAbsolutePath());
     parameters.put("com.bbn.tac.eal.queryAssessmentsFile", assessmentsFile.getAbsolutePath());
     parameters.put("com.bbn.tac.eal.systemOutputsDir", systemOutputDir.getAbsolutePath());
+    // scoring concurrently must not change the results
+    parameters.put("com.bbn.tac.eal.numConcurrentSystems", "2");
+    parameters.put("com.bbn.tac.eal.numThreads", "2");
 
     CorpusScorer.trueMain(Parameters.fromMap(parameters.build()));
 
+    // scoring many queries concurrently must give exactly the output of scoring them serially
+    final File serialOutputDir = new File(outputDir, "serialScoringOutput");
+    CorpusScorer.trueMain(Parameters.fromMap(ImmutableMap.<String, String>builder()
+        .put("com.bbn.tac.eal.systemOutputsDir", systemOutputDir.getAbsolutePath())
+        .put("com.bbn.tac.eal.outputDir", serialOutputDir.getAbsolutePath())
+        .put("com.bbn.tac.eal.queryFile", manyQueriesFile.getAbsolutePath())
+        .put("com.bbn.tac.eal.queryAssessmentsFile", manyAssessmentsFile.getAbsolutePath())
+        .put("com.bbn.tac.eal.numConcurrentSystems", "1")
+        .put("com.bbn.tac.eal.numThreads", "1")
+        .build()));
+    final File concurrentOutputDir = new File(outputDir, "concurrentScoringOutput");
+    CorpusScorer.trueMain(Parameters.fromMap(ImmutableMap.<String, String>builder()
+        .put("com.bbn.tac.eal.systemOutputsDir", systemOutputDir.getAbsolutePath())
+        .put("com.bbn.tac.eal.outputDir", concurrentOutputDir.getAbsolutePath())
+        .put("com.bbn.tac.eal.queryFile", manyQueriesFile.getAbsolutePath())
+        .put("com.bbn.tac.eal.queryAssessmentsFile", manyAssessmentsFile.getAbsolutePath())
+        .put("com.bbn.tac.eal.numConcurrentSystems", "2")
+        .put("com.bbn.tac.eal.numThreads", "3")
+        .build()));
+    assertSameFiles(serialOutputDir, concurrentOutputDir);
+
     final JacksonSerializer jsonDeserializer = JacksonSerializer.builder().forJson().build();
 
     final File uBarScoreFile = new File(new File(scoringOutputDir, U_OF_BAR.asString()),
@@ -241,6 +315,25 @@ public class CorpusScoringTest {
     assertEquals(0.0, acmeScores.recall(), EPSILON);
   }
 
+  private static void assertSameFiles(final File expectedDir, final File actualDir)
+      throws IOException {
+    final String[] expectedNames = expectedDir.list();
+    final String[] actualNames = actualDir.list();
+    Arrays.sort(expectedNames);
+    Arrays.sort(actualNames);
+    assertEquals(Arrays.asList(expectedNames), Arrays.asList(actualNames));
+    for (final String name : expectedNames) {
+      final File expected = new File(expectedDir, name);
+      final File actual = new File(actualDir, name);
+      if (expected.isDirectory()) {
+        assertSameFiles(expected, actual);
+      } else {
+        assertEquals(expected.toString(), Files.asCharSource(expected, Charsets.UTF_8).read(),
+            Files.asCharSource(actual, Charsets.UTF_8).read());
+      }
+    }
+  }
+
   private static ResponseLinking linkAll(final ArgumentOutput bbnOutputDoc1) {
     final ResponseSet responseSet = ResponseSet.of(bbnOutputDoc1.responses());
     return ResponseLinking.builder().docID(bbnOutputDoc1.docId())
@@ -0,0 +1,94 @@
+package com.bbn.kbp.linking;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Test;
+
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The expected scores were computed by the implementation which compared neighbor sets directly,
+ * and must match it exactly, since scores are compared across scorer versions.
+ */
+public class LinkF1Test {
+
+  @Test
+  public void testItemsInSeveralSets() {
+    assertScores(0.5333333333333334, 0.6333333333333334, 0.5533333333333333,
+        ImmutableList.of(set("a", "b"), set("b", "c", "d"), set("a", "e")),
+        ImmutableList.of(set("a", "b", "c"), set("c", "d"), set("e")));
+  }
+
+  @Test
+  public void testSingletons() {
+    // a is correctly a singleton, while b and c should have been linked
+    assertScores(0.3333333333333333, 0.3333333333333333, 0.3333333333333333,
+        ImmutableList.of(set("a"), set("b"), set("c")),
+        ImmutableList.of(set("a"), set("b", "c")));
+  }
+
+  @Test
+  public void testItemsOnlyInGold() {
+    assertScores(1.0, 0.6666666666666666, 0.6666666666666666,
+        ImmutableList.of(set("a", "b")),
+        ImmutableList.of(set("a", "b"), set("c")));
+    assertScores(0.16666666666666666, 0.2857142857142857, 0.19047619047619047,
+        ImmutableList.of(set("a", "b", "c"), set("d"), set("e", "f")),
+        ImmutableList.of(set("a", "b"), set("c", "d", "e"), set("f"), set("g")));
+  }
+
+  @Test
+  public void testMoreItemsThanOneWord() {
+    // sums of many items, which pin the order in which items are scored
+    assertScores(0.7514124293785309, 0.3999999999999997, 0.5021245421245416,
+        runsOf(130, 7, 11), runsOf(130, 10, 0));
+  }
+
+  @Test
+  public void testEmpty() {
+    assertScores(1.0, 1.0, 1.0, ImmutableList.<Set<String>>of(),
+        ImmutableList.<Set<String>>of());
+    assertScores(1.0, 1.0, 1.0, ImmutableList.of(set()), ImmutableList.of(set()));
+    assertScores(0.0, 0.0, 0.0, ImmutableList.<Set<String>>of(),
+        ImmutableList.of(set("a", "b")));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testPredictedItemsMissingFromGold() {
+    LinkF1.create().score(ImmutableList.of(set("a", "z")), ImmutableList.of(set("a")));
+  }
+
+  private static void assertScores(final double precision, final double recall, final double f1,
+      final ImmutableList<Set<String>> predicted, final ImmutableList<Set<String>> gold) {
+    final ExplicitFMeasureInfo scores = LinkF1.create().score(predicted, gold);
+    assertEquals(precision, scores.precision(), 0.0);
+    assertEquals(recall, scores.recall(), 0.0);
+    assertEquals(f1, scores.f1(), 0.0);
+  }
+
+  private static Set<String> set(final String... items) {
+    return ImmutableSet.copyOf(items);
+  }
+
+  /**
+   * Items 0 to {@code numItems - 1} in sets of {@code setSize} consecutive items, leaving out
+   * multiples of {@code skipMultiplesOf} unless it is 0.
+   */
+  private static ImmutableList<Set<String>> runsOf(final int numItems, final int setSize,
+      final int skipMultiplesOf) {
+    final ImmutableList.Builder<Set<String>> ret = ImmutableList.builder();
+    for (int start = 0; start < numItems; start += setSize) {
+      final ImmutableSet.Builder<String> set = ImmutableSet.builder();
+      for (int i = start; i < Math.min(numItems, start + setSize); ++i) {
+        if (skipMultiplesOf == 0 || i % skipMultiplesOf != 0) {
+          set.add("item" + i);
+        }
+      }
+      ret.add(set.build());
+    }
+    return ret.build();
+  }
+}
@@ -42,8 +42,13 @@ public final class AnswerKey {
   private static final Logger log = LoggerFactory.getLogger(AnswerKey.class);
 
   private final Symbol docid;
+  // annotatedArgs doubles as the index used to look up assessments, so assessment lookups
+  // are constant-time. The two set views below are computed once up front because scorers
+  // call them repeatedly for every response.
   private final ImmutableMap<Response, AssessedResponse> annotatedArgs;
   private final ImmutableSet<Response> unannotatedResponses;
+  private final ImmutableSet<AssessedResponse> annotatedResponses;
+  private final ImmutableSet<Response> allResponses;
   private final CorefAnnotation corefAnnotation;
 
   private AnswerKey(final Symbol docId, final Iterable<AssessedResponse> annotatedArgs,
@@ -57,6 +62,9 @@ public final class AnswerKey {
           iae);
     }
     this.unannotatedResponses = ImmutableSet.copyOf(unannotatedResponses);
+    this.annotatedResponses = ImmutableSet.copyOf(this.annotatedArgs.values());
+    this.allResponses = ImmutableSet.<Response>builder().addAll(this.annotatedArgs.keySet())
+        .addAll(this.unannotatedResponses).build();
     this.corefAnnotation = checkNotNull(corefAnnotation);
     assertConsistency();
   }
@@ -65,8 +73,7 @@ public final class AnswerKey {
    * Get all assessed responses in this answer key *
    */
   public ImmutableSet<AssessedResponse> annotatedResponses() {
-    // this is a little ugly but we don't want to change the type signature
-    return ImmutableSet.copyOf(annotatedArgs.values());
+    return annotatedResponses;
   }
 
   /**
@@ -84,10 +91,7 @@ public final class AnswerKey {
    * Get all responses, assessed and unassessed
    */
   public ImmutableSet<Response> allResponses() {
-    return ImmutableSet.copyOf(
-        concat(FluentIterable.from(annotatedResponses())
-                .transform(AssessedResponseFunctions.response()),
-            unannotatedResponses()));
+    return allResponses;
   }
 
   /**
@@ -210,22 +214,16 @@ public final class AnswerKey {
   }
 
   public Optional<ResponseAssessment> assessment(Response response) {
-    checkNotNull(response);
-    for (final AssessedResponse assessedResponse : annotatedResponses()) {
-      if (assessedResponse.response().equals(response)) {
-        return Optional.of(assessedResponse.assessment());
-      }
+    final AssessedResponse assessedResponse = annotatedArgs.get(checkNotNull(response));
+    if (assessedResponse != null) {
+      return Optional.of(assessedResponse.assessment());
+    } else {
+      return Optional.absent();
     }
-    return Optional.absent();
   }
 
   public Optional<AssessedResponse> assess(Response response) {
-    final Optional<ResponseAssessment> ret = assessment(response);
-    if (ret.isPresent()) {
-      return Optional.of(AssessedResponse.of(response, ret.get()));
-    } else {
-      return Optional.absent();
-    }
+    return Optional.fromNullable(annotatedArgs.get(checkNotNull(response)));
   }
 
   public AnswerKey filter(Filter filter) {
@@ -340,8 +338,7 @@ public final class AnswerKey {
 
   public AnswerKey copyMerging(AnswerKey toMerge) {
     // (1) determine which responses are newly assessed
-    final Set<Response> alreadyAssessedInBaseline = FluentIterable.from(annotatedResponses())
-        .transform(AssessedResponseFunctions.response()).toSet();
+    final Set<Response> alreadyAssessedInBaseline = annotatedArgs.keySet();
 
     final Predicate<AssessedResponse> ResponseNotAssessedInBaseline =
         compose(
@@ -358,10 +355,7 @@ public final class AnswerKey {
     resultAssessed.addAll(annotatedResponses());
     resultAssessed.addAll(newAssessedResponses);
 
-    final ImmutableSet<Response> responsesAssessedInAdditional =
-        FluentIterable.from(toMerge.annotatedResponses())
-            .transform(AssessedResponseFunctions.response())
-            .toSet();
+    final ImmutableSet<Response> responsesAssessedInAdditional = toMerge.annotatedArgs.keySet();
     final Set<Response> stillUnannotated =
         Sets.union(
             // things unassessed in baseline which were still not
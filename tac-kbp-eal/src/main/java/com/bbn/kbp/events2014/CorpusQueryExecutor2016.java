@@ -3,27 +3,29 @@ package com.bbn.kbp.events2014;
 import com.bbn.bue.common.TextGroupPublicImmutable;
 import com.bbn.bue.common.strings.offsets.CharOffset;
 import com.bbn.bue.common.strings.offsets.OffsetRange;
+import com.bbn.bue.common.symbols.Symbol;
 import com.bbn.kbp.events2014.io.SystemOutputStore2016;
 
+import com.google.common.base.Optional;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
 
 import org.immutables.value.Value;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
 
 import static com.bbn.kbp.events2014.ResponseFunctions.role;
 import static com.bbn.kbp.events2014.ResponseFunctions.type;
 import static com.google.common.base.Predicates.compose;
 import static com.google.common.base.Predicates.equalTo;
-import static com.google.common.base.Predicates.in;
-import static com.google.common.base.Predicates.not;
-import static com.google.common.collect.Iterables.filter;
 
 /**
  * Given system output and a 2016 corpus-level query, will locate all matching events corpus-wide.
@@ -32,6 +34,15 @@ public interface CorpusQueryExecutor2016 {
 
   ImmutableSet<DocEventFrameReference> queryEventFrames(SystemOutputStore2016 systemOutput2016,
       CorpusQuery2016 query) throws IOException;
+
+  /**
+   * Equivalent to calling {@link #queryEventFrames(SystemOutputStore2016, CorpusQuery2016)} for
+   * each of {@code queries}, but work may be shared between queries, e.g. each document is read at
+   * most once. Queries which match nothing have no entries in the result.
+   */
+  ImmutableSetMultimap<CorpusQuery2016, DocEventFrameReference> queryEventFramesBatch(
+      SystemOutputStore2016 systemOutput2016, Iterable<CorpusQuery2016> queries)
+      throws IOException;
 }
 
 /**
@@ -64,6 +75,8 @@ interface PJMatchCriterion {
  * no matches.</li> <li>Collect all document-level events containing the matching response.</li>
  * <li>Collect all document-level events which occur in the same corpus-level event as one of these
  * responses</li> </ul>
+ *
+ * If debug logging is enabled, an explanation of how each query was matched is logged.
  */
 class DefaultCorpusQueryExecutor implements CorpusQueryExecutor2016 {
 
@@ -79,11 +92,15 @@ class DefaultCorpusQueryExecutor implements CorpusQueryExecutor2016 {
    * The default query matching strategy for the 2016 evaluation.
    */
   public static DefaultCorpusQueryExecutor createDefaultFor2016() {
-    return new DefaultCorpusQueryExecutor(ImmutableList.of(
+    return new DefaultCorpusQueryExecutor(defaultAlignmentConfigurationsFor2016());
+  }
+
+  static ImmutableList<AlignmentConfiguration> defaultAlignmentConfigurationsFor2016() {
+    return ImmutableList.of(
         AlignmentConfiguration.of(ExactCASMatch.INSTANCE, EntryPointPJContainsResponsePJ.INSTANCE),
         AlignmentConfiguration.of(QueryCASContainsSystemCAS.INSTANCE,
             EntryPointPJContainsResponsePJ.INSTANCE)
-    ));
+    );
   }
 
   @Value.Immutable
@@ -100,15 +117,45 @@ class DefaultCorpusQueryExecutor implements CorpusQueryExecutor2016 {
   @Override
   public ImmutableSet<DocEventFrameReference> queryEventFrames(SystemOutputStore2016 systemOutput,
       final CorpusQuery2016 query) throws IOException {
-    final StringBuilder msg = new StringBuilder();
+    return queryEventFrames(systemOutput, query, systemOutput.readCorpusEventFrames(),
+        new HashMap<Symbol, DocumentSystemOutput2015>());
+  }
+
+  /**
+   * Reads the corpus linking once for all queries, and each entry point document once for all
+   * the queries which refer to it.
+   */
+  @Override
+  public ImmutableSetMultimap<CorpusQuery2016, DocEventFrameReference> queryEventFramesBatch(
+      final SystemOutputStore2016 systemOutput, final Iterable<CorpusQuery2016> queries)
+      throws IOException {
     final CorpusEventLinking corpusEventLinking = systemOutput.readCorpusEventFrames();
+    final Map<Symbol, DocumentSystemOutput2015> docOutputs = new HashMap<>();
+    final ImmutableSetMultimap.Builder<CorpusQuery2016, DocEventFrameReference> ret =
+        ImmutableSetMultimap.builder();
+    for (final CorpusQuery2016 query : queries) {
+      ret.putAll(query, queryEventFrames(systemOutput, query, corpusEventLinking, docOutputs));
+    }
+    return ret.build();
+  }
 
-    msg.append("Applying query ").append(query).append(" to ").append(systemOutput.systemID())
-        .append("\n");
+  private ImmutableSet<DocEventFrameReference> queryEventFrames(
+      final SystemOutputStore2016 systemOutput, final CorpusQuery2016 query,
+      final CorpusEventLinking corpusEventLinking,
+      final Map<Symbol, DocumentSystemOutput2015> docOutputs) throws IOException {
+    // explanations are large, so they are only built if someone will read them
+    final Optional<StringBuilder> msg = log.isDebugEnabled()
+                                        ? Optional.of(new StringBuilder())
+                                        : Optional.<StringBuilder>absent();
+
+    if (msg.isPresent()) {
+      msg.get().append("Applying query ").append(query).append(" to ")
+          .append(systemOutput.systemID()).append("\n");
+    }
 
     // first we find which document-level event frames match one or more of the query entry points
     final ImmutableSet<DocEventFrameReference> docEventsMatchingEntryPoints =
-        documentEventsMatchingAnyQueryEntryPoint(query, systemOutput, msg);
+        documentEventsMatchingAnyQueryEntryPoint(query, systemOutput, docOutputs, msg);
 
     // next we find which corpus-level events contain those document-level event frames
     final ImmutableSet<CorpusEventFrame> corpusEventsMatchingQuery =
@@ -120,13 +167,15 @@ class DefaultCorpusQueryExecutor implements CorpusQueryExecutor2016 {
     final ImmutableSet<DocEventFrameReference> docEventsInMatchedCorpusEvents =
         documentEventsInCorpusEvents(corpusEventsMatchingQuery, msg);
 
-    log.info(msg.toString());
+    if (msg.isPresent()) {
+      log.debug(msg.get().toString());
+    }
     return docEventsInMatchedCorpusEvents;
   }
 
   private ImmutableSet<CorpusEventFrame> corpusEventsMatchingQuery(
       final ImmutableSet<DocEventFrameReference> docEventsMatchingEntryPoints,
-      final CorpusEventLinking corpusEventLinking, final StringBuilder msg) {
+      final CorpusEventLinking corpusEventLinking, final Optional<StringBuilder> msg) {
     final ImmutableSet.Builder<CorpusEventFrame> corpusEventsMatchingQueryB =
         ImmutableSet.builder();
     for (final DocEventFrameReference docEventMatchingEntryPoint : docEventsMatchingEntryPoints) {
@@ -135,21 +184,29 @@ class DefaultCorpusQueryExecutor implements CorpusQueryExecutor2016 {
     }
     final ImmutableSet<CorpusEventFrame> corpusEventsMatchingQuery =
         corpusEventsMatchingQueryB.build();
-    msg.append(corpusEventsMatchingQuery.size())
-        .append(" corpus events found matching query\n");
+    if (msg.isPresent()) {
+      msg.get().append(corpusEventsMatchingQuery.size())
+          .append(" corpus events found matching query\n");
+    }
     return corpusEventsMatchingQuery;
   }
 
   private ImmutableSet<DocEventFrameReference> documentEventsMatchingAnyQueryEntryPoint(
       final CorpusQuery2016 query, final SystemOutputStore2016 systemOutput,
-      final StringBuilder msg) throws IOException {
-    final List<Response> matchingResponses = new ArrayList<>();
+      final Map<Symbol, DocumentSystemOutput2015> docOutputs, final Optional<StringBuilder> msg)
+      throws IOException {
+    // matches are kept in the order found, which determines the order of the events returned
+    final Set<Response> matchingResponses = new LinkedHashSet<>();
 
     final ImmutableSet.Builder<DocEventFrameReference> docEventsMatchingEntryPointsB =
         ImmutableSet.builder();
     for (final CorpusQueryEntryPoint queryEntryPoint : query.entryPoints()) {
       if (systemOutput.docIDs().contains(queryEntryPoint.docID())) {
-        final DocumentSystemOutput2015 docSystemOutput = systemOutput.read(queryEntryPoint.docID());
+        DocumentSystemOutput2015 docSystemOutput = docOutputs.get(queryEntryPoint.docID());
+        if (docSystemOutput == null) {
+          docSystemOutput = systemOutput.read(queryEntryPoint.docID());
+          docOutputs.put(queryEntryPoint.docID(), docSystemOutput);
+        }
         gatherResponsesMatchingEntryPoints(queryEntryPoint, docSystemOutput, matchingResponses,
             msg);
         gatherDocumentEventsForResponses(matchingResponses, docSystemOutput,
@@ -162,13 +219,17 @@ class DefaultCorpusQueryExecutor implements CorpusQueryExecutor2016 {
 
     final ImmutableSet<DocEventFrameReference> docEventsMatchingEntryPoints =
         docEventsMatchingEntryPointsB.build();
-    msg.append(matchingResponses.size() + " responses match entry points\n");
-    msg.append(docEventsMatchingEntryPoints.size() + " document events match entry points\n");
+    if (msg.isPresent()) {
+      msg.get().append(matchingResponses.size()).append(" responses match entry points\n");
+      msg.get().append(docEventsMatchingEntryPoints.size())
+          .append(" document events match entry points\n");
+    }
     return docEventsMatchingEntryPoints;
   }
 
   private ImmutableSet<DocEventFrameReference> documentEventsInCorpusEvents(
-      final ImmutableSet<CorpusEventFrame> corpusEventsMatchingQuery, final StringBuilder msg) {
+      final ImmutableSet<CorpusEventFrame> corpusEventsMatchingQuery,
+      final Optional<StringBuilder> msg) {
     final ImmutableSet.Builder<DocEventFrameReference> docEventsInMatchedCorpusEventsB =
         ImmutableSet.builder();
     for (final CorpusEventFrame corpusEventFrame : corpusEventsMatchingQuery) {
@@ -177,20 +238,24 @@ class DefaultCorpusQueryExecutor implements CorpusQueryExecutor2016 {
     final ImmutableSet<DocEventFrameReference> docEventsInMatchedCorpusEvents =
         docEventsInMatchedCorpusEventsB.build();
 
-    msg.append(docEventsInMatchedCorpusEvents.size())
-        .append(" document events found matching query\n");
+    if (msg.isPresent()) {
+      msg.get().append(docEventsInMatchedCorpusEvents.size())
+          .append(" document events found matching query\n");
+    }
     return docEventsInMatchedCorpusEvents;
   }
 
   private void gatherResponsesMatchingEntryPoints(final CorpusQueryEntryPoint queryEntryPoint,
-      final DocumentSystemOutput2015 docSystemOutput, final List<Response> matchingResponses,
-      final StringBuilder msg) {
+      final DocumentSystemOutput2015 docSystemOutput, final Set<Response> matchingResponses,
+      final Optional<StringBuilder> msg) {
     final ImmutableList<Response> argumentsMatchingInTypeAndEventType =
         FluentIterable.from(docSystemOutput.arguments().responses())
             .filter(compose(equalTo(queryEntryPoint.eventType()), type()))
             .filter(compose(equalTo(queryEntryPoint.role()), role())).toList();
-    msg.append(argumentsMatchingInTypeAndEventType.size())
-        .append(" arguments matched in type and role\n");
+    if (msg.isPresent()) {
+      msg.get().append(argumentsMatchingInTypeAndEventType.size())
+          .append(" arguments matched in type and role\n");
+    }
     for (AlignmentConfiguration alignConfig : alignmentConfigurations) {
       if (matchingResponses.isEmpty()) {
         addMatchingResponses(queryEntryPoint, matchingResponses, alignConfig,
@@ -199,7 +264,7 @@ class DefaultCorpusQueryExecutor implements CorpusQueryExecutor2016 {
     }
   }
 
-  private void gatherDocumentEventsForResponses(final List<Response> matchingResponses,
+  private void gatherDocumentEventsForResponses(final Set<Response> matchingResponses,
       final DocumentSystemOutput2015 docSystemOutput,
       final ImmutableSet.Builder<DocEventFrameReference> retB) {
     final ImmutableSet.Builder<ResponseSet> matchingResponseSetsB = ImmutableSet.builder();
@@ -214,24 +279,37 @@ class DefaultCorpusQueryExecutor implements CorpusQueryExecutor2016 {
     }
   }
 
-  private void addMatchingResponses(final CorpusQueryEntryPoint queryEntryPoint,
-      final List<Response> matchingResponses,
+  /**
+   * Adds to {@code matchingResponses} those of {@code argumentsMatchingInTypeAndEventType} not
+   * already in it which match {@code queryEntryPoint} under {@code alignConfig}, in order. If
+   * {@code msg} is present, an explanation of each decision is appended to it.
+   */
+  // package-private for use by IndexedCorpusQueryExecutor
+  static void addMatchingResponses(final CorpusQueryEntryPoint queryEntryPoint,
+      final Set<Response> matchingResponses,
       final AlignmentConfiguration alignConfig,
-      final ImmutableList<Response> argumentsMatchingInTypeAndEventType, final StringBuilder msg) {
-    for (final Response response : filter(argumentsMatchingInTypeAndEventType,
-        not(in(matchingResponses)))) {
+      final ImmutableList<Response> argumentsMatchingInTypeAndEventType,
+      final Optional<StringBuilder> msg) {
+    for (final Response response : argumentsMatchingInTypeAndEventType) {
+      if (matchingResponses.contains(response)) {
+        continue;
+      }
       final boolean casMatches = alignConfig.casMatchCriterion()
           .matches(response.canonicalArgument(), queryEntryPoint.casOffsets());
       if (casMatches) {
-        msg.append("\t").append(alignConfig.casMatchCriterion().humanFriendlyName()).append(" to ")
-            .append(response.canonicalArgument()).append("\n");
+        if (msg.isPresent()) {
+          msg.get().append("\t").append(alignConfig.casMatchCriterion().humanFriendlyName())
+              .append(" to ").append(response.canonicalArgument()).append("\n");
+        }
         final boolean pjMatches = alignConfig.pjMatchCriterion().matches(
             response.predicateJustifications(), queryEntryPoint.predicateJustification());
         if (pjMatches) {
-          msg.append("\t\tResponse ").append(response).append(" accepted as match\n");
+          if (msg.isPresent()) {
+            msg.get().append("\t\tResponse ").append(response).append(" accepted as match\n");
+          }
           matchingResponses.add(response);
-        } else {
-          msg.append("\t\tResponse rejected due to insufficient PJ overlap\n");
+        } else if (msg.isPresent()) {
+          msg.get().append("\t\tResponse rejected due to insufficient PJ overlap\n");
         }
       }
     }
@@ -0,0 +1,241 @@
+package com.bbn.kbp.events2014;
+
+import com.bbn.bue.common.symbols.Symbol;
+import com.bbn.kbp.events2014.io.SystemOutputStore2016;
+
+import com.google.common.base.Optional;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.ImmutableTable;
+import com.google.common.collect.Table;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Finds exactly the same events as {@link DefaultCorpusQueryExecutor}, but avoids its per-query
+ * work by indexing each system output store the first time it is queried. For each document, the
+ * responses are indexed by event type and role, and a document is read from the store again only
+ * if its index has been evicted.
+ * Corpus event frames are found through {@link CorpusEventLinking#docEventsToCorpusEvents()} of
+ * the store's cached corpus linking, as before.
+ *
+ * Document indexes are built as documents are first queried. The most recently used are kept, up
+ * to a total number of responses across all the stores an executor queries, so one executor can be
+ * shared by every store of an evaluation without its memory growing with the number of stores.
+ * Since a kept index is not re-read, the documents of a store must not be rewritten while it is
+ * being queried. Unlike {@link DefaultCorpusQueryExecutor}, this does not log an explanation of
+ * each query's matches.
+ *
+ * This class is thread-safe.
+ */
+final class IndexedCorpusQueryExecutor implements CorpusQueryExecutor2016 {
+
+  private static final Logger log = LoggerFactory.getLogger(IndexedCorpusQueryExecutor.class);
+
+  /**
+   * The number of responses whose document indexes {@link #createDefaultFor2016()} keeps.
+   */
+  public static final long DEFAULT_MAX_CACHED_RESPONSES = 200000;
+
+  private final ImmutableList<AlignmentConfiguration> alignmentConfigurations;
+  // weakKeys compares stores by identity, and lets a store's entry go with the store
+  private final LoadingCache<SystemOutputStore2016, ImmutableSet<Symbol>> storeDocIDs =
+      CacheBuilder.newBuilder().weakKeys().build(
+          new CacheLoader<SystemOutputStore2016, ImmutableSet<Symbol>>() {
+            @Override
+            public ImmutableSet<Symbol> load(final SystemOutputStore2016 store)
+                throws IOException {
+              return ImmutableSet.copyOf(store.docIDs());
+            }
+          });
+  private final LoadingCache<StoreDocument, DocumentIndex> documentIndices;
+
+  private IndexedCorpusQueryExecutor(
+      final Iterable<AlignmentConfiguration> alignmentConfigurations,
+      final long maxCachedResponses) {
+    checkArgument(maxCachedResponses > 0, "Cache size must be positive");
+    this.alignmentConfigurations = ImmutableList.copyOf(alignmentConfigurations);
+    this.documentIndices = CacheBuilder.newBuilder()
+        .maximumWeight(maxCachedResponses)
+        .weigher(DocumentIndexResponseCount.INSTANCE)
+        .build(new CacheLoader<StoreDocument, DocumentIndex>() {
+          @Override
+          public DocumentIndex load(final StoreDocument key) throws IOException {
+            return new DocumentIndex(key.store().read(key.docID()));
+          }
+        });
+  }
+
+  /**
+   * The default query matching strategy for the 2016 evaluation, as for {@link
+   * DefaultCorpusQueryExecutor#createDefaultFor2016()}, keeping the indexes of documents with up to
+   * {@link #DEFAULT_MAX_CACHED_RESPONSES} responses.
+   */
+  public static IndexedCorpusQueryExecutor createDefaultFor2016() {
+    return createDefaultFor2016(DEFAULT_MAX_CACHED_RESPONSES);
+  }
+
+  /**
+   * Like {@link #createDefaultFor2016()}, but keeping the indexes of documents with up to {@code
+   * maxCachedResponses} responses in total.
+   */
+  public static IndexedCorpusQueryExecutor createDefaultFor2016(final long maxCachedResponses) {
+    return new IndexedCorpusQueryExecutor(
+        DefaultCorpusQueryExecutor.defaultAlignmentConfigurationsFor2016(), maxCachedResponses);
+  }
+
+  @Override
+  public ImmutableSet<DocEventFrameReference> queryEventFrames(
+      final SystemOutputStore2016 systemOutput, final CorpusQuery2016 query) throws IOException {
+    final ImmutableSet<Symbol> docIDs = get(storeDocIDs, systemOutput);
+
+    // as in DefaultCorpusQueryExecutor, matches are accumulated across entry points and later
+    // alignment configurations are tried only while nothing has matched
+    final Set<Response> matchingResponses = new LinkedHashSet<>();
+    final ImmutableSet.Builder<DocEventFrameReference> docEventsMatchingEntryPointsB =
+        ImmutableSet.builder();
+    for (final CorpusQueryEntryPoint queryEntryPoint : query.entryPoints()) {
+      if (!docIDs.contains(queryEntryPoint.docID())) {
+        throw new TACKBPEALException("Query entry point is in a document not in system output: "
+            + queryEntryPoint.docID());
+      }
+      final DocumentIndex docIndex =
+          get(documentIndices, new StoreDocument(systemOutput, queryEntryPoint.docID()));
+      final ImmutableList<Response> argumentsMatchingInTypeAndRole =
+          docIndex.responsesWithTypeAndRole(queryEntryPoint.eventType(), queryEntryPoint.role());
+      for (final AlignmentConfiguration alignConfig : alignmentConfigurations) {
+        if (matchingResponses.isEmpty()) {
+          DefaultCorpusQueryExecutor.addMatchingResponses(queryEntryPoint, matchingResponses,
+              alignConfig, argumentsMatchingInTypeAndRole, Optional.<StringBuilder>absent());
+        }
+      }
+      docIndex.addEventFramesContaining(matchingResponses, docEventsMatchingEntryPointsB);
+    }
+
+    final CorpusEventLinking corpusEventLinking = systemOutput.readCorpusEventFrames();
+    final ImmutableSet.Builder<CorpusEventFrame> corpusEventsMatchingQueryB =
+        ImmutableSet.builder();
+    for (final DocEventFrameReference docEvent : docEventsMatchingEntryPointsB.build()) {
+      corpusEventsMatchingQueryB.addAll(corpusEventLinking.docEventsToCorpusEvents().get(docEvent));
+    }
+
+    final ImmutableSet.Builder<DocEventFrameReference> ret = ImmutableSet.builder();
+    for (final CorpusEventFrame corpusEventFrame : corpusEventsMatchingQueryB.build()) {
+      ret.addAll(corpusEventFrame.docEventFrames());
+    }
+    final ImmutableSet<DocEventFrameReference> docEventsInMatchedCorpusEvents = ret.build();
+    log.debug("Query {} matched {} document events in {}", query.id(),
+        docEventsInMatchedCorpusEvents.size(), systemOutput.systemID());
+    return docEventsInMatchedCorpusEvents;
+  }
+
+  /**
+   * Since documents are indexed across queries anyway, this just runs each query in turn.
+   */
+  @Override
+  public ImmutableSetMultimap<CorpusQuery2016, DocEventFrameReference> queryEventFramesBatch(
+      final SystemOutputStore2016 systemOutput, final Iterable<CorpusQuery2016> queries)
+      throws IOException {
+    final ImmutableSetMultimap.Builder<CorpusQuery2016, DocEventFrameReference> ret =
+        ImmutableSetMultimap.builder();
+    for (final CorpusQuery2016 query : queries) {
+      ret.putAll(query, queryEventFrames(systemOutput, query));
+    }
+    return ret.build();
+  }
+
+  private static <K, V> V get(final LoadingCache<K, V> cache, final K key) throws IOException {
+    try {
+      return cache.get(key);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      } else {
+        throw new RuntimeException(e.getCause());
+      }
+    } catch (UncheckedExecutionException e) {
+      // e.g. a malformed linking; rethrow it as the default executor would have thrown it
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      } else {
+        throw e;
+      }
+    }
+  }
+
+  private enum DocumentIndexResponseCount implements Weigher<StoreDocument, DocumentIndex> {
+    INSTANCE;
+
+    @Override
+    public int weigh(final StoreDocument key, final DocumentIndex docIndex) {
+      // an empty document still takes some space
+      return 1 + docIndex.numResponses;
+    }
+  }
+
+  private static final class DocumentIndex {
+
+    private final ResponseLinking linking;
+    private final int numResponses;
+    // event type, role -> responses, each list in the order of the document's responses
+    private final ImmutableTable<Symbol, Symbol, ImmutableList<Response>> responsesByTypeAndRole;
+
+    private DocumentIndex(final DocumentSystemOutput2015 docOutput) {
+      this.linking = checkNotNull(docOutput.linking());
+      this.numResponses = docOutput.arguments().size();
+      final Table<Symbol, Symbol, ImmutableList.Builder<Response>> builders =
+          HashBasedTable.create();
+      for (final Response response : docOutput.arguments().responses()) {
+        ImmutableList.Builder<Response> builder = builders.get(response.type(), response.role());
+        if (builder == null) {
+          builder = ImmutableList.builder();
+          builders.put(response.type(), response.role(), builder);
+        }
+        builder.add(response);
+      }
+      final ImmutableTable.Builder<Symbol, Symbol, ImmutableList<Response>> responsesByTypeAndRole =
+          ImmutableTable.builder();
+      for (final Table.Cell<Symbol, Symbol, ImmutableList.Builder<Response>> cell : builders
+          .cellSet()) {
+        responsesByTypeAndRole.put(cell.getRowKey(), cell.getColumnKey(), cell.getValue().build());
+      }
+      this.responsesByTypeAndRole = responsesByTypeAndRole.build();
+    }
+
+    ImmutableList<Response> responsesWithTypeAndRole(final Symbol type, final Symbol role) {
+      final ImmutableList<Response> ret = responsesByTypeAndRole.get(type, role);
+      return ret != null ? ret : ImmutableList.<Response>of();
+    }
+
+    /**
+     * Adds the event frames of this document which contain any of {@code responses}, in the same
+     * order as {@link DefaultCorpusQueryExecutor}.
+     */
+    void addEventFramesContaining(final Iterable<Response> responses,
+        final ImmutableSet.Builder<DocEventFrameReference> retB) {
+      final ImmutableSet.Builder<ResponseSet> responseSetsB = ImmutableSet.builder();
+      for (final Response response : responses) {
+        responseSetsB.addAll(linking.responsesToContainingResponseSets().get(response));
+      }
+      for (final ResponseSet responseSet : responseSetsB.build()) {
+        retB.add(linking.asEventFrameReference(responseSet));
+      }
+    }
+  }
+}
@@ -0,0 +1,46 @@
+package com.bbn.kbp.events2014;
+
+import com.bbn.bue.common.symbols.Symbol;
+import com.bbn.kbp.events2014.io.SystemOutputStore2016;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A document of a particular system output store, as a cache key. Stores do not override equals,
+ * so they are compared by identity.
+ */
+final class StoreDocument {
+
+  private final SystemOutputStore2016 store;
+  private final Symbol docID;
+
+  StoreDocument(final SystemOutputStore2016 store, final Symbol docID) {
+    this.store = checkNotNull(store);
+    this.docID = checkNotNull(docID);
+  }
+
+  SystemOutputStore2016 store() {
+    return store;
+  }
+
+  Symbol docID() {
+    return docID;
+  }
+
+  @Override
+  public boolean equals(final Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    final StoreDocument other = (StoreDocument) o;
+    return store == other.store && docID.equals(other.docID);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * System.identityHashCode(store) + docID.hashCode();
+  }
+}
@@ -0,0 +1,79 @@
+package com.bbn.kbp.events2014;
+
+import com.bbn.bue.common.symbols.Symbol;
+import com.bbn.kbp.events2014.io.SystemOutputStore2016;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * The linkings of documents of 2016 system output stores, read once and then shared by everything
+ * which asks for them, e.g. by every query which matches event frames of the same document. The
+ * most recently used linkings are kept, up to a total number of responses across all stores. As
+ * with {@link IndexedCorpusQueryExecutor}, documents must not be rewritten while their linkings are
+ * in use.
+ *
+ * This class is thread-safe.
+ */
+public final class SystemOutputLinkingCache {
+
+  private final LoadingCache<StoreDocument, ResponseLinking> linkings;
+
+  private SystemOutputLinkingCache(final long maxCachedResponses) {
+    checkArgument(maxCachedResponses > 0, "Cache size must be positive");
+    this.linkings = CacheBuilder.newBuilder()
+        .maximumWeight(maxCachedResponses)
+        .weigher(LinkingResponseCount.INSTANCE)
+        .build(new CacheLoader<StoreDocument, ResponseLinking>() {
+          @Override
+          public ResponseLinking load(final StoreDocument key) throws IOException {
+            return key.store().read(key.docID()).linking();
+          }
+        });
+  }
+
+  /**
+   * Keeps linkings with up to {@code maxCachedResponses} responses in total.
+   */
+  public static SystemOutputLinkingCache create(final long maxCachedResponses) {
+    return new SystemOutputLinkingCache(maxCachedResponses);
+  }
+
+  public ResponseLinking linkingOf(final SystemOutputStore2016 store, final Symbol docID)
+      throws IOException {
+    try {
+      return linkings.get(new StoreDocument(store, docID));
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      } else {
+        throw new RuntimeException(e.getCause());
+      }
+    } catch (UncheckedExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      } else {
+        throw e;
+      }
+    }
+  }
+
+  private enum LinkingResponseCount implements Weigher<StoreDocument, ResponseLinking> {
+    INSTANCE;
+
+    @Override
+    public int weigh(final StoreDocument key, final ResponseLinking linking) {
+      // an empty linking still takes some space
+      return 1 + linking.responsesToContainingResponseSets().size()
+          + linking.incompleteResponses().size();
+    }
+  }
+}
@@ -8,6 +8,7 @@ import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
 
 import org.immutables.func.Functional;
 import org.immutables.value.Value;
@@ -83,6 +84,16 @@ public abstract class _CorpusQueryAssessments {
     return ImmutableSet.copyOf(queryResponsesToSystemIDs().values());
   }
 
+  /**
+   * @return The assessed members of {@link #queryReponses()}, indexed by query ID, each in the
+   * order of {@link #assessments()}
+   */
+  @Value.Lazy
+  public ImmutableSetMultimap<Symbol, QueryResponse2016> assessedResponsesByQueryID() {
+    return ImmutableSetMultimap.copyOf(FluentIterable.from(assessments().keySet())
+        .index(QueryResponse2016Functions.queryID()));
+  }
+
   @Value.Check
   protected void check() {
     checkArgument(queryReponses().containsAll(metadata().keySet()),
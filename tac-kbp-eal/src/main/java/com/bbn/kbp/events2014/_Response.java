@@ -87,16 +87,42 @@ abstract class _Response {
    * implementation, the response's {@code hashCode} is always returned.  Note that if you read
    * input files from another source into {@code Response} objects, the original IDs will be lost.
    */
-  @Value.Derived
+  @Value.Lazy
   public int old2014ResponseID() {
     return hashCode();
   }
 
-  @Value.Derived
+  /**
+   * A stable textual ID for this response, used to refer to it in files. This is a SHA-1 hash of
+   * all its fields, so it is computed only when first requested.
+   */
+  @Value.Lazy
   public String uniqueIdentifier() {
     return computeSHA1Hash().toString();
   }
 
+  /**
+   * A 64-bit hash of all the fields of this response, computed when first requested. Responses
+   * which are {@link #equals(Object)} have the same structural hash. This is much cheaper than
+   * {@link #uniqueIdentifier()} and collides far less than {@link #hashCode()}, so prefer it for
+   * keying responses in memory. It is not stable across versions of this code, so it should
+   * never be written to files.
+   */
+  @Value.Lazy
+  public long structuralHash() {
+    final Hasher hasher = STRUCTURAL_HASHER.newHasher()
+        .putUnencodedChars(docID().asString())
+        .putUnencodedChars(type().asString())
+        .putUnencodedChars(role().asString())
+        .putUnencodedChars(canonicalArgument().string())
+        .putLong(spanHash(canonicalArgument().charOffsetSpan()))
+        .putLong(spanHash(baseFiller()))
+        .putLong(unorderedSpansHash(predicateJustifications()))
+        .putLong(unorderedSpansHash(additionalArgumentJustifications()))
+        .putInt(realis().ordinal());
+    return hasher.hash().asLong();
+  }
+
   @Value.Check
   protected void check() {
     checkArgument(!docID().asString().isEmpty(), "Document ID may not be empty for a response");
@@ -120,6 +146,28 @@ abstract class _Response {
   private static final int AAJ_CODE = 1;
 
   private static final HashFunction SHA1_HASHER = Hashing.sha1();
+  private static final HashFunction STRUCTURAL_HASHER = Hashing.murmur3_128();
+
+  // combines span hashes by addition so we need not sort the justifications. Each is fed
+  // through a mixing function first so that sums of different spans are unlikely to collide
+  private static long unorderedSpansHash(final Set<CharOffsetSpan> spans) {
+    long ret = spans.size();
+    for (final CharOffsetSpan span : spans) {
+      ret += spanHash(span);
+    }
+    return ret;
+  }
+
+  // the 64-bit finalizer of MurmurHash3 applied to the packed offsets
+  private static long spanHash(final CharOffsetSpan span) {
+    long h = ((long) span.startInclusive() << 32) ^ (span.endInclusive() & 0xffffffffL);
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
 
   private HashCode computeSHA1Hash() {
     final Hasher hasher = SHA1_HASHER.newHasher()
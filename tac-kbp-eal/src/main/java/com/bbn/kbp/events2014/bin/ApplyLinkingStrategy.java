@@ -9,6 +9,7 @@ import com.bbn.kbp.events2014.io.ArgumentStore;
 import com.bbn.kbp.events2014.io.AssessmentSpecFormats;
 import com.bbn.kbp.events2014.io.LinkingStore;
 import com.bbn.kbp.events2014.io.LinkingStoreSource;
+import com.bbn.kbp.events2014.io.WriteBatches;
 import com.bbn.kbp.events2014.linking.LinkingStrategy;
 import com.bbn.kbp.events2014.linking.SameEventTypeLinker;
 
@@ -59,6 +60,7 @@ public final class ApplyLinkingStrategy {
     final LinkingStrategy linkingStrategy =
         SameEventTypeLinker.create(ImmutableSet.of(KBPRealis.Actual, KBPRealis.Other));
 
+    WriteBatches.beginWhereSupported(linkingSystemStore);
     for (final Symbol docID : docIDs) {
       final ArgumentOutput docOutput = argumentSystemStore.read(docID);
 
@@ -69,6 +71,7 @@ public final class ApplyLinkingStrategy {
       log.info("For document {}, grouped {} responses into {} event frames", docID,
           docOutput.size(), responseLinking.responseSets().size());
     }
+    WriteBatches.commitWhereSupported(linkingSystemStore);
     linkingSystemStore.close();
     argumentSystemStore.close();
   }
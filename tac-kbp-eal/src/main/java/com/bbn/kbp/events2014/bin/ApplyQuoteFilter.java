@@ -6,6 +6,7 @@ import com.bbn.kbp.events2014.DocumentSystemOutput;
 import com.bbn.kbp.events2014.SystemOutputLayout;
 import com.bbn.kbp.events2014.io.SystemOutputStore;
 import com.bbn.kbp.events2014.io.SystemOutputStore2016;
+import com.bbn.kbp.events2014.io.WriteBatches;
 import com.bbn.kbp.events2014.transformers.QuoteFilter;
 
 import com.google.common.collect.ImmutableMap;
@@ -67,6 +68,7 @@ public final class ApplyQuoteFilter {
     log.info("Filtering {} to {}", source, dest);
 
     log.info("Source store has {} documents", source.docIDs().size());
+    WriteBatches.beginWhereSupported(dest);
     for (final Symbol docID : source.docIDs()) {
       final DocumentSystemOutput original = source.read(docID);
       final DocumentSystemOutput filtered = quoteFilter.transform(original);
@@ -75,6 +77,7 @@ public final class ApplyQuoteFilter {
 
       dest.write(filtered);
     }
+    WriteBatches.commitWhereSupported(dest);
 
     // pass along unmodified ay corpus event frames.
     if(dest instanceof SystemOutputStore2016 && source instanceof SystemOutputStore2016) {
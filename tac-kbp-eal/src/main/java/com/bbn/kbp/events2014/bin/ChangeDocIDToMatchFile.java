@@ -7,6 +7,7 @@ import com.bbn.kbp.events2014.CorefAnnotation;
 import com.bbn.kbp.events2014.Response;
 import com.bbn.kbp.events2014.io.AnnotationStore;
 import com.bbn.kbp.events2014.io.AssessmentSpecFormats;
+import com.bbn.kbp.events2014.io.WriteBatches;
 
 import com.google.common.base.Function;
 import com.google.common.collect.Iterables;
@@ -45,12 +46,16 @@ public final class ChangeDocIDToMatchFile {
     final AnnotationStore outStore = AssessmentSpecFormats.createAnnotationStore(new File(argv[1]),
         AssessmentSpecFormats.Format.KBP2015);
 
+    WriteBatches.beginWhereSupported(outStore);
     for (final Symbol docID : inStore.docIDs()) {
       AnswerKey answerKey = convertAnswerKeyDocID(docID, inStore.read(docID));
       outStore.write(answerKey);
     }
+    WriteBatches.commitWhereSupported(outStore);
 
     log.info("Converted {} documents", inStore.docIDs().size());
+    inStore.close();
+    outStore.close();
   }
 
   public static AnswerKey convertAnswerKeyDocID(Symbol docID, AnswerKey input) {
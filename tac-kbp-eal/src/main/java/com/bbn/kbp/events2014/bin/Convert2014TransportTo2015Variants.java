@@ -6,6 +6,7 @@ import com.bbn.kbp.events2014.AssessedResponse;
 import com.bbn.kbp.events2014.Response;
 import com.bbn.kbp.events2014.io.AnnotationStore;
 import com.bbn.kbp.events2014.io.AssessmentSpecFormats;
+import com.bbn.kbp.events2014.io.WriteBatches;
 
 import com.google.common.base.Predicate;
 import com.google.common.collect.FluentIterable;
@@ -54,6 +55,7 @@ public class Convert2014TransportTo2015Variants {
     int transformedAssessments = 0;
     int transformedUnassessed = 0;
 
+    WriteBatches.beginWhereSupported(output);
     for (final Symbol docid : input.docIDs()) {
       final AnswerKey old = input.readOrEmpty(docid);
       final AnswerKey restrictedToRelevantTypes = old.filter(CorrectTransportFilter);
@@ -74,6 +76,7 @@ public class Convert2014TransportTo2015Variants {
 
       output.write(augmentedKey.build());
     }
+    WriteBatches.commitWhereSupported(output);
     input.close();
     output.close();
     log.info("Wrote {} transformed from assessed, {} from unassessed.", transformedAssessments,
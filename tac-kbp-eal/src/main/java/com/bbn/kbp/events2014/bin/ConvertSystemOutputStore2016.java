@@ -0,0 +1,66 @@
+package com.bbn.kbp.events2014.bin;
+
+import com.bbn.bue.common.parameters.Parameters;
+import com.bbn.kbp.events2014.io.SystemOutputStore2016;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Converts a 2016 system output store between the usual directory layout and a single archive
+ * file. The direction is determined by whether the input is a directory or a file.
+ */
+public final class ConvertSystemOutputStore2016 {
+
+  private static final Logger log = LoggerFactory.getLogger(ConvertSystemOutputStore2016.class);
+
+  private static void usage() {
+    log.error("usage: ConvertSystemOutputStore2016 paramFile\n" +
+        "parameters are:\n" +
+        "\tinputStore: a system output store directory to pack or archive file to unpack\n" +
+        "\toutputStore: the archive file or directory to create. Must not exist.\n" +
+        "\tcompress: (optional, default true) whether to compress each document when packing");
+    System.exit(1);
+  }
+
+  private static void trueMain(String[] argv) throws IOException {
+    if (argv.length != 1) {
+      usage();
+    }
+
+    final Parameters params = Parameters.loadSerifStyle(new File(argv[0]));
+    log.info(params.dump());
+
+    final File input = params.getExistingFileOrDirectory("inputStore");
+    final File output = params.getFileOrDirectory("outputStore");
+    if (output.exists()) {
+      throw new IOException("Output store " + output + " already exists");
+    }
+
+    if (input.isDirectory()) {
+      final boolean compress = params.getOptionalBoolean("compress").or(true);
+      log.info("Packing store directory {} into archive {}", input, output);
+      SystemOutputStore2016.packDirectory(input, output, compress);
+    } else {
+      log.info("Unpacking store archive {} into directory {}", input, output);
+      SystemOutputStore2016.unpackArchive(input, output);
+    }
+  }
+
+  public static void main(String[] argv) {
+    // to get proper exit status on crashes...
+    try {
+      trueMain(argv);
+    } catch (Exception e) {
+      e.printStackTrace();
+      System.exit(1);
+    }
+  }
+
+  private ConvertSystemOutputStore2016() {
+    throw new UnsupportedOperationException();
+  }
+}
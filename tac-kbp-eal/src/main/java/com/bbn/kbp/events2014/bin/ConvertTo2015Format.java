@@ -3,6 +3,7 @@ package com.bbn.kbp.events2014.bin;
 import com.bbn.bue.common.symbols.Symbol;
 import com.bbn.kbp.events2014.io.AnnotationStore;
 import com.bbn.kbp.events2014.io.AssessmentSpecFormats;
+import com.bbn.kbp.events2014.io.WriteBatches;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,10 +39,14 @@ public final class ConvertTo2015Format {
     final AnnotationStore outStore = AssessmentSpecFormats.createAnnotationStore(new File(argv[1]),
         AssessmentSpecFormats.Format.KBP2015);
 
+    WriteBatches.beginWhereSupported(outStore);
     for (final Symbol docID : inStore.docIDs()) {
       outStore.write(inStore.read(docID));
     }
+    WriteBatches.commitWhereSupported(outStore);
 
     log.info("Converted {} documents", inStore.docIDs().size());
+    inStore.close();
+    outStore.close();
   }
 }
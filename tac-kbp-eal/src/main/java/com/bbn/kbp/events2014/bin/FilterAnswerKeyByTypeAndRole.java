@@ -10,6 +10,7 @@ import com.bbn.kbp.events2014.io.AnnotationStore;
 import com.bbn.kbp.events2014.io.AssessmentSpecFormats;
 import com.bbn.kbp.events2014.io.LinkingStore;
 import com.bbn.kbp.events2014.io.LinkingStoreSource;
+import com.bbn.kbp.events2014.io.WriteBatches;
 import com.bbn.kbp.events2014.transformers.ResponseMapping;
 
 import com.google.common.base.Charsets;
@@ -85,6 +86,7 @@ public class FilterAnswerKeyByTypeAndRole {
         params.getCreatableDirectory("outputArguments"), AssessmentSpecFormats.Format.KBP2015);
 
     int numDeletedTotal = 0;
+    WriteBatches.beginWhereSupported(outputArgumentStore, optLinkingOut.orNull());
     for (final Symbol docID : argumentAnnotationStore.docIDs()) {
       final AnswerKey original = argumentAnnotationStore.read(docID);
       final ResponseMapping toDelete = selectWhichToDelete(original, typesToValidRoles);
@@ -98,6 +100,7 @@ public class FilterAnswerKeyByTypeAndRole {
         }
       }
     }
+    WriteBatches.commitWhereSupported(outputArgumentStore, optLinkingOut.orNull());
 
     argumentAnnotationStore.close();
     outputArgumentStore.close();
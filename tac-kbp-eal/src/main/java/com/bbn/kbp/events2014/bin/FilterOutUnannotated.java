@@ -9,6 +9,7 @@ import com.bbn.kbp.events2014.SystemOutputLayout;
 import com.bbn.kbp.events2014.io.AnnotationStore;
 import com.bbn.kbp.events2014.io.AssessmentSpecFormats;
 import com.bbn.kbp.events2014.io.SystemOutputStore;
+import com.bbn.kbp.events2014.io.WriteBatches;
 import com.bbn.kbp.events2014.transformers.ResponseMapping;
 
 import com.google.common.collect.ImmutableSet;
@@ -61,6 +62,7 @@ public class FilterOutUnannotated {
         params.getExistingDirectory("answerKey"), AssessmentSpecFormats.Format.KBP2015);
 
     int numDeletedTotal = 0;
+    WriteBatches.beginWhereSupported(output);
     for (final Symbol docID : input.docIDs()) {
       final DocumentSystemOutput original = input.read(docID);
       final AnswerKey answerKey = annotation.readOrEmpty(docID);
@@ -71,6 +73,7 @@ public class FilterOutUnannotated {
       numDeletedTotal += numDeletedForThisDoc;
       output.write(filtered);
     }
+    WriteBatches.commitWhereSupported(output);
 
     log.info("In total, delete {} unassessed responses", numDeletedTotal);
 
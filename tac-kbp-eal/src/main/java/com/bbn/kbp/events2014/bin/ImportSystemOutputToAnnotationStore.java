@@ -11,6 +11,7 @@ import com.bbn.kbp.events2014.SystemOutputLayout;
 import com.bbn.kbp.events2014.io.AnnotationStore;
 import com.bbn.kbp.events2014.io.AssessmentSpecFormats;
 import com.bbn.kbp.events2014.io.SystemOutputStore;
+import com.bbn.kbp.events2014.io.WriteBatches;
 import com.bbn.kbp.events2014.transformers.KeepBestJustificationOnly;
 
 import com.google.common.base.Charsets;
@@ -21,6 +22,7 @@ import com.google.common.base.Predicates;
 import com.google.common.collect.HashMultiset;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Multiset;
 import com.google.common.io.Files;
 
@@ -29,6 +31,8 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 
 import static com.google.common.base.Predicates.in;
@@ -99,8 +103,15 @@ public final class ImportSystemOutputToAnnotationStore {
       annotationStores = ImmutableSet.of(AssessmentSpecFormats.openOrCreateAnnotationStore(
           params.getCreatableDirectory("annotationStore"), annStoreFileFormat));
     } else {
-      final ImmutableSet.Builder<AnnotationStore> stores = ImmutableSet.builder();
+      final List<File> storeDirs = Lists.newArrayList();
       for (final File f : FileUtils.loadFileList(params.getExistingFile("annotationStoresList"))) {
+        storeDirs.add(f.getCanonicalFile());
+      }
+      // each write batch holds its store's update lock, so every import must batch its stores in
+      // the same order or two imports could each wait for a store the other holds
+      Collections.sort(storeDirs);
+      final ImmutableSet.Builder<AnnotationStore> stores = ImmutableSet.builder();
+      for (final File f : storeDirs) {
         stores.add(AssessmentSpecFormats.openOrCreateAnnotationStore(f, annStoreFileFormat));
       }
       annotationStores = stores.build();
@@ -165,6 +176,11 @@ public final class ImportSystemOutputToAnnotationStore {
 
     for (final SystemOutputStore systemOutput : argumentStores) {
       log.info("Processing system output from {}", systemOutput);
+      // each document is written at most once per system output, so the writes for one system
+      // output can be batched without any of them needing to read another's. The batch also
+      // keeps other imports from updating the stores until it is committed, so none of the
+      // responses either adds are lost
+      WriteBatches.beginWhereSupported(annotationStores);
 
       for (final Symbol docid : filter(systemOutput.docIDs(), docIdFilter)) {
         final DocumentSystemOutput docOutput = filter.apply(systemOutput.read(docid));
@@ -191,6 +207,7 @@ public final class ImportSystemOutputToAnnotationStore {
           totalAlreadyThere.add(annStore, numAlreadyKnown);
         }
       }
+      WriteBatches.commitWhereSupported(annotationStores);
     }
 
     log.info("Total number of responses added: {}", totalNumAdded);
@@ -6,6 +6,7 @@ import com.bbn.kbp.events2014.AnswerKey;
 import com.bbn.kbp.events2014.Response;
 import com.bbn.kbp.events2014.io.AnnotationStore;
 import com.bbn.kbp.events2014.io.AssessmentSpecFormats;
+import com.bbn.kbp.events2014.io.WriteBatches;
 
 import com.google.common.collect.ImmutableSet;
 
@@ -62,11 +63,16 @@ public final class KeepAnnotatedTuples {
     final AnnotationStore outputAssessmentStore =
         AssessmentSpecFormats.openOrCreateAnnotationStore(outputDir, fileFormat);
 
+    WriteBatches.beginWhereSupported(outputAssessmentStore);
     for (final Symbol docid : inputAssessmentStore.docIDs()) {
       final AnswerKey answerKey = inputAssessmentStore.read(docid);
       outputAssessmentStore
           .write(AnswerKey.from(docid, answerKey.annotatedResponses(), ImmutableSet.<Response>of(),
               answerKey.corefAnnotation()));
     }
+    WriteBatches.commitWhereSupported(outputAssessmentStore);
+
+    inputAssessmentStore.close();
+    outputAssessmentStore.close();
   }
 }
@@ -6,6 +6,7 @@ import com.bbn.kbp.events2014.DocumentSystemOutput;
 import com.bbn.kbp.events2014.SystemOutputLayout;
 import com.bbn.kbp.events2014.io.SystemOutputStore;
 import com.bbn.kbp.events2014.io.SystemOutputStore2016;
+import com.bbn.kbp.events2014.io.WriteBatches;
 import com.bbn.kbp.events2014.transformers.KeepBestJustificationOnly;
 import com.bbn.kbp.events2014.transformers.ResponseMapping;
 
@@ -46,6 +47,7 @@ public final class KeepOnlyBestResponses {
     final SystemOutputStore outputStore = layout.openOrCreate(outputStoreLocation);
 
     log.info("Source store has {} documents", inputStore.docIDs().size());
+    WriteBatches.beginWhereSupported(outputStore);
     for (final Symbol docID : inputStore.docIDs()) {
       final DocumentSystemOutput original = inputStore.read(docID);
       final ResponseMapping responseMapping = KeepBestJustificationOnly.computeResponseMapping(
@@ -59,6 +61,7 @@ public final class KeepOnlyBestResponses {
 
       outputStore.write(filtered);
     }
+    WriteBatches.commitWhereSupported(outputStore);
     if (outputStore instanceof SystemOutputStore2016) {
       ((SystemOutputStore2016) outputStore)
           .writeCorpusEventFrames(((SystemOutputStore2016) outputStore).readCorpusEventFrames());
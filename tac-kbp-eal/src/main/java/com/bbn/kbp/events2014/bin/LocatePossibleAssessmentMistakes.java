@@ -10,6 +10,7 @@ import com.bbn.kbp.events2014.KBPTIMEXExpression;
 import com.bbn.kbp.events2014.Response;
 import com.bbn.kbp.events2014.io.AnnotationStore;
 import com.bbn.kbp.events2014.io.AssessmentSpecFormats;
+import com.bbn.kbp.events2014.io.WriteBatches;
 
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
@@ -66,6 +67,7 @@ public final class LocatePossibleAssessmentMistakes {
     final AnnotationStore temporalStore =
         AssessmentSpecFormats.createAnnotationStore(temporalDir, fileFormat);
     filterTo(annStore, new TemporalFilter(), temporalStore);
+    temporalStore.close();
 
     annStore.close();
   }
@@ -86,9 +88,11 @@ public final class LocatePossibleAssessmentMistakes {
       AnnotationStore output)
       throws IOException {
     checkArgument(output.docIDs().isEmpty(), "Output annotation store must be empty");
+    WriteBatches.beginWhereSupported(output);
     for (final Symbol docID : input.docIDs()) {
       output.write(input.read(docID).filter(filter));
     }
+    WriteBatches.commitWhereSupported(output);
   }
 
   private static final class ConjunctsFilter implements AnswerKey.Filter {
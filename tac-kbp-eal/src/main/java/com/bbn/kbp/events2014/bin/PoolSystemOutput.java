@@ -9,6 +9,7 @@ import com.bbn.kbp.events2014.SystemOutputLayout;
 import com.bbn.kbp.events2014.io.ArgumentStore;
 import com.bbn.kbp.events2014.io.AssessmentSpecFormats;
 import com.bbn.kbp.events2014.io.SystemOutputStore;
+import com.bbn.kbp.events2014.io.WriteBatches;
 import com.bbn.kbp.events2014.transformers.KeepBestJustificationOnly;
 import com.bbn.kbp.events2014.transformers.QuoteFilter;
 
@@ -75,6 +76,8 @@ public final class PoolSystemOutput {
       storesToCombine.put(inputStoreFile.getAbsolutePath(), inputStore);
     }
 
+    // nothing written is read back, so every document can go in one batch
+    WriteBatches.beginWhereSupported(outputStore);
     for (final Symbol docId : allDocIds) {
       final List<ArgumentOutput> responseSets = Lists.newArrayList();
 
@@ -97,6 +100,7 @@ public final class PoolSystemOutput {
       log.info("\nFor document {}\n{}\n{} responses total", docId, sb.toString(),
           combinedOutput.size());
     }
+    WriteBatches.commitWhereSupported(outputStore);
 
     // storesToCombine.values() includes the output store
     for (final SystemOutputStore store : storesToCombine.values()) {
@@ -4,6 +4,7 @@ import com.bbn.bue.common.parameters.Parameters;
 import com.bbn.bue.common.symbols.Symbol;
 import com.bbn.kbp.events2014.io.AnnotationStore;
 import com.bbn.kbp.events2014.io.AssessmentSpecFormats;
+import com.bbn.kbp.events2014.io.WriteBatches;
 import com.bbn.kbp.events2014.io.assessmentCreators.RecoveryAssessmentCreator;
 
 import org.slf4j.Logger;
@@ -49,9 +50,13 @@ public final class RepairAnnotationStore {
     final AnnotationStore outStore =
         AssessmentSpecFormats.createAnnotationStore(outputStorePath, fileFormat);
 
+    WriteBatches.beginWhereSupported(outStore);
     for (final Symbol docid : annStore.docIDs()) {
       outStore.write(annStore.read(docid));
     }
+    WriteBatches.commitWhereSupported(outStore);
+    annStore.close();
+    outStore.close();
     log.info(assessmentCreator.report());
   }
 
@@ -8,6 +8,7 @@ import com.bbn.bue.common.symbols.Symbol;
 import com.bbn.kbp.events2014.Response;
 import com.bbn.kbp.events2014.io.AnnotationStore;
 import com.bbn.kbp.events2014.io.AssessmentSpecFormats;
+import com.bbn.kbp.events2014.io.WriteBatches;
 
 import com.google.common.base.Charsets;
 import com.google.common.base.Functions;
@@ -77,6 +78,7 @@ public final class SelectForDualAnnotation {
         compose(StringUtils.startsWith("NYT"), Functions.toStringFunction())));
     final Set<Symbol> dfDocIDs = Sets.difference(docIDs, nwDocIDs).immutableCopy();
 
+    WriteBatches.beginWhereSupported(outputStore);
     for (final Map.Entry<String, Set<Symbol>> config :
         ImmutableMap.of("Newswire", nwDocIDs, "Discussion forum", dfDocIDs).entrySet()) {
       final Set<Symbol> targetDocIDs = config.getValue();
@@ -143,6 +145,7 @@ public final class SelectForDualAnnotation {
         outputStore.write(annotationStore.read(selectedDocId).unannotatedCopy());
       }
     }
+    WriteBatches.commitWhereSupported(outputStore);
     annotationStore.close();
     outputStore.close();
     ;
@@ -6,6 +6,7 @@ import com.bbn.bue.common.symbols.Symbol;
 import com.bbn.kbp.events2014.AnswerKey;
 import com.bbn.kbp.events2014.io.AnnotationStore;
 import com.bbn.kbp.events2014.io.AssessmentSpecFormats;
+import com.bbn.kbp.events2014.io.WriteBatches;
 
 import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableSet;
@@ -60,6 +61,7 @@ public final class SplitAnnStoreBySuffixes {
               AssessmentSpecFormats.Format.KBP2015));
     }
 
+    WriteBatches.beginWhereSupported(outputStoresBySuffix.values());
     for (final Symbol docID : inputAnnStore.docIDs()) {
       for (final String suffix : suffixes) {
         if (docID.asString().endsWith(suffix)) {
@@ -71,6 +73,7 @@ public final class SplitAnnStoreBySuffixes {
         log.info("No suffix on {}; not copying to output", docID);
       }
     }
+    WriteBatches.commitWhereSupported(outputStoresBySuffix.values());
 
     inputAnnStore.close();
     for (final AnnotationStore outputStore : outputStoresBySuffix.values()) {
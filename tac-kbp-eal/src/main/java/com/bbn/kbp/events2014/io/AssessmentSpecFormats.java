@@ -15,17 +15,19 @@ import com.bbn.kbp.events2014.KBPRealis;
 import com.bbn.kbp.events2014.KBPString;
 import com.bbn.kbp.events2014.Response;
 import com.bbn.kbp.events2014.ResponseAssessment;
+import com.bbn.kbp.events2014.TACKBPEALException;
 import com.bbn.kbp.events2014.io.assessmentCreators.AssessmentCreator;
 import com.bbn.kbp.events2014.io.assessmentCreators.RecoveryAssessmentCreator;
 import com.bbn.kbp.events2014.io.assessmentCreators.StrictAssessmentCreator;
 
-import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
 import com.google.common.base.Splitter;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.Weigher;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableBiMap;
 import com.google.common.collect.ImmutableList;
@@ -33,30 +35,31 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Ordering;
-import com.google.common.collect.Sets;
+import com.google.common.io.CharSink;
 import com.google.common.io.CharSource;
-import com.google.common.io.Files;
+import com.google.common.util.concurrent.Striped;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
-import java.util.Arrays;
+import java.io.Reader;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
 
 import static com.bbn.kbp.events2014.AssessedResponseFunctions.response;
 import static com.google.common.base.Charsets.UTF_8;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 
 /**
  * Handles file formats defined in the KBP 2014 Event Argument Task assessment specifications.
@@ -116,13 +119,14 @@ public final class AssessmentSpecFormats {
           "Non-empty output directory %s when attempting to create assessment store", directory));
     }
     directory.mkdirs();
-    return new DirectoryAnnotationStore(directory, StrictAssessmentCreator.create(), false, format);
+    return new DirectoryAnnotationStore(directory, StrictAssessmentCreator.create(), NO_CACHING,
+        format, false, false);
   }
 
   /**
-   * Opens an existing assessment store stored in the given directory.  The implementation makes
-   * some attempt to avoid having multiple assessment store objects writing to the same directory,
-   * which can result in data corruption, but this is not guaranteed.
+   * Opens an existing assessment store stored in the given directory. Any number of stores, in
+   * this or other processes, may have the same directory open at once; see {@link
+   * DirectoryAnnotationStore} for the consequences.
    */
   public static AnnotationStore openAnnotationStore(final File directory, Format format)
       throws IOException {
@@ -131,9 +135,45 @@ public final class AssessmentSpecFormats {
           .format("Annotation store directory %s either does not exist or is not a directory",
               directory));
     }
-    return new DirectoryAnnotationStore(directory, StrictAssessmentCreator.create(), false, format);
+    return new DirectoryAnnotationStore(directory, StrictAssessmentCreator.create(), NO_CACHING,
+        format, false, false);
   }
 
+  /**
+   * Like {@link #openAnnotationStore(File, Format)}, but answer keys which have been read are
+   * cached, up to a total of {@code maxCachedResponses} responses. This is worthwhile when the same
+   * documents are read repeatedly, e.g. by several threads. Statistics on the cache's effectiveness
+   * are available from {@link #cacheStats(AnnotationStore)}.
+   */
+  public static AnnotationStore openCachingAnnotationStore(final File directory, Format format,
+      long maxCachedResponses) throws IOException {
+    checkArgument(maxCachedResponses > 0, "Cache size must be positive");
+    if (!directory.exists() || !directory.isDirectory()) {
+      throw new IOException(String
+          .format("Annotation store directory %s either does not exist or is not a directory",
+              directory));
+    }
+    return new DirectoryAnnotationStore(directory, StrictAssessmentCreator.create(),
+        maxCachedResponses, format, false, false);
+  }
+
+  /**
+   * Statistics on the cache of a store opened by {@link #openCachingAnnotationStore(File, Format,
+   * long)}. Absent for stores which do not cache.
+   */
+  public static Optional<CacheStats> cacheStats(final AnnotationStore annotationStore) {
+    if (annotationStore instanceof DirectoryAnnotationStore) {
+      return ((DirectoryAnnotationStore) annotationStore).cacheStats();
+    } else {
+      return Optional.absent();
+    }
+  }
+
+  /**
+   * Opens an existing assessment store whose files may contain assessments which are no longer
+   * valid, which are repaired by {@code assessmentCreator} as they are read. The store is locked
+   * exclusively, so this waits for every other user of the store, in any process, to close it.
+   */
   public static AnnotationStore recoverPossiblyBrokenAnnotationStore(File directory,
       RecoveryAssessmentCreator assessmentCreator, Format format) throws IOException {
     if (!directory.exists() || !directory.isDirectory()) {
@@ -141,14 +181,27 @@ public final class AssessmentSpecFormats {
           "Annotation store directory %s either does not exist or is not a directory",
           directory));
     }
-    return new DirectoryAnnotationStore(directory, assessmentCreator, false, format);
+    // repair rewrites documents based on what it reads, so no one else may write meanwhile
+    return new DirectoryAnnotationStore(directory, assessmentCreator, NO_CACHING, format, false,
+        true);
   }
 
 
   public static AnnotationStore openOrCreateAnnotationStore(final File directory,
       Format format) throws IOException {
+    return openOrCreateAnnotationStore(directory, format, false);
+  }
+
+  /**
+   * Like {@link #openOrCreateAnnotationStore(File, Format)}, but if {@code compressWrites} is true
+   * the files for documents written to the store are gzip-compressed. Stores can always read
+   * compressed files.
+   */
+  public static AnnotationStore openOrCreateAnnotationStore(final File directory,
+      Format format, boolean compressWrites) throws IOException {
     directory.mkdirs();
-    return new DirectoryAnnotationStore(directory, StrictAssessmentCreator.create(), false, format);
+    return new DirectoryAnnotationStore(directory, StrictAssessmentCreator.create(), NO_CACHING,
+        format, compressWrites, false);
   }
 
   /**
@@ -162,7 +215,7 @@ public final class AssessmentSpecFormats {
           "Cannot create system output store: directory is non-empty: %s", directory));
     }
     directory.mkdirs();
-    return new DirectorySystemOutputStore(directory, format);
+    return new DirectorySystemOutputStore(directory, format, false);
   }
 
   /**
@@ -172,16 +225,28 @@ public final class AssessmentSpecFormats {
     checkArgument(directory.exists() && directory.isDirectory(),
         "Directory to open as annotation store %s either does not exist or is not a directory",
         directory);
-    return new DirectorySystemOutputStore(directory, format);
+    return new DirectorySystemOutputStore(directory, format, false);
   }
 
   public static ArgumentStore openOrCreateSystemOutputStore(final File directory, Format format)
       throws IOException {
+    return openOrCreateSystemOutputStore(directory, format, false);
+  }
+
+  /**
+   * Like {@link #openOrCreateSystemOutputStore(File, Format)}, but if {@code compressWrites} is
+   * true the files for documents written to the store are gzip-compressed. Stores can always read
+   * compressed files.
+   */
+  public static ArgumentStore openOrCreateSystemOutputStore(final File directory, Format format,
+      boolean compressWrites) throws IOException {
     if (directory.exists()) {
-      return openSystemOutputStore(directory, format);
+      checkArgument(directory.isDirectory(),
+          "Directory to open as system output store %s is not a directory", directory);
     } else {
-      return createSystemOutputStore(directory, format);
+      directory.mkdirs();
     }
+    return new DirectorySystemOutputStore(directory, format, compressWrites);
   }
 
   /* package-private */ static ArgumentOutput uncachedReadFromArgumentStoreCachingOldIDS(
@@ -197,119 +262,73 @@ public final class AssessmentSpecFormats {
     }
   }
 
-  private static final class DirectorySystemOutputStore implements ArgumentStore {
+  private static final class DirectorySystemOutputStore
+      implements ArgumentStore, WriteBatchingStore {
 
     private static final Logger log = LoggerFactory.getLogger(DirectorySystemOutputStore.class);
 
     private final File directory;
     private final Format format;
+    private final DocIDFileIndex docIDIndex;
+    private final AtomicFileWriter fileWriter;
 
-    private DirectorySystemOutputStore(final File directory, final Format format) {
+    private DirectorySystemOutputStore(final File directory, final Format format,
+        final boolean compressWrites) {
       checkArgument(directory.isDirectory(),
           "Specified directory %s for system output store is not a directory", directory);
       this.directory = checkNotNull(directory);
       this.format = checkNotNull(format);
+      this.docIDIndex = DocIDFileIndex.forDirectory(directory, ACCEPTABLE_SUFFIXES);
+      this.fileWriter =
+          AtomicFileWriter.forIndexedDirectory(directory, docIDIndex, compressWrites);
     }
 
-    private static final Splitter OnTabs = Splitter.on('\t').trimResults();
-
     @Override
     public ArgumentOutput read(final Symbol docid) throws IOException {
       return readAndCacheIDs(docid, ImmutableMap.<String, String>builder());
     }
 
     /* package-private */ ArgumentOutput readAndCacheIDs(final Symbol docid, final ImmutableMap.Builder<String, String> idMap) throws IOException {
-      final File f = bareOrWithSuffix(directory, docid.asString(), ACCEPTABLE_SUFFIXES);
-
-      final ImmutableList.Builder<Scored<Response>> ret = ImmutableList.builder();
-      final ImmutableMap.Builder<Response, String> responseToMetadata =
-          new ImmutableMap.Builder<Response, String>();
-
-      int lineNo = 0;
-      String lastLine = ArgumentOutput.DEFAULT_METADATA;
-      for (final String line : Files.asCharSource(f, UTF_8).readLines()) {
-        ++lineNo;
-        if (line.isEmpty() || line.startsWith("#")) {
-          lastLine = line.trim();
-          continue;
-        }
-        final List<String> parts = ImmutableList.copyOf(OnTabs.split(line));
-        try {
-          // we ignore the first field because input system IDs are currently not preserved
-          try {
-            final double confidence = Double.parseDouble(parts.get(10));
-            final Response response = parseArgumentFields(parts.subList(1, parts.size()));
-            // do not require a # to be put in the metadata beforehand
-            if (lastLine.length() > 0 && lastLine.charAt(0) == METADATA_MARKER
-                && lastLine.length() > 1) {
-              final String metadata = lastLine.substring(1);
-              responseToMetadata.put(response, metadata);
-            } else {
-              responseToMetadata.put(response, ArgumentOutput.DEFAULT_METADATA);
-            }
-
-            idMap.put(parts.get(0), response.uniqueIdentifier());
-            ret.add(Scored.from(response, confidence));
-            lastLine = line;
-          } catch (IndexOutOfBoundsException iobe) {
-            throw new RuntimeException(
-                String.format("Expected 11 tab-separated columns, but got %d", parts.size()), iobe);
-          }
-        } catch (final Exception e) {
-          throw new RuntimeException(
-              String.format("For doc ID %s, Invalid line %d: %s", docid, lineNo, line), e);
-        }
-      }
-
-      return ArgumentOutput.from(docid, ret.build(), responseToMetadata.build());
+      final File f = docIDIndex.fileFor(docid);
+      return readArgumentOutput(docid, CompressedFiles.asCharSource(f), idMap);
     }
 
     @Override
     public ImmutableSet<Symbol> docIDs() throws IOException {
-      return FluentIterable.from(Arrays.asList(directory.listFiles()))
-          .transform(FileUtils.ToName)
-          .transform(Symbol.FromString)
-          .toSet();
+      return docIDIndex.docIDs();
     }
 
 
     @Override
     public void write(final ArgumentOutput output) throws IOException {
-      final File f = new File(directory, output.docId().toString());
-      final PrintWriter out = new PrintWriter(new BufferedWriter(
-          new OutputStreamWriter(new FileOutputStream(f), Charsets.UTF_8)));
-
-      try {
-        for (final Response response : format.responseOrdering().sortedCopy(output.responses())) {
-          final String metadata = output.metadata(response);
-          if (!metadata.equals(ArgumentOutput.DEFAULT_METADATA)) {
-            out.print(METADATA_MARKER + metadata + "\n");
-          }
-          //out.print(response.responseID());
-          out.print(format.identifierField(response));
-          out.print("\t");
-          final double confidence = output.confidence(response);
-          out.print(argToString(response, confidence) + "\n");
+      fileWriter.write(output.docId().asString(), new AtomicFileWriter.Content() {
+        @Override
+        public void writeTo(final CharSink sink) throws IOException {
+          writeArgumentOutput(output, format, sink);
         }
-      } finally {
-        out.close();
-      }
+      });
     }
 
     @Override
-    public void close() {
-      // pass
+    public void beginWriteBatch() {
+      fileWriter.beginBatch();
     }
 
-    private String argToString(final Response arg, final double confidence) {
-      final List<String> parts = Lists.newArrayList();
-      addArgumentParts(arg, parts, confidence);
-      return Joiner.on('\t').join(parts);
+    @Override
+    public void commitWriteBatch() throws IOException {
+      fileWriter.commitBatch();
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (fileWriter.inBatch()) {
+        fileWriter.commitBatch();
+      }
     }
 
     @Override
     public ArgumentOutput readOrEmpty(final Symbol docid) throws IOException {
-      if (docIDs().contains(docid)) {
+      if (docIDIndex.contains(docid)) {
         return read(docid);
       } else {
         return ArgumentOutput.from(docid, ImmutableList.<Scored<Response>>of(),
@@ -323,6 +342,71 @@ public final class AssessmentSpecFormats {
     }
   }
 
+  /**
+   * Opens a system output store over the entries in {@code directory} of {@code archive}, which
+   * hold the same content as the files of a directory store. Closing the store does not close the
+   * archive.
+   */
+  /* package-private */ static ArgumentStore openArchiveSystemOutputStore(
+      final SystemOutputArchive archive, final String directory, final Format format) {
+    return new ArchiveSystemOutputStore(archive, directory, format);
+  }
+
+  private static final class ArchiveSystemOutputStore implements ArgumentStore {
+
+    private final SystemOutputArchive archive;
+    private final String directory;
+    private final Format format;
+
+    private ArchiveSystemOutputStore(final SystemOutputArchive archive, final String directory,
+        final Format format) {
+      this.archive = checkNotNull(archive);
+      this.directory = checkNotNull(directory);
+      this.format = checkNotNull(format);
+    }
+
+    @Override
+    public ImmutableSet<Symbol> docIDs() throws IOException {
+      return FluentIterable.from(archive.entryNamesIn(directory))
+          .transform(Symbol.FromString)
+          .toSet();
+    }
+
+    @Override
+    public ArgumentOutput read(final Symbol docid) throws IOException {
+      final String entryName = archive.bareOrWithSuffix(directory, docid.asString(),
+          ACCEPTABLE_SUFFIXES);
+      return readArgumentOutput(docid, archive.entry(entryName).get().asCharSource(UTF_8),
+          ImmutableMap.<String, String>builder());
+    }
+
+    @Override
+    public void write(final ArgumentOutput output) throws IOException {
+      writeArgumentOutput(output, format,
+          archive.entrySink(directory + "/" + output.docId().asString()).asCharSink(UTF_8));
+    }
+
+    @Override
+    public ArgumentOutput readOrEmpty(final Symbol docid) throws IOException {
+      if (archive.contains(directory + "/" + docid.asString())) {
+        return read(docid);
+      } else {
+        return ArgumentOutput.from(docid, ImmutableList.<Scored<Response>>of(),
+            ImmutableMap.<Response, String>of());
+      }
+    }
+
+    @Override
+    public void close() {
+      // the archive is closed by whoever opened it
+    }
+
+    @Override
+    public String toString() {
+      return "ArgumentStore <-- " + archive + "!" + directory;
+    }
+  }
+
   private static void addArgumentParts(final Response arg, final List<String> parts,
       final double confidence) {
     parts.add(arg.docID().toString());
@@ -338,58 +422,186 @@ public final class AssessmentSpecFormats {
   }
 
   /**
-   * This naively just synchronizes everything to deal with concurrency issues. If it becomes a
-   * performance issue we can do something more fine-grained. ~ rgabbard
+   * Reads the system responses for {@code docid} from a file in the format written by {@link
+   * #writeArgumentOutput(ArgumentOutput, Format, CharSink)}. The ID given to each response in the
+   * file is added to {@code idMap}, mapped to the response's unique identifier.
+   */
+  private static ArgumentOutput readArgumentOutput(final Symbol docid, final CharSource source,
+      final ImmutableMap.Builder<String, String> idMap) throws IOException {
+    final ImmutableList.Builder<Scored<Response>> ret = ImmutableList.builder();
+    final ImmutableMap.Builder<Response, String> responseToMetadata =
+        new ImmutableMap.Builder<Response, String>();
+
+    // metadata from a comment line immediately preceding a response, if any
+    String pendingMetadata = ArgumentOutput.DEFAULT_METADATA;
+    try (Reader in = source.openStream()) {
+      final TabFieldTokenizer tokens = TabFieldTokenizer.trimmingFields(in);
+      while (tokens.advance()) {
+        if (tokens.lineIsEmpty() || tokens.lineStartsWith('#')) {
+          final String comment = tokens.line().trim();
+          // do not require a # to be put in the metadata beforehand
+          if (comment.length() > 1 && comment.charAt(0) == METADATA_MARKER) {
+            pendingMetadata = comment.substring(1);
+          } else {
+            pendingMetadata = ArgumentOutput.DEFAULT_METADATA;
+          }
+          continue;
+        }
+        try {
+          // we ignore the first field because input system IDs are currently not preserved
+          try {
+            final double confidence = tokens.doubleField(10);
+            final Response response = parseArgumentFields(tokens, 1);
+            responseToMetadata.put(response, pendingMetadata);
+
+            idMap.put(tokens.field(0), response.uniqueIdentifier());
+            ret.add(Scored.from(response, confidence));
+            pendingMetadata = ArgumentOutput.DEFAULT_METADATA;
+          } catch (IndexOutOfBoundsException iobe) {
+            throw new RuntimeException(
+                String.format("Expected 11 tab-separated columns, but got %d",
+                    tokens.numFields()), iobe);
+          }
+        } catch (final Exception e) {
+          throw new RuntimeException(
+              String.format("For doc ID %s, Invalid line %d: %s", docid, tokens.lineNumber(),
+                  tokens.line()), e);
+        }
+      }
+    }
+
+    return ArgumentOutput.from(docid, ret.build(), responseToMetadata.build());
+  }
+
+  private static void writeArgumentOutput(final ArgumentOutput output, final Format format,
+      final CharSink sink) throws IOException {
+    final PrintWriter out = new PrintWriter(sink.openBufferedStream());
+
+    try {
+      for (final Response response : format.responseOrdering().sortedCopy(output.responses())) {
+        final String metadata = output.metadata(response);
+        if (!metadata.equals(ArgumentOutput.DEFAULT_METADATA)) {
+          out.print(METADATA_MARKER + metadata + "\n");
+        }
+        //out.print(response.responseID());
+        out.print(format.identifierField(response));
+        out.print("\t");
+        final double confidence = output.confidence(response);
+        out.print(argToString(response, confidence) + "\n");
+      }
+    } finally {
+      out.close();
+    }
+    // PrintWriter swallows IOExceptions, including a failure to sync when the sink is closed
+    if (out.checkError()) {
+      throw new IOException("Error writing system output for doc ID " + output.docId());
+    }
+  }
+
+  private static String argToString(final Response arg, final double confidence) {
+    final List<String> parts = Lists.newArrayList();
+    addArgumentParts(arg, parts, confidence);
+    return Joiner.on('\t').join(parts);
+  }
+
+  private static final long NO_CACHING = 0;
+
+  /**
+   * Reads and writes are locked per document, so different documents may be read and written
+   * concurrently and the same document may be read concurrently, but a write excludes all other
+   * access to its document. Locks are striped, so documents sharing a stripe are also locked
+   * together.
+   *
+   * Across processes, the store holds a {@link StoreLock} on its directory while open, usually a
+   * shared one. Since each document is replaced atomically, stores in different processes never
+   * see partially written documents. Outside a write batch, if two stores update the same document
+   * the later write wins. A write batch also holds the directory's update lock until it is
+   * committed, so batches in different stores on one directory, in this or other processes, take
+   * turns, and documents read, modified, and written back within a batch lose no one else's
+   * changes.
    */
-  private static final class DirectoryAnnotationStore implements AnnotationStore {
+  private static final class DirectoryAnnotationStore
+      implements AnnotationStore, WriteBatchingStore {
+
+    private static final int NUM_LOCK_STRIPES = 64;
 
     private final File directory;
-    private final File lockFile;
-    private final LoadingCache<Symbol, AnswerKey> cache;
-    private final boolean doCaching;
-    private boolean closed = false;
-    private final Set<Symbol> docIDs;
+    private final StoreLock storeLock;
+    private final Optional<LoadingCache<Symbol, AnswerKey>> cache;
+    private final Striped<ReadWriteLock> docLocks = Striped.readWriteLock(NUM_LOCK_STRIPES);
+    private volatile boolean closed = false;
+    private final DocIDFileIndex docIDIndex;
     // object which actually creates ResponseAssessments
     // can be used to control how strict we are about
     // the input
     private final AssessmentCreator assessmentCreator;
+    // only the strict creator is stateless, so others must not be used by concurrent reads
+    private final boolean assessmentCreatorIsThreadSafe;
     private final Format format;
+    private final AtomicFileWriter fileWriter;
+    // held while a write batch is in progress. Guarded by this.
+    private Closeable updateLock = null;
+    // each document is replaced under its write lock, and anything read while the batch was in
+    // progress came from the old file, so a read can never cache an old answer key after the new
+    // one is in place
+    private final AtomicFileWriter.PublicationGuard publicationGuard =
+        new AtomicFileWriter.PublicationGuard() {
+          @Override
+          public Lock lockFor(final String fileName) {
+            return docLocks.get(Symbol.from(fileName)).writeLock();
+          }
+
+          @Override
+          public void published(final String fileName) {
+            if (cache.isPresent()) {
+              cache.get().invalidate(Symbol.from(fileName));
+            }
+          }
+        };
 
     private DirectoryAnnotationStore(final File directory, AssessmentCreator assessmentCreator,
-        final boolean doCaching, final Format format) throws IOException {
+        final long maxCachedResponses, final Format format, final boolean compressWrites,
+        final boolean exclusiveLock) throws IOException {
       checkArgument(directory.exists(), "Directory %s for annotation store does not exist",
           directory);
-      // this is a half-hearted attempt at preventing multiple assessment stores
-      //  being opened on the same directory at once.  There is a race condition,
-      // but we don't anticipate this class being used concurrently enough to justify
-      // dealing with it.
-      lockFile = new File(directory, "__lock");
-      if (lockFile.exists()) {
-        throw new IOException(String.format(
-            "Directory %s for assessment store is locked; if this is due to a crash, delete %s",
-            directory, lockFile));
-      }
-
+      this.storeLock = exclusiveLock ? StoreLock.acquireExclusive(directory)
+                                     : StoreLock.acquireShared(directory);
       this.directory = checkNotNull(directory);
-      this.cache = CacheBuilder.newBuilder().maximumSize(50)
-          .build(new CacheLoader<Symbol, AnswerKey>() {
-            @Override
-            public AnswerKey load(Symbol key) throws Exception {
-              return DirectoryAnnotationStore.this.uncachedRead(key);
-            }
-          });
-      this.docIDs = loadInitialDocIds();
+      if (maxCachedResponses > 0) {
+        this.cache = Optional.of(CacheBuilder.newBuilder()
+            .maximumWeight(maxCachedResponses)
+            .weigher(AnswerKeyResponseCount.INSTANCE)
+            .recordStats()
+            .build(new CacheLoader<Symbol, AnswerKey>() {
+              @Override
+              public AnswerKey load(Symbol key) throws Exception {
+                return DirectoryAnnotationStore.this.uncachedRead(key);
+              }
+            }));
+      } else {
+        this.cache = Optional.absent();
+      }
+      try {
+        this.docIDIndex = DocIDFileIndex.forDirectory(directory, ACCEPTABLE_SUFFIXES);
+      } catch (RuntimeException e) {
+        storeLock.close();
+        throw e;
+      }
       this.assessmentCreator = checkNotNull(assessmentCreator);
-      this.doCaching = doCaching;
+      this.assessmentCreatorIsThreadSafe = assessmentCreator instanceof StrictAssessmentCreator;
       this.format = checkNotNull(format);
+      this.fileWriter =
+          AtomicFileWriter.forIndexedDirectory(directory, docIDIndex, compressWrites);
     }
 
     @Override
-    public synchronized AnswerKey read(final Symbol docid) throws IOException {
+    public AnswerKey read(final Symbol docid) throws IOException {
       assertNotClosed();
+      final Lock lock = docLocks.get(docid).readLock();
+      lock.lock();
       try {
-        if (doCaching) {
-          return cache.get(docid);
+        if (cache.isPresent()) {
+          return cache.get().get(docid);
         } else {
           return uncachedRead(docid);
         }
@@ -400,32 +612,45 @@ public final class AssessmentSpecFormats {
         } else {
           throw new RuntimeException(e.getCause());
         }
+      } finally {
+        lock.unlock();
       }
     }
 
     @Override
-    public synchronized Set<Symbol> docIDs() throws IOException {
+    public Set<Symbol> docIDs() throws IOException {
       assertNotClosed();
-      return Collections.unmodifiableSet(docIDs);
-    }
-
-    private Set<Symbol> loadInitialDocIds() throws IOException {
-      return Sets.newHashSet(FluentIterable.from(Arrays.asList(directory.listFiles()))
-          .transform(FileUtils.ToName)
-          .transform(Symbol.FromString)
-          .toSet());
+      return docIDIndex.docIDs();
     }
 
     @Override
-    public synchronized void write(final AnswerKey answerKey) throws IOException {
+    public void write(final AnswerKey answerKey) throws IOException {
       assertNotClosed();
-      cache.invalidate(answerKey.docId());
-      docIDs.add(answerKey.docId());
+      final Lock lock = docLocks.get(answerKey.docId()).writeLock();
+      lock.lock();
+      try {
+        if (cache.isPresent()) {
+          cache.get().invalidate(answerKey.docId());
+        }
+        uncachedWrite(answerKey);
+      } finally {
+        lock.unlock();
+      }
+    }
 
-      final File f = new File(directory, answerKey.docId().toString());
+    private void uncachedWrite(final AnswerKey answerKey) throws IOException {
       log.info("Writing assessment for doc ID {}", answerKey.docId());
-      final PrintWriter out = new PrintWriter(new BufferedWriter(
-          new OutputStreamWriter(new FileOutputStream(f), Charsets.UTF_8)));
+      fileWriter.write(answerKey.docId().asString(), new AtomicFileWriter.Content() {
+        @Override
+        public void writeTo(final CharSink sink) throws IOException {
+          writeAnswerKey(answerKey, sink);
+        }
+      });
+    }
+
+    private void writeAnswerKey(final AnswerKey answerKey, final CharSink sink)
+        throws IOException {
+      final PrintWriter out = new PrintWriter(sink.openBufferedStream());
 
       try {
         // first annotated responses, sorted by response ID
@@ -451,65 +676,139 @@ public final class AssessmentSpecFormats {
       } finally {
         out.close();
       }
+      if (out.checkError()) {
+        throw new IOException("Error writing assessment for doc ID " + answerKey.docId());
+      }
+    }
+
+    @Override
+    public void beginWriteBatch() throws IOException {
+      assertNotClosed();
+      checkState(!fileWriter.inBatch(), "A write batch is already in progress for %s", directory);
+      // waits for batches in other stores on this directory to be committed
+      final Closeable acquiredUpdateLock = StoreLock.acquireUpdateLock(directory);
+      synchronized (this) {
+        updateLock = acquiredUpdateLock;
+      }
+      // other stores may have written documents since we last looked, and no one else can until
+      // this batch is committed
+      docIDIndex.refresh();
+      if (cache.isPresent()) {
+        cache.get().invalidateAll();
+      }
+      fileWriter.beginBatch();
+    }
+
+    @Override
+    public void commitWriteBatch() throws IOException {
+      assertNotClosed();
+      try {
+        fileWriter.commitBatch(publicationGuard);
+      } finally {
+        releaseUpdateLock();
+      }
+    }
+
+    private synchronized void releaseUpdateLock() throws IOException {
+      if (updateLock != null) {
+        final Closeable toRelease = updateLock;
+        updateLock = null;
+        toRelease.close();
+      }
     }
 
     @Override
     public synchronized void close() {
+      if (!closed && fileWriter.inBatch()) {
+        try {
+          fileWriter.commitBatch(publicationGuard);
+        } catch (IOException e) {
+          throw new TACKBPEALException("Could not commit writes to " + directory, e);
+        }
+      }
       closed = true;
-      lockFile.delete();
+      try {
+        releaseUpdateLock();
+        storeLock.close();
+      } catch (IOException e) {
+        throw new TACKBPEALException("Could not release lock on " + directory, e);
+      }
+      if (cache.isPresent()) {
+        log.info("Annotation store cache for {}: {}", directory, cache.get().stats());
+      }
+    }
+
+    private Optional<CacheStats> cacheStats() {
+      if (cache.isPresent()) {
+        return Optional.of(cache.get().stats());
+      } else {
+        return Optional.absent();
+      }
     }
 
     @Override
-    public synchronized AnswerKey readOrEmpty(final Symbol docid) throws IOException {
+    public AnswerKey readOrEmpty(final Symbol docid) throws IOException {
       assertNotClosed();
-      if (docIDs().contains(docid)) {
+      if (docIDIndex.contains(docid)) {
         return read(docid);
       } else {
         return AnswerKey.createEmpty(docid);
       }
     }
 
-    private synchronized AnswerKey uncachedRead(final Symbol docid) throws IOException {
+    private AnswerKey uncachedRead(final Symbol docid) throws IOException {
+      if (assessmentCreatorIsThreadSafe) {
+        return parseAnswerKey(docid);
+      } else {
+        synchronized (assessmentCreator) {
+          return parseAnswerKey(docid);
+        }
+      }
+    }
+
+    private AnswerKey parseAnswerKey(final Symbol docid) throws IOException {
       final ImmutableList.Builder<AssessedResponse> annotated = ImmutableList.builder();
       final ImmutableList.Builder<Response> unannotated = ImmutableList.builder();
       final CorefAnnotation.Builder corefBuilder = assessmentCreator.corefBuilder(docid);
 
-      final File f = bareOrWithSuffix(directory, docid.asString(), ACCEPTABLE_SUFFIXES);
+      final File f = docIDIndex.fileFor(docid);
 
-      final CharSource source = Files.asCharSource(f, UTF_8);
-      for (final String line : source.readLines()) {
-        try {
-          if (line.isEmpty() || line.startsWith("#")) {
-            continue;
-          }
-          final String[] parts = line.split("\t");
-          final List<String> argumentParts = Arrays.asList(parts).subList(1, 11);
-          final List<String> annotationParts = Arrays.asList(parts).subList(11, parts.length);
-
-          if (annotationParts.isEmpty()) {
-            throw new IOException(String.format(
-                "The assessment store file for document ID %s appears to be a system " +
-                    "output file with no assessment columns.", docid));
-          }
+      try (Reader in = CompressedFiles.asCharSource(f).openStream()) {
+        final TabFieldTokenizer tokens = TabFieldTokenizer.splittingLikeString(in);
+        while (tokens.advance()) {
+          try {
+            if (tokens.lineIsEmpty() || tokens.lineStartsWith('#')) {
+              continue;
+            }
+            if (tokens.numFields() < 11) {
+              throw new IOException(String.format(
+                  "Expected at least 11 tab-separated columns, but got %d", tokens.numFields()));
+            } else if (tokens.numFields() == 11) {
+              throw new IOException(String.format(
+                  "The assessment store file for document ID %s appears to be a system " +
+                      "output file with no assessment columns.", docid));
+            }
 
-          final Response response = parseArgumentFields(argumentParts);
-          final AssessmentCreator.AssessmentParseResult annotation =
-              parseAnnotation(annotationParts);
+            final Response response = parseArgumentFields(tokens, 1);
+            final AssessmentCreator.AssessmentParseResult annotation =
+                parseAnnotation(tokens.fields(11));
 
-          if (annotation.assessment().isPresent()) {
-            annotated.add(AssessedResponse.of(response, annotation.assessment().get()));
-          } else {
-            unannotated.add(response);
-          }
+            if (annotation.assessment().isPresent()) {
+              annotated.add(AssessedResponse.of(response, annotation.assessment().get()));
+            } else {
+              unannotated.add(response);
+            }
 
-          if (annotation.corefId().isPresent()) {
-            corefBuilder.corefCAS(response.canonicalArgument(), annotation.corefId().get());
-          } else {
-            corefBuilder.addUnannotatedCAS(response.canonicalArgument());
+            if (annotation.corefId().isPresent()) {
+              corefBuilder.corefCAS(response.canonicalArgument(), annotation.corefId().get());
+            } else {
+              corefBuilder.addUnannotatedCAS(response.canonicalArgument());
+            }
+          } catch (Exception e) {
+            throw new IOException(String.format(
+                "While reading answer key for document %s, error on line %s", docid,
+                tokens.line()), e);
           }
-        } catch (Exception e) {
-          throw new IOException(String.format(
-              "While reading answer key for document %s, error on line %s", docid, line), e);
         }
       }
 
@@ -579,7 +878,7 @@ public final class AssessmentSpecFormats {
       parts.addAll(Collections.nCopies(2, UNANNOTATED));
     }
 
-    private synchronized void assertNotClosed() {
+    private void assertNotClosed() {
       if (closed) {
         throw new RuntimeException("Illegal attempt to use a closed assessment store.");
       }
@@ -589,6 +888,19 @@ public final class AssessmentSpecFormats {
     public String toString() {
       return "AnnStore[" + directory + "]";
     }
+
+    /**
+     * Weighs cached answer keys by their number of responses, which dominates their memory use.
+     */
+    private enum AnswerKeyResponseCount implements Weigher<Symbol, AnswerKey> {
+      INSTANCE;
+
+      @Override
+      public int weigh(final Symbol docID, final AnswerKey answerKey) {
+        // an empty answer key still takes some space
+        return 1 + answerKey.allResponses().size();
+      }
+    }
   }
 
   private static String offsetString(final Set<CharOffsetSpan> spans) {
@@ -624,6 +936,20 @@ public final class AssessmentSpecFormats {
         KBPRealis.parse(parts.get(8)));
   }
 
+  /**
+   * Like {@link #parseArgumentFields(List)}, but reading the argument fields of the current line
+   * of {@code tokens} starting from field {@code firstField}.
+   */
+  /* package-private */ static Response parseArgumentFields(final TabFieldTokenizer tokens,
+      final int firstField) {
+    return Response.of(Symbol.from(tokens.field(firstField)),
+        Symbol.from(tokens.field(firstField + 1)), Symbol.from(tokens.field(firstField + 2)),
+        KBPString.from(tokens.field(firstField + 3), tokens.spanField(firstField + 4)),
+        tokens.spanField(firstField + 6),
+        parseCharOffsetSpans(tokens, firstField + 7),
+        parseCharOffsetSpans(tokens, firstField + 5),
+        KBPRealis.parse(tokens.field(firstField + 8)));
+  }
 
   private static final Splitter onCommas =
       Splitter.on(",").trimResults().omitEmptyStrings();
@@ -639,8 +965,22 @@ public final class AssessmentSpecFormats {
       ret.add(TACKBPEALIOUtils.parseCharOffsetSpan(span));
     }
 
-    final ImmutableSet<CharOffsetSpan> spans = ret.build();
+    return checkNonEmptySpans(ret.build());
+  }
+
+  private static ImmutableSet<CharOffsetSpan> parseCharOffsetSpans(final TabFieldTokenizer tokens,
+      final int field) {
+    if (tokens.fieldEquals(field, "NIL")) {
+      return ImmutableSet.of();
+    }
+
+    final ImmutableSet.Builder<CharOffsetSpan> ret = ImmutableSet.builder();
+    tokens.addSpansInField(field, ret);
+    return checkNonEmptySpans(ret.build());
+  }
 
+  private static ImmutableSet<CharOffsetSpan> checkNonEmptySpans(
+      final ImmutableSet<CharOffsetSpan> spans) {
     if (spans.isEmpty()) {
       throw new RuntimeException(String.format("Empty spans sets must be indicated by NIL"));
     }
@@ -650,6 +990,11 @@ public final class AssessmentSpecFormats {
 
   private static final ImmutableSet<String> ACCEPTABLE_SUFFIXES = ImmutableSet.of("tab", "tsv");
 
+  /**
+   * Finds the file in {@code directory} holding {@code filename}. Exactly one of {@code filename},
+   * {@code filename} with one of the {@code suffixes}, or one of these followed by {@code .gz} (for
+   * a gzip-compressed file) must exist.
+   */
   public static File bareOrWithSuffix(final File directory, final String filename,
       ImmutableSet<String> suffixes)
       throws FileNotFoundException {
@@ -671,9 +1016,20 @@ public final class AssessmentSpecFormats {
       }
     }
 
+    // any of the above may be compressed
+    for (final File uncompressedAttempt : ImmutableList.copyOf(attempts)) {
+      final File attempt = new File(directory,
+          uncompressedAttempt.getName() + CompressedFiles.GZIP_SUFFIX);
+      attempts.add(attempt);
+
+      if (attempt.isFile()) {
+        successfulAttempts.add(attempt);
+      }
+    }
+
     if (!successfulAttempts.isEmpty()) {
       if (successfulAttempts.size() == 1) {
-        return attempts.get(0);
+        return successfulAttempts.get(0);
       } else {
         throw new FileNotFoundException("Multiple alternative files exist: " + successfulAttempts);
       }
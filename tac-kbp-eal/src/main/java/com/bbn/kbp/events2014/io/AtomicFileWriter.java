@@ -0,0 +1,266 @@
+package com.bbn.kbp.events2014.io;
+
+import com.bbn.bue.common.symbols.Symbol;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteSink;
+import com.google.common.io.CharSink;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.GZIPOutputStream;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Writes the files of a directory-backed store so that readers only ever see complete files.
+ * Each file is written to a hidden temporary file in the same directory, synced, and then renamed
+ * over the file it replaces. Temporary files left behind by a crash are recognized by {@link
+ * #isTemporaryFile(String)} so that stores can ignore them.
+ *
+ * Outside a batch, each write also syncs the directory so that the rename survives a crash. During
+ * a batch (see {@link WriteBatchingStore}), temporary files are only renamed into place when the
+ * batch is committed, followed by a single directory sync.
+ *
+ * Files may be gzip-compressed as described in {@link CompressedFiles}. Writing either variant of
+ * a file removes the other.
+ *
+ * This class is thread-safe.
+ */
+final class AtomicFileWriter {
+
+  private static final Logger log = LoggerFactory.getLogger(AtomicFileWriter.class);
+
+  private static final String TEMP_SUFFIX = ".tmp";
+
+  /**
+   * Something to be written to a file.
+   */
+  interface Content {
+
+    void writeTo(CharSink sink) throws IOException;
+  }
+
+  /**
+   * Lets the owner of a writer exclude its readers from each file while a batch puts it in place.
+   */
+  interface PublicationGuard {
+
+    /**
+     * The lock to hold while {@code fileName} is put in place.
+     */
+    Lock lockFor(String fileName);
+
+    /**
+     * Called once {@code fileName} is in place, while its lock is still held.
+     */
+    void published(String fileName);
+  }
+
+  private static final PublicationGuard UNGUARDED = new PublicationGuard() {
+    @Override
+    public Lock lockFor(final String fileName) {
+      // nothing else can hold this
+      return new ReentrantLock();
+    }
+
+    @Override
+    public void published(final String fileName) {
+    }
+  };
+
+  private final File directory;
+  private final boolean compress;
+  private final Optional<DocIDFileIndex> index;
+  // temporary files written during the current batch, by the name of the file each will become;
+  // null when no batch is in progress
+  private Map<String, File> batch = null;
+
+  private AtomicFileWriter(final File directory, final boolean compress,
+      final Optional<DocIDFileIndex> index) {
+    this.directory = checkNotNull(directory);
+    this.compress = compress;
+    this.index = checkNotNull(index);
+  }
+
+  static AtomicFileWriter forDirectory(final File directory, final boolean compress) {
+    return new AtomicFileWriter(directory, compress, Optional.<DocIDFileIndex>absent());
+  }
+
+  /**
+   * Like {@link #forDirectory(File, boolean)}, but each file, once in place, is recorded in {@code
+   * index} as written for the document it is named for.
+   */
+  static AtomicFileWriter forIndexedDirectory(final File directory, final DocIDFileIndex index,
+      final boolean compress) {
+    return new AtomicFileWriter(directory, compress, Optional.of(index));
+  }
+
+  /**
+   * Whether {@code fileName} is the name of a temporary file which may have been left behind by
+   * a writer.
+   */
+  static boolean isTemporaryFile(final String fileName) {
+    return fileName.startsWith(".") && fileName.endsWith(TEMP_SUFFIX);
+  }
+
+  /**
+   * Writes {@code content} to the file {@code fileName} (plus {@code .gz} if compressing) in this
+   * writer's directory. If a batch is in progress, the file is not put in place until it is
+   * committed. If writing the content fails, nothing is changed.
+   */
+  void write(final String fileName, final Content content) throws IOException {
+    final File temp = writeTemporary(fileName, content);
+    synchronized (this) {
+      if (batch != null) {
+        final File superseded = batch.put(fileName, temp);
+        if (superseded != null) {
+          deleteIfPossible(superseded);
+        }
+        return;
+      }
+    }
+    publish(fileName, temp);
+    syncDirectory();
+  }
+
+  synchronized void beginBatch() {
+    checkState(batch == null, "A write batch is already in progress for %s", directory);
+    batch = Maps.newLinkedHashMap();
+  }
+
+  synchronized boolean inBatch() {
+    return batch != null;
+  }
+
+  /**
+   * Puts every file written during the current batch in place and syncs the directory. Returns the
+   * names of the files written, as passed to {@link #write(String, Content)}.
+   */
+  ImmutableSet<String> commitBatch() throws IOException {
+    return commitBatch(UNGUARDED);
+  }
+
+  /**
+   * Like {@link #commitBatch()}, but each file is put in place while holding the lock {@code
+   * guard} gives for it, and {@code guard} is told of it before the lock is released.
+   */
+  ImmutableSet<String> commitBatch(final PublicationGuard guard) throws IOException {
+    final Map<String, File> toPublish;
+    synchronized (this) {
+      checkState(batch != null, "No write batch is in progress for %s", directory);
+      toPublish = batch;
+      batch = null;
+    }
+    for (final Map.Entry<String, File> file : toPublish.entrySet()) {
+      final Lock lock = guard.lockFor(file.getKey());
+      lock.lock();
+      try {
+        publish(file.getKey(), file.getValue());
+        guard.published(file.getKey());
+      } finally {
+        lock.unlock();
+      }
+    }
+    syncDirectory();
+    return ImmutableSet.copyOf(toPublish.keySet());
+  }
+
+  private File writeTemporary(final String fileName, final Content content) throws IOException {
+    final File temp = File.createTempFile("." + fileName + ".", TEMP_SUFFIX, directory);
+    boolean written = false;
+    try {
+      content.writeTo(syncingSink(temp).asCharSink(Charsets.UTF_8));
+      written = true;
+      return temp;
+    } finally {
+      if (!written) {
+        deleteIfPossible(temp);
+      }
+    }
+  }
+
+  private void publish(final String fileName, final File temp) throws IOException {
+    final String compressedName = fileName + CompressedFiles.GZIP_SUFFIX;
+    final File target = new File(directory, compress ? compressedName : fileName);
+    final File otherVariant = new File(directory, compress ? fileName : compressedName);
+    try {
+      Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+    // the new file is in place before the old variant goes, so a crash never loses the document
+    if (otherVariant.exists() && !otherVariant.delete()) {
+      throw new IOException("Could not delete " + otherVariant + ", which " + target + " replaces");
+    }
+    if (index.isPresent()) {
+      index.get().recordWrite(Symbol.from(fileName), compress);
+    }
+  }
+
+  private void syncDirectory() {
+    try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+      channel.force(true);
+    } catch (IOException e) {
+      // not every platform can open a directory for syncing (e.g. Windows)
+      log.debug("Could not sync directory {}: {}", directory, e.toString());
+    }
+  }
+
+  private ByteSink syncingSink(final File f) {
+    return new ByteSink() {
+      @Override
+      public OutputStream openStream() throws IOException {
+        final OutputStream out = new BufferedOutputStream(new FileOutputStream(f) {
+          private boolean closed = false;
+
+          @Override
+          public void close() throws IOException {
+            if (!closed) {
+              closed = true;
+              try {
+                getFD().sync();
+              } finally {
+                super.close();
+              }
+            }
+          }
+        });
+        if (compress) {
+          try {
+            return new GZIPOutputStream(out);
+          } catch (IOException e) {
+            out.close();
+            throw e;
+          }
+        } else {
+          return out;
+        }
+      }
+    };
+  }
+
+  private static void deleteIfPossible(final File f) {
+    if (!f.delete()) {
+      log.warn("Could not delete temporary file {}", f);
+    }
+  }
+}
@@ -0,0 +1,80 @@
+package com.bbn.kbp.events2014.io;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteSource;
+import com.google.common.io.CharSource;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Support for the per-document files of directory-backed stores being gzip-compressed. A
+ * compressed file is named like the uncompressed file it replaces with {@code .gz} added. Reading
+ * detects compression from the content, so it does not depend on the file being named
+ * correctly. Compressed files are written by {@link AtomicFileWriter}.
+ */
+final class CompressedFiles {
+
+  static final String GZIP_SUFFIX = ".gz";
+
+  private static final int GZIP_MAGIC_0 = 0x1f;
+  private static final int GZIP_MAGIC_1 = 0x8b;
+
+  private CompressedFiles() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * The name of the uncompressed file which {@code fileName} holds, i.e. {@code fileName} without
+   * any {@code .gz} suffix.
+   */
+  static String uncompressedName(final String fileName) {
+    if (fileName.endsWith(GZIP_SUFFIX)) {
+      return fileName.substring(0, fileName.length() - GZIP_SUFFIX.length());
+    } else {
+      return fileName;
+    }
+  }
+
+  /**
+   * Reads {@code f} as UTF-8 text, decompressing it if it is gzipped.
+   */
+  static CharSource asCharSource(final File f) {
+    return asByteSource(f).asCharSource(Charsets.UTF_8);
+  }
+
+  /**
+   * Reads {@code f}, decompressing it if it is gzipped.
+   */
+  static ByteSource asByteSource(final File f) {
+    return new ByteSource() {
+      @Override
+      public InputStream openStream() throws IOException {
+        final InputStream in = new BufferedInputStream(new FileInputStream(f));
+        try {
+          in.mark(2);
+          final int first = in.read();
+          final int second = in.read();
+          in.reset();
+          if (first == GZIP_MAGIC_0 && second == GZIP_MAGIC_1) {
+            return new GZIPInputStream(in);
+          } else {
+            return in;
+          }
+        } catch (IOException e) {
+          in.close();
+          throw e;
+        }
+      }
+
+      @Override
+      public String toString() {
+        return "CompressedFiles.asByteSource(" + f + ")";
+      }
+    };
+  }
+}
@@ -0,0 +1,149 @@
+package com.bbn.kbp.events2014.io;
+
+import com.bbn.bue.common.symbols.Symbol;
+import com.bbn.kbp.TACException;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.List;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Remembers which files are present in a directory-backed store so that listing document IDs and
+ * finding the file for a document do not need to touch the file system. The directory is listed
+ * once when the index is created. After that only changes made through {@link
+ * #recordWrite(Symbol, boolean)} are seen, so changes made to the directory by anyone other than
+ * the owning store are not noticed until {@link #refresh()} lists it again.
+ *
+ * As before this was introduced, every file name in the directory is reported as a document ID
+ * and the file for a document ID may be either the bare ID or the ID with one of the permitted
+ * suffixes, but not more than one of these. Any of these may also be gzip-compressed, with {@code
+ * .gz} added to its name, which is not part of the document ID (see {@link CompressedFiles}).
+ * Temporary files of an {@link AtomicFileWriter} and {@link StoreLock} files are ignored.
+ *
+ * This class is thread-safe.
+ */
+final class DocIDFileIndex {
+
+  private final File directory;
+  private final ImmutableSet<String> suffixes;
+  // file names in listing order, with files written later at the end
+  private final Set<Symbol> fileNames;
+  // a snapshot of the doc IDs of fileNames, rebuilt when requested after any write
+  private ImmutableSet<Symbol> docIDs = null;
+
+  private DocIDFileIndex(final File directory, final ImmutableSet<String> suffixes,
+      final Set<Symbol> fileNames) {
+    this.directory = checkNotNull(directory);
+    this.suffixes = checkNotNull(suffixes);
+    this.fileNames = checkNotNull(fileNames);
+  }
+
+  static DocIDFileIndex forDirectory(final File directory, final ImmutableSet<String> suffixes) {
+    return new DocIDFileIndex(directory, suffixes, listFileNames(directory));
+  }
+
+  /**
+   * Lists the directory again, picking up changes made by others.
+   */
+  synchronized void refresh() {
+    final Set<Symbol> listed = listFileNames(directory);
+    fileNames.clear();
+    fileNames.addAll(listed);
+    docIDs = null;
+  }
+
+  private static Set<Symbol> listFileNames(final File directory) {
+    final File[] files = directory.listFiles();
+    if (files == null) {
+      throw new TACException("Could not list contents of " + directory);
+    }
+    final Set<Symbol> fileNames = Sets.newLinkedHashSet();
+    for (final File file : files) {
+      if (!AtomicFileWriter.isTemporaryFile(file.getName())
+          && !file.getName().equals(StoreLock.LOCK_FILE_NAME)) {
+        fileNames.add(Symbol.from(file.getName()));
+      }
+    }
+    return fileNames;
+  }
+
+  synchronized ImmutableSet<Symbol> docIDs() {
+    if (docIDs == null) {
+      final ImmutableSet.Builder<Symbol> ret = ImmutableSet.builder();
+      for (final Symbol fileName : fileNames) {
+        ret.add(Symbol.from(CompressedFiles.uncompressedName(fileName.asString())));
+      }
+      docIDs = ret.build();
+    }
+    return docIDs;
+  }
+
+  synchronized boolean contains(final Symbol docID) {
+    return fileNames.contains(docID) || fileNames.contains(compressedName(docID));
+  }
+
+  /**
+   * Returns the file holding {@code docID}, which must be uniquely determined. The file system is
+   * not consulted. Resolves files the same way as {@link AssessmentSpecFormats#bareOrWithSuffix(File,
+   * String, ImmutableSet)}.
+   */
+  synchronized File fileFor(final Symbol docID) throws FileNotFoundException {
+    final List<Symbol> attempts = Lists.newArrayList();
+    final List<Symbol> successfulAttempts = Lists.newArrayList();
+
+    attempts.add(docID);
+    for (final String suffix : suffixes) {
+      attempts.add(Symbol.from(docID.asString() + "." + suffix));
+    }
+    for (final Symbol attempt : ImmutableList.copyOf(attempts)) {
+      attempts.add(compressedName(attempt));
+    }
+    for (final Symbol attempt : attempts) {
+      if (fileNames.contains(attempt)) {
+        successfulAttempts.add(attempt);
+      }
+    }
+
+    if (successfulAttempts.size() == 1) {
+      return new File(directory, successfulAttempts.get(0).asString());
+    } else if (successfulAttempts.isEmpty()) {
+      throw new FileNotFoundException("None of " + filesFor(attempts) + " exist");
+    } else {
+      throw new FileNotFoundException(
+          "Multiple alternative files exist: " + filesFor(successfulAttempts));
+    }
+  }
+
+  /**
+   * Records that the owning store has written the file for {@code docID}, which is named with the
+   * bare document ID plus {@code .gz} if {@code compressed}, and has removed the file with the
+   * other name, if any.
+   */
+  synchronized void recordWrite(final Symbol docID, final boolean compressed) {
+    final Symbol written = compressed ? compressedName(docID) : docID;
+    final Symbol removed = compressed ? docID : compressedName(docID);
+    if (fileNames.add(written) | fileNames.remove(removed)) {
+      docIDs = null;
+    }
+  }
+
+  private static Symbol compressedName(final Symbol name) {
+    return Symbol.from(name.asString() + CompressedFiles.GZIP_SUFFIX);
+  }
+
+  private List<File> filesFor(final List<Symbol> names) {
+    final List<File> ret = Lists.newArrayList();
+    for (final Symbol name : names) {
+      ret.add(new File(directory, name.asString()));
+    }
+    return ret;
+  }
+}
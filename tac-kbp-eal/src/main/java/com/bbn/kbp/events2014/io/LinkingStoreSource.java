@@ -1,7 +1,6 @@
 package com.bbn.kbp.events2014.io;
 
 import com.bbn.bue.common.StringUtils;
-import com.bbn.bue.common.files.FileUtils;
 import com.bbn.bue.common.symbols.Symbol;
 import com.bbn.kbp.events2014.AnswerKey;
 import com.bbn.kbp.events2014.ArgumentOutput;
@@ -10,7 +9,6 @@ import com.bbn.kbp.events2014.ResponseFunctions;
 import com.bbn.kbp.events2014.ResponseLinking;
 import com.bbn.kbp.events2014.ResponseSet;
 
-import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
 import com.google.common.collect.FluentIterable;
@@ -23,7 +21,6 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.io.CharSink;
 import com.google.common.io.CharSource;
-import com.google.common.io.Files;
 
 import org.immutables.value.Value;
 import org.slf4j.Logger;
@@ -32,7 +29,7 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.Arrays;
+import java.io.Reader;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -42,7 +39,6 @@ import javax.annotation.Nonnull;
 import static com.google.common.base.Charsets.UTF_8;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
-import static com.google.common.collect.Iterables.skip;
 import static com.google.common.collect.Iterables.transform;
 
 public final class LinkingStoreSource {
@@ -64,15 +60,34 @@ public final class LinkingStoreSource {
   }
 
   public LinkingStore openOrCreateLinkingStore(File directory) {
+    return openOrCreateLinkingStore(directory, false);
+  }
+
+  /**
+   * Like {@link #openOrCreateLinkingStore(File)}, but if {@code compressWrites} is true the files
+   * for documents written to the store are gzip-compressed. Stores can always read compressed
+   * files.
+   */
+  public LinkingStore openOrCreateLinkingStore(File directory, boolean compressWrites) {
     directory.mkdirs();
-    return new DirectoryLinkingStore(directory, linkingFileLoader, linkingFileWriter);
+    return new DirectoryLinkingStore(directory, linkingFileLoader, linkingFileWriter,
+        compressWrites);
   }
 
   public LinkingStore openLinkingStore(final File directory) throws FileNotFoundException {
     if (!directory.isDirectory()) {
       throw new FileNotFoundException("Not a directory: " + directory);
     }
-    return new DirectoryLinkingStore(directory, linkingFileLoader, linkingFileWriter);
+    return new DirectoryLinkingStore(directory, linkingFileLoader, linkingFileWriter, false);
+  }
+
+  /**
+   * Opens a linking store over the entries in {@code directory} of {@code archive}. Closing the
+   * store does not close the archive.
+   */
+  /* package-private */ LinkingStore openArchiveLinkingStore(final SystemOutputArchive archive,
+      final String directory) {
+    return new ArchiveLinkingStore(archive, directory, linkingFileLoader, linkingFileWriter);
   }
 }
 
@@ -102,24 +117,24 @@ abstract class AbstractKBPSpecLinkingLoader implements LinkingFileLoader {
     ImmutableMap.Builder<String, ResponseSet> responseSetIds = ImmutableMap.builder();
 
     int lineNo = 0;
-    try {
-      for (final String line : source.readLines()) {
-        ++lineNo;
+    try (Reader in = source.openStream()) {
+      final TabFieldTokenizer tokens = TabFieldTokenizer.trimmingAndOmittingEmptyFields(in);
+      while (tokens.advance()) {
+        lineNo = tokens.lineNumber();
         // empty lines are allowed, and comments on lines
         // beginning with '#'
-        if (line.isEmpty() || line.charAt(0) == '#') {
+        if (tokens.lineIsEmpty() || tokens.lineStartsWith('#')) {
           continue;
         }
-        final List<String> parts = StringUtils.OnTabs.splitToList(line);
-        if (line.startsWith("INCOMPLETE")) {
+        if (tokens.lineStartsWith("INCOMPLETE")) {
           if (!incompleteResponses.isPresent()) {
-            incompleteResponses = Optional.of(parseResponses(skip(parts, 1),
+            incompleteResponses = Optional.of(parseResponses(tokens.fields(1),
                 foreignIDToLocal, responsesByUID));
           } else {
             throw new IOException("Cannot have two INCOMPLETE lines");
           }
         } else {
-          final ImmutableLinkingLine linkingLine = parseResponseSetLine(parts,
+          final ImmutableLinkingLine linkingLine = parseResponseSetLine(tokens.fields(0),
               foreignIDToLocal, responsesByUID);
           responseSetsB.add(linkingLine.responses());
           if (linkingLine.id().isPresent()) {
@@ -317,30 +332,36 @@ class LinkingWriter2016 extends AbstractKBPSpecLinkingWriter {
  *
  * Blank lines are allowed, as are comment lines (the first character on the line must be #).
  */
-final class DirectoryLinkingStore implements LinkingStore {
+final class DirectoryLinkingStore implements LinkingStore, WriteBatchingStore {
 
   private final File directory;
   private final LinkingFileLoader linkingLoader;
   private final LinkingFileWriter linkingWriter;
+  private final AtomicFileWriter fileWriter;
   private boolean closed = false;
 
   DirectoryLinkingStore(File directory, LinkingFileLoader linkingLoader,
-      LinkingFileWriter linkingWriter) {
+      LinkingFileWriter linkingWriter, boolean compressWrites) {
     checkArgument(directory.isDirectory(), "Specified directory %s for "
         + "linking store is not a directory", directory);
     this.directory = checkNotNull(directory);
     this.linkingLoader = checkNotNull(linkingLoader);
     this.linkingWriter = checkNotNull(linkingWriter);
+    this.fileWriter = AtomicFileWriter.forDirectory(directory, compressWrites);
   }
 
   @Override
   public ImmutableSet<Symbol> docIDs() throws IOException {
     checkNotClosed();
 
-    return FluentIterable.from(Arrays.asList(directory.listFiles()))
-        .transform(FileUtils.ToName)
-        .transform(Symbol.FromString)
-        .toSet();
+    final ImmutableSet.Builder<Symbol> ret = ImmutableSet.builder();
+    for (final File f : directory.listFiles()) {
+      if (!AtomicFileWriter.isTemporaryFile(f.getName())) {
+        // compressed files hold the same doc ID as their uncompressed equivalent
+        ret.add(Symbol.from(CompressedFiles.uncompressedName(f.getName())));
+      }
+    }
+    return ret.build();
   }
 
   @Override
@@ -373,7 +394,7 @@ final class DirectoryLinkingStore implements LinkingStore {
       return Optional.absent();
     }
 
-    return Optional.of(linkingLoader.read(docID, Files.asCharSource(f, UTF_8), responses,
+    return Optional.of(linkingLoader.read(docID, CompressedFiles.asCharSource(f), responses,
         foreignIDToLocal));
   }
 
@@ -385,14 +406,33 @@ final class DirectoryLinkingStore implements LinkingStore {
   }
 
   @Override
-  public void write(ResponseLinking responseLinking) throws IOException {
+  public void write(final ResponseLinking responseLinking) throws IOException {
     checkNotClosed();
-    final File f = new File(directory, responseLinking.docID().toString());
-    linkingWriter.write(responseLinking, Files.asCharSink(f, Charsets.UTF_8));
+    fileWriter.write(responseLinking.docID().asString(), new AtomicFileWriter.Content() {
+      @Override
+      public void writeTo(final CharSink sink) throws IOException {
+        linkingWriter.write(responseLinking, sink);
+      }
+    });
+  }
+
+  @Override
+  public void beginWriteBatch() throws IOException {
+    checkNotClosed();
+    fileWriter.beginBatch();
+  }
+
+  @Override
+  public void commitWriteBatch() throws IOException {
+    checkNotClosed();
+    fileWriter.commitBatch();
   }
 
   @Override
   public void close() throws IOException {
+    if (!closed && fileWriter.inBatch()) {
+      fileWriter.commitBatch();
+    }
     closed = true;
   }
 
@@ -407,3 +447,76 @@ final class DirectoryLinkingStore implements LinkingStore {
     return "DirectoryLinkingStore(" + directory + ")";
   }
 }
+
+/**
+ * A {@link LinkingStore} which holds the same files as a {@link DirectoryLinkingStore} as entries
+ * in a {@link SystemOutputArchive}.
+ */
+final class ArchiveLinkingStore implements LinkingStore {
+
+  private static final ImmutableSet<String> ACCEPTABLE_SUFFIXES = ImmutableSet.of("linking");
+
+  private final SystemOutputArchive archive;
+  private final String directory;
+  private final LinkingFileLoader linkingLoader;
+  private final LinkingFileWriter linkingWriter;
+
+  ArchiveLinkingStore(final SystemOutputArchive archive, final String directory,
+      final LinkingFileLoader linkingLoader, final LinkingFileWriter linkingWriter) {
+    this.archive = checkNotNull(archive);
+    this.directory = checkNotNull(directory);
+    this.linkingLoader = checkNotNull(linkingLoader);
+    this.linkingWriter = checkNotNull(linkingWriter);
+  }
+
+  @Override
+  public ImmutableSet<Symbol> docIDs() throws IOException {
+    return FluentIterable.from(archive.entryNamesIn(directory))
+        .transform(Symbol.FromString)
+        .toSet();
+  }
+
+  @Override
+  public Optional<ResponseLinking> read(AnswerKey answerKey) throws IOException {
+    return readTransformingIDs(answerKey.docId(), answerKey.allResponses(),
+        Optional.<ImmutableMap<String, String>>absent());
+  }
+
+  @Override
+  public Optional<ResponseLinking> read(ArgumentOutput argumentOutput) throws IOException {
+    return readTransformingIDs(argumentOutput.docId(), argumentOutput.responses(),
+        Optional.<ImmutableMap<String, String>>absent());
+  }
+
+  @Override
+  public Optional<ResponseLinking> readTransformingIDs(Symbol docID, Set<Response> responses,
+      Optional<ImmutableMap<String, String>> foreignIDToLocal)
+      throws IOException {
+    final String entryName;
+    try {
+      entryName = archive.bareOrWithSuffix(directory, docID.asString(), ACCEPTABLE_SUFFIXES);
+    } catch (FileNotFoundException fnf) {
+      return Optional.absent();
+    }
+
+    return Optional.of(linkingLoader.read(docID, archive.entry(entryName).get().asCharSource(UTF_8),
+        responses, foreignIDToLocal));
+  }
+
+  @Override
+  public void write(ResponseLinking responseLinking) throws IOException {
+    linkingWriter.write(responseLinking,
+        archive.entrySink(directory + "/" + responseLinking.docID().asString())
+            .asCharSink(UTF_8));
+  }
+
+  @Override
+  public void close() throws IOException {
+    // the archive is closed by whoever opened it
+  }
+
+  @Override
+  public String toString() {
+    return "ArchiveLinkingStore(" + archive + "!" + directory + ")";
+  }
+}
@@ -0,0 +1,239 @@
+package com.bbn.kbp.events2014.io;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Maps;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An operating system lock on a store directory, taken on the file {@value #LOCK_FILE_NAME} in
+ * it. Any number of processes may hold shared locks on a store at once, while an exclusive lock
+ * excludes all others. Acquiring a lock which another process holds incompatibly waits for it to
+ * be released.
+ *
+ * Because the lock belongs to the open file rather than to the file's existence, a process which
+ * crashes releases its locks and leaves nothing stale behind. The lock file itself is never
+ * deleted, since a process waiting on it would otherwise end up holding a lock nobody else can
+ * see.
+ *
+ * A store which cannot be written to, e.g. a gold standard on read-only media or owned by
+ * someone else, cannot be changed by anyone who would need to be excluded, so if the lock file
+ * cannot be created or opened there the store is not locked at all and a warning is logged. A
+ * shared lock only needs to read an existing lock file.
+ *
+ * The operating system grants locks to a process as a whole, so locks held within this process are
+ * tracked here: shared locks on the same directory share one underlying lock, and any other
+ * combination fails immediately rather than deadlocking. Waiting for another process never holds
+ * up locking of other stores in this process.
+ *
+ * Separately, a store has an update lock (see {@link #acquireUpdateLock(File)}) for callers which
+ * read documents, modify them, and write them back. It excludes only other updaters, in this or any
+ * other process, and is taken on a different byte of the same file so that it is independent of
+ * the shared and exclusive locks.
+ */
+final class StoreLock implements Closeable {
+
+  private static final Logger log = LoggerFactory.getLogger(StoreLock.class);
+
+  static final String LOCK_FILE_NAME = "__lock";
+  private static final long STORE_LOCK_POSITION = 0;
+  private static final long UPDATE_LOCK_POSITION = 1;
+
+  // locks held by this process, by canonical store directory. Guarded by itself.
+  private static final Map<File, HeldLock> heldLocks = Maps.newHashMap();
+  // one permit per canonical store directory, so that only one thread in this process at a time
+  // holds or waits for the operating system's update lock on it. Guarded by heldLocks.
+  private static final Map<File, Semaphore> updatePermits = Maps.newHashMap();
+
+  private final File directory;
+  private boolean released = false;
+
+  private StoreLock(final File directory) {
+    this.directory = checkNotNull(directory);
+  }
+
+  static StoreLock acquireShared(final File directory) throws IOException {
+    return acquire(directory, false);
+  }
+
+  static StoreLock acquireExclusive(final File directory) throws IOException {
+    return acquire(directory, true);
+  }
+
+  private static StoreLock acquire(final File storeDirectory, final boolean exclusive)
+      throws IOException {
+    final File directory = storeDirectory.getCanonicalFile();
+    final HeldLock reserved;
+    synchronized (heldLocks) {
+      while (true) {
+        final HeldLock held = heldLocks.get(directory);
+        if (held == null) {
+          break;
+        }
+        if (exclusive || held.exclusive) {
+          throw new IOException(String.format(
+              "Store %s is already open in this process and cannot be opened again %s",
+              directory, exclusive ? "exclusively" : "while it is held exclusively"));
+        }
+        if (held.acquired) {
+          ++held.users;
+          return new StoreLock(directory);
+        }
+        // another thread is still waiting for the operating system to grant the shared lock
+        try {
+          heldLocks.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while waiting to lock " + directory);
+        }
+      }
+      // reserved so that no one else tries to lock the file while we wait for it
+      reserved = new HeldLock(exclusive);
+      heldLocks.put(directory, reserved);
+    }
+
+    Optional<FileLock> lock = null;
+    try {
+      lock = lockFile(directory, STORE_LOCK_POSITION, exclusive);
+    } finally {
+      synchronized (heldLocks) {
+        if (lock != null) {
+          reserved.lock = lock;
+          reserved.acquired = true;
+        } else {
+          heldLocks.remove(directory);
+        }
+        heldLocks.notifyAll();
+      }
+    }
+    return new StoreLock(directory);
+  }
+
+  /**
+   * Acquires the update lock on the store in {@code directory}, waiting for any other holder in
+   * this or another process to release it. Closing the returned object releases it. A thread must
+   * not acquire the update lock on a directory it already holds it for.
+   */
+  static Closeable acquireUpdateLock(final File storeDirectory) throws IOException {
+    final File directory = storeDirectory.getCanonicalFile();
+    final Semaphore permit;
+    synchronized (heldLocks) {
+      if (!updatePermits.containsKey(directory)) {
+        updatePermits.put(directory, new Semaphore(1));
+      }
+      permit = updatePermits.get(directory);
+    }
+    permit.acquireUninterruptibly();
+    Optional<FileLock> locked = null;
+    try {
+      locked = lockFile(directory, UPDATE_LOCK_POSITION, true);
+    } finally {
+      if (locked == null) {
+        permit.release();
+      }
+    }
+    final Optional<FileLock> lock = locked;
+    return new Closeable() {
+      private boolean released = false;
+
+      @Override
+      public synchronized void close() throws IOException {
+        if (!released) {
+          released = true;
+          try {
+            // closing the channel releases the lock
+            if (lock.isPresent()) {
+              lock.get().channel().close();
+            }
+          } finally {
+            permit.release();
+          }
+        }
+      }
+    };
+  }
+
+  /**
+   * Locks one byte of the lock file in {@code directory}, waiting for other processes if necessary.
+   * Returns absent without locking if the lock file cannot be opened as the lock requires because
+   * the store is not writable.
+   */
+  private static Optional<FileLock> lockFile(final File directory, final long position,
+      final boolean exclusive) throws IOException {
+    final File lockFile = new File(directory, LOCK_FILE_NAME);
+    final FileChannel channel;
+    if (!exclusive && lockFile.isFile()) {
+      // a shared lock only needs read access, so read-only users of the store can take it
+      channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.READ);
+    } else if (lockFile.isFile() ? Files.isWritable(lockFile.toPath())
+                                 : Files.isWritable(directory.toPath())) {
+      channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE,
+          StandardOpenOption.READ, StandardOpenOption.WRITE);
+    } else {
+      log.warn("Cannot write to lock file {}, so {} will not be locked. This is only safe if "
+          + "no one can write to the store.", lockFile, directory);
+      return Optional.absent();
+    }
+    boolean locked = false;
+    try {
+      FileLock lock = channel.tryLock(position, 1, !exclusive);
+      if (lock == null) {
+        log.info("Waiting for another process to release its lock on {}", directory);
+        lock = channel.lock(position, 1, !exclusive);
+      }
+      locked = true;
+      return Optional.of(lock);
+    } finally {
+      if (!locked) {
+        channel.close();
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    synchronized (heldLocks) {
+      if (released) {
+        return;
+      }
+      released = true;
+      final HeldLock held = heldLocks.get(directory);
+      if (--held.users == 0) {
+        heldLocks.remove(directory);
+        // closing the channel releases the lock. This never blocks, and is done before anyone
+        // else can lock the file again in this process
+        if (held.lock.isPresent()) {
+          held.lock.get().channel().close();
+        }
+      }
+    }
+  }
+
+  // fields other than exclusive are guarded by heldLocks
+  private static final class HeldLock {
+
+    private final boolean exclusive;
+    // false while the thread which reserved this waits for the operating system's lock
+    private boolean acquired = false;
+    private Optional<FileLock> lock = Optional.absent();
+    private int users = 1;
+
+    private HeldLock(final boolean exclusive) {
+      this.exclusive = exclusive;
+    }
+  }
+}
@@ -0,0 +1,437 @@
+package com.bbn.kbp.events2014.io;
+
+import com.bbn.bue.common.symbols.Symbol;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteSink;
+import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A single file holding what would otherwise be many small files, used to store a whole {@link
+ * SystemOutputStore2016} in one file. Each entry has a name, which is the path the file would have
+ * relative to the root of a directory store (e.g. {@code arguments/NYT_ENG_20130910.0002}).
+ *
+ * The file is laid out as:
+ * <ul>
+ * <li>a header: a magic number, a format version, and the system ID.</li>
+ * <li>the content of each entry, one after another, each optionally deflate-compressed on its
+ * own.</li>
+ * <li>an index giving the name, position, stored length, and compression of each entry.</li>
+ * <li>a trailer giving the position of the index followed by the magic number again.</li>
+ * </ul>
+ *
+ * Reading an entry seeks directly to it using the index, which is loaded when the archive is
+ * opened. Writes are append-only: reopening an archive to write to it leaves the existing index and
+ * trailer in place and writes each new entry's content after them, and the updated index, which is
+ * kept in memory, is written when the archive is closed. Writing an entry which already exists
+ * replaces it in the index, leaving the old content as unreachable bytes in the file. If an archive
+ * is written to but never closed, opening it again finds the last index which was completely written
+ * and so sees the archive as it was before the unclosed writes.
+ *
+ * This class is thread-safe.
+ */
+final class SystemOutputArchive implements Closeable {
+
+  private static final long MAGIC = 0x5441434541523136L; // "TACEAR16"
+  private static final int VERSION = 1;
+  private static final int TRAILER_LENGTH = 16;
+  private static final int SEARCH_CHUNK_LENGTH = 64 * 1024;
+
+  private final File file;
+  private final RandomAccessFile raf;
+  private final boolean writable;
+  private final boolean compressNewEntries;
+  private final Symbol systemID;
+  // entries in the order they were last written
+  private final Map<String, Entry> entries;
+  // where the next entry will be written, which is also where the index will go on close
+  private long dataEnd;
+  private boolean modified = false;
+  private boolean closed = false;
+
+  private SystemOutputArchive(final File file, final RandomAccessFile raf, final boolean writable,
+      final boolean compressNewEntries, final Symbol systemID, final Map<String, Entry> entries,
+      final long dataEnd) {
+    this.file = checkNotNull(file);
+    this.raf = checkNotNull(raf);
+    this.writable = writable;
+    this.compressNewEntries = compressNewEntries;
+    this.systemID = checkNotNull(systemID);
+    this.entries = checkNotNull(entries);
+    this.dataEnd = dataEnd;
+  }
+
+  /**
+   * Opens an existing archive for reading only.
+   */
+  static SystemOutputArchive open(final File file) throws IOException {
+    return openExisting(file, new RandomAccessFile(file, "r"), false, false);
+  }
+
+  /**
+   * Opens an existing archive for reading and writing, or creates a new one with the given system
+   * ID if {@code file} does not exist. If {@code compressNewEntries} is true, entries written
+   * through this object are compressed.
+   */
+  static SystemOutputArchive openOrCreate(final File file, final Symbol systemIDIfCreated,
+      final boolean compressNewEntries) throws IOException {
+    if (file.exists()) {
+      return openExisting(file, new RandomAccessFile(file, "rw"), true, compressNewEntries);
+    }
+    if (file.getAbsoluteFile().getParentFile() != null) {
+      file.getAbsoluteFile().getParentFile().mkdirs();
+    }
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.writeLong(MAGIC);
+      raf.writeInt(VERSION);
+      raf.writeUTF(systemIDIfCreated.asString());
+      final SystemOutputArchive ret = new SystemOutputArchive(file, raf, true, compressNewEntries,
+          systemIDIfCreated, Maps.<String, Entry>newLinkedHashMap(), raf.getFilePointer());
+      // make sure even an empty archive gets an index
+      ret.modified = true;
+      return ret;
+    } catch (IOException e) {
+      raf.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Whether {@code file} is an existing file which begins like an archive.
+   */
+  static boolean isArchive(final File file) throws IOException {
+    if (!file.isFile() || file.length() < 8 + TRAILER_LENGTH) {
+      return false;
+    }
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      return raf.readLong() == MAGIC;
+    }
+  }
+
+  private static SystemOutputArchive openExisting(final File file, final RandomAccessFile raf,
+      final boolean writable, final boolean compressNewEntries) throws IOException {
+    try {
+      if (raf.length() < 8 + TRAILER_LENGTH || raf.readLong() != MAGIC) {
+        throw new IOException(file + " is not a system output archive");
+      }
+      final int version = raf.readInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported version " + version + " for archive " + file);
+      }
+      final Symbol systemID = Symbol.from(raf.readUTF());
+      final long dataStart = raf.getFilePointer();
+
+      final Optional<Map<String, Entry>> entries = readLastIndex(raf, dataStart);
+      if (!entries.isPresent()) {
+        throw new IOException("Archive " + file + " has no valid index. Perhaps it was never closed "
+            + "after writing?");
+      }
+      // new entries go after the current index so it stays valid until close writes a new one
+      return new SystemOutputArchive(file, raf, writable, compressNewEntries, systemID,
+          entries.get(), raf.length());
+    } catch (IOException e) {
+      raf.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Reads the index pointed to by the last complete trailer in the file. Normally this is the
+   * trailer at the very end, but if the archive was appended to and not closed we must search
+   * backwards past the unindexed content for the trailer written when it was last closed.
+   */
+  private static Optional<Map<String, Entry>> readLastIndex(final RandomAccessFile raf,
+      final long dataStart) throws IOException {
+    final byte[] buf = new byte[SEARCH_CHUNK_LENGTH + TRAILER_LENGTH];
+    long chunkEnd = raf.length();
+    while (chunkEnd - dataStart >= TRAILER_LENGTH) {
+      final long chunkStart = Math.max(dataStart, chunkEnd - buf.length);
+      final int chunkLength = (int) (chunkEnd - chunkStart);
+      raf.seek(chunkStart);
+      raf.readFully(buf, 0, chunkLength);
+      final ByteBuffer chunk = ByteBuffer.wrap(buf, 0, chunkLength);
+      for (int i = chunkLength - TRAILER_LENGTH; i >= 0; --i) {
+        if (chunk.getLong(i + 8) == MAGIC) {
+          final long trailerStart = chunkStart + i;
+          final Optional<Map<String, Entry>> entries =
+              readIndex(raf, dataStart, chunk.getLong(i), trailerStart);
+          if (entries.isPresent()) {
+            return entries;
+          }
+        }
+      }
+      // the next chunk overlaps this one so every possible trailer start is checked once
+      chunkEnd = chunkStart + TRAILER_LENGTH - 1;
+    }
+    return Optional.absent();
+  }
+
+  /**
+   * Reads the index occupying exactly the bytes from {@code indexStart} to {@code indexEnd}, or
+   * returns absent if those bytes are not a valid index.
+   */
+  private static Optional<Map<String, Entry>> readIndex(final RandomAccessFile raf,
+      final long dataStart, final long indexStart, final long indexEnd) throws IOException {
+    if (indexStart < dataStart || indexStart > indexEnd
+        || indexEnd - indexStart > Integer.MAX_VALUE) {
+      return Optional.absent();
+    }
+    final byte[] index = new byte[(int) (indexEnd - indexStart)];
+    raf.seek(indexStart);
+    raf.readFully(index);
+
+    final DataInputStream in = new DataInputStream(new ByteArrayInputStream(index));
+    final Map<String, Entry> entries = Maps.newLinkedHashMap();
+    try {
+      final int numEntries = in.readInt();
+      for (int i = 0; i < numEntries; ++i) {
+        final String name = in.readUTF();
+        final Entry entry = new Entry(in.readLong(), in.readInt(), in.readBoolean());
+        if (entry.offset < dataStart || entry.storedLength < 0
+            || entry.offset + entry.storedLength > indexStart) {
+          return Optional.absent();
+        }
+        entries.put(name, entry);
+      }
+      if (in.available() > 0) {
+        return Optional.absent();
+      }
+    } catch (IOException e) {
+      // bytes which merely look like a trailer may point to garbage
+      return Optional.absent();
+    }
+    return Optional.of(entries);
+  }
+
+  Symbol systemID() {
+    return systemID;
+  }
+
+  synchronized ImmutableList<String> entryNames() {
+    checkNotClosed();
+    return ImmutableList.copyOf(entries.keySet());
+  }
+
+  /**
+   * The names of the entries directly inside {@code directory}, with the directory removed.
+   */
+  synchronized ImmutableSet<String> entryNamesIn(final String directory) {
+    checkNotClosed();
+    final String prefix = directory + "/";
+    final ImmutableSet.Builder<String> ret = ImmutableSet.builder();
+    for (final String name : entries.keySet()) {
+      if (name.startsWith(prefix) && name.indexOf('/', prefix.length()) < 0) {
+        ret.add(name.substring(prefix.length()));
+      }
+    }
+    return ret.build();
+  }
+
+  synchronized boolean contains(final String name) {
+    checkNotClosed();
+    return entries.containsKey(name);
+  }
+
+  /**
+   * Resolves the name of a file in {@code directory} the same way {@link
+   * AssessmentSpecFormats#bareOrWithSuffix(File, String, ImmutableSet)} does for directory stores:
+   * exactly one of {@code filename} or {@code filename} plus one of the {@code suffixes} must be
+   * present.
+   */
+  synchronized String bareOrWithSuffix(final String directory, final String filename,
+      final Set<String> suffixes) throws FileNotFoundException {
+    checkNotClosed();
+    final List<String> attempts = Lists.newArrayList();
+    attempts.add(directory + "/" + filename);
+    for (final String suffix : suffixes) {
+      attempts.add(directory + "/" + filename + "." + suffix);
+    }
+    final List<String> successfulAttempts = Lists.newArrayList();
+    for (final String attempt : attempts) {
+      if (entries.containsKey(attempt)) {
+        successfulAttempts.add(attempt);
+      }
+    }
+    if (successfulAttempts.size() == 1) {
+      return successfulAttempts.get(0);
+    } else if (successfulAttempts.isEmpty()) {
+      throw new FileNotFoundException("None of " + attempts + " exist in " + file);
+    } else {
+      throw new FileNotFoundException(
+          "Multiple alternative entries exist in " + file + ": " + successfulAttempts);
+    }
+  }
+
+  /**
+   * The content of the named entry, if present. The content is read when the returned source is
+   * opened.
+   */
+  synchronized Optional<ByteSource> entry(final String name) {
+    checkNotClosed();
+    if (!entries.containsKey(name)) {
+      return Optional.absent();
+    }
+    return Optional.<ByteSource>of(new ByteSource() {
+      @Override
+      public InputStream openStream() throws IOException {
+        return new ByteArrayInputStream(readEntry(name));
+      }
+
+      @Override
+      public String toString() {
+        return file + "!" + name;
+      }
+    });
+  }
+
+  /**
+   * A sink which, each time a stream it opens is closed, writes what was written to the stream as
+   * the content of the named entry.
+   */
+  ByteSink entrySink(final String name) {
+    checkArgument(!name.isEmpty() && !name.startsWith("/"), "Invalid entry name %s", name);
+    return new ByteSink() {
+      @Override
+      public OutputStream openStream() {
+        return new ByteArrayOutputStream() {
+          private boolean streamClosed = false;
+
+          @Override
+          public void close() throws IOException {
+            if (!streamClosed) {
+              streamClosed = true;
+              SystemOutputArchive.this.write(name, toByteArray());
+            }
+          }
+        };
+      }
+
+      @Override
+      public String toString() {
+        return file + "!" + name;
+      }
+    };
+  }
+
+  synchronized void write(final String name, final byte[] content) throws IOException {
+    checkNotClosed();
+    checkState(writable, "Archive %s was opened read-only", file);
+    final byte[] stored;
+    if (compressNewEntries) {
+      final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+      try (OutputStream out = new DeflaterOutputStream(compressed)) {
+        out.write(content);
+      }
+      stored = compressed.toByteArray();
+    } else {
+      stored = content;
+    }
+    raf.seek(dataEnd);
+    raf.write(stored);
+    // re-insert so iteration order follows write order for replaced entries too
+    entries.remove(name);
+    entries.put(name, new Entry(dataEnd, stored.length, compressNewEntries));
+    dataEnd += stored.length;
+    modified = true;
+  }
+
+  private synchronized byte[] readEntry(final String name) throws IOException {
+    checkNotClosed();
+    final Entry entry = entries.get(name);
+    if (entry == null) {
+      throw new FileNotFoundException("No entry " + name + " in " + file);
+    }
+    final byte[] stored = new byte[entry.storedLength];
+    raf.seek(entry.offset);
+    raf.readFully(stored);
+    if (entry.compressed) {
+      try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(stored))) {
+        return ByteStreams.toByteArray(in);
+      }
+    } else {
+      return stored;
+    }
+  }
+
+  /**
+   * Writes the index if anything was written and closes the underlying file.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      if (writable && modified) {
+        final ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+        final DataOutputStream index = new DataOutputStream(indexBytes);
+        index.writeInt(entries.size());
+        for (final Map.Entry<String, Entry> e : entries.entrySet()) {
+          index.writeUTF(e.getKey());
+          index.writeLong(e.getValue().offset);
+          index.writeInt(e.getValue().storedLength);
+          index.writeBoolean(e.getValue().compressed);
+        }
+        index.writeLong(dataEnd);
+        index.writeLong(MAGIC);
+        index.flush();
+        raf.seek(dataEnd);
+        raf.write(indexBytes.toByteArray());
+        raf.setLength(raf.getFilePointer());
+      }
+    } finally {
+      raf.close();
+    }
+  }
+
+  private void checkNotClosed() {
+    checkState(!closed, "Archive %s has been closed", file);
+  }
+
+  @Override
+  public String toString() {
+    return "SystemOutputArchive(" + file + ")";
+  }
+
+  private static final class Entry {
+
+    private final long offset;
+    private final int storedLength;
+    private final boolean compressed;
+
+    private Entry(final long offset, final int storedLength, final boolean compressed) {
+      this.offset = offset;
+      this.storedLength = storedLength;
+      this.compressed = compressed;
+    }
+  }
+}
@@ -14,7 +14,7 @@ import java.util.Set;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
-public final class SystemOutputStore2015 implements SystemOutputStore {
+public final class SystemOutputStore2015 implements SystemOutputStore, WriteBatchingStore {
   private final ArgumentStore argumentStore;
   private final LinkingStore linkingStore;
   private final Symbol systemID;
@@ -84,6 +84,19 @@ public final class SystemOutputStore2015 implements SystemOutputStore {
     }
   }
 
+  /**
+   * Batches writes to both the argument and linking stores, where they support it.
+   */
+  @Override
+  public void beginWriteBatch() throws IOException {
+    WriteBatches.beginWhereSupported(argumentStore, linkingStore);
+  }
+
+  @Override
+  public void commitWriteBatch() throws IOException {
+    WriteBatches.commitWhereSupported(argumentStore, linkingStore);
+  }
+
   @Override
   public void close() throws IOException {
     argumentStore.close();
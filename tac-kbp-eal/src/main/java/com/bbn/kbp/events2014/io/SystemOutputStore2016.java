@@ -10,41 +10,74 @@ import com.bbn.kbp.events2014.ResponseLinking;
 
 import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteSource;
+import com.google.common.io.CharSink;
+import com.google.common.io.CharSource;
 import com.google.common.io.Files;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Set;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
-public class SystemOutputStore2016 implements SystemOutputStore {
+/**
+ * The system output for the 2016 evaluation. This is normally a directory holding one file per
+ * document in each of {@code arguments/} and {@code linking/}, plus the corpus-level event frames
+ * in {@code corpusLinking/corpusLinking}. The same files may instead be packed into a single
+ * archive file, which is much faster to copy and open on shared filesystems. {@link #open(File)}
+ * and {@link #openOrCreate(File)} open an archive if given one; use {@link
+ * #packDirectory(File, File, boolean)} and {@link #unpackArchive(File, File)} to convert between
+ * the two.
+ */
+public class SystemOutputStore2016 implements SystemOutputStore, WriteBatchingStore {
+
+  private static final String ARGUMENTS = "arguments";
+  private static final String LINKING = "linking";
+  private static final String CORPUS_LINKING = "corpusLinking/corpusLinking";
 
   private final Symbol systemID;
   private final ArgumentStore argumentStore;
   private final LinkingStore linkingStore;
-  private final File corpusLinkingFile;
+  private final CorpusLinkingLocation corpusLinking;
+  private final Optional<SystemOutputArchive> archive;
 
   private final CorpusEventFrameWriter eventFrameWriter = CorpusEventFrameIO.writerFor2016();
   private final CorpusEventFrameLoader eventFrameReader = CorpusEventFrameIO.loaderFor2016();
+  // parsed when first read and dropped whenever the corpus event frames are written
+  private volatile CorpusEventLinking cachedCorpusEventLinking = null;
+  private final Object corpusEventLinkingLock = new Object();
 
   private SystemOutputStore2016(final Symbol systemID,
       final ArgumentStore argStore, final LinkingStore linkingStore,
-      File corpusLinkingFile) {
+      final CorpusLinkingLocation corpusLinking, final Optional<SystemOutputArchive> archive) {
     this.systemID = checkNotNull(systemID);
     this.argumentStore = checkNotNull(argStore);
     this.linkingStore = checkNotNull(linkingStore);
-    this.corpusLinkingFile = checkNotNull(corpusLinkingFile);
+    this.corpusLinking = checkNotNull(corpusLinking);
+    this.archive = checkNotNull(archive);
   }
 
-  public static SystemOutputStore2016 open(File dir) throws IOException {
+  /**
+   * Opens the store in the directory or archive file {@code path}.
+   */
+  public static SystemOutputStore2016 open(File path) throws IOException {
+    if (SystemOutputArchive.isArchive(path)) {
+      return fromArchive(SystemOutputArchive.open(path));
+    } else if (path.isFile()) {
+      throw new IOException(path + " is neither a system output store directory nor an archive");
+    }
+    final File dir = path;
     final Symbol systemID = Symbol.from(dir.getName());
-    final File argumentsDir = new File(dir, "arguments");
-    final File linkingDir = new File(dir, "linking");
-    final File corpusLinkingFile = new File(new File(dir, "corpusLinking"), "corpusLinking");
+    final File argumentsDir = new File(dir, ARGUMENTS);
+    final File linkingDir = new File(dir, LINKING);
+    final File corpusLinkingFile = new File(dir, CORPUS_LINKING);
     corpusLinkingFile.getParentFile().mkdirs();
 
     final ArgumentStore argStore = AssessmentSpecFormats.openSystemOutputStore(argumentsDir,
@@ -52,43 +85,177 @@ public class SystemOutputStore2016 implements SystemOutputStore {
     final LinkingStore linkingStore =
         LinkingStoreSource.createFor2016().openLinkingStore(linkingDir);
     if (argStore.docIDs().equals(linkingStore.docIDs())) {
-      return new SystemOutputStore2016(systemID, argStore, linkingStore, corpusLinkingFile);
+      return new SystemOutputStore2016(systemID, argStore, linkingStore,
+          CorpusLinkingLocation.inFile(corpusLinkingFile), Optional.<SystemOutputArchive>absent());
     } else {
       throw new RuntimeException("Argument and linking store docIDs do not match");
     }
   }
 
-  public static SystemOutputStore2016 openOrCreate(File dir) throws IOException {
+  /**
+   * Opens the store in the directory {@code path}, creating it if necessary. If {@code path} is an
+   * existing archive file, it is opened for appending instead.
+   */
+  public static SystemOutputStore2016 openOrCreate(File path) throws IOException {
+    return openOrCreate(path, false);
+  }
+
+  /**
+   * Like {@link #openOrCreate(File)}, but if {@code compressDocuments} is true the files for
+   * documents written to the store are gzip-compressed (or, for an archive, deflate-compressed).
+   * Stores can always read compressed documents.
+   */
+  public static SystemOutputStore2016 openOrCreate(File path, boolean compressDocuments)
+      throws IOException {
+    if (SystemOutputArchive.isArchive(path)) {
+      return openOrCreateArchive(path, compressDocuments);
+    } else if (path.isFile()) {
+      throw new IOException(path + " is neither a system output store directory nor an archive");
+    }
+    final File dir = path;
     final Symbol systemID = Symbol.from(dir.getName());
-    final File argumentsDir = new File(dir, "arguments");
-    final File linkingDir = new File(dir, "linking");
-    final File corpusLinkingFile = new File(new File(dir, "corpusLinking"), "corpusLinking");
+    final File argumentsDir = new File(dir, ARGUMENTS);
+    final File linkingDir = new File(dir, LINKING);
+    final File corpusLinkingFile = new File(dir, CORPUS_LINKING);
     corpusLinkingFile.getParentFile().mkdirs();
 
     final ArgumentStore argStore = AssessmentSpecFormats.openOrCreateSystemOutputStore(argumentsDir,
-        AssessmentSpecFormats.Format.KBP2015);
+        AssessmentSpecFormats.Format.KBP2015, compressDocuments);
     final LinkingStore linkingStore =
-        LinkingStoreSource.createFor2016().openOrCreateLinkingStore(linkingDir);
+        LinkingStoreSource.createFor2016().openOrCreateLinkingStore(linkingDir, compressDocuments);
     if (argStore.docIDs().equals(linkingStore.docIDs())) {
-      return new SystemOutputStore2016(systemID, argStore, linkingStore, corpusLinkingFile);
+      return new SystemOutputStore2016(systemID, argStore, linkingStore,
+          CorpusLinkingLocation.inFile(corpusLinkingFile), Optional.<SystemOutputArchive>absent());
     } else {
       throw new RuntimeException("Argument and linking store docIDs do not match");
     }
   }
 
+  /**
+   * Opens the store in the archive file {@code archiveFile} for reading and appending, creating
+   * it if it does not exist. A new archive takes its system ID from the file name without its
+   * extension. If {@code compress} is true, documents written through the returned store are
+   * compressed. Until the store is closed, anyone else opening the archive sees it as it was before
+   * this store wrote to it.
+   */
+  public static SystemOutputStore2016 openOrCreateArchive(File archiveFile, boolean compress)
+      throws IOException {
+    return fromArchive(SystemOutputArchive.openOrCreate(archiveFile,
+        Symbol.from(Files.getNameWithoutExtension(archiveFile.getName())), compress));
+  }
+
+  private static SystemOutputStore2016 fromArchive(final SystemOutputArchive archive)
+      throws IOException {
+    final ArgumentStore argStore = AssessmentSpecFormats.openArchiveSystemOutputStore(archive,
+        ARGUMENTS, AssessmentSpecFormats.Format.KBP2015);
+    final LinkingStore linkingStore =
+        LinkingStoreSource.createFor2016().openArchiveLinkingStore(archive, LINKING);
+    if (argStore.docIDs().equals(linkingStore.docIDs())) {
+      return new SystemOutputStore2016(archive.systemID(), argStore, linkingStore,
+          CorpusLinkingLocation.inArchive(archive, CORPUS_LINKING), Optional.of(archive));
+    } else {
+      archive.close();
+      throw new RuntimeException("Argument and linking store docIDs do not match");
+    }
+  }
+
+  /**
+   * Copies every file of the store in the directory {@code storeDir} into a new archive file. The
+   * content is unchanged except that gzipped documents are decompressed, since the archive does its
+   * own compression. The archive gets the directory's name as its system ID.
+   */
+  public static void packDirectory(File storeDir, File archiveFile, boolean compress)
+      throws IOException {
+    checkArgument(storeDir.isDirectory(), "%s is not a directory", storeDir);
+    checkArgument(!archiveFile.exists(), "Archive %s already exists", archiveFile);
+    final SystemOutputArchive archive = SystemOutputArchive.openOrCreate(archiveFile,
+        Symbol.from(storeDir.getName()), compress);
+    try {
+      for (final String subdirectory : ImmutableList.of(ARGUMENTS, LINKING)) {
+        final File[] files = new File(storeDir, subdirectory).listFiles();
+        if (files == null) {
+          throw new FileNotFoundException("Missing " + subdirectory + " directory in " + storeDir);
+        }
+        Arrays.sort(files);
+        for (final File f : files) {
+          if (f.isFile() && !AtomicFileWriter.isTemporaryFile(f.getName())) {
+            archive.write(subdirectory + "/" + CompressedFiles.uncompressedName(f.getName()),
+                CompressedFiles.asByteSource(f).read());
+          }
+        }
+      }
+      final File corpusLinkingFile = new File(storeDir, CORPUS_LINKING);
+      if (corpusLinkingFile.isFile()) {
+        archive.write(CORPUS_LINKING, Files.toByteArray(corpusLinkingFile));
+      }
+    } finally {
+      archive.close();
+    }
+  }
+
+  /**
+   * Copies every entry of the archive file {@code archiveFile} into the directory layout under
+   * {@code storeDir}, unchanged. The system ID of the resulting store is taken from the name of
+   * {@code storeDir} as usual.
+   */
+  public static void unpackArchive(File archiveFile, File storeDir) throws IOException {
+    final SystemOutputArchive archive = SystemOutputArchive.open(archiveFile);
+    try {
+      new File(storeDir, ARGUMENTS).mkdirs();
+      new File(storeDir, LINKING).mkdirs();
+      for (final String name : archive.entryNames()) {
+        final File target = new File(storeDir, name);
+        // refuse to write anywhere but under storeDir
+        if (name.startsWith("/") || name.contains("..")) {
+          throw new IOException("Illegal entry name " + name + " in " + archiveFile);
+        }
+        target.getParentFile().mkdirs();
+        archive.entry(name).get().copyTo(Files.asByteSink(target));
+      }
+    } finally {
+      archive.close();
+    }
+  }
+
+  /**
+   * Gets the corpus event frames of this store. They are parsed on the first call and the same
+   * object is returned until they are written through this store again, so changes made to the
+   * corpus linking file by anything else are not seen.
+   */
   public CorpusEventLinking readCorpusEventFrames() throws IOException {
-    if (corpusLinkingFile.isFile()) {
-      return eventFrameReader.loadCorpusEventFrames(Files.asCharSource(corpusLinkingFile,
-          Charsets.UTF_8));
+    CorpusEventLinking ret = cachedCorpusEventLinking;
+    if (ret == null) {
+      synchronized (corpusEventLinkingLock) {
+        ret = cachedCorpusEventLinking;
+        if (ret == null) {
+          ret = uncachedReadCorpusEventFrames();
+          cachedCorpusEventLinking = ret;
+        }
+      }
+    }
+    return ret;
+  }
+
+  private CorpusEventLinking uncachedReadCorpusEventFrames() throws IOException {
+    final Optional<CharSource> source = corpusLinking.existing();
+    if (source.isPresent()) {
+      return eventFrameReader.loadCorpusEventFrames(source.get());
     } else {
       return CorpusEventLinking.of(ImmutableSet.<CorpusEventFrame>of());
     }
   }
 
-  public void writeCorpusEventFrames(CorpusEventLinking corpusEventFrames) throws IOException {
-    corpusLinkingFile.getParentFile().mkdirs();
-    eventFrameWriter.writeCorpusEventFrames(corpusEventFrames, Files.asCharSink(corpusLinkingFile,
-        Charsets.UTF_8));
+  public void writeCorpusEventFrames(final CorpusEventLinking corpusEventFrames)
+      throws IOException {
+    synchronized (corpusEventLinkingLock) {
+      cachedCorpusEventLinking = null;
+      corpusLinking.write(new AtomicFileWriter.Content() {
+        @Override
+        public void writeTo(final CharSink sink) throws IOException {
+          eventFrameWriter.writeCorpusEventFrames(corpusEventFrames, sink);
+        }
+      });
+    }
   }
 
   @Override
@@ -116,10 +283,76 @@ public class SystemOutputStore2016 implements SystemOutputStore {
     linkingStore.write(((DocumentSystemOutput2015) output).linking());
   }
 
+  /**
+   * Batches writes to both the argument and linking stores, where they support it. The corpus
+   * event frames are not batched, but are still written atomically.
+   */
+  @Override
+  public void beginWriteBatch() throws IOException {
+    WriteBatches.beginWhereSupported(argumentStore, linkingStore);
+  }
+
+  @Override
+  public void commitWriteBatch() throws IOException {
+    WriteBatches.commitWhereSupported(argumentStore, linkingStore);
+  }
+
   @Override
   public void close() throws IOException {
     argumentStore.close();
     linkingStore.close();
+    if (archive.isPresent()) {
+      archive.get().close();
+    }
   }
 
+  /**
+   * Where the corpus event frames of a store are kept.
+   */
+  private abstract static class CorpusLinkingLocation {
+
+    abstract Optional<CharSource> existing() throws IOException;
+
+    abstract void write(AtomicFileWriter.Content content) throws IOException;
+
+    static CorpusLinkingLocation inFile(final File corpusLinkingFile) {
+      return new CorpusLinkingLocation() {
+        @Override
+        Optional<CharSource> existing() {
+          if (corpusLinkingFile.isFile()) {
+            return Optional.of(Files.asCharSource(corpusLinkingFile, Charsets.UTF_8));
+          } else {
+            return Optional.absent();
+          }
+        }
+
+        @Override
+        void write(final AtomicFileWriter.Content content) throws IOException {
+          corpusLinkingFile.getParentFile().mkdirs();
+          AtomicFileWriter.forDirectory(corpusLinkingFile.getParentFile(), false)
+              .write(corpusLinkingFile.getName(), content);
+        }
+      };
+    }
+
+    static CorpusLinkingLocation inArchive(final SystemOutputArchive archive,
+        final String entryName) {
+      return new CorpusLinkingLocation() {
+        @Override
+        Optional<CharSource> existing() {
+          final Optional<ByteSource> entry = archive.entry(entryName);
+          if (entry.isPresent()) {
+            return Optional.of(entry.get().asCharSource(Charsets.UTF_8));
+          } else {
+            return Optional.absent();
+          }
+        }
+
+        @Override
+        void write(final AtomicFileWriter.Content content) throws IOException {
+          content.writeTo(archive.entrySink(entryName).asCharSink(Charsets.UTF_8));
+        }
+      };
+    }
+  }
 }
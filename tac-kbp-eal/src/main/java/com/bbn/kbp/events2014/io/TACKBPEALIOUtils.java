@@ -3,7 +3,6 @@ package com.bbn.kbp.events2014.io;
 import com.bbn.bue.common.strings.offsets.CharOffset;
 import com.bbn.bue.common.strings.offsets.OffsetRange;
 import com.bbn.kbp.events2014.CharOffsetSpan;
-import com.bbn.kbp.events2014.TACKBPEALException;
 
 final class TACKBPEALIOUtils {
 
@@ -12,11 +11,7 @@ final class TACKBPEALIOUtils {
   }
 
   public static CharOffsetSpan parseCharOffsetSpan(final String s) {
-    final String[] parts = s.split("-");
-    if (parts.length != 2) {
-      throw new TACKBPEALException(String.format("Invalid span %s", s));
-    }
-    return CharOffsetSpan.fromOffsetsOnly(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+    return TabFieldTokenizer.parseSpan(s, 0, s.length());
   }
 
   public static OffsetRange<CharOffset> parseCharOffsetRange(final String s) {
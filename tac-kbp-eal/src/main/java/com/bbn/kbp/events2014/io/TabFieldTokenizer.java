@@ -0,0 +1,419 @@
+package com.bbn.kbp.events2014.io;
+
+import com.bbn.kbp.events2014.CharOffsetSpan;
+import com.bbn.kbp.events2014.TACKBPEALException;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableList;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkPositionIndex;
+
+/**
+ * Reads tab-separated lines from a {@link Reader} one at a time without materializing the file,
+ * its lines, or their fields as {@link String}s. Integers and character offset spans can be
+ * parsed directly from the buffered characters, so callers only pay for a {@code String} when
+ * they ask for a field's text.
+ *
+ * Lines are terminated as by {@link com.google.common.io.CharSource#readLines()}: by {@code \n},
+ * {@code \r\n}, or {@code \r}, with a final unterminated line also returned. Fields may optionally
+ * be trimmed of whitespace and empty fields dropped, matching a {@link
+ * com.google.common.base.Splitter} on tabs configured with {@code trimResults()} and {@code
+ * omitEmptyStrings()}. Alternatively, lines may be split as by {@link String#split(String)} on
+ * tabs, which drops trailing empty fields, optionally after the line is {@link String#trim()}med.
+ *
+ * The accessors refer to the line most recently returned by {@link #advance()}. This class is not
+ * thread-safe.
+ */
+final class TabFieldTokenizer {
+
+  private static final int INITIAL_BUFFER_SIZE = 8192;
+  private static final int INITIAL_MAX_FIELDS = 16;
+
+  private final Reader in;
+  private final boolean trimFields;
+  private final boolean omitEmptyFields;
+  private final boolean trimLines;
+  private final boolean omitTrailingEmptyFields;
+
+  private char[] buf = new char[INITIAL_BUFFER_SIZE];
+  // a view of buf for parsing, whose indices coincide with buf's
+  private CharBuffer bufView = CharBuffer.wrap(buf);
+  // buf[pos, bufEnd) holds characters read but not yet returned as part of a line
+  private int pos = 0;
+  private int bufEnd = 0;
+  private boolean eof = false;
+  // the last line ended with '\r', so a '\n' immediately following belongs to its terminator
+  private boolean skipLF = false;
+
+  private int lineNumber = 0;
+  private int lineStart = 0;
+  private int lineEnd = 0;
+  private String line = null;
+  private int numFields = 0;
+  private int[] fieldStarts = new int[INITIAL_MAX_FIELDS];
+  private int[] fieldEnds = new int[INITIAL_MAX_FIELDS];
+
+  private TabFieldTokenizer(final Reader in, final boolean trimFields,
+      final boolean omitEmptyFields, final boolean trimLines,
+      final boolean omitTrailingEmptyFields) {
+    this.in = checkNotNull(in);
+    this.trimFields = trimFields;
+    this.omitEmptyFields = omitEmptyFields;
+    this.trimLines = trimLines;
+    this.omitTrailingEmptyFields = omitTrailingEmptyFields;
+  }
+
+  /**
+   * Fields are as returned by {@code line.split("\t")}: exactly as they appear between tabs, except
+   * that empty fields at the end of a line containing a tab are dropped.
+   */
+  static TabFieldTokenizer splittingLikeString(final Reader in) {
+    return new TabFieldTokenizer(in, false, false, false, true);
+  }
+
+  /**
+   * Fields are as returned by {@code line.trim().split("\t")}. {@link #line()} and the other
+   * accessors of the whole line still see it untrimmed.
+   */
+  static TabFieldTokenizer trimmingLinesAndSplittingLikeString(final Reader in) {
+    return new TabFieldTokenizer(in, false, false, true, true);
+  }
+
+  /**
+   * Fields have leading and trailing whitespace removed.
+   */
+  static TabFieldTokenizer trimmingFields(final Reader in) {
+    return new TabFieldTokenizer(in, true, false, false, false);
+  }
+
+  /**
+   * Fields have leading and trailing whitespace removed and fields which are then empty are
+   * skipped.
+   */
+  static TabFieldTokenizer trimmingAndOmittingEmptyFields(final Reader in) {
+    return new TabFieldTokenizer(in, true, true, false, false);
+  }
+
+  /**
+   * Moves to the next line, returning {@code false} if there are no more.
+   */
+  boolean advance() throws IOException {
+    line = null;
+    // number of characters after pos already known not to terminate the line
+    int scanned = 0;
+    while (true) {
+      if (skipLF && pos < bufEnd) {
+        if (buf[pos] == '\n') {
+          ++pos;
+        }
+        skipLF = false;
+      }
+      if (!skipLF) {
+        for (int i = pos + scanned; i < bufEnd; ++i) {
+          final char c = buf[i];
+          if (c == '\n' || c == '\r') {
+            startLine(pos, i);
+            pos = i + 1;
+            skipLF = (c == '\r');
+            return true;
+          }
+        }
+        scanned = bufEnd - pos;
+      }
+      if (eof) {
+        skipLF = false;
+        if (pos < bufEnd) {
+          startLine(pos, bufEnd);
+          pos = bufEnd;
+          return true;
+        }
+        return false;
+      }
+      fill();
+    }
+  }
+
+  /**
+   * The 1-based number of the current line.
+   */
+  int lineNumber() {
+    return lineNumber;
+  }
+
+  /**
+   * The text of the current line, without its terminator. Creates a {@code String}, so prefer the
+   * other accessors where possible.
+   */
+  String line() {
+    if (line == null) {
+      line = new String(buf, lineStart, lineEnd - lineStart);
+    }
+    return line;
+  }
+
+  boolean lineIsEmpty() {
+    return lineStart == lineEnd;
+  }
+
+  boolean lineStartsWith(final char c) {
+    return lineStart < lineEnd && buf[lineStart] == c;
+  }
+
+  boolean lineStartsWith(final String prefix) {
+    if (lineEnd - lineStart < prefix.length()) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length(); ++i) {
+      if (buf[lineStart + i] != prefix.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  int numFields() {
+    return numFields;
+  }
+
+  /**
+   * @throws IndexOutOfBoundsException if the current line has no field {@code i}
+   */
+  String field(final int i) {
+    checkElementIndex(i, numFields);
+    return new String(buf, fieldStarts[i], fieldEnds[i] - fieldStarts[i]);
+  }
+
+  /**
+   * The text of the fields of the current line from {@code fromInclusive} onwards.
+   */
+  ImmutableList<String> fields(final int fromInclusive) {
+    checkPositionIndex(fromInclusive, numFields);
+    final ImmutableList.Builder<String> ret = ImmutableList.builder();
+    for (int i = fromInclusive; i < numFields; ++i) {
+      ret.add(field(i));
+    }
+    return ret.build();
+  }
+
+  boolean fieldEquals(final int i, final String s) {
+    checkElementIndex(i, numFields);
+    final int start = fieldStarts[i];
+    final int length = fieldEnds[i] - start;
+    if (length != s.length()) {
+      return false;
+    }
+    for (int j = 0; j < length; ++j) {
+      if (buf[start + j] != s.charAt(j)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Parses field {@code i} as by {@link Integer#parseInt(String)}.
+   */
+  int intField(final int i) {
+    checkElementIndex(i, numFields);
+    return parseInt(bufView, fieldStarts[i], fieldEnds[i]);
+  }
+
+  /**
+   * Parses field {@code i} as by {@link Double#parseDouble(String)}. Unlike the other parsing
+   * methods this materializes the field's text.
+   */
+  double doubleField(final int i) {
+    return Double.parseDouble(field(i));
+  }
+
+  /**
+   * Parses field {@code i} as a character offset span of the form {@code 42-56}.
+   */
+  CharOffsetSpan spanField(final int i) {
+    checkElementIndex(i, numFields);
+    return parseSpan(bufView, fieldStarts[i], fieldEnds[i]);
+  }
+
+  /**
+   * Parses field {@code i} as a comma-separated list of character offset spans, e.g. {@code
+   * 42-56,60-67}, adding each to {@code spans}. Whitespace around each span and empty list
+   * elements are ignored.
+   */
+  void addSpansInField(final int i, final ImmutableCollection.Builder<CharOffsetSpan> spans) {
+    checkElementIndex(i, numFields);
+    final int end = fieldEnds[i];
+    int spanStart = fieldStarts[i];
+    for (int j = spanStart; j <= end; ++j) {
+      if (j == end || buf[j] == ',') {
+        int s = spanStart;
+        int e = j;
+        while (s < e && isWhitespace(buf[s])) {
+          ++s;
+        }
+        while (e > s && isWhitespace(buf[e - 1])) {
+          --e;
+        }
+        if (s < e) {
+          spans.add(parseSpan(bufView, s, e));
+        }
+        spanStart = j + 1;
+      }
+    }
+  }
+
+  /**
+   * Parses {@code s[start, end)} as a character offset span of the form {@code 42-56}.
+   */
+  static CharOffsetSpan parseSpan(final CharSequence s, final int start, final int end) {
+    int dash = -1;
+    for (int i = start; i < end; ++i) {
+      if (s.charAt(i) == '-') {
+        if (dash >= 0) {
+          throw invalidSpan(s, start, end);
+        }
+        dash = i;
+      }
+    }
+    if (dash <= start || dash >= end - 1) {
+      throw invalidSpan(s, start, end);
+    }
+    return CharOffsetSpan.fromOffsetsOnly(parseInt(s, start, dash), parseInt(s, dash + 1, end));
+  }
+
+  /**
+   * Parses {@code s[start, end)} as by {@link Integer#parseInt(String)}, including its handling of
+   * signs, non-ASCII digits, and overflow.
+   */
+  static int parseInt(final CharSequence s, final int start, final int end) {
+    if (start >= end) {
+      throw numberFormatException(s, start, end);
+    }
+    boolean negative = false;
+    int limit = -Integer.MAX_VALUE;
+    int i = start;
+    final char first = s.charAt(i);
+    if (first == '-' || first == '+') {
+      if (first == '-') {
+        negative = true;
+        limit = Integer.MIN_VALUE;
+      }
+      ++i;
+      if (i == end) {
+        throw numberFormatException(s, start, end);
+      }
+    }
+    // accumulate negatively, as Integer.parseInt does, so MIN_VALUE can be represented
+    final int multiplyLimit = limit / 10;
+    int result = 0;
+    for (; i < end; ++i) {
+      final int digit = Character.digit(s.charAt(i), 10);
+      if (digit < 0 || result < multiplyLimit) {
+        throw numberFormatException(s, start, end);
+      }
+      result *= 10;
+      if (result < limit + digit) {
+        throw numberFormatException(s, start, end);
+      }
+      result -= digit;
+    }
+    return negative ? result : -result;
+  }
+
+  private void startLine(final int start, final int end) {
+    ++lineNumber;
+    lineStart = start;
+    lineEnd = end;
+    numFields = 0;
+    int fieldsStart = start;
+    int fieldsEnd = end;
+    if (trimLines) {
+      // as String.trim does
+      while (fieldsStart < fieldsEnd && buf[fieldsStart] <= ' ') {
+        ++fieldsStart;
+      }
+      while (fieldsEnd > fieldsStart && buf[fieldsEnd - 1] <= ' ') {
+        --fieldsEnd;
+      }
+    }
+    int fieldStart = fieldsStart;
+    for (int i = fieldsStart; i <= fieldsEnd; ++i) {
+      if (i == fieldsEnd || buf[i] == '\t') {
+        addField(fieldStart, i);
+        fieldStart = i + 1;
+      }
+    }
+    // String.split returns a line without tabs whole, even if it is empty
+    if (omitTrailingEmptyFields && numFields > 1) {
+      while (numFields > 0 && fieldStarts[numFields - 1] == fieldEnds[numFields - 1]) {
+        --numFields;
+      }
+    }
+  }
+
+  private void addField(int start, int end) {
+    if (trimFields) {
+      while (start < end && isWhitespace(buf[start])) {
+        ++start;
+      }
+      while (end > start && isWhitespace(buf[end - 1])) {
+        --end;
+      }
+    }
+    if (omitEmptyFields && start == end) {
+      return;
+    }
+    if (numFields == fieldStarts.length) {
+      fieldStarts = Arrays.copyOf(fieldStarts, 2 * numFields);
+      fieldEnds = Arrays.copyOf(fieldEnds, 2 * numFields);
+    }
+    fieldStarts[numFields] = start;
+    fieldEnds[numFields] = end;
+    ++numFields;
+  }
+
+  /**
+   * Discards characters already returned and reads more, growing the buffer if a single line
+   * fills it.
+   */
+  private void fill() throws IOException {
+    if (pos > 0) {
+      System.arraycopy(buf, pos, buf, 0, bufEnd - pos);
+      bufEnd -= pos;
+      pos = 0;
+    }
+    if (bufEnd == buf.length) {
+      buf = Arrays.copyOf(buf, 2 * buf.length);
+      bufView = CharBuffer.wrap(buf);
+    }
+    final int numRead = in.read(buf, bufEnd, buf.length - bufEnd);
+    if (numRead < 0) {
+      eof = true;
+    } else {
+      bufEnd += numRead;
+    }
+  }
+
+  private static boolean isWhitespace(final char c) {
+    return CharMatcher.WHITESPACE.matches(c);
+  }
+
+  private static TACKBPEALException invalidSpan(final CharSequence s, final int start,
+      final int end) {
+    return new TACKBPEALException(
+        String.format("Invalid span %s", s.subSequence(start, end).toString()));
+  }
+
+  private static NumberFormatException numberFormatException(final CharSequence s,
+      final int start, final int end) {
+    return new NumberFormatException(
+        "For input string: \"" + s.subSequence(start, end).toString() + "\"");
+  }
+}
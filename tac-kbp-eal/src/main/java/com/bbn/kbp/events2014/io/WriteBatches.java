@@ -0,0 +1,47 @@
+package com.bbn.kbp.events2014.io;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Begins and commits write batches (see {@link WriteBatchingStore}) on whichever of a group of
+ * stores support them. Programs which write many documents should batch them, since otherwise
+ * every document written is synced on its own.
+ */
+public final class WriteBatches {
+
+  private WriteBatches() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Begins a write batch on each of {@code stores} which supports batching. Others are ignored.
+   */
+  public static void beginWhereSupported(final Iterable<?> stores) throws IOException {
+    for (final Object store : stores) {
+      if (store instanceof WriteBatchingStore) {
+        ((WriteBatchingStore) store).beginWriteBatch();
+      }
+    }
+  }
+
+  public static void beginWhereSupported(final Object... stores) throws IOException {
+    beginWhereSupported(Arrays.asList(stores));
+  }
+
+  /**
+   * Commits the write batch of each of {@code stores} which supports batching. Others are
+   * ignored.
+   */
+  public static void commitWhereSupported(final Iterable<?> stores) throws IOException {
+    for (final Object store : stores) {
+      if (store instanceof WriteBatchingStore) {
+        ((WriteBatchingStore) store).commitWriteBatch();
+      }
+    }
+  }
+
+  public static void commitWhereSupported(final Object... stores) throws IOException {
+    commitWhereSupported(Arrays.asList(stores));
+  }
+}
@@ -0,0 +1,27 @@
+package com.bbn.kbp.events2014.io;
+
+import java.io.IOException;
+
+/**
+ * A store whose writes can be grouped into batches. Every write to a directory-backed store
+ * replaces its file atomically, so a crash never leaves a partially written document. Outside a
+ * batch, each write is also made durable before it returns, which costs a file and a directory
+ * sync per document. Inside a batch, documents written are held back until {@link
+ * #commitWriteBatch()}, which publishes all of them and syncs their directory once. Until then
+ * neither this store nor anyone else can read them, and a crash discards them.
+ *
+ * Closing a store commits any batch in progress.
+ */
+public interface WriteBatchingStore {
+
+  /**
+   * Starts a batch. Throws an {@link IllegalStateException} if one is already in progress.
+   */
+  void beginWriteBatch() throws IOException;
+
+  /**
+   * Publishes and syncs everything written since {@link #beginWriteBatch()}. Throws an {@link
+   * IllegalStateException} if no batch is in progress.
+   */
+  void commitWriteBatch() throws IOException;
+}
@@ -0,0 +1,93 @@
+package com.bbn.kbp.events2014;
+
+import com.bbn.bue.common.files.FileUtils;
+import com.bbn.bue.common.symbols.Symbol;
+import com.bbn.kbp.events2014.io.SystemOutputStore2016;
+
+import com.google.common.collect.ImmutableBiMap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+public class CorpusQueryExecutor2016Test {
+
+  private static final Symbol DOC = Symbol.from("doc1");
+  private static final Symbol ATTACK = Symbol.from("Conflict.Attack");
+  private static final Symbol ATTACKER = Symbol.from("Attacker");
+  private static final KBPString MORDOR =
+      KBPString.from("Mordor", CharOffsetSpan.fromOffsetsOnly(0, 5));
+
+  /**
+   * When several responses of a document match, the matched event frames come back in the order
+   * the executors returned them in when matches were accumulated in a list.
+   */
+  @Test
+  public void testOrderOfEventFramesMatchedInOneDocument() throws IOException {
+    final File dir = Files.createTempDir();
+    FileUtils.recursivelyDeleteDirectoryOnExit(dir);
+
+    // every response has Mordor as its CAS, so all of them match the entry point
+    final Response r1 = attack(KBPRealis.Actual, 10);
+    final Response r2 = attack(KBPRealis.Actual, 20);
+    final Response r3 = attack(KBPRealis.Other, 10);
+    final Response r4 = attack(KBPRealis.Generic, 30);
+    final ArgumentOutput arguments =
+        ArgumentOutput.createWithConstantScore(DOC, ImmutableSet.of(r1, r2, r3, r4), 1.0);
+    final ResponseSet e1 = ResponseSet.of(ImmutableSet.of(r3));
+    final ResponseSet e2 = ResponseSet.of(ImmutableSet.of(r1, r4));
+    final ResponseSet e3 = ResponseSet.of(ImmutableSet.of(r2));
+    final ResponseSet e4 = ResponseSet.of(ImmutableSet.of(r4));
+    final ResponseLinking linking = ResponseLinking.builder().docID(DOC)
+        .addResponseSets(e1, e2, e3, e4)
+        .responseSetIds(ImmutableBiMap.of("e1", e1, "e2", e2, "e3", e3, "e4", e4))
+        .build();
+
+    // one corpus event per document event, so the corpus events do not reorder them
+    final CorpusEventLinking.Builder corpusLinking = CorpusEventLinking.builder();
+    for (final String eventFrameID : ImmutableList.of("e4", "e3", "e2", "e1")) {
+      corpusLinking.addCorpusEventFrames(CorpusEventFrame.builder().id("c" + eventFrameID)
+          .addDocEventFrames(DocEventFrameReference.of(DOC, eventFrameID)).build());
+    }
+
+    final SystemOutputStore2016 store =
+        SystemOutputStore2016.openOrCreate(new File(dir, "SYS"));
+    store.write(DocumentSystemOutput2015.from(arguments, linking));
+    store.writeCorpusEventFrames(corpusLinking.build());
+
+    final CorpusQuery2016 query = CorpusQuery2016.of(Symbol.from("query"),
+        ImmutableSet.of(
+            CorpusQueryEntryPoint.of(DOC, ATTACK, ATTACKER,
+                MORDOR.charOffsetSpan().asCharOffsetRange(),
+                CharOffsetSpan.fromOffsetsOnly(0, 40).asCharOffsetRange()),
+            CorpusQueryEntryPoint.of(DOC, ATTACK, ATTACKER,
+                MORDOR.charOffsetSpan().asCharOffsetRange(),
+                CharOffsetSpan.fromOffsetsOnly(0, 15).asCharOffsetRange())));
+    final ImmutableList<DocEventFrameReference> expected = ImmutableList.of(
+        DocEventFrameReference.of(DOC, "e2"),
+        DocEventFrameReference.of(DOC, "e1"),
+        DocEventFrameReference.of(DOC, "e4"),
+        DocEventFrameReference.of(DOC, "e3"));
+
+    assertEquals(expected, DefaultCorpusQueryExecutor.createDefaultFor2016()
+        .queryEventFrames(store, query).asList());
+    assertEquals(expected, DefaultCorpusQueryExecutor.createDefaultFor2016()
+        .queryEventFramesBatch(store, ImmutableList.of(query)).get(query).asList());
+    assertEquals(expected, IndexedCorpusQueryExecutor.createDefaultFor2016()
+        .queryEventFrames(store, query).asList());
+    store.close();
+  }
+
+  private static Response attack(final KBPRealis realis, final int pjEnd) {
+    return Response.builder().docID(DOC).type(ATTACK).role(ATTACKER)
+        .canonicalArgument(MORDOR).baseFiller(MORDOR.charOffsetSpan())
+        .addPredicateJustifications(CharOffsetSpan.fromOffsetsOnly(0, pjEnd))
+        .realis(realis).build();
+  }
+}
@@ -6,6 +6,7 @@ import com.google.common.collect.ImmutableSet;
 
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
 
 /**
@@ -44,4 +45,26 @@ Die-Agent([1134:1139]=police[1134-1139]; Actual; [642-838]; [1039-1243]) and 8c7
 
                  */
   }
+
+  @Test
+  public void testIdentifiersAndStructuralHash() {
+    final Response r1 = Response.of(Symbol.from("AFP_ENG_20100414.0615"), Symbol.from("Life.Die"),
+        Symbol.from("Agent"), KBPString.from("police", 1134, 1139),
+        CharOffsetSpan.fromOffsetsOnly(1134, 1139), ImmutableSet.<CharOffsetSpan>of(),
+        ImmutableSet.of(CharOffsetSpan.fromOffsetsOnly(1039, 1243),
+            CharOffsetSpan.fromOffsetsOnly(642, 838)), KBPRealis.Actual);
+    // same response, but justifications given in a different order
+    final Response r1Copy = Response.of(Symbol.from("AFP_ENG_20100414.0615"),
+        Symbol.from("Life.Die"), Symbol.from("Agent"), KBPString.from("police", 1134, 1139),
+        CharOffsetSpan.fromOffsetsOnly(1134, 1139), ImmutableSet.<CharOffsetSpan>of(),
+        ImmutableSet.of(CharOffsetSpan.fromOffsetsOnly(642, 838),
+            CharOffsetSpan.fromOffsetsOnly(1039, 1243)), KBPRealis.Actual);
+    final Response r2 = r1.withRealis(KBPRealis.Other);
+
+    // IDs are written to files, so they must never change
+    assertEquals("9a3ab1dc1af02a80ce83b261d8c9d3d88e71221f", r1.uniqueIdentifier());
+    assertEquals(r1.uniqueIdentifier(), r1Copy.uniqueIdentifier());
+    assertEquals(r1.structuralHash(), r1Copy.structuralHash());
+    assertNotEquals(r1.structuralHash(), r2.structuralHash());
+  }
 }
@@ -0,0 +1,205 @@
+package com.bbn.kbp.events2014.io;
+
+import com.bbn.bue.common.files.FileUtils;
+import com.bbn.bue.common.symbols.Symbol;
+import com.bbn.kbp.events2014.AnswerKey;
+import com.bbn.kbp.events2014.CorefAnnotation;
+import com.bbn.kbp.events2014.KBPEATestUtils;
+
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CachingAnnotationStoreTest {
+
+  private static final AssessmentSpecFormats.Format FORMAT = AssessmentSpecFormats.Format.KBP2015;
+  private static final int NUM_THREADS = 4;
+
+  @Test
+  public void testConcurrentReadsLoadEachDocumentOnce() throws Exception {
+    final File dir = Files.createTempDir();
+    FileUtils.recursivelyDeleteDirectoryOnExit(dir);
+    final List<Symbol> docIDs = Lists.newArrayList();
+    final AnnotationStore writer = AssessmentSpecFormats.createAnnotationStore(dir, FORMAT);
+    for (int doc = 0; doc < 10; ++doc) {
+      docIDs.add(Symbol.from("doc" + doc));
+      writer.write(answerKeyWithResponses(docIDs.get(doc), doc + 1));
+    }
+    writer.close();
+
+    final AnnotationStore store =
+        AssessmentSpecFormats.openCachingAnnotationStore(dir, FORMAT, 1000);
+    final int readsPerThread = 50;
+    final ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
+    try {
+      final List<Future<Void>> results = Lists.newArrayList();
+      for (int thread = 0; thread < NUM_THREADS; ++thread) {
+        results.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            for (int i = 0; i < readsPerThread; ++i) {
+              final int doc = i % docIDs.size();
+              assertEquals(doc + 1, store.read(docIDs.get(doc)).allResponses().size());
+            }
+            return null;
+          }
+        }));
+      }
+      for (final Future<Void> result : results) {
+        result.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    final CacheStats stats = AssessmentSpecFormats.cacheStats(store).get();
+    store.close();
+    // threads which wait for another's load of the same document count as misses too
+    assertEquals(docIDs.size(), stats.loadCount());
+    assertEquals(NUM_THREADS * readsPerThread, stats.requestCount());
+    assertEquals(0, stats.evictionCount());
+  }
+
+  @Test
+  public void testEvictionByResponseCount() throws IOException {
+    final File dir = Files.createTempDir();
+    FileUtils.recursivelyDeleteDirectoryOnExit(dir);
+    final AnnotationStore writer = AssessmentSpecFormats.createAnnotationStore(dir, FORMAT);
+    final Symbol big = Symbol.from("big");
+    final Symbol small = Symbol.from("small");
+    writer.write(answerKeyWithResponses(big, 20));
+    writer.write(answerKeyWithResponses(small, 1));
+    writer.close();
+    final AnnotationStore uncached = AssessmentSpecFormats.openAnnotationStore(dir, FORMAT);
+    assertFalse(AssessmentSpecFormats.cacheStats(uncached).isPresent());
+    uncached.close();
+
+    // a document with more responses than the whole cache may hold is never kept
+    final AnnotationStore store = AssessmentSpecFormats.openCachingAnnotationStore(dir, FORMAT, 10);
+    assertEquals(20, store.read(big).allResponses().size());
+    assertEquals(20, store.read(big).allResponses().size());
+    final CacheStats afterBig = AssessmentSpecFormats.cacheStats(store).get();
+    assertEquals(2, afterBig.loadCount());
+    assertEquals(0, afterBig.hitCount());
+    assertEquals(2, afterBig.evictionCount());
+    store.close();
+  }
+
+  @Test
+  public void testBatchCommitNeverLeavesStaleCacheEntries() throws Exception {
+    final File dir = Files.createTempDir();
+    FileUtils.recursivelyDeleteDirectoryOnExit(dir);
+    final Symbol docID = Symbol.from("doc");
+    final AnnotationStore writer = AssessmentSpecFormats.createAnnotationStore(dir, FORMAT);
+    writer.write(answerKeyWithResponses(docID, 1));
+    writer.close();
+
+    final AnnotationStore store =
+        AssessmentSpecFormats.openCachingAnnotationStore(dir, FORMAT, 1000);
+    final AtomicBoolean done = new AtomicBoolean(false);
+    final ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
+    try {
+      // readers keep reloading the document while batches replace it
+      final List<Future<Void>> readers = Lists.newArrayList();
+      for (int thread = 0; thread < NUM_THREADS; ++thread) {
+        readers.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            while (!done.get()) {
+              assertTrue(store.read(docID).allResponses().size() > 0);
+            }
+            return null;
+          }
+        }));
+      }
+      for (int version = 2; version <= 30; ++version) {
+        ((WriteBatchingStore) store).beginWriteBatch();
+        store.write(answerKeyWithResponses(docID, version));
+        // not yet published
+        assertEquals(version - 1, store.read(docID).allResponses().size());
+        ((WriteBatchingStore) store).commitWriteBatch();
+        assertEquals(version, store.read(docID).allResponses().size());
+      }
+      done.set(true);
+      for (final Future<Void> reader : readers) {
+        reader.get();
+      }
+    } finally {
+      done.set(true);
+      executor.shutdown();
+    }
+    store.close();
+  }
+
+  @Test
+  public void testConcurrentWritesToOneDocument() throws Exception {
+    final File dir = Files.createTempDir();
+    FileUtils.recursivelyDeleteDirectoryOnExit(dir);
+    final Symbol shared = Symbol.from("shared");
+    final AnnotationStore store = AssessmentSpecFormats.createAnnotationStore(dir, FORMAT);
+    store.close();
+    final AnnotationStore cachingStore =
+        AssessmentSpecFormats.openCachingAnnotationStore(dir, FORMAT, 1000);
+    cachingStore.write(answerKeyWithResponses(shared, 1));
+
+    final int writesPerThread = 10;
+    final ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
+    try {
+      final List<Future<Void>> results = Lists.newArrayList();
+      for (int thread = 0; thread < NUM_THREADS; ++thread) {
+        final int threadNum = thread;
+        results.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            final Symbol own = Symbol.from("doc" + threadNum);
+            for (int i = 1; i <= writesPerThread; ++i) {
+              // each thread writes answer keys of its own sizes, so every read can be checked
+              final int numResponses = threadNum * writesPerThread + i;
+              cachingStore.write(answerKeyWithResponses(shared, numResponses));
+              cachingStore.write(answerKeyWithResponses(own, numResponses));
+              final int read = cachingStore.read(shared).allResponses().size();
+              assertTrue(read >= 1 && read <= NUM_THREADS * writesPerThread);
+              assertEquals(numResponses, cachingStore.read(own).allResponses().size());
+            }
+            return null;
+          }
+        }));
+      }
+      for (final Future<Void> result : results) {
+        result.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+    final int finalSize = cachingStore.read(shared).allResponses().size();
+    cachingStore.close();
+
+    // the cache agrees with what was last written to disk
+    final AnnotationStore reopened = AssessmentSpecFormats.openAnnotationStore(dir, FORMAT);
+    assertEquals(finalSize, reopened.read(shared).allResponses().size());
+    reopened.close();
+  }
+
+  private static AnswerKey answerKeyWithResponses(final Symbol docID, final int numResponses) {
+    final CorefAnnotation.Builder coref = CorefAnnotation.strictBuilder(docID);
+    for (int i = 0; i < numResponses; ++i) {
+      coref.corefCAS(KBPEATestUtils.kbpString("cas" + i), i);
+    }
+    return KBPEATestUtils.minimalAnswerKeyFor(coref.build());
+  }
+}
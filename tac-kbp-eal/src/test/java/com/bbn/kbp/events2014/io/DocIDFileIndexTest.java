@@ -0,0 +1,127 @@
+package com.bbn.kbp.events2014.io;
+
+import com.bbn.bue.common.files.FileUtils;
+import com.bbn.bue.common.symbols.Symbol;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.CharSink;
+import com.google.common.io.Files;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DocIDFileIndexTest {
+
+  @Test
+  public void testResolutionAndWrites() throws IOException {
+    final File dir = Files.createTempDir();
+    FileUtils.recursivelyDeleteDirectoryOnExit(dir);
+    Files.touch(new File(dir, "bare"));
+    Files.touch(new File(dir, "suffixed.tab"));
+    Files.touch(new File(dir, "both"));
+    Files.touch(new File(dir, "both.tsv"));
+
+    final DocIDFileIndex index =
+        DocIDFileIndex.forDirectory(dir, ImmutableSet.of("tab", "tsv"));
+    assertEquals(ImmutableSet.of(Symbol.from("bare"), Symbol.from("suffixed.tab"),
+        Symbol.from("both"), Symbol.from("both.tsv")), index.docIDs());
+    assertEquals(new File(dir, "bare"), index.fileFor(Symbol.from("bare")));
+    assertEquals(new File(dir, "suffixed.tab"), index.fileFor(Symbol.from("suffixed")));
+    try {
+      index.fileFor(Symbol.from("both"));
+      fail("Ambiguous doc ID should not resolve");
+    } catch (FileNotFoundException expected) {
+    }
+
+    final Symbol written = Symbol.from("written");
+    assertFalse(index.contains(written));
+    // the index does not look at the directory again, so the store must tell it about writes
+    Files.touch(new File(dir, "written"));
+    assertFalse(index.contains(written));
+    index.recordWrite(written, false);
+    assertTrue(index.contains(written));
+    assertTrue(index.docIDs().contains(written));
+    assertEquals(new File(dir, "written"), index.fileFor(written));
+
+    // rewriting compressed replaces the uncompressed file
+    index.recordWrite(written, true);
+    assertTrue(index.docIDs().contains(written));
+    assertEquals(new File(dir, "written.gz"), index.fileFor(written));
+  }
+
+  @Test
+  public void testCompressedFiles() throws IOException {
+    final File dir = Files.createTempDir();
+    FileUtils.recursivelyDeleteDirectoryOnExit(dir);
+    AtomicFileWriter.forDirectory(dir, true).write("doc", content("some text"));
+    final File compressed = new File(dir, "doc.gz");
+    Files.touch(new File(dir, "other.tab.gz"));
+
+    final DocIDFileIndex index =
+        DocIDFileIndex.forDirectory(dir, ImmutableSet.of("tab", "tsv"));
+    assertEquals(ImmutableSet.of(Symbol.from("doc"), Symbol.from("other.tab")), index.docIDs());
+    assertTrue(index.contains(Symbol.from("doc")));
+    assertEquals(compressed, index.fileFor(Symbol.from("doc")));
+    assertEquals(new File(dir, "other.tab.gz"), index.fileFor(Symbol.from("other")));
+    assertEquals("some text", CompressedFiles.asCharSource(compressed).read());
+
+    // writing uncompressed replaces the compressed file; reading does not depend on the name
+    AtomicFileWriter.forIndexedDirectory(dir, index, false).write("doc", content("plain"));
+    assertFalse(compressed.exists());
+    assertEquals(new File(dir, "doc"), index.fileFor(Symbol.from("doc")));
+    assertEquals("plain", CompressedFiles.asCharSource(new File(dir, "doc")).read());
+  }
+
+  @Test
+  public void testBatchedWrites() throws IOException {
+    final File dir = Files.createTempDir();
+    FileUtils.recursivelyDeleteDirectoryOnExit(dir);
+    final DocIDFileIndex index = DocIDFileIndex.forDirectory(dir, ImmutableSet.<String>of());
+    final AtomicFileWriter writer = AtomicFileWriter.forIndexedDirectory(dir, index, false);
+
+    writer.beginBatch();
+    writer.write("doc", content("first"));
+    writer.write("doc", content("second"));
+    // nothing is visible until the batch is committed, and temporary files are not documents
+    assertFalse(new File(dir, "doc").exists());
+    assertFalse(index.contains(Symbol.from("doc")));
+    assertEquals(ImmutableSet.<Symbol>of(),
+        DocIDFileIndex.forDirectory(dir, ImmutableSet.<String>of()).docIDs());
+
+    assertEquals(ImmutableSet.of("doc"), writer.commitBatch());
+    assertTrue(index.contains(Symbol.from("doc")));
+    assertEquals("second", CompressedFiles.asCharSource(new File(dir, "doc")).read());
+    assertEquals(1, dir.listFiles().length);
+
+    // a failed write leaves the old file alone
+    try {
+      writer.write("doc", new AtomicFileWriter.Content() {
+        @Override
+        public void writeTo(final CharSink sink) throws IOException {
+          throw new IOException("failed");
+        }
+      });
+      fail("Write should have failed");
+    } catch (IOException expected) {
+    }
+    assertEquals("second", CompressedFiles.asCharSource(new File(dir, "doc")).read());
+    assertEquals(1, dir.listFiles().length);
+  }
+
+  private static AtomicFileWriter.Content content(final String text) {
+    return new AtomicFileWriter.Content() {
+      @Override
+      public void writeTo(final CharSink sink) throws IOException {
+        sink.write(text);
+      }
+    };
+  }
+}
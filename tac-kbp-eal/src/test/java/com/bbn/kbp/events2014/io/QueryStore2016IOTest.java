@@ -3,11 +3,13 @@ package com.bbn.kbp.events2014.io;
 import com.bbn.bue.common.symbols.Symbol;
 import com.bbn.kbp.events2014.CharOffsetSpan;
 import com.bbn.kbp.events2014.CorpusQueryAssessments;
+import com.bbn.kbp.events2014.QueryAssessment2016;
 import com.bbn.kbp.events2014.QueryResponse2016;
 
 import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.io.CharSource;
 
 import org.junit.Test;
 
@@ -15,6 +17,7 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -63,6 +66,15 @@ public class QueryStore2016IOTest {
     assertTrue(ImmutableList.copyOf(barStore.queryReponses()).get(0).queryID().equalTo(foo));
   }
 
+  @Test
+  public void trailingTabsTest() throws IOException {
+    // lines are trimmed before they are split, so trailing tabs are ignored
+    final CorpusQueryAssessments store = loader.loadFrom(CharSource.wrap(
+        "foo\tfoo\tfoo\t0-2,3-4\tCORRECT\t\n"
+            + "foo2\tfoo2\tfoo2\t0-2,3-4\tUNASSASSED\t\t\n"));
+    assertEquals(fooStore.queryReponses(), store.queryReponses());
+    assertEquals(QueryAssessment2016.CORRECT, store.assessments().get(fooQuery1));
+  }
 
   @Test(expected = IllegalStateException.class)
   public void emptyPJsTest() {
@@ -0,0 +1,217 @@
+package com.bbn.kbp.events2014.io;
+
+import com.bbn.bue.common.files.FileUtils;
+import com.bbn.bue.common.symbols.Symbol;
+import com.bbn.kbp.events2014.KBPEATestUtils;
+import com.bbn.kbp.events2014.Response;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StoreLockTest {
+
+  @Test
+  public void testLocksWithinProcess() throws IOException {
+    final File dir = Files.createTempDir();
+    FileUtils.recursivelyDeleteDirectoryOnExit(dir);
+
+    final StoreLock first = StoreLock.acquireShared(dir);
+    final StoreLock second = StoreLock.acquireShared(dir);
+    assertTrue(new File(dir, StoreLock.LOCK_FILE_NAME).exists());
+    try {
+      StoreLock.acquireExclusive(dir);
+      fail("Exclusive lock should not be granted while shared locks are held");
+    } catch (IOException expected) {
+    }
+
+    first.close();
+    // closing twice must not release the other holder's lock
+    first.close();
+    try {
+      StoreLock.acquireExclusive(dir);
+      fail("Exclusive lock should not be granted while a shared lock is held");
+    } catch (IOException expected) {
+    }
+    second.close();
+
+    final StoreLock exclusive = StoreLock.acquireExclusive(dir);
+    try {
+      StoreLock.acquireShared(dir);
+      fail("Shared lock should not be granted while an exclusive lock is held");
+    } catch (IOException expected) {
+    }
+    exclusive.close();
+
+    // the lock file stays behind but is not a document
+    Files.touch(new File(dir, "doc"));
+    assertEquals(ImmutableSet.of(Symbol.from("doc")),
+        DocIDFileIndex.forDirectory(dir, ImmutableSet.<String>of()).docIDs());
+  }
+
+  @Test
+  public void testConcurrentBatchedUpdatesLoseNothing() throws Exception {
+    final File dir = Files.createTempDir();
+    FileUtils.recursivelyDeleteDirectoryOnExit(dir);
+    final ImmutableList<Symbol> docIDs =
+        ImmutableList.of(Symbol.from("doc1"), Symbol.from("doc2"), Symbol.from("doc3"));
+    final int numUpdaters = 2;
+    final int roundsPerUpdater = 10;
+
+    // each updater has its own store on the directory, as separate import processes would
+    final ExecutorService executor = Executors.newFixedThreadPool(numUpdaters);
+    try {
+      final List<Future<Void>> results = Lists.newArrayList();
+      for (int updater = 0; updater < numUpdaters; ++updater) {
+        final int updaterNum = updater;
+        results.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            final AnnotationStore store = AssessmentSpecFormats.openOrCreateAnnotationStore(dir,
+                AssessmentSpecFormats.Format.KBP2015);
+            for (int round = 0; round < roundsPerUpdater; ++round) {
+              ((WriteBatchingStore) store).beginWriteBatch();
+              for (final Symbol docID : docIDs) {
+                final Response added = new KBPEATestUtils.DummyResponseGenerator().responseFor(
+                    KBPEATestUtils.dummyTRFR(docID,
+                        KBPEATestUtils.kbpString("updater" + updaterNum + "round" + round)));
+                store.write(store.readOrEmpty(docID)
+                    .copyAddingPossiblyUnannotated(ImmutableList.of(added)));
+              }
+              ((WriteBatchingStore) store).commitWriteBatch();
+            }
+            store.close();
+            return null;
+          }
+        }));
+      }
+      for (final Future<Void> result : results) {
+        result.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    final AnnotationStore store =
+        AssessmentSpecFormats.openAnnotationStore(dir, AssessmentSpecFormats.Format.KBP2015);
+    for (final Symbol docID : docIDs) {
+      assertEquals(numUpdaters * roundsPerUpdater, store.read(docID).allResponses().size());
+    }
+    store.close();
+  }
+
+  @Test
+  public void testReadOnlyStore() throws IOException {
+    final File dir = Files.createTempDir();
+    FileUtils.recursivelyDeleteDirectoryOnExit(dir);
+    final File withLockFile = new File(dir, "withLockFile");
+    final File withoutLockFile = new File(dir, "withoutLockFile");
+    withLockFile.mkdir();
+    withoutLockFile.mkdir();
+    StoreLock.acquireShared(withLockFile).close();
+    final File lockFile = new File(withLockFile, StoreLock.LOCK_FILE_NAME);
+    lockFile.setWritable(false, false);
+    withLockFile.setWritable(false, false);
+    withoutLockFile.setWritable(false, false);
+    try {
+      // e.g. when running as root, nothing is really read-only
+      Assume.assumeFalse(java.nio.file.Files.isWritable(lockFile.toPath())
+          || java.nio.file.Files.isWritable(withoutLockFile.toPath()));
+
+      StoreLock.acquireShared(withLockFile).close();
+      StoreLock.acquireExclusive(withLockFile).close();
+      StoreLock.acquireShared(withoutLockFile).close();
+      StoreLock.acquireUpdateLock(withoutLockFile).close();
+      assertFalse(new File(withoutLockFile, StoreLock.LOCK_FILE_NAME).exists());
+    } finally {
+      withLockFile.setWritable(true, false);
+      withoutLockFile.setWritable(true, false);
+      lockFile.setWritable(true, false);
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testWaitingForAnotherProcessBlocksOnlyThatStore() throws Exception {
+    final File dir = Files.createTempDir();
+    FileUtils.recursivelyDeleteDirectoryOnExit(dir);
+    final File heldElsewhere = new File(dir, "heldElsewhere");
+    final File other = new File(dir, "other");
+    heldElsewhere.mkdir();
+    other.mkdir();
+
+    final Process holder = new ProcessBuilder(
+        new File(new File(System.getProperty("java.home"), "bin"), "java").getPath(),
+        "-cp", System.getProperty("java.class.path"), HoldExclusiveLock.class.getName(),
+        heldElsewhere.getPath())
+        .redirectErrorStream(true).start();
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      final BufferedReader holderOutput =
+          new BufferedReader(new InputStreamReader(holder.getInputStream(), Charsets.UTF_8));
+      String line;
+      while ((line = holderOutput.readLine()) != null && !line.equals(HoldExclusiveLock.LOCKED)) {
+      }
+      assertEquals(HoldExclusiveLock.LOCKED, line);
+
+      final Future<StoreLock> waiting = executor.submit(new Callable<StoreLock>() {
+        @Override
+        public StoreLock call() throws IOException {
+          return StoreLock.acquireShared(heldElsewhere);
+        }
+      });
+      try {
+        waiting.get(200, TimeUnit.MILLISECONDS);
+        fail("Lock held exclusively by another process should not be granted");
+      } catch (TimeoutException expected) {
+      }
+      // while that waits, other stores can still be locked and released
+      StoreLock.acquireShared(other).close();
+      StoreLock.acquireExclusive(other).close();
+
+      holder.getOutputStream().close();
+      waiting.get(30, TimeUnit.SECONDS).close();
+    } finally {
+      holder.destroy();
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Run in a separate process to hold a store's lock exclusively until its input is closed.
+   */
+  public static final class HoldExclusiveLock {
+
+    static final String LOCKED = "locked";
+
+    public static void main(final String[] argv) throws IOException {
+      final StoreLock lock = StoreLock.acquireExclusive(new File(argv[0]));
+      System.out.println(LOCKED);
+      System.out.flush();
+      while (System.in.read() >= 0) {
+      }
+      lock.close();
+    }
+  }
+}
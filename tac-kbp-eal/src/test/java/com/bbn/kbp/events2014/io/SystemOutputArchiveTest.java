@@ -0,0 +1,120 @@
+package com.bbn.kbp.events2014.io;
+
+import com.bbn.bue.common.files.FileUtils;
+import com.bbn.bue.common.symbols.Symbol;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class SystemOutputArchiveTest {
+
+  @Test
+  public void testAppendingAndReopening() throws IOException {
+    final File dir = Files.createTempDir();
+    FileUtils.recursivelyDeleteDirectoryOnExit(dir);
+    final File archiveFile = new File(dir, "SYS.archive");
+
+    final SystemOutputArchive created =
+        SystemOutputArchive.openOrCreate(archiveFile, Symbol.from("SYS"), true);
+    created.write("arguments/a", bytes("first"));
+    created.write("arguments/b", bytes("second"));
+    created.write("arguments/a", bytes("replaced"));
+    assertArrayEquals(bytes("replaced"), created.entry("arguments/a").get().read());
+    created.close();
+
+    final SystemOutputArchive appended =
+        SystemOutputArchive.openOrCreate(archiveFile, Symbol.from("ignored"), false);
+    assertEquals(Symbol.from("SYS"), appended.systemID());
+    appended.write("linking/a", bytes("uncompressed"));
+    appended.close();
+
+    final SystemOutputArchive reopened = SystemOutputArchive.open(archiveFile);
+    assertEquals(ImmutableList.of("arguments/b", "arguments/a", "linking/a"),
+        reopened.entryNames());
+    assertEquals(ImmutableSet.of("a", "b"), reopened.entryNamesIn("arguments"));
+    assertArrayEquals(bytes("replaced"), reopened.entry("arguments/a").get().read());
+    assertArrayEquals(bytes("second"), reopened.entry("arguments/b").get().read());
+    assertArrayEquals(bytes("uncompressed"), reopened.entry("linking/a").get().read());
+    assertFalse(reopened.entry("linking/b").isPresent());
+    reopened.close();
+  }
+
+  @Test
+  public void testUnclosedAppendKeepsOldIndex() throws IOException {
+    final File dir = Files.createTempDir();
+    FileUtils.recursivelyDeleteDirectoryOnExit(dir);
+    final File archiveFile = new File(dir, "SYS.archive");
+
+    final SystemOutputArchive created =
+        SystemOutputArchive.openOrCreate(archiveFile, Symbol.from("SYS"), true);
+    created.write("arguments/a", bytes("first"));
+    created.close();
+
+    // simulates a writer which dies before closing
+    final SystemOutputArchive appending =
+        SystemOutputArchive.openOrCreate(archiveFile, Symbol.from("SYS"), false);
+    appending.write("arguments/a", bytes("replaced"));
+    appending.write("arguments/b", bytes("second"));
+
+    final SystemOutputArchive beforeClose = SystemOutputArchive.open(archiveFile);
+    assertEquals(ImmutableList.of("arguments/a"), beforeClose.entryNames());
+    assertArrayEquals(bytes("first"), beforeClose.entry("arguments/a").get().read());
+    beforeClose.close();
+    assertEquals(true, SystemOutputArchive.isArchive(archiveFile));
+
+    appending.close();
+    final SystemOutputArchive afterClose = SystemOutputArchive.open(archiveFile);
+    assertEquals(ImmutableList.of("arguments/a", "arguments/b"), afterClose.entryNames());
+    assertArrayEquals(bytes("replaced"), afterClose.entry("arguments/a").get().read());
+    assertArrayEquals(bytes("second"), afterClose.entry("arguments/b").get().read());
+    afterClose.close();
+  }
+
+  @Test
+  public void testPackAndUnpack() throws IOException {
+    final File tmp = Files.createTempDir();
+    FileUtils.recursivelyDeleteDirectoryOnExit(tmp);
+    final File storeDir = new File(tmp, "SYS");
+    write(new File(storeDir, "arguments/doc1"), "");
+    write(new File(storeDir, "linking/doc1"), "");
+    write(new File(storeDir, "corpusLinking/corpusLinking"), "");
+
+    final File archiveFile = new File(tmp, "packed");
+    SystemOutputStore2016.packDirectory(storeDir, archiveFile, true);
+    assertEquals(true, SystemOutputArchive.isArchive(archiveFile));
+
+    final SystemOutputStore2016 store = SystemOutputStore2016.open(archiveFile);
+    assertEquals(Symbol.from("SYS"), store.systemID());
+    assertEquals(ImmutableSet.of(Symbol.from("doc1")), store.docIDs());
+    assertEquals(0, store.readCorpusEventFrames().corpusEventFrames().size());
+    store.close();
+
+    final File unpacked = new File(tmp, "unpacked");
+    SystemOutputStore2016.unpackArchive(archiveFile, unpacked);
+    for (final String name : ImmutableList.of("arguments/doc1", "linking/doc1",
+        "corpusLinking/corpusLinking")) {
+      assertArrayEquals(Files.toByteArray(new File(storeDir, name)),
+          Files.toByteArray(new File(unpacked, name)));
+    }
+  }
+
+  private static byte[] bytes(final String s) {
+    return s.getBytes(Charsets.UTF_8);
+  }
+
+  private static void write(final File f, final String content) throws IOException {
+    f.getParentFile().mkdirs();
+    Files.asCharSink(f, Charsets.UTF_8).write(content);
+  }
+}
@@ -0,0 +1,51 @@
+package com.bbn.kbp.events2014.io;
+
+import com.bbn.bue.common.files.FileUtils;
+import com.bbn.bue.common.symbols.Symbol;
+import com.bbn.kbp.events2014.CorpusEventFrame;
+import com.bbn.kbp.events2014.CorpusEventLinking;
+import com.bbn.kbp.events2014.DocEventFrameReference;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class SystemOutputStore2016Test {
+
+  @Test
+  public void testCorpusEventFramesReadOnceUntilWritten() throws IOException {
+    final File dir = Files.createTempDir();
+    FileUtils.recursivelyDeleteDirectoryOnExit(dir);
+    final File storeDir = new File(dir, "SYS");
+    final CorpusEventLinking first = CorpusEventLinking.of(ImmutableList.of(
+        CorpusEventFrame.of("1", ImmutableList.of(
+            DocEventFrameReference.of(Symbol.from("doc1"), "a"),
+            DocEventFrameReference.of(Symbol.from("doc2"), "b")))));
+    final CorpusEventLinking second = CorpusEventLinking.of(ImmutableList.of(
+        CorpusEventFrame.of("2", ImmutableList.of(
+            DocEventFrameReference.of(Symbol.from("doc1"), "c")))));
+
+    final SystemOutputStore2016 store = SystemOutputStore2016.openOrCreate(storeDir);
+    store.writeCorpusEventFrames(first);
+    final CorpusEventLinking read = store.readCorpusEventFrames();
+    assertEquals(first, read);
+    assertSame(read, store.readCorpusEventFrames());
+
+    // the file is not parsed again, so changes made behind the store's back are not seen
+    Files.write("", new File(storeDir, "corpusLinking/corpusLinking"), Charsets.UTF_8);
+    assertSame(read, store.readCorpusEventFrames());
+
+    // but writing through the store replaces what it has cached
+    store.writeCorpusEventFrames(second);
+    assertEquals(second, store.readCorpusEventFrames());
+    store.close();
+  }
+}
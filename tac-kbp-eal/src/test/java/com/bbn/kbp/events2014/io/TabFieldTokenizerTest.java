@@ -0,0 +1,111 @@
+package com.bbn.kbp.events2014.io;
+
+import com.bbn.kbp.events2014.CharOffsetSpan;
+import com.bbn.kbp.events2014.TACKBPEALException;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TabFieldTokenizerTest {
+
+  @Test
+  public void testLinesAndFields() throws IOException {
+    final TabFieldTokenizer tokens = TabFieldTokenizer.trimmingFields(
+        new StringReader("a\t 12 \t3-45\r\n\r# comment\nx\t\t 1-2, 3-4 ,"));
+
+    assertTrue(tokens.advance());
+    assertEquals(1, tokens.lineNumber());
+    assertEquals("a\t 12 \t3-45", tokens.line());
+    assertEquals(3, tokens.numFields());
+    assertEquals("a", tokens.field(0));
+    assertEquals(12, tokens.intField(1));
+    assertEquals(CharOffsetSpan.fromOffsetsOnly(3, 45), tokens.spanField(2));
+
+    assertTrue(tokens.advance());
+    assertTrue(tokens.lineIsEmpty());
+
+    assertTrue(tokens.advance());
+    assertTrue(tokens.lineStartsWith('#'));
+
+    assertTrue(tokens.advance());
+    assertEquals(4, tokens.lineNumber());
+    assertEquals(ImmutableList.of("x", "", "1-2, 3-4 ,"), tokens.fields(0));
+    assertTrue(tokens.fieldEquals(1, ""));
+    final ImmutableSet.Builder<CharOffsetSpan> spans = ImmutableSet.builder();
+    tokens.addSpansInField(2, spans);
+    assertEquals(ImmutableSet.of(CharOffsetSpan.fromOffsetsOnly(1, 2),
+        CharOffsetSpan.fromOffsetsOnly(3, 4)), spans.build());
+
+    assertFalse(tokens.advance());
+  }
+
+  @Test
+  public void testSplittingMatchesString() throws IOException {
+    final ImmutableList<String> lines = ImmutableList.of("a\tb\tc", "a\tb\t", "a\t\t", "\ta\tb",
+        "a\t\tb", "", "\t", "\t\t", " a \t b ", "a\t \t", " \ta\tb\t ", "a");
+    for (final String line : lines) {
+      final TabFieldTokenizer split =
+          TabFieldTokenizer.splittingLikeString(new StringReader(line + "\n"));
+      assertTrue(split.advance());
+      assertEquals(line, Arrays.asList(line.split("\t")), split.fields(0));
+      assertEquals(line, split.line());
+
+      final TabFieldTokenizer trimmedSplit =
+          TabFieldTokenizer.trimmingLinesAndSplittingLikeString(new StringReader(line + "\n"));
+      assertTrue(trimmedSplit.advance());
+      assertEquals(line, Arrays.asList(line.trim().split("\t")), trimmedSplit.fields(0));
+      assertEquals(line, trimmedSplit.line());
+    }
+  }
+
+  @Test
+  public void testLinesLongerThanBuffer() throws IOException {
+    final StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 5000; ++i) {
+      sb.append(i).append('\t');
+    }
+    sb.append("end\n");
+    final String line = sb.toString();
+    final TabFieldTokenizer tokens =
+        TabFieldTokenizer.trimmingAndOmittingEmptyFields(new StringReader(line + line));
+    for (int lineNo = 0; lineNo < 2; ++lineNo) {
+      assertTrue(tokens.advance());
+      assertEquals(5001, tokens.numFields());
+      assertEquals(4999, tokens.intField(4999));
+      assertEquals("end", tokens.field(5000));
+    }
+    assertFalse(tokens.advance());
+  }
+
+  @Test
+  public void testParsingMatchesJDK() {
+    for (final String s : ImmutableList.of("0", "-17", "+17", "2147483647", "-2147483648")) {
+      assertEquals(Integer.parseInt(s), TabFieldTokenizer.parseInt(s, 0, s.length()));
+    }
+    for (final String s : ImmutableList.of("", "-", "+", "2147483648", "-2147483649", "1a", " 1")) {
+      try {
+        TabFieldTokenizer.parseInt(s, 0, s.length());
+        fail("Should not parse " + s);
+      } catch (NumberFormatException expected) {
+      }
+    }
+    for (final String s : ImmutableList.of("1", "1-", "-1", "1-2-3")) {
+      try {
+        TabFieldTokenizer.parseSpan(s, 0, s.length());
+        fail("Should not parse span " + s);
+      } catch (TACKBPEALException expected) {
+      }
+    }
+  }
+}
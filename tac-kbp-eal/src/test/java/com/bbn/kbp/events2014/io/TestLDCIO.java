@@ -14,6 +14,7 @@ import com.bbn.kbp.events2014.KBPString;
 import com.bbn.kbp.events2014.Response;
 import com.bbn.kbp.events2014.ResponseAssessment;
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
 import com.google.common.base.Predicates;
 import com.google.common.collect.ImmutableList;
@@ -123,6 +124,38 @@ public class TestLDCIO extends TestCase {
     assertEquals(annArg, Iterables.getFirst(rereadArg.annotatedResponses(), null));
   }
 
+  @Test
+  public void testAnnotationTrailingTabs() throws IOException {
+    final File tmpDir = Files.createTempDir();
+    tmpDir.deleteOnExit();
+
+    final AnnotationStore store1 =
+        AssessmentSpecFormats.createAnnotationStore(tmpDir, AssessmentSpecFormats.Format.KBP2015);
+    final CorefAnnotation coref = CorefAnnotation.strictBuilder(docid)
+        .corefCAS(annArg.response().canonicalArgument(), 1).build();
+    store1.write(
+        AnswerKey.from(docid, ImmutableList.of(annArg), ImmutableList.<Response>of(), coref));
+    store1.close();
+
+    // as when the file was read with String.split, trailing empty columns are ignored
+    final File docFile = new File(tmpDir, docid.asString());
+    final StringBuilder withTrailingTabs = new StringBuilder();
+    for (final String line : Files.readLines(docFile, Charsets.UTF_8)) {
+      withTrailingTabs.append(line);
+      if (!line.isEmpty() && !line.startsWith("#")) {
+        withTrailingTabs.append("\t\t");
+      }
+      withTrailingTabs.append("\n");
+    }
+    Files.write(withTrailingTabs.toString(), docFile, Charsets.UTF_8);
+
+    final AnnotationStore store2 =
+        AssessmentSpecFormats.openAnnotationStore(tmpDir, AssessmentSpecFormats.Format.KBP2015);
+    final AnswerKey rereadArg = store2.read(docid);
+    store2.close();
+    assertEquals(ImmutableSet.of(annArg), ImmutableSet.copyOf(rereadArg.annotatedResponses()));
+  }
+
     /*@Ignore("temporarily ignored until we can update the file")
     @Test
     public void existing() throws IOException {